@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.executor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.glowroot.microbenchmarks.support.TransactionWorthy;
+
+// measures the per task overhead of propagating the transaction to many tiny tasks, compare runs
+// with and without -Dglowroot.transaction.aux.thread.context.lazy=true (passed via -jvmArgs along
+// with -javaagent)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ExecutorBenchmark extends TransactionWorthy {
+
+    private static final int TASKS_PER_TRANSACTION = 10000;
+
+    @Param
+    private TaskType taskType;
+
+    private ForkJoinPool forkJoinPool;
+
+    @Setup
+    public void setup() {
+        forkJoinPool = new ForkJoinPool();
+    }
+
+    @TearDown
+    public void tearDown() {
+        forkJoinPool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS_PER_TRANSACTION)
+    public void execute() throws Exception {
+        doSomethingTransactionWorthy();
+    }
+
+    @Override
+    public void doSomethingTransactionWorthy() {
+        switch (taskType) {
+            case FORK_JOIN_TASK:
+                ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[TASKS_PER_TRANSACTION];
+                for (int i = 0; i < TASKS_PER_TRANSACTION; i++) {
+                    tasks[i] = forkJoinPool.submit(new TinyAction());
+                }
+                for (ForkJoinTask<?> task : tasks) {
+                    task.join();
+                }
+                break;
+            case COMPLETABLE_FUTURE:
+                CompletableFuture<?>[] futures = new CompletableFuture<?>[TASKS_PER_TRANSACTION];
+                for (int i = 0; i < TASKS_PER_TRANSACTION; i++) {
+                    futures[i] = CompletableFuture.supplyAsync(() -> 1, forkJoinPool)
+                            .thenApplyAsync(value -> value + 1, forkJoinPool);
+                }
+                CompletableFuture.allOf(futures).join();
+                break;
+        }
+    }
+
+    public enum TaskType {
+        FORK_JOIN_TASK, COMPLETABLE_FUTURE
+    }
+
+    @SuppressWarnings("serial")
+    private static class TinyAction extends RecursiveAction {
+        @Override
+        protected void compute() {}
+    }
+}
@@ -37,6 +37,9 @@ import org.openjdk.jmh.annotations.TearDown;
 import org.glowroot.agent.plugin.jdbc.support.MockConnection;
 import org.glowroot.microbenchmarks.support.TransactionWorthy;
 
+// MOCK_LIGHTWEIGHT compares the overhead of lightweight ResultSet navigation against MOCK, and
+// requires the jdbc plugin property lightweightResultSetNavigateClasses to be configured with
+// "org.glowroot.agent.plugin.jdbc.support.LightweightMockResultSet"
 @BenchmarkMode(Mode.AverageTime)
 @OutputTimeUnit(TimeUnit.NANOSECONDS)
 @State(Scope.Thread)
@@ -66,6 +69,9 @@ public class ResultSetBenchmark extends TransactionWorthy {
             case MOCK:
                 connection = new MockConnection();
                 break;
+            case MOCK_LIGHTWEIGHT:
+                connection = new MockConnection(true);
+                break;
         }
         preparedStatement = connection.prepareStatement("select * from mock");
     }
@@ -92,6 +98,6 @@ public class ResultSetBenchmark extends TransactionWorthy {
     }
 
     public enum Database {
-        HSQLDB, MOCK
+        HSQLDB, MOCK, MOCK_LIGHTWEIGHT
     }
 }
@@ -36,6 +36,16 @@ import java.util.concurrent.Executor;
 
 public class MockConnection implements Connection {
 
+    private final boolean lightweightResultSets;
+
+    public MockConnection() {
+        this(false);
+    }
+
+    public MockConnection(boolean lightweightResultSets) {
+        this.lightweightResultSets = lightweightResultSets;
+    }
+
     @Override
     public <T> T unwrap(Class<T> iface) throws SQLException {
         return null;
@@ -53,7 +63,7 @@ public class MockConnection implements Connection {
 
     @Override
     public PreparedStatement prepareStatement(String sql) throws SQLException {
-        return new MockPreparedStatement();
+        return new MockPreparedStatement(lightweightResultSets);
     }
 
     @Override
@@ -134,7 +144,7 @@ public class MockConnection implements Connection {
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType,
             int resultSetConcurrency) throws SQLException {
-        return new MockPreparedStatement();
+        return new MockPreparedStatement(lightweightResultSets);
     }
 
     @Override
@@ -184,7 +194,7 @@ public class MockConnection implements Connection {
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType,
             int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-        return new MockPreparedStatement();
+        return new MockPreparedStatement(lightweightResultSets);
     }
 
     @Override
@@ -196,18 +206,18 @@ public class MockConnection implements Connection {
     @Override
     public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys)
             throws SQLException {
-        return new MockPreparedStatement();
+        return new MockPreparedStatement(lightweightResultSets);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
-        return new MockPreparedStatement();
+        return new MockPreparedStatement(lightweightResultSets);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, String[] columnNames)
             throws SQLException {
-        return new MockPreparedStatement();
+        return new MockPreparedStatement(lightweightResultSets);
     }
 
     @Override
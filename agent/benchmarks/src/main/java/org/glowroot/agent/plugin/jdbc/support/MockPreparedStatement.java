@@ -40,9 +40,19 @@ import java.util.Calendar;
 
 public class MockPreparedStatement implements PreparedStatement {
 
+    private final boolean lightweightResultSets;
+
+    public MockPreparedStatement() {
+        this(false);
+    }
+
+    public MockPreparedStatement(boolean lightweightResultSets) {
+        this.lightweightResultSets = lightweightResultSets;
+    }
+
     @Override
     public ResultSet executeQuery(String sql) throws SQLException {
-        return new MockResultSet();
+        return newResultSet();
     }
 
     @Override
@@ -101,7 +111,7 @@ public class MockPreparedStatement implements PreparedStatement {
 
     @Override
     public ResultSet getResultSet() throws SQLException {
-        return new MockResultSet();
+        return newResultSet();
     }
 
     @Override
@@ -163,7 +173,7 @@ public class MockPreparedStatement implements PreparedStatement {
 
     @Override
     public ResultSet getGeneratedKeys() throws SQLException {
-        return new MockResultSet();
+        return newResultSet();
     }
 
     @Override
@@ -226,7 +236,7 @@ public class MockPreparedStatement implements PreparedStatement {
 
     @Override
     public ResultSet executeQuery() throws SQLException {
-        return new MockResultSet();
+        return newResultSet();
     }
 
     @Override
@@ -415,4 +425,8 @@ public class MockPreparedStatement implements PreparedStatement {
     public boolean isCloseOnCompletion() throws SQLException {
         return false;
     }
+
+    private ResultSet newResultSet() {
+        return lightweightResultSets ? new LightweightMockResultSet() : new MockResultSet();
+    }
 }
@@ -51,7 +51,8 @@ public class MockResultSet implements ResultSet {
 
     @Override
     public boolean next() throws SQLException {
-        return false;
+        // unlimited rows
+        return true;
     }
 
     @Override
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.kafka;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.TimestampType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+// measures the overhead of consumer transactions per poll batch, MockConsumer is used as an
+// in-process stand-in for the broker
+//
+// compare runs with the kafka plugin's captureConsumerTransactions, consumerTransactionPerRecord
+// and consumerRecordTransactionSampleInterval properties set in the agent's config.json
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class KafkaConsumerBenchmark {
+
+    private static final String TOPIC = "benchmark";
+
+    @Param({"1", "100", "1000"})
+    private int recordsPerPoll;
+
+    private MockConsumer<Long, String> consumer;
+    private TopicPartition partition;
+    private long offset;
+
+    @Setup
+    public void setup() {
+        consumer = new MockConsumer<Long, String>(OffsetResetStrategy.EARLIEST);
+        partition = new TopicPartition(TOPIC, 0);
+        consumer.assign(Collections.singletonList(partition));
+        consumer.updateBeginningOffsets(Collections.singletonMap(partition, 0L));
+    }
+
+    @TearDown
+    public void tearDown() {
+        consumer.close();
+    }
+
+    @Benchmark
+    public void poll(Blackhole blackhole) {
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < recordsPerPoll; i++) {
+            consumer.addRecord(new ConsumerRecord<Long, String>(TOPIC, 0, offset, timestamp,
+                    TimestampType.CREATE_TIME, 0, 8, 7, offset, "message"));
+            offset++;
+        }
+        // this also ends the transaction for the prior poll
+        ConsumerRecords<Long, String> records = consumer.poll(0);
+        for (ConsumerRecord<Long, String> record : records) {
+            blackhole.consume(record.value());
+        }
+    }
+}
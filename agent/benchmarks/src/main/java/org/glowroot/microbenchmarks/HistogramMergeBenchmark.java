@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.glowroot.common.model.HistogramMerger;
+import org.glowroot.common.model.LazyHistogram;
+import org.glowroot.common.model.LazyHistogram.ScratchBuffer;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+// compares the central histogram rollup merge, one histogram at a time through LazyHistogram vs
+// bulk through HistogramMerger
+//
+// this benchmark does not need to be run with the glowroot agent
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class HistogramMergeBenchmark {
+
+    @Param({"10", "100", "500"})
+    private int childCount;
+
+    @Param({"5", "100", "5000"})
+    private int valuesPerChild;
+
+    private List<Aggregate.Histogram> histograms;
+
+    private ScratchBuffer scratchBuffer;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        scratchBuffer = new ScratchBuffer();
+        histograms = new ArrayList<Aggregate.Histogram>();
+        for (int i = 0; i < childCount; i++) {
+            LazyHistogram histogram = new LazyHistogram();
+            for (int j = 0; j < valuesPerChild; j++) {
+                // log-normal-ish distribution of nanosecond durations
+                histogram.add((long) (1000000 * Math.exp(random.nextGaussian())));
+            }
+            histograms.add(histogram.toProto(scratchBuffer));
+        }
+    }
+
+    @Benchmark
+    public Aggregate.Histogram lazyHistogram() {
+        LazyHistogram merged = new LazyHistogram();
+        for (Aggregate.Histogram histogram : histograms) {
+            merged.merge(histogram);
+        }
+        return merged.toProto(scratchBuffer);
+    }
+
+    @Benchmark
+    public Aggregate.Histogram histogramMerger() {
+        HistogramMerger merged = new HistogramMerger();
+        for (Aggregate.Histogram histogram : histograms) {
+            merged.merge(histogram);
+        }
+        return merged.toProto(scratchBuffer);
+    }
+}
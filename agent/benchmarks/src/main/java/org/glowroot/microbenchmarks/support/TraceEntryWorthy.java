@@ -15,13 +15,21 @@
  */
 package org.glowroot.microbenchmarks.support;
 
+import java.util.List;
+
 public class TraceEntryWorthy {
 
     public void doSomethingTraceEntryWorthy() {}
 
     public void doSomethingTraceEntryWorthy2() {}
 
+    public void doSomethingTraceEntryWorthy3(@SuppressWarnings("unused") List<String> list) {}
+
     public String getName() {
         return "the name";
     }
+
+    public int getCount() {
+        return 3;
+    }
 }
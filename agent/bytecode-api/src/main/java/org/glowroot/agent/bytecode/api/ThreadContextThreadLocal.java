@@ -29,6 +29,10 @@ import org.checkerframework.checker.nullness.qual.Nullable;
  */
 // NOTE this is same as org.glowroot.agent.plugin.api.util.FastThreadLocal, but not genericized in
 // order to help with stack frame maps
+//
+// NOTE thread locals of virtual threads are stored per virtual thread (not per carrier thread), so
+// the thread context stays with the virtual thread when it is unmounted and later mounted on a
+// different carrier thread
 public class ThreadContextThreadLocal {
 
     @SuppressWarnings("nullness:type.argument.type.incompatible")
@@ -418,6 +418,9 @@ public class CentralCollector implements Collector {
             for (String fullTextSha1 : fullTextSha1s) {
                 sharedQueryTextLimiter.onSuccessfullySentToCentralCollector(fullTextSha1);
             }
+            for (String fullTextSha1 : response.getPersistedFullTextSha1List()) {
+                sharedQueryTextLimiter.onAlreadyPersistedInCentralCollector(fullTextSha1);
+            }
         }
 
         private class AggregateVisitorImpl implements AggregateVisitor {
@@ -39,11 +39,22 @@ class SharedQueryTextLimiter {
             .maximumSize(10000)
             .build();
 
+    // full text sha1s that the central collector reported it already had persisted when they were
+    // (re-)sent, these are tracked separately so that they are not evicted by churn in
+    // sentInThePastDay (which is dominated by full texts that are only ever sent once)
+    //
+    // the central collector (re-)writes its per-agent check record every time a full text is
+    // received, so the same past day bound still applies here
+    private final Cache<String, Boolean> persistedInThePastDay = CacheBuilder.newBuilder()
+            .expireAfterWrite(1, DAYS)
+            .maximumSize(50000)
+            .build();
+
     Aggregate.SharedQueryText buildAggregateSharedQueryText(String fullText,
             List<String> fullTextSha1s) {
         if (fullText.length() > Constants.AGGREGATE_QUERY_TEXT_TRUNCATE) {
             String fullTextSha1 = Hashing.sha1().hashString(fullText, UTF_8).toString();
-            if (sentInThePastDay.getIfPresent(fullTextSha1) == null) {
+            if (!sentOrPersistedInThePastDay(fullTextSha1)) {
                 // need to send full text
                 fullTextSha1s.add(fullTextSha1);
                 return Aggregate.SharedQueryText.newBuilder()
@@ -67,7 +78,7 @@ class SharedQueryTextLimiter {
     Trace.SharedQueryText buildTraceSharedQueryText(String fullText, List<String> fullTextSha1s) {
         if (fullText.length() > 2 * Constants.TRACE_QUERY_TEXT_TRUNCATE) {
             String fullTextSha1 = Hashing.sha1().hashString(fullText, UTF_8).toString();
-            if (sentInThePastDay.getIfPresent(fullTextSha1) == null) {
+            if (!sentOrPersistedInThePastDay(fullTextSha1)) {
                 fullTextSha1s.add(fullTextSha1);
                 // need to send full text
                 return Trace.SharedQueryText.newBuilder()
@@ -103,7 +114,7 @@ class SharedQueryTextLimiter {
             if (fullText.length() > 2 * Constants.TRACE_QUERY_TEXT_TRUNCATE) {
                 String fullTextSha1 =
                         Hashing.sha1().hashString(fullText, UTF_8).toString();
-                if (sentInThePastDay.getIfPresent(fullTextSha1) == null) {
+                if (!sentOrPersistedInThePastDay(fullTextSha1)) {
                     // need to send full text
                     updatedSharedQueryTexts.add(sharedQueryText);
                 } else {
@@ -127,4 +138,13 @@ class SharedQueryTextLimiter {
     void onSuccessfullySentToCentralCollector(String fullTextSha1) {
         sentInThePastDay.put(fullTextSha1, true);
     }
+
+    void onAlreadyPersistedInCentralCollector(String fullTextSha1) {
+        persistedInThePastDay.put(fullTextSha1, true);
+    }
+
+    private boolean sentOrPersistedInThePastDay(String fullTextSha1) {
+        return sentInThePastDay.getIfPresent(fullTextSha1) != null
+                || persistedInThePastDay.getIfPresent(fullTextSha1) != null;
+    }
 }
@@ -20,6 +20,7 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.glowroot.agent.bytecode.api.ThreadContextPlus;
 import org.glowroot.agent.bytecode.api.ThreadContextThreadLocal;
 import org.glowroot.agent.plugin.api.AuxThreadContext;
 import org.glowroot.agent.plugin.api.ThreadContext.ServletRequestInfo;
@@ -35,6 +36,12 @@ class AuxThreadContextImpl implements AuxThreadContext {
 
     private static final Logger logger = LoggerFactory.getLogger(AuxThreadContextImpl.class);
 
+    // when enabled, the full auxiliary thread context (which counts against the transaction's
+    // auxiliary thread context limit) is only created once the task starts a timer or trace entry,
+    // which avoids the overhead (and the limit) for the many tiny tasks submitted by reactive code
+    private static final boolean LAZY_AUX_THREAD_CONTEXTS =
+            Boolean.getBoolean("glowroot.transaction.aux.thread.context.lazy");
+
     static final ThreadLocal</*@Nullable*/ Boolean> inAuxDebugLogging =
             new ThreadLocal</*@Nullable*/ Boolean>();
 
@@ -88,19 +95,42 @@ class AuxThreadContextImpl implements AuxThreadContext {
     private TraceEntry start(boolean completeAsyncTransaction) {
         ThreadContextThreadLocal.Holder threadContextHolder =
                 transactionRegistry.getCurrentThreadContextHolder();
-        ThreadContextImpl context = (ThreadContextImpl) threadContextHolder.get();
+        ThreadContextPlus context = threadContextHolder.get();
         if (context != null) {
             if (completeAsyncTransaction) {
                 context.setTransactionAsyncComplete();
             }
             return NopTransactionService.TRACE_ENTRY;
         }
-        context = transactionService.startAuxThreadContextInternal(transaction, parentTraceEntry,
-                parentThreadContextPriorEntry, servletRequestInfo, threadContextHolder);
-        if (context == null) {
+        if (LAZY_AUX_THREAD_CONTEXTS && !completeAsyncTransaction) {
+            LazyAuxThreadContextImpl lazyContext = new LazyAuxThreadContextImpl(this,
+                    servletRequestInfo, transactionService.readTick(), threadContextHolder);
+            threadContextHolder.set(lazyContext);
+            return lazyContext.getRootEntry();
+        }
+        ThreadContextImpl threadContext = startThreadContext(transactionService.readTick(),
+                servletRequestInfo, threadContextHolder);
+        if (threadContext == null) {
             // transaction is already complete or auxiliary thread context limit exceeded
             return NopTransactionService.TRACE_ENTRY;
         }
+        if (completeAsyncTransaction) {
+            threadContext.setTransactionAsyncComplete();
+        }
+        return threadContext.getRootEntry();
+    }
+
+    // the returned thread context is set in the thread context holder
+    @Nullable
+    ThreadContextImpl startThreadContext(long startTick,
+            @Nullable ServletRequestInfo servletRequestInfo,
+            ThreadContextThreadLocal.Holder threadContextHolder) {
+        ThreadContextImpl context = transactionService.startAuxThreadContextInternal(transaction,
+                parentTraceEntry, parentThreadContextPriorEntry, servletRequestInfo, startTick,
+                threadContextHolder);
+        if (context == null) {
+            return null;
+        }
         if (logger.isDebugEnabled()
                 && !Thread.currentThread().getName().startsWith("Glowroot-GRPC-")
                 && inAuxDebugLogging.get() == null) {
@@ -114,14 +144,14 @@ class AuxThreadContextImpl implements AuxThreadContext {
                 inAuxDebugLogging.remove();
             }
         }
-        if (completeAsyncTransaction) {
-            context.setTransactionAsyncComplete();
-        }
-        TraceEntryImpl rootEntry = context.getRootEntry();
         if (locationStackTrace != null) {
-            rootEntry.setLocationStackTrace(locationStackTrace);
+            context.getRootEntry().setLocationStackTrace(locationStackTrace);
         }
-        return rootEntry;
+        return context;
+    }
+
+    Transaction getTransaction() {
+        return transaction;
     }
 
     private static Object getThreadContextDisplay(@Nullable TraceEntryImpl parentTraceEntry) {
@@ -0,0 +1,478 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import org.glowroot.agent.bytecode.api.ThreadContextPlus;
+import org.glowroot.agent.bytecode.api.ThreadContextThreadLocal;
+import org.glowroot.agent.impl.NopTransactionService.NopTimer;
+import org.glowroot.agent.plugin.api.AsyncQueryEntry;
+import org.glowroot.agent.plugin.api.AsyncTraceEntry;
+import org.glowroot.agent.plugin.api.AuxThreadContext;
+import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.agent.plugin.api.QueryEntry;
+import org.glowroot.agent.plugin.api.QueryMessageSupplier;
+import org.glowroot.agent.plugin.api.Timer;
+import org.glowroot.agent.plugin.api.TimerName;
+import org.glowroot.agent.plugin.api.TraceEntry;
+
+// this is placed in the thread context holder in place of a full auxiliary thread context, and only
+// creates (and delegates to) the full auxiliary thread context once it is needed, which is
+// typically once the task starts a timer or trace entry
+//
+// tasks that never need the full auxiliary thread context do not count against the transaction's
+// auxiliary thread context limit, but their time is also not captured under the "auxiliary thread"
+// timer, and they are not captured by the profiler
+class LazyAuxThreadContextImpl implements ThreadContextPlus {
+
+    // this is the compact token that is propagated (and shared with nested tasks) until the full
+    // auxiliary thread context is created
+    private final AuxThreadContextImpl auxThreadContext;
+    private final long startTick;
+    private final ThreadContextThreadLocal.Holder threadContextHolder;
+
+    private @Nullable ServletRequestInfo servletRequestInfo;
+    private int currentNestingGroupId;
+    private int currentSuppressionKeyId;
+
+    private @MonotonicNonNull ThreadContextImpl threadContext;
+    // transaction was already complete when trying to create the full auxiliary thread context
+    private boolean transactionCompleted;
+
+    private final RootEntry rootEntry = new RootEntry();
+
+    LazyAuxThreadContextImpl(AuxThreadContextImpl auxThreadContext,
+            @Nullable ServletRequestInfo servletRequestInfo, long startTick,
+            ThreadContextThreadLocal.Holder threadContextHolder) {
+        this.auxThreadContext = auxThreadContext;
+        this.servletRequestInfo = servletRequestInfo;
+        this.startTick = startTick;
+        this.threadContextHolder = threadContextHolder;
+    }
+
+    TraceEntry getRootEntry() {
+        return rootEntry;
+    }
+
+    Transaction getTransaction() {
+        return auxThreadContext.getTransaction();
+    }
+
+    @Override
+    public boolean isInTransaction() {
+        return true;
+    }
+
+    @Override
+    public TraceEntry startTransaction(String transactionType, String transactionName,
+            MessageSupplier messageSupplier, TimerName timerName) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext == null) {
+            return NopTransactionService.TRACE_ENTRY;
+        }
+        return threadContext.startTransaction(transactionType, transactionName, messageSupplier,
+                timerName);
+    }
+
+    @Override
+    public TraceEntry startTransaction(String transactionType, String transactionName,
+            MessageSupplier messageSupplier, TimerName timerName,
+            AlreadyInTransactionBehavior alreadyInTransactionBehavior) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext == null) {
+            return NopTransactionService.TRACE_ENTRY;
+        }
+        return threadContext.startTransaction(transactionType, transactionName, messageSupplier,
+                timerName, alreadyInTransactionBehavior);
+    }
+
+    @Override
+    public TraceEntry startTraceEntry(MessageSupplier messageSupplier, TimerName timerName) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext == null) {
+            return NopTransactionService.TRACE_ENTRY;
+        }
+        return threadContext.startTraceEntry(messageSupplier, timerName);
+    }
+
+    @Override
+    public AsyncTraceEntry startAsyncTraceEntry(MessageSupplier messageSupplier,
+            TimerName timerName) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext == null) {
+            return NopTransactionService.ASYNC_TRACE_ENTRY;
+        }
+        return threadContext.startAsyncTraceEntry(messageSupplier, timerName);
+    }
+
+    @Override
+    public QueryEntry startQueryEntry(String queryType, String queryText,
+            QueryMessageSupplier queryMessageSupplier, TimerName timerName) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext == null) {
+            return NopTransactionService.QUERY_ENTRY;
+        }
+        return threadContext.startQueryEntry(queryType, queryText, queryMessageSupplier, timerName);
+    }
+
+    @Override
+    public QueryEntry startQueryEntry(String queryType, String queryText, long queryExecutionCount,
+            QueryMessageSupplier queryMessageSupplier, TimerName timerName) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext == null) {
+            return NopTransactionService.QUERY_ENTRY;
+        }
+        return threadContext.startQueryEntry(queryType, queryText, queryExecutionCount,
+                queryMessageSupplier, timerName);
+    }
+
+    @Override
+    public AsyncQueryEntry startAsyncQueryEntry(String queryType, String queryText,
+            QueryMessageSupplier queryMessageSupplier, TimerName timerName) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext == null) {
+            return NopTransactionService.ASYNC_QUERY_ENTRY;
+        }
+        return threadContext.startAsyncQueryEntry(queryType, queryText, queryMessageSupplier,
+                timerName);
+    }
+
+    @Override
+    public TraceEntry startServiceCallEntry(String serviceCallType, String serviceCallText,
+            MessageSupplier messageSupplier, TimerName timerName) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext == null) {
+            return NopTransactionService.TRACE_ENTRY;
+        }
+        return threadContext.startServiceCallEntry(serviceCallType, serviceCallText,
+                messageSupplier, timerName);
+    }
+
+    @Override
+    public AsyncTraceEntry startAsyncServiceCallEntry(String serviceCallType,
+            String serviceCallText, MessageSupplier messageSupplier, TimerName timerName) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext == null) {
+            return NopTransactionService.ASYNC_TRACE_ENTRY;
+        }
+        return threadContext.startAsyncServiceCallEntry(serviceCallType, serviceCallText,
+                messageSupplier, timerName);
+    }
+
+    @Override
+    public Timer startTimer(TimerName timerName) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext == null) {
+            return NopTimer.INSTANCE;
+        }
+        return threadContext.startTimer(timerName);
+    }
+
+    @Override
+    public AuxThreadContext createAuxThreadContext() {
+        if (threadContext == null) {
+            // nested tasks share the same token, since there are no trace entries in this thread
+            // context to nest them under
+            return auxThreadContext;
+        }
+        return threadContext.createAuxThreadContext();
+    }
+
+    @Override
+    public void setTransactionAsync() {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext != null) {
+            threadContext.setTransactionAsync();
+        }
+    }
+
+    @Override
+    public void setTransactionAsyncComplete() {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext != null) {
+            threadContext.setTransactionAsyncComplete();
+        }
+    }
+
+    @Override
+    public void setTransactionOuter() {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext != null) {
+            threadContext.setTransactionOuter();
+        }
+    }
+
+    @Override
+    public void setTransactionType(@Nullable String transactionType, int priority) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext != null) {
+            threadContext.setTransactionType(transactionType, priority);
+        }
+    }
+
+    @Override
+    public void setTransactionName(@Nullable String transactionName, int priority) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext != null) {
+            threadContext.setTransactionName(transactionName, priority);
+        }
+    }
+
+    @Override
+    public void setTransactionUser(@Nullable String user, int priority) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext != null) {
+            threadContext.setTransactionUser(user, priority);
+        }
+    }
+
+    @Override
+    public void addTransactionAttribute(String name, @Nullable String value) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext != null) {
+            threadContext.addTransactionAttribute(name, value);
+        }
+    }
+
+    @Override
+    public void setTransactionSlowThreshold(long threshold, TimeUnit unit, int priority) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext != null) {
+            threadContext.setTransactionSlowThreshold(threshold, unit, priority);
+        }
+    }
+
+    @Override
+    public void setTransactionError(Throwable t) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext != null) {
+            threadContext.setTransactionError(t);
+        }
+    }
+
+    @Override
+    public void setTransactionError(@Nullable String message) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext != null) {
+            threadContext.setTransactionError(message);
+        }
+    }
+
+    @Override
+    public void setTransactionError(@Nullable String message, @Nullable Throwable t) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext != null) {
+            threadContext.setTransactionError(message, t);
+        }
+    }
+
+    @Override
+    public void addErrorEntry(Throwable t) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext != null) {
+            threadContext.addErrorEntry(t);
+        }
+    }
+
+    @Override
+    public void addErrorEntry(@Nullable String message) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext != null) {
+            threadContext.addErrorEntry(message);
+        }
+    }
+
+    @Override
+    public void addErrorEntry(@Nullable String message, Throwable t) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext != null) {
+            threadContext.addErrorEntry(message, t);
+        }
+    }
+
+    @Override
+    public void trackResourceAcquired(Object resource, boolean withLocationStackTrace) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext != null) {
+            threadContext.trackResourceAcquired(resource, withLocationStackTrace);
+        }
+    }
+
+    @Override
+    public void trackResourceReleased(Object resource) {
+        ThreadContextImpl threadContext = getOrCreateThreadContext();
+        if (threadContext != null) {
+            threadContext.trackResourceReleased(resource);
+        }
+    }
+
+    @Override
+    public @Nullable ServletRequestInfo getServletRequestInfo() {
+        if (threadContext == null) {
+            return servletRequestInfo;
+        }
+        return threadContext.getServletRequestInfo();
+    }
+
+    @Override
+    public void setServletRequestInfo(@Nullable ServletRequestInfo servletRequestInfo) {
+        if (threadContext == null) {
+            this.servletRequestInfo = servletRequestInfo;
+        } else {
+            threadContext.setServletRequestInfo(servletRequestInfo);
+        }
+    }
+
+    @Override
+    public int getCurrentNestingGroupId() {
+        if (threadContext == null) {
+            return currentNestingGroupId;
+        }
+        return threadContext.getCurrentNestingGroupId();
+    }
+
+    @Override
+    public void setCurrentNestingGroupId(int nestingGroupId) {
+        if (threadContext == null) {
+            currentNestingGroupId = nestingGroupId;
+        } else {
+            threadContext.setCurrentNestingGroupId(nestingGroupId);
+        }
+    }
+
+    @Override
+    public int getCurrentSuppressionKeyId() {
+        if (threadContext == null) {
+            return currentSuppressionKeyId;
+        }
+        return threadContext.getCurrentSuppressionKeyId();
+    }
+
+    @Override
+    public void setCurrentSuppressionKeyId(int suppressionKeyId) {
+        if (threadContext == null) {
+            currentSuppressionKeyId = suppressionKeyId;
+        } else {
+            threadContext.setCurrentSuppressionKeyId(suppressionKeyId);
+        }
+    }
+
+    private @Nullable ThreadContextImpl getOrCreateThreadContext() {
+        if (threadContext == null && !transactionCompleted) {
+            // clear this from the thread context holder first, otherwise the full auxiliary thread
+            // context would treat this as its outer transaction thread context
+            threadContextHolder.set(null);
+            // the full auxiliary thread context replaces this in the thread context holder
+            ThreadContextImpl threadContext = auxThreadContext.startThreadContext(startTick,
+                    servletRequestInfo, threadContextHolder);
+            if (threadContext == null) {
+                transactionCompleted = true;
+                return null;
+            }
+            threadContext.setCurrentNestingGroupId(currentNestingGroupId);
+            threadContext.setCurrentSuppressionKeyId(currentSuppressionKeyId);
+            this.threadContext = threadContext;
+        }
+        return threadContext;
+    }
+
+    private class RootEntry implements TraceEntry {
+
+        @Override
+        public void end() {
+            if (threadContext == null) {
+                clearThreadContextHolder();
+            } else {
+                threadContext.getRootEntry().end();
+            }
+        }
+
+        @Override
+        public void endWithLocationStackTrace(long threshold, TimeUnit unit) {
+            if (threadContext == null) {
+                clearThreadContextHolder();
+            } else {
+                threadContext.getRootEntry().endWithLocationStackTrace(threshold, unit);
+            }
+        }
+
+        @Override
+        public void endWithError(Throwable t) {
+            ThreadContextImpl threadContext = getOrCreateThreadContext();
+            if (threadContext == null) {
+                clearThreadContextHolder();
+            } else {
+                threadContext.getRootEntry().endWithError(t);
+            }
+        }
+
+        @Override
+        public void endWithError(@Nullable String message) {
+            ThreadContextImpl threadContext = getOrCreateThreadContext();
+            if (threadContext == null) {
+                clearThreadContextHolder();
+            } else {
+                threadContext.getRootEntry().endWithError(message);
+            }
+        }
+
+        @Override
+        public void endWithError(@Nullable String message, Throwable t) {
+            ThreadContextImpl threadContext = getOrCreateThreadContext();
+            if (threadContext == null) {
+                clearThreadContextHolder();
+            } else {
+                threadContext.getRootEntry().endWithError(message, t);
+            }
+        }
+
+        @Override
+        public void endWithInfo(Throwable t) {
+            ThreadContextImpl threadContext = getOrCreateThreadContext();
+            if (threadContext == null) {
+                clearThreadContextHolder();
+            } else {
+                threadContext.getRootEntry().endWithInfo(t);
+            }
+        }
+
+        @Override
+        public Timer extend() {
+            if (threadContext == null) {
+                return NopTimer.INSTANCE;
+            }
+            return threadContext.getRootEntry().extend();
+        }
+
+        @Override
+        public Object getMessageSupplier() {
+            if (threadContext == null) {
+                return NopTransactionService.TRACE_ENTRY.getMessageSupplier();
+            }
+            return threadContext.getRootEntry().getMessageSupplier();
+        }
+
+        private void clearThreadContextHolder() {
+            if (threadContextHolder.get() == LazyAuxThreadContextImpl.this) {
+                threadContextHolder.set(null);
+            }
+        }
+    }
+}
@@ -79,20 +79,32 @@ public class StackTraceCollector {
     }
 
     static void captureStackTraces(List<ThreadContextImpl> threadContexts) {
-        if (threadContexts.isEmpty()) {
+        List<ThreadContextImpl> platformThreadContexts =
+                Lists.newArrayListWithCapacity(threadContexts.size());
+        for (ThreadContextImpl threadContext : threadContexts) {
+            Thread virtualThread = threadContext.getVirtualThread();
+            if (virtualThread == null) {
+                platformThreadContexts.add(threadContext);
+            } else {
+                // ThreadMXBean does not support virtual threads, so fall back to sampling each
+                // virtual thread individually (which works whether or not it is currently mounted)
+                captureVirtualThreadStackTrace(threadContext, virtualThread);
+            }
+        }
+        if (platformThreadContexts.isEmpty()) {
             // critical not to call ThreadMXBean.getThreadInfo() with empty id list
             // see https://bugs.openjdk.java.net/browse/JDK-8074368
             return;
         }
-        long[] threadIds = new long[threadContexts.size()];
-        for (int i = 0; i < threadContexts.size(); i++) {
-            threadIds[i] = threadContexts.get(i).getThreadId();
+        long[] threadIds = new long[platformThreadContexts.size()];
+        for (int i = 0; i < platformThreadContexts.size(); i++) {
+            threadIds[i] = platformThreadContexts.get(i).getThreadId();
         }
         @Nullable
         ThreadInfo[] threadInfos =
                 ManagementFactory.getThreadMXBean().getThreadInfo(threadIds, Integer.MAX_VALUE);
-        for (int i = 0; i < threadContexts.size(); i++) {
-            ThreadContextImpl threadContext = threadContexts.get(i);
+        for (int i = 0; i < platformThreadContexts.size(); i++) {
+            ThreadContextImpl threadContext = platformThreadContexts.get(i);
             ThreadInfo threadInfo = threadInfos[i];
             if (threadInfo != null) {
                 threadContext.captureStackTrace(threadInfo);
@@ -100,6 +112,20 @@ public class StackTraceCollector {
         }
     }
 
+    private static void captureVirtualThreadStackTrace(ThreadContextImpl threadContext,
+            Thread virtualThread) {
+        Thread.State threadState = virtualThread.getState();
+        if (threadState == Thread.State.TERMINATED) {
+            return;
+        }
+        StackTraceElement[] stackTrace = virtualThread.getStackTrace();
+        if (stackTrace.length == 0) {
+            // thread must have just recently terminated
+            return;
+        }
+        threadContext.captureStackTrace(stackTrace, threadState);
+    }
+
     private class InternalRunnable implements Runnable {
 
         private volatile int currIntervalMillis;
@@ -60,6 +60,7 @@ import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.util.ThreadAllocatedBytes;
 import org.glowroot.agent.util.Tickers;
+import org.glowroot.agent.util.VirtualThreads;
 import org.glowroot.common.config.AdvancedConfig;
 import org.glowroot.common.util.NotAvailableAware;
 
@@ -116,6 +117,9 @@ public class ThreadContextImpl implements ThreadContextPlus {
     private final int maxServiceCallAggregates;
 
     private final long threadId;
+    // only non-null when running on a virtual thread, since stack traces of virtual threads cannot
+    // be captured via ThreadMXBean
+    private final @Nullable Thread virtualThread;
 
     private final boolean limitExceededAuxThreadContext;
 
@@ -153,9 +157,11 @@ public class ThreadContextImpl implements ThreadContextPlus {
         traceEntryComponent = new TraceEntryComponent(castInitialized(this), messageSupplier,
                 rootTimer, startTick);
         this.parentThreadContextPriorEntry = parentThreadContextPriorEntry;
-        threadId = Thread.currentThread().getId();
-        threadStatsComponent =
-                captureThreadStats ? new ThreadStatsComponent(threadAllocatedBytes) : null;
+        Thread currentThread = Thread.currentThread();
+        threadId = currentThread.getId();
+        virtualThread = VirtualThreads.isVirtual(currentThread) ? currentThread : null;
+        threadStatsComponent = captureThreadStats
+                ? new ThreadStatsComponent(threadAllocatedBytes, virtualThread != null) : null;
         this.maxQueryAggregates = maxQueryAggregates;
         this.maxServiceCallAggregates = maxServiceCallAggregates;
         this.limitExceededAuxThreadContext = limitExceededAuxThreadContext;
@@ -206,6 +212,10 @@ public class ThreadContextImpl implements ThreadContextPlus {
         return threadId;
     }
 
+    public @Nullable Thread getVirtualThread() {
+        return virtualThread;
+    }
+
     boolean isCompleted() {
         return traceEntryComponent.isCompleted();
     }
@@ -423,7 +433,11 @@ public class ThreadContextImpl implements ThreadContextPlus {
     }
 
     void captureStackTrace(ThreadInfo threadInfo) {
-        transaction.captureStackTrace(isAuxiliary(), threadInfo);
+        captureStackTrace(threadInfo.getStackTrace(), threadInfo.getThreadState());
+    }
+
+    void captureStackTrace(StackTraceElement[] stackTrace, Thread.State threadState) {
+        transaction.captureStackTrace(isAuxiliary(), stackTrace, threadState);
         // memory barrier read ensures timely visibility of detach()
         transaction.memoryBarrierRead();
     }
@@ -782,7 +782,8 @@ public class Transaction {
         return queryCount > maxQueryAggregates;
     }
 
-    void captureStackTrace(boolean auxiliary, ThreadInfo threadInfo) {
+    void captureStackTrace(boolean auxiliary, StackTraceElement[] stackTrace,
+            Thread.State threadState) {
         if (completed) {
             return;
         }
@@ -801,7 +802,7 @@ public class Transaction {
             // transaction profile field, so that it is not possible to read a profile that doesn't
             // have at least one stack trace
             profile = new ThreadProfile(maxProfileSamples);
-            profile.addStackTrace(threadInfo);
+            profile.addStackTrace(stackTrace, threadState);
             if (auxiliary) {
                 auxThreadProfile = profile;
             } else {
@@ -809,7 +810,7 @@ public class Transaction {
             }
             return;
         }
-        profile.addStackTrace(threadInfo);
+        profile.addStackTrace(stackTrace, threadState);
     }
 
     void trackResourceAcquired(Object resource, boolean withLocationStackTrace) {
@@ -17,6 +17,7 @@ package org.glowroot.agent.impl;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
 
+import org.glowroot.agent.bytecode.api.ThreadContextPlus;
 import org.glowroot.agent.bytecode.api.ThreadContextThreadLocal;
 import org.glowroot.agent.util.IterableWithSelfRemovableEntries;
 import org.glowroot.agent.util.IterableWithSelfRemovableEntries.SelfRemovableEntry;
@@ -33,11 +34,14 @@ public class TransactionRegistry {
 
     @Nullable
     Transaction getCurrentTransaction() {
-        ThreadContextImpl threadContext = (ThreadContextImpl) currentThreadContext.get();
+        ThreadContextPlus threadContext = currentThreadContext.get();
+        if (threadContext instanceof LazyAuxThreadContextImpl) {
+            return ((LazyAuxThreadContextImpl) threadContext).getTransaction();
+        }
         if (threadContext == null) {
             return null;
         }
-        return threadContext.getTransaction();
+        return ((ThreadContextImpl) threadContext).getTransaction();
     }
 
     public ThreadContextThreadLocal.Holder getCurrentThreadContextHolder() {
@@ -111,15 +111,18 @@ public class TransactionService implements ConfigListener {
     ThreadContextImpl startAuxThreadContextInternal(Transaction transaction,
             @Nullable TraceEntryImpl parentTraceEntry,
             @Nullable TraceEntryImpl parentThreadContextPriorEntry,
-            @Nullable ServletRequestInfo servletRequestInfo,
+            @Nullable ServletRequestInfo servletRequestInfo, long startTick,
             ThreadContextThreadLocal.Holder threadContextHolder) {
-        long startTick = ticker.read();
         TimerName auxThreadTimerName = timerNameCache.getAuxThreadTimerName();
         return transaction.startAuxThreadContext(parentTraceEntry, parentThreadContextPriorEntry,
                 auxThreadTimerName, startTick, threadContextHolder, servletRequestInfo,
                 threadAllocatedBytes);
     }
 
+    long readTick() {
+        return ticker.read();
+    }
+
     @Override
     public void onChange() {
         AdvancedConfig advancedConfig = configService.getAdvancedConfig();
@@ -77,13 +77,21 @@ class ThreadDumpService {
             if (!threadContext.isActive()) {
                 continue;
             }
-            long threadId = threadContext.getThreadId();
-            ThreadInfo threadInfo = unmatchedThreadInfos.remove(threadId);
-            if (threadInfo == null) {
-                // this should not happen since this thread context was active before and after the
-                // thread dump
-                logger.warn("thread dump not captured for thread: {}", threadId);
-                continue;
+            ThreadDump.Thread thread;
+            Thread virtualThread = threadContext.getVirtualThread();
+            if (virtualThread == null) {
+                long threadId = threadContext.getThreadId();
+                ThreadInfo threadInfo = unmatchedThreadInfos.remove(threadId);
+                if (threadInfo == null) {
+                    // this should not happen since this thread context was active before and after
+                    // the thread dump
+                    logger.warn("thread dump not captured for thread: {}", threadId);
+                    continue;
+                }
+                thread = createProtobuf(threadInfo);
+            } else {
+                // virtual threads are not included in ThreadMXBean thread dumps
+                thread = createProtobuf(virtualThread);
             }
             Transaction transaction = threadContext.getTransaction();
             String traceId = transaction.getTraceId();
@@ -95,7 +103,7 @@ class ThreadDumpService {
                         traceCollector.shouldStoreSlow(transaction));
                 transactionThreadInfos.put(traceId, transactionThreadInfo);
             }
-            transactionThreadInfo.threadInfos.add(threadInfo);
+            transactionThreadInfo.threads.add(thread);
         }
         List<ThreadDump.Transaction> transactions = Lists.newArrayList();
         for (Map.Entry<String, TransactionThreadInfo> entry : transactionThreadInfos.entrySet()) {
@@ -142,14 +150,8 @@ class ThreadDumpService {
                 builder.setLockOwnerId(OptionalInt64.newBuilder().setValue(lockOwnerId));
             }
         }
-        List<ThreadDump.StackTraceElement.Builder> stackTraceElements = Lists.newArrayList();
-        for (StackTraceElement stackTraceElement : threadInfo.getStackTrace()) {
-            stackTraceElements.add(ThreadDump.StackTraceElement.newBuilder()
-                    .setClassName(stackTraceElement.getClassName())
-                    .setMethodName(Strings.nullToEmpty(stackTraceElement.getMethodName()))
-                    .setFileName(Strings.nullToEmpty(stackTraceElement.getFileName()))
-                    .setLineNumber(stackTraceElement.getLineNumber()));
-        }
+        List<ThreadDump.StackTraceElement.Builder> stackTraceElements =
+                createProtobuf(threadInfo.getStackTrace());
         for (MonitorInfo lockedMonitor : threadInfo.getLockedMonitors()) {
             int lockedStackDepth = lockedMonitor.getLockedStackDepth();
             if (lockedStackDepth >= 0) {
@@ -165,6 +167,31 @@ class ThreadDumpService {
         return builder.build();
     }
 
+    private static ThreadDump.Thread createProtobuf(Thread virtualThread) {
+        ThreadDump.Thread.Builder builder = ThreadDump.Thread.newBuilder()
+                .setName(virtualThread.getName())
+                .setId(virtualThread.getId())
+                .setState(virtualThread.getState().name());
+        for (ThreadDump.StackTraceElement.Builder stackTraceElement : createProtobuf(
+                virtualThread.getStackTrace())) {
+            builder.addStackTraceElement(stackTraceElement);
+        }
+        return builder.build();
+    }
+
+    private static List<ThreadDump.StackTraceElement.Builder> createProtobuf(
+            StackTraceElement[] stackTrace) {
+        List<ThreadDump.StackTraceElement.Builder> stackTraceElements = Lists.newArrayList();
+        for (StackTraceElement stackTraceElement : stackTrace) {
+            stackTraceElements.add(ThreadDump.StackTraceElement.newBuilder()
+                    .setClassName(stackTraceElement.getClassName())
+                    .setMethodName(Strings.nullToEmpty(stackTraceElement.getMethodName()))
+                    .setFileName(Strings.nullToEmpty(stackTraceElement.getFileName()))
+                    .setLineNumber(stackTraceElement.getLineNumber()));
+        }
+        return stackTraceElements;
+    }
+
     private static class TransactionThreadInfo {
 
         private final String headline;
@@ -174,7 +201,7 @@ class ThreadDumpService {
         private final long cpuNanos;
         private final boolean shouldStoreSlow;
 
-        private final List<ThreadInfo> threadInfos = Lists.newArrayList();
+        private final List<ThreadDump.Thread> threads = Lists.newArrayList();
 
         private TransactionThreadInfo(String headline, String transactionType,
                 String transactionName, long durationNanos, long cpuNanos,
@@ -199,9 +226,7 @@ class ThreadDumpService {
             if (shouldStoreSlow) {
                 builder.setTraceId(traceId);
             }
-            for (ThreadInfo auxThreadInfo : threadInfos) {
-                builder.addThread(createProtobuf(auxThreadInfo));
-            }
+            builder.addAllThread(threads);
             return builder.build();
         }
     }
@@ -38,6 +38,9 @@ public class ThreadStatsComponent {
             threadMXBean.isThreadContentionMonitoringSupported();
 
     private final long threadId;
+    // ThreadMXBean does not support virtual threads (thread info is null, and thread cpu time and
+    // allocated bytes are not available)
+    private final boolean virtualThread;
     private final long startingCpuNanos;
     private final long startingBlockedMillis;
     private final long startingWaitedMillis;
@@ -50,8 +53,18 @@ public class ThreadStatsComponent {
 
     private final Object lock = new Object();
 
-    public ThreadStatsComponent(@Nullable ThreadAllocatedBytes threadAllocatedBytes) {
+    public ThreadStatsComponent(@Nullable ThreadAllocatedBytes threadAllocatedBytes,
+            boolean virtualThread) {
         threadId = Thread.currentThread().getId();
+        this.virtualThread = virtualThread;
+        this.threadAllocatedBytes = threadAllocatedBytes;
+        if (virtualThread) {
+            startingCpuNanos = -1;
+            startingBlockedMillis = -1;
+            startingWaitedMillis = -1;
+            startingAllocatedBytes = -1;
+            return;
+        }
         ThreadInfo threadInfo = threadMXBean.getThreadInfo(threadId, 0);
         // thread info for current thread cannot be null
         checkNotNull(threadInfo);
@@ -72,7 +85,6 @@ public class ThreadStatsComponent {
         } else {
             startingAllocatedBytes = -1;
         }
-        this.threadAllocatedBytes = threadAllocatedBytes;
     }
 
     // must be called from transaction thread
@@ -103,7 +115,7 @@ public class ThreadStatsComponent {
                 // transaction thread is still alive (and cannot terminate in the middle of this
                 // method because of above lock), so safe to capture ThreadMXBean.getThreadCpuTime()
                 // for the transaction thread
-                if (IS_THREAD_CPU_TIME_SUPPORTED) {
+                if (IS_THREAD_CPU_TIME_SUPPORTED && !virtualThread) {
                     return getCpuNanosInternal();
                 } else {
                     return -1;
@@ -115,6 +127,9 @@ public class ThreadStatsComponent {
     }
 
     private ThreadStats getThreadStatsInternal() {
+        if (virtualThread) {
+            return ThreadStats.NA;
+        }
         long cpuNanos;
         if (IS_THREAD_CPU_TIME_SUPPORTED) {
             cpuNanos = getCpuNanosInternal();
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.util;
+
+import java.lang.reflect.Method;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// virtual threads (Java 21+) are not supported by ThreadMXBean (thread info is null, and thread cpu
+// time and allocated bytes are not available), so they need to be detected and handled separately
+//
+// Thread.isVirtual() is accessed via reflection since the agent still supports Java 6
+public class VirtualThreads {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreads.class);
+
+    private static final @Nullable Method isVirtualMethod = getIsVirtualMethod();
+
+    private VirtualThreads() {}
+
+    public static boolean isVirtual(Thread thread) {
+        if (isVirtualMethod == null) {
+            return false;
+        }
+        try {
+            return (Boolean) isVirtualMethod.invoke(thread);
+        } catch (Exception e) {
+            logger.debug(e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private static @Nullable Method getIsVirtualMethod() {
+        if (!JavaVersion.isGreaterThanOrEqualToJava10()) {
+            return null;
+        }
+        try {
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            // log exception at trace level
+            logger.trace(e.getMessage(), e);
+            return null;
+        }
+    }
+}
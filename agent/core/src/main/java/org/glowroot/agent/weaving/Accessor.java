@@ -17,18 +17,27 @@ package org.glowroot.agent.weaving;
 
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 class Accessor {
 
+    private static final Logger logger = LoggerFactory.getLogger(Accessor.class);
+
     private final AccessorType accessorType;
     private final @Nullable Method method;
     private final @Nullable Field field;
 
+    // this is only set for accessors that are resolved when creating message templates, see
+    // AccessorCompiler
+    private volatile @Nullable CompiledAccessor compiledAccessor;
+
     static Accessor fromMethod(Method method) {
         return new Accessor(method);
     }
@@ -59,6 +68,14 @@ class Accessor {
         this.field = null;
     }
 
+    void compile() {
+        if (method != null) {
+            compiledAccessor = AccessorCompiler.compile(method);
+        } else if (field != null) {
+            compiledAccessor = AccessorCompiler.compile(field);
+        }
+    }
+
     Class<?> getValueType() {
         switch (accessorType) {
             case METHOD:
@@ -79,6 +96,19 @@ class Accessor {
         if (isArrayEvaluation(object)) {
             return evaluateArray((/*@Nullable*/ Object[]) object);
         }
+        CompiledAccessor compiledAccessor = this.compiledAccessor;
+        if (compiledAccessor != null) {
+            try {
+                return compiledAccessor.evaluate(object);
+            } catch (IllegalAccessError e) {
+                // e.g. the class is in a package that is not exported by its module
+                logger.debug(e.getMessage(), e);
+                this.compiledAccessor = null;
+            } catch (Throwable t) {
+                // wrapped for consistency with reflection
+                throw new InvocationTargetException(t);
+            }
+        }
         switch (accessorType) {
             case METHOD:
                 checkNotNull(method);
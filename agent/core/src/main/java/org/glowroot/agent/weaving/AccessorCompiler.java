@@ -0,0 +1,234 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.ACONST_NULL;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.CHECKCAST;
+import static org.objectweb.asm.Opcodes.GETFIELD;
+import static org.objectweb.asm.Opcodes.INVOKEINTERFACE;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V1_5;
+
+// generates bytecode accessors for the methods and fields that message template paths resolve to
+// (this happens once per woven method when its message templates are created), so that evaluating
+// the message templates does not need to go through reflection
+//
+// only public members of public classes are compiled, everything else continues to use reflection
+class AccessorCompiler {
+
+    private static final Logger logger = LoggerFactory.getLogger(AccessorCompiler.class);
+
+    // this is useful for comparing against reflection, e.g. in MessageTemplateBenchmark
+    private static final boolean DISABLED =
+            Boolean.getBoolean("glowroot.debug.disableCompiledAccessors");
+
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    // one accessor class loader is shared by all of the accessors for classes in the same class
+    // loader
+    //
+    // weak keys to prevent class loader retention, and weak values since each accessor class loader
+    // has a strong reference to its parent (the key), the accessor class loaders are instead
+    // retained by the accessors that are defined in them
+    private static final LoadingCache<ClassLoader, AccessorClassLoader> accessorClassLoaders =
+            CacheBuilder.newBuilder()
+                    .weakKeys()
+                    .weakValues()
+                    .build(new CacheLoader<ClassLoader, AccessorClassLoader>() {
+                        @Override
+                        public AccessorClassLoader load(ClassLoader loader) {
+                            return new AccessorClassLoader(loader);
+                        }
+                    });
+
+    // used for classes loaded by the bootstrap class loader (since cache keys cannot be null)
+    private static @MonotonicNonNull AccessorClassLoader bootstrapAccessorClassLoader;
+
+    private AccessorCompiler() {}
+
+    static @Nullable CompiledAccessor compile(Method method) {
+        Class<?> declaringClass = method.getDeclaringClass();
+        if (DISABLED || !isAccessible(declaringClass, method.getModifiers())
+                || method.getParameterTypes().length != 0) {
+            return null;
+        }
+        int opcode = declaringClass.isInterface() ? INVOKEINTERFACE : INVOKEVIRTUAL;
+        return compile(declaringClass, opcode, method.getName(),
+                Type.getMethodDescriptor(method), Type.getType(method.getReturnType()));
+    }
+
+    static @Nullable CompiledAccessor compile(Field field) {
+        Class<?> declaringClass = field.getDeclaringClass();
+        if (DISABLED || !isAccessible(declaringClass, field.getModifiers())) {
+            return null;
+        }
+        Type valueType = Type.getType(field.getType());
+        return compile(declaringClass, GETFIELD, field.getName(), valueType.getDescriptor(),
+                valueType);
+    }
+
+    private static boolean isAccessible(Class<?> declaringClass, int memberModifiers) {
+        return Modifier.isPublic(declaringClass.getModifiers())
+                && Modifier.isPublic(memberModifiers) && !Modifier.isStatic(memberModifiers);
+    }
+
+    private static @Nullable CompiledAccessor compile(Class<?> declaringClass, int opcode,
+            String name, String descriptor, Type valueType) {
+        String internalName = "org/glowroot/agent/weaving/GeneratedAccessor"
+                + counter.incrementAndGet();
+        byte[] bytes = generate(internalName, Type.getInternalName(declaringClass), opcode, name,
+                descriptor, valueType);
+        try {
+            AccessorClassLoader loader = getAccessorClassLoader(declaringClass.getClassLoader());
+            Class<?> generatedClass =
+                    loader.publicDefineClass(internalName.replace('/', '.'), bytes);
+            return (CompiledAccessor) generatedClass.getConstructor().newInstance();
+        } catch (Throwable t) {
+            // e.g. SecurityException when creating the class loader (which is wrapped in
+            // UncheckedExecutionException when created via the loading cache)
+            logger.debug("could not compile accessor for {}.{}: {}", declaringClass.getName(),
+                    name, t.getMessage(), t);
+            return null;
+        }
+    }
+
+    private static AccessorClassLoader getAccessorClassLoader(@Nullable ClassLoader loader) {
+        if (loader != null) {
+            return accessorClassLoaders.getUnchecked(loader);
+        }
+        synchronized (AccessorCompiler.class) {
+            if (bootstrapAccessorClassLoader == null) {
+                bootstrapAccessorClassLoader = new AccessorClassLoader(null);
+            }
+            return bootstrapAccessorClassLoader;
+        }
+    }
+
+    private static byte[] generate(String internalName, String ownerInternalName, int opcode,
+            String name, String descriptor, Type valueType) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_5, ACC_PUBLIC + ACC_SUPER, internalName, null, "java/lang/Object",
+                new String[] {Type.getInternalName(CompiledAccessor.class)});
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        mv = cw.visitMethod(ACC_PUBLIC, "evaluate", "(Ljava/lang/Object;)Ljava/lang/Object;",
+                null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitTypeInsn(CHECKCAST, ownerInternalName);
+        if (opcode == GETFIELD) {
+            mv.visitFieldInsn(GETFIELD, ownerInternalName, name, descriptor);
+        } else {
+            mv.visitMethodInsn(opcode, ownerInternalName, name, descriptor,
+                    opcode == INVOKEINTERFACE);
+        }
+        if (valueType.getSort() == Type.VOID) {
+            mv.visitInsn(ACONST_NULL);
+        } else {
+            box(mv, valueType);
+        }
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void box(MethodVisitor mv, Type type) {
+        String boxedInternalName;
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+                boxedInternalName = "java/lang/Boolean";
+                break;
+            case Type.CHAR:
+                boxedInternalName = "java/lang/Character";
+                break;
+            case Type.BYTE:
+                boxedInternalName = "java/lang/Byte";
+                break;
+            case Type.SHORT:
+                boxedInternalName = "java/lang/Short";
+                break;
+            case Type.INT:
+                boxedInternalName = "java/lang/Integer";
+                break;
+            case Type.FLOAT:
+                boxedInternalName = "java/lang/Float";
+                break;
+            case Type.LONG:
+                boxedInternalName = "java/lang/Long";
+                break;
+            case Type.DOUBLE:
+                boxedInternalName = "java/lang/Double";
+                break;
+            default:
+                // not a primitive
+                return;
+        }
+        mv.visitMethodInsn(INVOKESTATIC, boxedInternalName, "valueOf",
+                "(" + type.getDescriptor() + ")L" + boxedInternalName + ";", false);
+    }
+
+    // the generated accessor class needs to be able to see both the class whose member it accesses
+    // (via the parent class loader), and the CompiledAccessor interface (which the parent class
+    // loader may not be able to see)
+    private static class AccessorClassLoader extends ClassLoader {
+
+        private AccessorClassLoader(@Nullable ClassLoader parent) {
+            super(parent);
+        }
+
+        private Class<?> publicDefineClass(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.equals(CompiledAccessor.class.getName())) {
+                return CompiledAccessor.class;
+            }
+            return super.loadClass(name, resolve);
+        }
+    }
+}
@@ -317,6 +317,7 @@ public class MessageTemplateImpl implements MessageTemplate {
                     parts.add(0, currPart);
                     break;
                 }
+                accessor.compile();
                 accessors.add(accessor);
                 currType = accessor.getValueType();
             }
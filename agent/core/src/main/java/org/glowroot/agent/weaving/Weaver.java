@@ -46,6 +46,7 @@ import org.objectweb.asm.commons.AdviceAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.glowroot.agent.bytecode.api.ThreadContextPlus;
 import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.impl.ThreadContextImpl;
 import org.glowroot.agent.impl.TimerImpl;
@@ -163,12 +164,13 @@ public class Weaver {
         if (!weavingTimerEnabled) {
             return null;
         }
-        ThreadContextImpl threadContext =
-                (ThreadContextImpl) transactionRegistry.getCurrentThreadContextHolder().get();
-        if (threadContext == null) {
+        ThreadContextPlus threadContext =
+                transactionRegistry.getCurrentThreadContextHolder().get();
+        if (!(threadContext instanceof ThreadContextImpl)) {
+            // no thread context, or lazy auxiliary thread context that has not been created yet
             return null;
         }
-        TimerImpl currentTimer = threadContext.getCurrentTimer();
+        TimerImpl currentTimer = ((ThreadContextImpl) threadContext).getCurrentTimer();
         if (currentTimer == null) {
             return null;
         }
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AccessorCompilerTest {
+
+    @Test
+    public void shouldCompileGetterMethod() throws Exception {
+        // given
+        CompiledAccessor accessor =
+                AccessorCompiler.compile(PublicObject.class.getMethod("getOne"));
+        // when
+        Object value = accessor.evaluate(new PublicObject());
+        // then
+        assertThat(value).isEqualTo("1");
+    }
+
+    @Test
+    public void shouldCompilePrimitiveGetterMethods() throws Exception {
+        // given
+        CompiledAccessor booleanAccessor =
+                AccessorCompiler.compile(PublicObject.class.getMethod("isTwo"));
+        CompiledAccessor longAccessor =
+                AccessorCompiler.compile(PublicObject.class.getMethod("getThree"));
+        // when
+        Object booleanValue = booleanAccessor.evaluate(new PublicObject());
+        Object longValue = longAccessor.evaluate(new PublicObject());
+        // then
+        assertThat(booleanValue).isEqualTo(true);
+        assertThat(longValue).isEqualTo(3L);
+    }
+
+    @Test
+    public void shouldCompileField() throws Exception {
+        // given
+        CompiledAccessor accessor = AccessorCompiler.compile(PublicObject.class.getField("four"));
+        // when
+        Object value = accessor.evaluate(new PublicObject());
+        // then
+        assertThat(value).isEqualTo("4");
+    }
+
+    @Test
+    public void shouldCompileInterfaceMethod() throws Exception {
+        // given
+        CompiledAccessor accessor = AccessorCompiler.compile(List.class.getMethod("size"));
+        List<String> list = Collections.synchronizedList(new ArrayList<String>());
+        list.add("one");
+        // when
+        Object value = accessor.evaluate(list);
+        // then
+        assertThat(value).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldShareAccessorClassLoader() throws Exception {
+        // when
+        CompiledAccessor accessor =
+                AccessorCompiler.compile(PublicObject.class.getMethod("getOne"));
+        CompiledAccessor accessor2 = AccessorCompiler.compile(PublicObject.class.getField("four"));
+        CompiledAccessor bootstrapAccessor =
+                AccessorCompiler.compile(List.class.getMethod("size"));
+        CompiledAccessor bootstrapAccessor2 =
+                AccessorCompiler.compile(List.class.getMethod("isEmpty"));
+        // then
+        assertThat(accessor.getClass().getClassLoader())
+                .isSameAs(accessor2.getClass().getClassLoader());
+        assertThat(bootstrapAccessor.getClass().getClassLoader())
+                .isSameAs(bootstrapAccessor2.getClass().getClassLoader());
+        assertThat(accessor.getClass().getClassLoader())
+                .isNotSameAs(bootstrapAccessor.getClass().getClassLoader());
+    }
+
+    @Test
+    public void shouldNotCompileMethodOnPrivateClass() throws Exception {
+        // when
+        CompiledAccessor accessor =
+                AccessorCompiler.compile(PrivateObject.class.getMethod("getOne"));
+        // then
+        assertThat(accessor).isNull();
+    }
+
+    public static class PublicObject {
+
+        public final String four = "4";
+
+        public String getOne() {
+            return "1";
+        }
+
+        public boolean isTwo() {
+            return true;
+        }
+
+        public long getThree() {
+            return 3;
+        }
+    }
+
+    private static class PrivateObject {
+
+        @SuppressWarnings("unused")
+        public String getOne() {
+            return "1";
+        }
+    }
+}
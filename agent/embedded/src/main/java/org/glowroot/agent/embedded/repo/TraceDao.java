@@ -20,6 +20,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.regex.Pattern;
@@ -48,11 +49,9 @@ import org.glowroot.agent.embedded.util.Schemas.ColumnType;
 import org.glowroot.agent.embedded.util.Schemas.Index;
 import org.glowroot.common.Constants;
 import org.glowroot.common.live.ImmutableEntries;
-import org.glowroot.common.live.ImmutableEntriesAndQueries;
 import org.glowroot.common.live.ImmutableQueries;
 import org.glowroot.common.live.ImmutableTracePoint;
 import org.glowroot.common.live.LiveTraceRepository.Entries;
-import org.glowroot.common.live.LiveTraceRepository.EntriesAndQueries;
 import org.glowroot.common.live.LiveTraceRepository.Existence;
 import org.glowroot.common.live.LiveTraceRepository.Queries;
 import org.glowroot.common.live.LiveTraceRepository.TraceKind;
@@ -281,19 +280,30 @@ public class TraceDao implements TraceRepository {
         return dataSource.query(new QueriesQuery(traceId));
     }
 
+    @Override
+    public @Nullable Iterator<Trace.Entry> readEntriesForExport(String agentId, String traceId)
+            throws Exception {
+        // the entries are stored together in the capped database, so there is nothing to gain by
+        // reading them incrementally
+        Entries entries = dataSource.query(new EntriesQuery(traceId));
+        if (entries == null) {
+            return null;
+        }
+        return entries.entries().iterator();
+    }
+
     // since this is only used by export, SharedQueryTexts are always returned with fullTrace
     // (never with truncatedText/truncatedEndText/fullTraceSha1)
     @Override
-    public @Nullable EntriesAndQueries readEntriesAndQueriesForExport(String agentId,
-            String traceId) throws Exception {
-        EntriesAndQueries entriesAndQueries = dataSource.query(new EntriesAndQueriesQuery(traceId));
-        if (entriesAndQueries == null) {
+    public @Nullable Queries readQueriesForExport(String agentId, String traceId)
+            throws Exception {
+        Queries queries = dataSource.query(new QueriesForExportQuery(traceId));
+        if (queries == null) {
             return null;
         }
-        return ImmutableEntriesAndQueries.builder()
-                .copyFrom(entriesAndQueries)
-                .sharedQueryTexts(
-                        getSharedQueryTextsForExport(entriesAndQueries.sharedQueryTexts()))
+        return ImmutableQueries.builder()
+                .copyFrom(queries)
+                .sharedQueryTexts(getSharedQueryTextsForExport(queries.sharedQueryTexts()))
                 .build();
     }
 
@@ -779,18 +789,19 @@ public class TraceDao implements TraceRepository {
         }
     }
 
-    private class EntriesAndQueriesQuery implements JdbcQuery</*@Nullable*/ EntriesAndQueries> {
+    // unlike QueriesQuery, this also returns the shared query texts when there are no queries,
+    // since they can still be referenced by the entries
+    private class QueriesForExportQuery implements JdbcQuery</*@Nullable*/ Queries> {
 
         private final String traceId;
 
-        private EntriesAndQueriesQuery(String traceId) {
+        private QueriesForExportQuery(String traceId) {
             this.traceId = traceId;
         }
 
         @Override
         public @Untainted String getSql() {
-            return "select entries_capped_id, queries_capped_id, shared_query_texts_capped_id from"
-                    + " trace where id = ?";
+            return "select queries_capped_id, shared_query_texts_capped_id from trace where id = ?";
         }
 
         @Override
@@ -799,38 +810,34 @@ public class TraceDao implements TraceRepository {
         }
 
         @Override
-        public @Nullable EntriesAndQueries processResultSet(ResultSet resultSet) throws Exception {
+        public @Nullable Queries processResultSet(ResultSet resultSet) throws Exception {
             if (!resultSet.next()) {
                 return null;
             }
             int i = 1;
-            Long entriesCappedId = RowMappers.getLong(resultSet, i++);
             Long queriesCappedId = RowMappers.getLong(resultSet, i++);
             Long sharedQueryTextsCappedId = RowMappers.getLong(resultSet, i++);
-            List<Trace.Entry> entries = ImmutableList.of();
-            if (entriesCappedId != null) {
-                entries = traceCappedDatabase.readMessages(entriesCappedId, Trace.Entry.parser());
-            }
             List<Aggregate.Query> queries = ImmutableList.of();
             if (queriesCappedId != null) {
                 queries =
                         traceCappedDatabase.readMessages(queriesCappedId, Aggregate.Query.parser());
             }
-            if (entries.isEmpty() && queries.isEmpty()) {
-                return null;
-            }
-            ImmutableEntriesAndQueries.Builder result = ImmutableEntriesAndQueries.builder()
-                    .addAllEntries(entries)
-                    .addAllQueries(queries);
+            List<Trace.SharedQueryText> sharedQueryTexts = ImmutableList.of();
             if (sharedQueryTextsCappedId != null) {
-                result.addAllSharedQueryTexts(traceCappedDatabase
-                        .readMessages(sharedQueryTextsCappedId, Trace.SharedQueryText.parser()));
+                sharedQueryTexts = traceCappedDatabase.readMessages(sharedQueryTextsCappedId,
+                        Trace.SharedQueryText.parser());
             }
-            return result.build();
+            if (queries.isEmpty() && sharedQueryTexts.isEmpty()) {
+                return null;
+            }
+            return ImmutableQueries.builder()
+                    .addAllQueries(queries)
+                    .addAllSharedQueryTexts(sharedQueryTexts)
+                    .build();
         }
 
         @Override
-        public @Nullable EntriesAndQueries valueIfDataSourceClosed() {
+        public @Nullable Queries valueIfDataSourceClosed() {
             return null;
         }
     }
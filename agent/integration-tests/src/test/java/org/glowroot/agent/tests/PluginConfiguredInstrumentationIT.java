@@ -15,6 +15,8 @@
  */
 package org.glowroot.agent.tests;
 
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import org.junit.jupiter.api.AfterEach;
@@ -27,6 +29,7 @@ import org.glowroot.agent.it.harness.Container;
 import org.glowroot.agent.it.harness.Containers;
 import org.glowroot.agent.it.harness.TransactionMarker;
 import org.glowroot.agent.tests.app.AAA;
+import org.glowroot.agent.tests.app.AccessorPaths;
 import org.glowroot.agent.tests.app.ParamObject;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
@@ -69,6 +72,22 @@ public class PluginConfiguredInstrumentationIT {
         assertThat(header.getEntryCount()).isZero();
     }
 
+    @Test
+    public void shouldRenderTraceEntryMessageUsingCompiledAccessors() throws Exception {
+        // when
+        Trace trace = container.execute(ShouldExecuteAccessorPaths.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage())
+                .isEqualTo("Accessor paths: the name 3 the field 2 execute");
+
+        assertThat(i.hasNext()).isFalse();
+    }
+
     public static class ShouldExecuteAAA implements AppUnderTest, TransactionMarker {
         @Override
         public void executeApp() {
@@ -79,4 +98,15 @@ public class PluginConfiguredInstrumentationIT {
             new AAA().execute("abc", new ParamObject("zzz"));
         }
     }
+
+    public static class ShouldExecuteAccessorPaths implements AppUnderTest, TransactionMarker {
+        @Override
+        public void executeApp() {
+            transactionMarker();
+        }
+        @Override
+        public void transactionMarker() {
+            new AccessorPaths().execute(Arrays.asList("one", "two"));
+        }
+    }
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.tests.app;
+
+import java.util.List;
+
+// public class with public getters so that the message template paths are evaluated by compiled
+// accessors
+public class AccessorPaths {
+
+    public final String field = "the field";
+
+    public void execute(@SuppressWarnings("unused") List<String> list) {}
+
+    public String getName() {
+        return "the name";
+    }
+
+    public int getCount() {
+        return 3;
+    }
+}
@@ -228,6 +228,27 @@ public class ExecutorAspect {
         }
     }
 
+    // virtual threads (Java 21+) do not go through any of the public Thread constructors above
+    // (e.g. when started via Thread.ofVirtual() or Thread.startVirtualThread())
+    //
+    // the thread context itself does not need any handling when the virtual thread is unmounted
+    // from and later re-mounted on a (possibly different) carrier thread, since thread locals of
+    // virtual threads are stored per virtual thread
+    @Pointcut(className = "java.lang.VirtualThread", methodName = "<init>",
+            methodParameterTypes = {"java.util.concurrent.Executor", "java.lang.String", "int",
+                    "java.lang.Runnable"},
+            nestingGroup = "executor-execute")
+    public static class VirtualThreadInitAdvice {
+        @OnBefore
+        public static void onBefore(ThreadContext context,
+                @SuppressWarnings("unused") @BindParameter Object scheduler,
+                @SuppressWarnings("unused") @BindParameter String name,
+                @SuppressWarnings("unused") @BindParameter int characteristics,
+                @BindParameter ParameterHolder<Runnable> taskHolder) {
+            onThreadInitCommon(context, taskHolder);
+        }
+    }
+
     @Pointcut(className = "com.google.common.util.concurrent.ListenableFuture",
             methodName = "addListener",
             methodParameterTypes = {"java.lang.Runnable", "java.util.concurrent.Executor"},
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.executor;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.agent.it.harness.AppUnderTest;
+import org.glowroot.agent.it.harness.Container;
+import org.glowroot.agent.it.harness.TraceEntryMarker;
+import org.glowroot.agent.it.harness.TransactionMarker;
+import org.glowroot.agent.it.harness.impl.JavaagentContainer;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// compares the traces captured with -Dglowroot.transaction.aux.thread.context.lazy=true against the
+// traces captured with the default (eager) auxiliary thread contexts
+public class LazyAuxThreadContextIT {
+
+    private static final String AUX_THREAD_CONTEXT_LIMIT =
+            "-Dglowroot.transaction.aux.thread.context.limit=5";
+
+    private static Container eagerContainer;
+    private static Container lazyContainer;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        // tests only work with javaagent container because they need to weave bootstrap classes
+        // that implement Executor and ExecutorService
+        eagerContainer = JavaagentContainer
+                .createWithExtraJvmArgs(ImmutableList.of(AUX_THREAD_CONTEXT_LIMIT));
+        lazyContainer = JavaagentContainer.createWithExtraJvmArgs(ImmutableList.of(
+                AUX_THREAD_CONTEXT_LIMIT, "-Dglowroot.transaction.aux.thread.context.lazy=true"));
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        eagerContainer.close();
+        lazyContainer.close();
+    }
+
+    @AfterEach
+    public void afterEachTest() throws Exception {
+        eagerContainer.checkAndReset();
+        lazyContainer.checkAndReset();
+    }
+
+    @Test
+    public void shouldNotCreateAuxThreadContextForEmptyTasks() throws Exception {
+        // when
+        Trace eagerTrace = eagerContainer.execute(DoSubmitEmptyTasks.class);
+        Trace lazyTrace = lazyContainer.execute(DoSubmitEmptyTasks.class);
+
+        // then
+        assertThat(eagerTrace.getHeader().getAuxThreadRootTimer().getCount()).isEqualTo(3);
+        // the lazy auxiliary thread contexts are never created, so there is nothing to capture
+        // under the "auxiliary thread" timer
+        assertThat(lazyTrace.getHeader().hasAuxThreadRootTimer()).isFalse();
+        assertThat(lazyTrace.getEntryList()).isEmpty();
+        assertThat(getEntries(lazyTrace)).isEqualTo(getEntries(eagerTrace));
+    }
+
+    @Test
+    public void shouldCaptureTasksWithTimersAndEntries() throws Exception {
+        // when
+        Trace eagerTrace = eagerContainer.execute(DoSubmitTasksWithEntries.class);
+        Trace lazyTrace = lazyContainer.execute(DoSubmitTasksWithEntries.class);
+
+        // then
+        checkTrace(eagerTrace);
+        checkTrace(lazyTrace);
+        assertThat(getEntries(lazyTrace)).isEqualTo(getEntries(eagerTrace));
+        assertThat(getAuxThreadTimers(lazyTrace)).isEqualTo(getAuxThreadTimers(eagerTrace));
+    }
+
+    @Test
+    public void shouldCaptureNestedTasks() throws Exception {
+        // when
+        Trace eagerTrace = eagerContainer.execute(DoSubmitTasksWithEntries.class);
+        Trace lazyTrace = lazyContainer.execute(DoSubmitNestedTasksWithEntries.class);
+
+        // then
+        // the outer task never creates its full auxiliary thread context, so the nested tasks
+        // share its token and are captured the same as if they had been submitted directly from
+        // the transaction thread
+        checkTrace(lazyTrace);
+        assertThat(getEntries(lazyTrace)).isEqualTo(getEntries(eagerTrace));
+        assertThat(getAuxThreadTimers(lazyTrace)).isEqualTo(getAuxThreadTimers(eagerTrace));
+    }
+
+    @Test
+    public void shouldNotCountEmptyTasksAgainstAuxThreadContextLimit() throws Exception {
+        // when
+        Trace eagerTrace = eagerContainer.execute(DoSubmitTasksWithEntries.class);
+        Trace lazyTrace =
+                lazyContainer.execute(DoSubmitTasksWithEntriesWhileEmptyTasksRunning.class);
+
+        // then
+        // the running empty tasks exceed the auxiliary thread context limit of 5, but do not
+        // count against it, so the tasks with entries are still captured in full
+        checkTrace(lazyTrace);
+        assertThat(getEntries(lazyTrace)).isEqualTo(getEntries(eagerTrace));
+        assertThat(getAuxThreadTimers(lazyTrace)).isEqualTo(getAuxThreadTimers(eagerTrace));
+    }
+
+    private static void checkTrace(Trace trace) {
+        Trace.Header header = trace.getHeader();
+        assertThat(header.getAuxThreadRootTimer().getName()).isEqualTo("auxiliary thread");
+        assertThat(header.getAuxThreadRootTimer().getCount()).isEqualTo(3);
+        assertThat(header.getAuxThreadRootTimer().getChildTimerCount()).isEqualTo(1);
+        assertThat(header.getAuxThreadRootTimer().getChildTimer(0).getName())
+                .isEqualTo("mock trace entry marker");
+        List<Trace.Entry> entries = trace.getEntryList();
+        assertThat(entries).hasSize(6);
+        for (int i = 0; i < entries.size(); i += 2) {
+            assertThat(entries.get(i).getDepth()).isEqualTo(0);
+            assertThat(entries.get(i).getMessage()).isEqualTo("auxiliary thread");
+
+            assertThat(entries.get(i + 1).getDepth()).isEqualTo(1);
+            assertThat(entries.get(i + 1).getMessage())
+                    .isEqualTo("trace entry marker / CreateTraceEntry");
+        }
+    }
+
+    private static List<String> getEntries(Trace trace) {
+        List<String> entries = Lists.newArrayList();
+        for (Trace.Entry entry : trace.getEntryList()) {
+            entries.add(entry.getDepth() + " " + entry.getMessage());
+        }
+        return entries;
+    }
+
+    private static List<String> getAuxThreadTimers(Trace trace) {
+        List<String> timers = Lists.newArrayList();
+        if (trace.getHeader().hasAuxThreadRootTimer()) {
+            addTimers(trace.getHeader().getAuxThreadRootTimer(), 0, timers);
+        }
+        return timers;
+    }
+
+    private static void addTimers(Trace.Timer timer, int depth, List<String> timers) {
+        timers.add(depth + " " + timer.getName() + " " + timer.getCount());
+        for (Trace.Timer childTimer : timer.getChildTimerList()) {
+            addTimers(childTimer, depth + 1, timers);
+        }
+    }
+
+    private static void submitTasksWithEntries(ExecutorService executor,
+            final CountDownLatch latch) {
+        for (int i = 0; i < 3; i++) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    new CreateTraceEntry().traceEntryMarker();
+                    latch.countDown();
+                }
+            });
+        }
+    }
+
+    public static class DoSubmitEmptyTasks implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            ExecutorService executor = Executors.newCachedThreadPool();
+            final CountDownLatch latch = new CountDownLatch(3);
+            for (int i = 0; i < 3; i++) {
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        latch.countDown();
+                    }
+                });
+            }
+            latch.await();
+            executor.shutdown();
+            executor.awaitTermination(10, SECONDS);
+        }
+    }
+
+    public static class DoSubmitTasksWithEntries implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            ExecutorService executor = Executors.newCachedThreadPool();
+            CountDownLatch latch = new CountDownLatch(3);
+            submitTasksWithEntries(executor, latch);
+            latch.await();
+            executor.shutdown();
+            executor.awaitTermination(10, SECONDS);
+        }
+    }
+
+    public static class DoSubmitNestedTasksWithEntries implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            final ExecutorService executor = Executors.newCachedThreadPool();
+            final CountDownLatch latch = new CountDownLatch(3);
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // the outer task does not start any timers or trace entries itself (e.g. it
+                    // does not call Future.get(), which would start the "wait on future" timer)
+                    submitTasksWithEntries(executor, latch);
+                }
+            });
+            latch.await();
+            executor.shutdown();
+            executor.awaitTermination(10, SECONDS);
+        }
+    }
+
+    public static class DoSubmitTasksWithEntriesWhileEmptyTasksRunning
+            implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            ExecutorService executor = Executors.newCachedThreadPool();
+            final CountDownLatch emptyTasksStarted = new CountDownLatch(10);
+            final CountDownLatch releaseEmptyTasks = new CountDownLatch(1);
+            for (int i = 0; i < 10; i++) {
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        emptyTasksStarted.countDown();
+                        try {
+                            releaseEmptyTasks.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+            emptyTasksStarted.await();
+            CountDownLatch latch = new CountDownLatch(3);
+            submitTasksWithEntries(executor, latch);
+            latch.await();
+            releaseEmptyTasks.countDown();
+            executor.shutdown();
+            executor.awaitTermination(10, SECONDS);
+        }
+    }
+
+    private static class CreateTraceEntry implements TraceEntryMarker {
+
+        @Override
+        public void traceEntryMarker() {
+            try {
+                MILLISECONDS.sleep(100);
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+}
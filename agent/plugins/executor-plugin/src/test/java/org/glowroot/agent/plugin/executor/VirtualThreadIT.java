@@ -0,0 +1,202 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.executor;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.agent.it.harness.AppUnderTest;
+import org.glowroot.agent.it.harness.Container;
+import org.glowroot.agent.it.harness.TransactionMarker;
+import org.glowroot.agent.it.harness.impl.JavaagentContainer;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// virtual threads are accessed via reflection since tests are compiled for Java 8
+public class VirtualThreadIT {
+
+    private static final int VIRTUAL_THREAD_COUNT = 100000;
+
+    private static Container container;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        Assumptions.assumeTrue(isVirtualThreadSupported());
+        // tests only work with javaagent container because they need to weave bootstrap classes
+        // that implement Executor and ExecutorService, and java.lang.VirtualThread
+        container = JavaagentContainer.create();
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        // need null check in case assumption is false in setUp()
+        if (container != null) {
+            container.close();
+        }
+    }
+
+    @AfterEach
+    public void afterEachTest() throws Exception {
+        container.checkAndReset();
+    }
+
+    @Test
+    public void shouldCaptureVirtualThreadPerTaskExecutor() throws Exception {
+        // when
+        Trace trace = container.execute(DoVirtualThreadPerTaskExecutor.class);
+
+        // then
+        assertAuxThreadRootTimer(trace);
+    }
+
+    @Test
+    public void shouldCaptureStartVirtualThread() throws Exception {
+        // when
+        Trace trace = container.execute(DoStartVirtualThread.class);
+
+        // then
+        assertAuxThreadRootTimer(trace);
+    }
+
+    @Test
+    public void shouldCaptureTransactionOnVirtualThread() throws Exception {
+        // when
+        Trace trace = container.execute(DoTransactionOnVirtualThread.class);
+
+        // then
+        assertThat(trace.getHeader().getMainThreadRootTimer().getTotalNanos())
+                .isGreaterThanOrEqualTo(MILLISECONDS.toNanos(10));
+        // ThreadMXBean does not support virtual threads
+        assertThat(trace.getHeader().getMainThreadStats().getCpuNanos()).isEqualTo(-1);
+    }
+
+    private static void assertAuxThreadRootTimer(Trace trace) {
+        assertThat(trace.getEntryList()).isEmpty();
+        assertThat(trace.getHeader().hasAuxThreadRootTimer()).isTrue();
+        Trace.Timer auxThreadRootTimer = trace.getHeader().getAuxThreadRootTimer();
+        assertThat(auxThreadRootTimer.getCount()).isEqualTo(VIRTUAL_THREAD_COUNT);
+        assertThat(auxThreadRootTimer.getActive()).isFalse();
+    }
+
+    private static boolean isVirtualThreadSupported() {
+        try {
+            Thread.class.getMethod("startVirtualThread", Runnable.class);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static Thread startVirtualThread(Runnable runnable) throws Exception {
+        Method method = Thread.class.getMethod("startVirtualThread", Runnable.class);
+        return (Thread) method.invoke(null, runnable);
+    }
+
+    public static class DoVirtualThreadPerTaskExecutor implements AppUnderTest, TransactionMarker {
+
+        private final CountDownLatch latch = new CountDownLatch(VIRTUAL_THREAD_COUNT);
+
+        @Override
+        public void executeApp() throws Exception {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService executor = (ExecutorService) method.invoke(null);
+            for (int i = 0; i < VIRTUAL_THREAD_COUNT; i++) {
+                executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        // sleeping unmounts the virtual thread, so that all of the virtual threads
+                        // are active concurrently
+                        MILLISECONDS.sleep(10);
+                        latch.countDown();
+                        return null;
+                    }
+                });
+            }
+            latch.await();
+            executor.shutdown();
+            executor.awaitTermination(10, SECONDS);
+        }
+    }
+
+    public static class DoStartVirtualThread implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            Thread[] threads = new Thread[VIRTUAL_THREAD_COUNT];
+            for (int i = 0; i < VIRTUAL_THREAD_COUNT; i++) {
+                threads[i] = startVirtualThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            // sleeping unmounts the virtual thread, so that all of the virtual
+                            // threads are active concurrently
+                            MILLISECONDS.sleep(10);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+    }
+
+    public static class DoTransactionOnVirtualThread implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            startVirtualThread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        transactionMarker();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }).join();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            MILLISECONDS.sleep(10);
+        }
+    }
+}
@@ -25,6 +25,7 @@ import org.glowroot.agent.plugin.api.checker.Nullable;
 import org.glowroot.agent.plugin.api.config.BooleanProperty;
 import org.glowroot.agent.plugin.api.config.ConfigService;
 import org.glowroot.agent.plugin.api.weaving.BindParameter;
+import org.glowroot.agent.plugin.api.weaving.BindReceiver;
 import org.glowroot.agent.plugin.api.weaving.BindReturn;
 import org.glowroot.agent.plugin.api.weaving.BindThrowable;
 import org.glowroot.agent.plugin.api.weaving.BindTraveler;
@@ -68,14 +69,17 @@ public class ConnectionAspect {
             }
         }
         @OnReturn
-        public static void onReturn(@BindReturn @Nullable Object preparedStatement,
+        public static void onReturn(@BindReceiver Object connection,
+                @BindReturn @Nullable Object preparedStatement,
                 @BindParameter @Nullable String sql) {
             if (sql == null) {
                 // seems nothing sensible to do here other than ignore
                 return;
             }
             if (preparedStatement instanceof HasStatementMirrorMixin) {
-                ((HasStatementMirrorMixin) preparedStatement).glowroot$setStatementMirror(new PreparedStatementMirror(sql));
+                ((HasStatementMirrorMixin) preparedStatement).glowroot$setStatementMirror(
+                        new PreparedStatementMirror(sql, JdbcPluginProperties
+                                .backslashEscapes(connection.getClass().getName())));
             }
         }
         @OnAfter
@@ -90,9 +94,12 @@ public class ConnectionAspect {
             methodParameterTypes = {".."})
     public static class CreateStatementAdvice {
         @OnReturn
-        public static void onReturn(@BindReturn @Nullable Object statement) {
+        public static void onReturn(@BindReceiver Object connection,
+                @BindReturn @Nullable Object statement) {
             if (statement instanceof HasStatementMirrorMixin) {
-                ((HasStatementMirrorMixin) statement).glowroot$setStatementMirror(new StatementMirror());
+                ((HasStatementMirrorMixin) statement).glowroot$setStatementMirror(
+                        new StatementMirror(JdbcPluginProperties
+                                .backslashEscapes(connection.getClass().getName())));
             }
         }
     }
@@ -18,12 +18,14 @@ package org.glowroot.agent.plugin.jdbc;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.glowroot.agent.plugin.api.Agent;
 import org.glowroot.agent.plugin.api.config.ConfigListener;
 import org.glowroot.agent.plugin.api.config.ConfigService;
+import org.glowroot.agent.plugin.api.util.ImmutableList;
 import org.glowroot.agent.plugin.api.util.ImmutableMap;
 
 // this is public so it can be called from other plugins
@@ -34,6 +36,15 @@ public class JdbcPluginProperties {
     // visibility is provided by memoryBarrier in org.glowroot.config.ConfigService
     private static int stackTraceThresholdMillis;
 
+    // visibility is provided by memoryBarrier in org.glowroot.config.ConfigService
+    private static int batchBindParameterSampleInterval;
+
+    // visibility is provided by memoryBarrier in org.glowroot.config.ConfigService
+    private static List<String> lightweightResultSetNavigateClasses = Collections.emptyList();
+
+    // visibility is provided by memoryBarrier in org.glowroot.config.ConfigService
+    private static List<String> backslashEscapeConnectionClasses = Collections.emptyList();
+
     private static volatile Map<String, Set<Integer>> displayBinaryParameterAsHex =
             Collections.emptyMap();
 
@@ -43,6 +54,13 @@ public class JdbcPluginProperties {
             public void onChange() {
                 Double value = configService.getDoubleProperty("stackTraceThresholdMillis").value();
                 stackTraceThresholdMillis = value == null ? Integer.MAX_VALUE : value.intValue();
+                value = configService.getDoubleProperty("batchBindParameterSampleInterval").value();
+                batchBindParameterSampleInterval =
+                        value == null || value < 1 ? 1 : value.intValue();
+                lightweightResultSetNavigateClasses = ImmutableList.copyOf(configService
+                        .getListProperty("lightweightResultSetNavigateClasses").value());
+                backslashEscapeConnectionClasses = ImmutableList.copyOf(configService
+                        .getListProperty("backslashEscapeConnectionClasses").value());
             }
         });
     }
@@ -72,6 +90,34 @@ public class JdbcPluginProperties {
         return stackTraceThresholdMillis;
     }
 
+    static int batchBindParameterSampleInterval() {
+        return batchBindParameterSampleInterval;
+    }
+
+    // matched against the ResultSet class name, which identifies the jdbc driver (or the connection
+    // pool if it wraps ResultSets)
+    static boolean lightweightResultSetNavigate(String resultSetClassName) {
+        for (String prefix : lightweightResultSetNavigateClasses) {
+            if (resultSetClassName.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // matched against the Connection class name, which identifies the jdbc driver (or the
+    // connection pool if it wraps Connections), and decides whether backslash is treated as an
+    // escape character inside string literals when fingerprinting queries (e.g. MySQL's default
+    // 'it\'s', as opposed to standard sql where 'C:\' is a complete literal)
+    static boolean backslashEscapes(String connectionClassName) {
+        for (String prefix : backslashEscapeConnectionClasses) {
+            if (connectionClassName.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     static boolean displayBinaryParameterAsHex(String sql, int parameterIndex) {
         Set<Integer> set = displayBinaryParameterAsHex.get(sql);
         return set != null && set.contains(parameterIndex);
@@ -15,11 +15,8 @@
  */
 package org.glowroot.agent.plugin.jdbc;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.concurrent.ConcurrentLinkedQueue;
-
 import org.glowroot.agent.plugin.api.checker.Nullable;
+import org.glowroot.agent.plugin.jdbc.message.BatchBindParameterList;
 import org.glowroot.agent.plugin.jdbc.message.BindParameterList;
 
 // used to capture and mirror the state of prepared statements since the underlying
@@ -37,29 +34,40 @@ class PreparedStatementMirror extends StatementMirror {
     private boolean parametersShared;
     // ok for this field to be non-volatile since it is only temporary storage for a single thread
     // while that thread is setting parameter values into the prepared statement and executing it
-    private @Nullable Collection<BindParameterList> batchedParameters;
+    //
+    // the captured rows are copied into a single list, so the parameters themselves are not shared
+    // (and can continue to be re-used) when adding to a batch
+    private @Nullable BatchBindParameterList batchedParameters;
     private int batchSize;
 
-    PreparedStatementMirror(String sql) {
+    PreparedStatementMirror(String sql, boolean backslashEscapes) {
+        super(backslashEscapes);
         this.sql = sql;
         // TODO delay creation to optimize case when bind parameter capture is disabled
         parameters = new BindParameterList(PARAMETERS_INITIAL_CAPACITY);
     }
 
-    void addBatch() {
-        // synchronization isn't an issue here as this method is called only by the monitored thread
+    void addBatch(int sampleInterval) {
+        if (batchSize++ % sampleInterval != 0) {
+            return;
+        }
         if (batchedParameters == null) {
-            batchedParameters = new ConcurrentLinkedQueue<BindParameterList>();
+            batchedParameters = new BatchBindParameterList(parameters.size(), sampleInterval);
         }
-        if (batchSize++ < CAPTURED_BATCH_SIZE_LIMIT) {
-            batchedParameters.add(parameters);
-            parametersShared = true;
+        if (batchedParameters.getRowCount() < CAPTURED_BATCH_SIZE_LIMIT) {
+            batchedParameters.addRow(parameters);
         }
     }
 
-    Collection<BindParameterList> getBatchedParameters() {
+    void addBatchWithoutParameters() {
+        batchSize++;
+    }
+
+    // the returned list is handed off to the query message supplier, so the caller must follow
+    // with clearBatch()
+    BatchBindParameterList getBatchedParameters() {
         if (batchedParameters == null) {
-            return Collections.emptyList();
+            return new BatchBindParameterList(0, 1);
         } else {
             return batchedParameters;
         }
@@ -88,6 +96,34 @@ class PreparedStatementMirror extends StatementMirror {
         parameters.set(parameterIndex - 1, object);
     }
 
+    void setParameterValue(int parameterIndex, long value) {
+        if (parametersShared) {
+            copyParameters();
+        }
+        parameters.setLong(parameterIndex - 1, value);
+    }
+
+    void setParameterValue(int parameterIndex, double value) {
+        if (parametersShared) {
+            copyParameters();
+        }
+        parameters.setDouble(parameterIndex - 1, value);
+    }
+
+    void setParameterValue(int parameterIndex, float value) {
+        if (parametersShared) {
+            copyParameters();
+        }
+        parameters.setFloat(parameterIndex - 1, value);
+    }
+
+    void setParameterValue(int parameterIndex, boolean value) {
+        if (parametersShared) {
+            copyParameters();
+        }
+        parameters.setBoolean(parameterIndex - 1, value);
+    }
+
     private void copyParameters() {
         parameters = BindParameterList.copyOf(parameters);
         parametersShared = false;
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.glowroot.agent.plugin.api.checker.Nullable;
+
+// converts sql into a fingerprint (string and numeric literals replaced by ?, IN lists collapsed to
+// a single ?, comments removed and whitespace normalized) so that queries that only differ by their
+// literals are aggregated together
+//
+// backslash escapes inside string literals (e.g. MySQL's default 'it\'s') are only honored when
+// requested, since in standard sql backslash is an ordinary character (e.g. 'C:\' is a complete
+// literal)
+//
+// fingerprints are cached (LRU) since the same sql is typically executed over and over, and the
+// cache is segmented to reduce lock contention
+class QueryFingerprints {
+
+    private static final int SEGMENT_COUNT = 16;
+    private static final int SEGMENT_CAPACITY = 64;
+
+    // queries longer than this are not cached, to bound the memory retained by the cache
+    private static final int MAX_CACHED_SQL_LENGTH = 10000;
+
+    // keywords that can be followed by a negative numeric literal, e.g. "between -2 and -1"
+    private static final String[] KEYWORDS_BEFORE_OPERAND = {"and", "or", "not", "select",
+            "where", "between", "case", "when", "then", "else", "by", "like", "is", "in", "on",
+            "set", "values", "having", "limit", "offset", "return"};
+
+    private static final LruCache[] standardSegments = createSegments();
+    private static final LruCache[] backslashEscapeSegments = createSegments();
+
+    private QueryFingerprints() {}
+
+    static String get(String sql, boolean backslashEscapes) {
+        if (sql.length() > MAX_CACHED_SQL_LENGTH) {
+            return fingerprint(sql, backslashEscapes);
+        }
+        LruCache[] segments = backslashEscapes ? backslashEscapeSegments : standardSegments;
+        LruCache segment = segments[(sql.hashCode() & Integer.MAX_VALUE) % SEGMENT_COUNT];
+        @Nullable String fingerprint;
+        synchronized (segment) {
+            fingerprint = segment.get(sql);
+        }
+        if (fingerprint == null) {
+            fingerprint = fingerprint(sql, backslashEscapes);
+            synchronized (segment) {
+                segment.put(sql, fingerprint);
+            }
+        }
+        return fingerprint;
+    }
+
+    // single pass over the sql
+    static String fingerprint(String sql, boolean backslashEscapes) {
+        int length = sql.length();
+        StringBuilder sb = new StringBuilder(length);
+        // index in sb right after the opening parenthesis of a possible IN list, or -1
+        int inListStart = -1;
+        // whether the last token written was the keyword IN
+        boolean lastTokenIn = false;
+        // whether the last token written was an operand (as opposed to an operator or keyword),
+        // which distinguishes subtraction from the sign of a negative numeric literal
+        boolean lastTokenOperand = false;
+        boolean pendingSpace = false;
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+                i++;
+                continue;
+            }
+            if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                i = skipLineComment(sql, i + 2);
+                pendingSpace = true;
+                continue;
+            }
+            if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                i = skipBlockComment(sql, i + 2);
+                pendingSpace = true;
+                continue;
+            }
+            if (pendingSpace && sb.length() > 0) {
+                sb.append(' ');
+            }
+            pendingSpace = false;
+            if (c == '\'') {
+                i = skipQuoted(sql, i + 1, '\'', backslashEscapes);
+                sb.append('?');
+                lastTokenIn = false;
+                lastTokenOperand = true;
+            } else if (isNumberStart(sql, i)) {
+                i = skipNumber(sql, i);
+                sb.append('?');
+                lastTokenIn = false;
+                lastTokenOperand = true;
+            } else if (c == '-' && !lastTokenOperand && isNumberStart(sql, i + 1)) {
+                // the sign is part of the literal so that e.g. x = -1 and x = 1 have the same
+                // fingerprint
+                i = skipNumber(sql, i + 1);
+                sb.append('?');
+                lastTokenIn = false;
+                lastTokenOperand = true;
+            } else if (c == '"' || c == '`') {
+                // quoted identifier
+                int end = skipQuoted(sql, i + 1, c, backslashEscapes);
+                sb.append(sql, i, end);
+                i = end;
+                lastTokenIn = false;
+                lastTokenOperand = true;
+                inListStart = -1;
+            } else if (isIdentifierPart(c)) {
+                int end = i + 1;
+                while (end < length && isIdentifierPart(sql.charAt(end))) {
+                    end++;
+                }
+                sb.append(sql, i, end);
+                lastTokenIn = end - i == 2 && (c == 'i' || c == 'I')
+                        && (sql.charAt(i + 1) == 'n' || sql.charAt(i + 1) == 'N');
+                lastTokenOperand = !isKeywordBeforeOperand(sql, i, end);
+                i = end;
+                inListStart = -1;
+            } else {
+                sb.append(c);
+                i++;
+                lastTokenOperand = c == ')' || c == '?';
+                if (c == '(') {
+                    inListStart = lastTokenIn ? sb.length() : -1;
+                } else if (c == ')') {
+                    if (inListStart != -1) {
+                        sb.setLength(inListStart);
+                        sb.append("?)");
+                    }
+                    inListStart = -1;
+                } else if (c != ',' && c != '?' && c != '-' && c != '+') {
+                    inListStart = -1;
+                }
+                lastTokenIn = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int skipLineComment(String sql, int i) {
+        int length = sql.length();
+        while (i < length && sql.charAt(i) != '\n' && sql.charAt(i) != '\r') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipBlockComment(String sql, int i) {
+        int end = sql.indexOf("*/", i);
+        return end == -1 ? sql.length() : end + 2;
+    }
+
+    // returns the index after the closing quote, handling doubled quotes as escapes, and (if
+    // requested, and except inside backtick quoted identifiers) backslash escapes
+    private static int skipQuoted(String sql, int i, char quote, boolean backslashEscapes) {
+        int length = sql.length();
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\\' && backslashEscapes && quote != '`') {
+                // the escaped character (if any) is part of the literal
+                i += 2;
+            } else if (c == quote) {
+                if (i + 1 < length && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                i++;
+            }
+        }
+        return length;
+    }
+
+    private static int skipNumber(String sql, int i) {
+        int length = sql.length();
+        if (sql.startsWith("0x", i) || sql.startsWith("0X", i)) {
+            i += 2;
+            while (i < length && Character.digit(sql.charAt(i), 16) != -1) {
+                i++;
+            }
+            return i;
+        }
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (isDigit(c) || c == '.') {
+                i++;
+            } else if ((c == 'e' || c == 'E') && i + 1 < length) {
+                char next = sql.charAt(i + 1);
+                if (isDigit(next)) {
+                    i += 2;
+                } else if ((next == '-' || next == '+') && i + 2 < length
+                        && isDigit(sql.charAt(i + 2))) {
+                    i += 3;
+                } else {
+                    return i;
+                }
+            } else {
+                return i;
+            }
+        }
+        return i;
+    }
+
+    private static boolean isNumberStart(String sql, int i) {
+        int length = sql.length();
+        if (i >= length) {
+            return false;
+        }
+        char c = sql.charAt(i);
+        return isDigit(c) || c == '.' && i + 1 < length && isDigit(sql.charAt(i + 1));
+    }
+
+    private static boolean isKeywordBeforeOperand(String sql, int start, int end) {
+        for (String keyword : KEYWORDS_BEFORE_OPERAND) {
+            if (keyword.length() == end - start
+                    && sql.regionMatches(true, start, keyword, 0, keyword.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#' || c == '@';
+    }
+
+    private static LruCache[] createSegments() {
+        LruCache[] segments = new LruCache[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new LruCache();
+        }
+        return segments;
+    }
+
+    @SuppressWarnings("serial")
+    private static class LruCache extends LinkedHashMap<String, String> {
+
+        private LruCache() {
+            super(SEGMENT_CAPACITY, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > SEGMENT_CAPACITY;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import org.glowroot.agent.plugin.api.Logger;
 import org.glowroot.agent.plugin.api.QueryEntry;
 import org.glowroot.agent.plugin.api.Timer;
 import org.glowroot.agent.plugin.api.checker.NonNull;
+import org.glowroot.agent.plugin.api.checker.Nullable;
 import org.glowroot.agent.plugin.api.config.BooleanProperty;
 import org.glowroot.agent.plugin.api.config.ConfigService;
 import org.glowroot.agent.plugin.api.weaving.BindReceiver;
@@ -43,6 +44,9 @@ public class ResultSetAspect {
         int getRow();
     }
 
+    // for ResultSet classes configured for lightweight navigation, ResultSet.next() is not timed
+    // and rows are only counted in the StatementMirror, which avoids the timer and query entry
+    // overhead for queries that iterate over millions of rows
     @Pointcut(className = "java.sql.ResultSet", methodName = "next", methodParameterTypes = {},
             nestingGroup = "jdbc")
     public static class NextAdvice {
@@ -50,10 +54,16 @@ public class ResultSetAspect {
                 configService.getBooleanProperty("captureResultSetNavigate");
         @IsEnabled
         public static boolean isEnabled(@BindReceiver HasStatementMirrorMixin resultSet) {
-            return timerEnabled.value() && isEnabledCommon(resultSet);
+            StatementMirror mirror = resultSet.glowroot$getStatementMirror();
+            return mirror != null && mirror.getLastQueryEntry() != null
+                    && (mirror.isLightweightNavigate() || timerEnabled.value());
         }
         @OnBefore
-        public static Timer onBefore(@BindReceiver HasStatementMirrorMixin resultSet) {
+        public static @Nullable Timer onBefore(@BindReceiver HasStatementMirrorMixin resultSet) {
+            StatementMirror mirror = resultSet.glowroot$getStatementMirror();
+            if (mirror == null || mirror.isLightweightNavigate()) {
+                return null;
+            }
             return onBeforeCommon(resultSet);
         }
         @OnReturn
@@ -65,6 +75,10 @@ public class ResultSetAspect {
                 // bizarre concurrent mis-usage of ResultSet
                 return;
             }
+            if (mirror.isLightweightNavigate()) {
+                mirror.lightweightNext(currentRowValid);
+                return;
+            }
             QueryEntry lastQueryEntry = mirror.getLastQueryEntry();
             if (lastQueryEntry == null) {
                 // tracing must be disabled (e.g. exceeded trace entry limit)
@@ -79,8 +93,10 @@ public class ResultSetAspect {
             }
         }
         @OnAfter
-        public static void onAfter(@BindTraveler Timer timer) {
-            timer.stop();
+        public static void onAfter(@BindTraveler @Nullable Timer timer) {
+            if (timer != null) {
+                timer.stop();
+            }
         }
     }
 
@@ -112,7 +128,11 @@ public class ResultSetAspect {
                     // tracing must be disabled (e.g. exceeded trace entry limit)
                     return;
                 }
-                lastQueryEntry.setCurrRow(((ResultSet) resultSet).getRow());
+                int row = ((ResultSet) resultSet).getRow();
+                if (mirror.isLightweightNavigate()) {
+                    mirror.setLightweightRow(row);
+                }
+                lastQueryEntry.setCurrRow(row);
             } catch (Exception e) {
                 logger.warn(e.getMessage(), e);
             }
@@ -123,6 +143,25 @@ public class ResultSetAspect {
         }
     }
 
+    @Pointcut(className = "java.sql.ResultSet", methodName = "close", methodParameterTypes = {},
+            nestingGroup = "jdbc")
+    public static class CloseAdvice {
+        @IsEnabled
+        public static boolean isEnabled(@BindReceiver HasStatementMirrorMixin resultSet) {
+            StatementMirror mirror = resultSet.glowroot$getStatementMirror();
+            return mirror != null && mirror.isLightweightNavigate();
+        }
+        @OnReturn
+        public static void onReturn(@BindReceiver HasStatementMirrorMixin resultSet) {
+            StatementMirror mirror = resultSet.glowroot$getStatementMirror();
+            if (mirror != null) {
+                // report rows read since the last periodic report, in case the ResultSet was not
+                // read until exhausted
+                mirror.reportLightweightRow();
+            }
+        }
+    }
+
     @Pointcut(className = "java.sql.ResultSet", methodName = "get*",
             methodParameterTypes = {"int", ".."}, nestingGroup = "jdbc")
     public static class ValueAdvice {
@@ -60,6 +60,9 @@ public class StatementAspect {
     private static final BooleanProperty captureStatementClose =
             configService.getBooleanProperty("captureStatementClose");
 
+    private static final BooleanProperty fingerprintQueries =
+            configService.getBooleanProperty("fingerprintQueries");
+
     private static boolean captureBindParameters;
 
     static {
@@ -115,9 +118,8 @@ public class StatementAspect {
     // ================= Parameter Binding =================
 
     @Pointcut(className = "java.sql.PreparedStatement",
-            methodName = "setArray|setBigDecimal"
-                    + "|setBoolean|setByte|setDate|setDouble|setFloat|setInt|setLong|setNString"
-                    + "|setRef|setRowId|setShort|setString|setTime|setTimestamp|setURL",
+            methodName = "setArray|setBigDecimal|setByte|setDate|setNString|setRef|setRowId"
+                    + "|setShort|setString|setTime|setTimestamp|setURL",
             methodParameterTypes = {"int", "*", ".."})
     public static class SetXAdvice {
         @IsEnabled
@@ -135,6 +137,99 @@ public class StatementAspect {
         }
     }
 
+    // the primitive setters have their own pointcuts so that the values are bound (and captured)
+    // without boxing
+
+    @Pointcut(className = "java.sql.PreparedStatement", methodName = "setInt",
+            methodParameterTypes = {"int", "int"})
+    public static class SetIntAdvice {
+        @IsEnabled
+        public static boolean isEnabled() {
+            return captureBindParameters;
+        }
+        @OnReturn
+        public static void onReturn(@BindReceiver HasStatementMirrorMixin preparedStatement,
+                @BindParameter int parameterIndex, @BindParameter int x) {
+            PreparedStatementMirror mirror =
+                    (PreparedStatementMirror) preparedStatement.glowroot$getStatementMirror();
+            if (mirror != null) {
+                mirror.setParameterValue(parameterIndex, (long) x);
+            }
+        }
+    }
+
+    @Pointcut(className = "java.sql.PreparedStatement", methodName = "setLong",
+            methodParameterTypes = {"int", "long"})
+    public static class SetLongAdvice {
+        @IsEnabled
+        public static boolean isEnabled() {
+            return captureBindParameters;
+        }
+        @OnReturn
+        public static void onReturn(@BindReceiver HasStatementMirrorMixin preparedStatement,
+                @BindParameter int parameterIndex, @BindParameter long x) {
+            PreparedStatementMirror mirror =
+                    (PreparedStatementMirror) preparedStatement.glowroot$getStatementMirror();
+            if (mirror != null) {
+                mirror.setParameterValue(parameterIndex, x);
+            }
+        }
+    }
+
+    @Pointcut(className = "java.sql.PreparedStatement", methodName = "setDouble",
+            methodParameterTypes = {"int", "double"})
+    public static class SetDoubleAdvice {
+        @IsEnabled
+        public static boolean isEnabled() {
+            return captureBindParameters;
+        }
+        @OnReturn
+        public static void onReturn(@BindReceiver HasStatementMirrorMixin preparedStatement,
+                @BindParameter int parameterIndex, @BindParameter double x) {
+            PreparedStatementMirror mirror =
+                    (PreparedStatementMirror) preparedStatement.glowroot$getStatementMirror();
+            if (mirror != null) {
+                mirror.setParameterValue(parameterIndex, x);
+            }
+        }
+    }
+
+    @Pointcut(className = "java.sql.PreparedStatement", methodName = "setFloat",
+            methodParameterTypes = {"int", "float"})
+    public static class SetFloatAdvice {
+        @IsEnabled
+        public static boolean isEnabled() {
+            return captureBindParameters;
+        }
+        @OnReturn
+        public static void onReturn(@BindReceiver HasStatementMirrorMixin preparedStatement,
+                @BindParameter int parameterIndex, @BindParameter float x) {
+            PreparedStatementMirror mirror =
+                    (PreparedStatementMirror) preparedStatement.glowroot$getStatementMirror();
+            if (mirror != null) {
+                mirror.setParameterValue(parameterIndex, x);
+            }
+        }
+    }
+
+    @Pointcut(className = "java.sql.PreparedStatement", methodName = "setBoolean",
+            methodParameterTypes = {"int", "boolean"})
+    public static class SetBooleanAdvice {
+        @IsEnabled
+        public static boolean isEnabled() {
+            return captureBindParameters;
+        }
+        @OnReturn
+        public static void onReturn(@BindReceiver HasStatementMirrorMixin preparedStatement,
+                @BindParameter int parameterIndex, @BindParameter boolean x) {
+            PreparedStatementMirror mirror =
+                    (PreparedStatementMirror) preparedStatement.glowroot$getStatementMirror();
+            if (mirror != null) {
+                mirror.setParameterValue(parameterIndex, x);
+            }
+        }
+    }
+
     @Pointcut(className = "java.sql.PreparedStatement",
             methodName = "setAsciiStream|setBinaryStream|setBlob|setCharacterStream|setClob"
                     + "|setNCharacterStream|setNClob|setSQLXML|setUnicodeStream",
@@ -273,7 +368,11 @@ public class StatementAspect {
             PreparedStatementMirror mirror =
                     (PreparedStatementMirror) preparedStatement.glowroot$getStatementMirror();
             if (mirror != null) {
-                mirror.addBatch();
+                if (captureBindParameters) {
+                    mirror.addBatch(JdbcPluginProperties.batchBindParameterSampleInterval());
+                } else {
+                    mirror.addBatchWithoutParameters();
+                }
             }
         }
     }
@@ -316,7 +415,7 @@ public class StatementAspect {
                 // this shouldn't happen since just checked hasGlowrootStatementMirror() above
                 return null;
             }
-            QueryEntry query = context.startQueryEntry(QUERY_TYPE, sql,
+            QueryEntry query = context.startQueryEntry(QUERY_TYPE, getQueryText(sql, mirror),
                     QueryMessageSupplier.create("jdbc query: "), timerName);
             mirror.setLastQueryEntry(query);
             return query;
@@ -360,8 +459,7 @@ public class StatementAspect {
             // duper fast due to ResultSet wrapping and other checks, so StatementMirror is
             // stored directly in ResultSet as an optimization
             if (resultSet != null) {
-                StatementMirror mirror = statement.glowroot$getStatementMirror();
-                resultSet.glowroot$setStatementMirror(mirror);
+                setStatementMirror(resultSet, statement.glowroot$getStatementMirror());
             }
             if (queryEntry != null) {
                 queryEntry.endWithLocationStackTrace(
@@ -426,15 +524,15 @@ public class StatementAspect {
             PreparedStatementMirror mirror =
                     (PreparedStatementMirror) preparedStatement.glowroot$getStatementMirror();
             QueryMessageSupplier queryMessageSupplier;
-            String queryText = mirror.getSql();
+            String sql = mirror.getSql();
             if (captureBindParameters) {
                 queryMessageSupplier =
-                        new PreparedStatementMessageSupplier(mirror.getParameters(), queryText);
+                        new PreparedStatementMessageSupplier(mirror.getParameters(), sql);
             } else {
                 queryMessageSupplier = QueryMessageSupplier.create("jdbc query: ");
             }
-            QueryEntry queryEntry =
-                    context.startQueryEntry(QUERY_TYPE, queryText, queryMessageSupplier, timerName);
+            QueryEntry queryEntry = context.startQueryEntry(QUERY_TYPE, getQueryText(sql, mirror),
+                    queryMessageSupplier, timerName);
             mirror.setLastQueryEntry(queryEntry);
             return queryEntry;
         }
@@ -472,8 +570,7 @@ public class StatementAspect {
             // duper fast due to ResultSet wrapping and other checks, so StatementMirror is
             // stored directly in ResultSet as an optimization
             if (resultSet != null) {
-                StatementMirror mirror = preparedStatement.glowroot$getStatementMirror();
-                resultSet.glowroot$setStatementMirror(mirror);
+                setStatementMirror(resultSet, preparedStatement.glowroot$getStatementMirror());
             }
             queryEntry.endWithLocationStackTrace(JdbcPluginProperties.stackTraceThresholdMillis(),
                     MILLISECONDS);
@@ -558,7 +655,7 @@ public class StatementAspect {
         private static QueryEntry onBeforePreparedStatement(ThreadContext context,
                 PreparedStatementMirror mirror) {
             QueryMessageSupplier queryMessageSupplier;
-            String queryText = mirror.getSql();
+            String queryText = getQueryText(mirror.getSql(), mirror);
             int batchSize = mirror.getBatchSize();
             if (batchSize <= 0) {
                 queryText = "[empty batch] " + queryText;
@@ -588,7 +685,7 @@ public class StatementAspect {
                     if (!first) {
                         sb.append(", ");
                     }
-                    sb.append(sql);
+                    sb.append(getQueryText(sql, mirror));
                     first = false;
                 }
                 concatenated = sb.toString();
@@ -616,8 +713,7 @@ public class StatementAspect {
             if (resultSet == null) {
                 return;
             }
-            StatementMirror mirror = statement.glowroot$getStatementMirror();
-            resultSet.glowroot$setStatementMirror(mirror);
+            setStatementMirror(resultSet, statement.glowroot$getStatementMirror());
         }
     }
 
@@ -652,4 +748,22 @@ public class StatementAspect {
             }
         }
     }
+
+    private static void setStatementMirror(HasStatementMirrorMixin resultSet,
+            @Nullable StatementMirror mirror) {
+        if (mirror != null) {
+            String resultSetClassName = resultSet.getClass().getName();
+            mirror.setLightweightNavigate(
+                    JdbcPluginProperties.lightweightResultSetNavigate(resultSetClassName));
+        }
+        resultSet.glowroot$setStatementMirror(mirror);
+    }
+
+    private static String getQueryText(String sql, StatementMirror mirror) {
+        if (fingerprintQueries.value()) {
+            return QueryFingerprints.get(sql, mirror.isBackslashEscapes());
+        } else {
+            return sql;
+        }
+    }
 }
@@ -28,6 +28,13 @@ import org.glowroot.agent.plugin.api.checker.Nullable;
 // this class must be public since it is referenced from bytecode inside other packages via @Mixin
 public class StatementMirror {
 
+    // report every 1024 rows
+    private static final int LIGHTWEIGHT_ROW_REPORTING_MASK = 1023;
+
+    // whether string literals in this statement's sql can contain backslash escapes, which is
+    // decided by the Connection class (see JdbcPluginProperties.backslashEscapes())
+    private final boolean backslashEscapes;
+
     // this field is not used by PreparedStatementMirror subclass
     //
     // ok for this field to be non-volatile since it is only temporary storage for a single thread
@@ -38,6 +45,20 @@ public class StatementMirror {
     // while that thread is adding batches into the statement and executing it
     private @Nullable QueryEntry lastQueryEntry;
 
+    // whether ResultSet.next() only counts rows (see ResultSetAspect.NextAdvice), which is decided
+    // by the ResultSet class, and all ResultSets for a given statement are from the same driver
+    private boolean lightweightNavigate;
+    // current row of the last query entry's ResultSet, only used for lightweight navigation
+    private long lightweightRow;
+
+    StatementMirror(boolean backslashEscapes) {
+        this.backslashEscapes = backslashEscapes;
+    }
+
+    boolean isBackslashEscapes() {
+        return backslashEscapes;
+    }
+
     void addBatch(String sql) {
         // synchronization isn't an issue here as this method is called only by
         // the monitored thread
@@ -66,9 +87,45 @@ public class StatementMirror {
 
     void setLastQueryEntry(QueryEntry lastQueryEntry) {
         this.lastQueryEntry = lastQueryEntry;
+        lightweightRow = 0;
     }
 
     void clearLastQueryEntry() {
         lastQueryEntry = null;
     }
+
+    boolean isLightweightNavigate() {
+        return lightweightNavigate;
+    }
+
+    void setLightweightNavigate(boolean lightweightNavigate) {
+        this.lightweightNavigate = lightweightNavigate;
+    }
+
+    // rows are counted in this field and only reported to the query entry periodically (so that
+    // active traces still show progress) and once the ResultSet is exhausted or closed
+    void lightweightNext(boolean currentRowValid) {
+        if (currentRowValid) {
+            if ((++lightweightRow & LIGHTWEIGHT_ROW_REPORTING_MASK) == 0) {
+                reportLightweightRow();
+            }
+        } else {
+            reportLightweightRow();
+        }
+    }
+
+    void setLightweightRow(long row) {
+        lightweightRow = row;
+    }
+
+    void reportLightweightRow() {
+        QueryEntry lastQueryEntry = this.lastQueryEntry;
+        if (lastQueryEntry == null) {
+            return;
+        }
+        lastQueryEntry.rowNavigationAttempted();
+        if (lightweightRow > 0) {
+            lastQueryEntry.setCurrRow(lightweightRow);
+        }
+    }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc.message;
+
+import java.util.Arrays;
+
+// stores the bind parameters of all captured rows of a batch contiguously in a single
+// BindParameterList, instead of one BindParameterList per row
+public class BatchBindParameterList {
+
+    private static final int ROWS_INITIAL_CAPACITY = 16;
+
+    private final BindParameterList parameters;
+    // only every Nth row of the batch is captured
+    private final int sampleInterval;
+
+    // rowEnds[i] is the (exclusive) end index of row i in parameters
+    private int[] rowEnds = new int[ROWS_INITIAL_CAPACITY];
+    private int rowCount;
+
+    public BatchBindParameterList(int rowSize, int sampleInterval) {
+        parameters = new BindParameterList(rowSize * ROWS_INITIAL_CAPACITY);
+        this.sampleInterval = sampleInterval;
+    }
+
+    public void addRow(BindParameterList row) {
+        parameters.addAll(row);
+        if (rowCount == rowEnds.length) {
+            rowEnds = Arrays.copyOf(rowEnds, rowCount + (rowCount >> 1));
+        }
+        rowEnds[rowCount++] = parameters.size();
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    void appendRow(StringBuilder sb, int row) {
+        int from = row == 0 ? 0 : rowEnds[row - 1];
+        parameters.appendTo(sb, from, rowEnds[row]);
+    }
+}
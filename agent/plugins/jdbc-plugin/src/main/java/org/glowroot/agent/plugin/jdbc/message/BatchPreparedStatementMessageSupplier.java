@@ -15,8 +15,6 @@
  */
 package org.glowroot.agent.plugin.jdbc.message;
 
-import java.util.Collection;
-
 import org.glowroot.agent.plugin.api.QueryMessage;
 import org.glowroot.agent.plugin.api.QueryMessageSupplier;
 
@@ -28,10 +26,10 @@ public class BatchPreparedStatementMessageSupplier extends QueryMessageSupplier
     private static final int MESSAGE_CHAR_LIMIT =
             Integer.getInteger("glowroot.message.char.limit", 512 * 1024);
 
-    private final Collection<BindParameterList> batchedParameters;
+    private final BatchBindParameterList batchedParameters;
     private final int batchSize;
 
-    public BatchPreparedStatementMessageSupplier(Collection<BindParameterList> batchedParameters,
+    public BatchPreparedStatementMessageSupplier(BatchBindParameterList batchedParameters,
             int batchSize) {
         this.batchedParameters = batchedParameters;
         this.batchSize = batchSize;
@@ -39,17 +37,15 @@ public class BatchPreparedStatementMessageSupplier extends QueryMessageSupplier
 
     @Override
     public QueryMessage get() {
-        // not using size() since capturedBatchSize is ConcurrentLinkedQueue
-        int capturedBatchSize = 0;
+        int capturedRowCount = batchedParameters.getRowCount();
         String suffix;
-        if (batchedParameters.isEmpty()) {
+        if (capturedRowCount == 0) {
             suffix = "";
         } else {
             StringBuilder sb = new StringBuilder();
             boolean exceededMessageCharLimit = false;
-            for (BindParameterList oneParameters : batchedParameters) {
-                PreparedStatementMessageSupplier.appendParameters(sb, oneParameters);
-                capturedBatchSize++;
+            for (int i = 0; i < capturedRowCount; i++) {
+                batchedParameters.appendRow(sb, i);
                 if (sb.length() > MESSAGE_CHAR_LIMIT) {
                     sb.setLength(MESSAGE_CHAR_LIMIT);
                     sb.append(" [truncated to ");
@@ -59,9 +55,15 @@ public class BatchPreparedStatementMessageSupplier extends QueryMessageSupplier
                     break;
                 }
             }
-            if (!exceededMessageCharLimit && batchSize > capturedBatchSize) {
+            int sampleInterval = batchedParameters.getSampleInterval();
+            if (!exceededMessageCharLimit && batchSize > capturedRowCount * sampleInterval) {
                 sb.append(" ...");
             }
+            if (sampleInterval > 1) {
+                sb.append(" [sampled 1 in ");
+                sb.append(sampleInterval);
+                sb.append(" rows]");
+            }
             suffix = sb.toString();
         }
         String prefix;
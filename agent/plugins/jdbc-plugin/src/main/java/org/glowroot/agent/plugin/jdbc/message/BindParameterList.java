@@ -16,52 +16,72 @@
 package org.glowroot.agent.plugin.jdbc.message;
 
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.NoSuchElementException;
 
 import org.glowroot.agent.plugin.api.checker.Nullable;
 
 // micro-optimized list for bind parameters
-public class BindParameterList implements Iterable</*@Nullable*/ Object> {
-
-    private @Nullable Object[] parameters;
+//
+// primitive parameter values are stored (without boxing) in a long array alongside a type tag, and
+// are only converted to strings when the query message is rendered, which only happens if the trace
+// is stored
+//
+// the primitive and object arrays are only allocated once needed, since most statements only bind
+// one or the other
+public class BindParameterList {
+
+    // OBJECT is also used for null values
+    private static final byte OBJECT = 0;
+    private static final byte LONG = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte FLOAT = 3;
+    private static final byte BOOLEAN = 4;
+
+    private byte[] types;
+    // doubles and floats are stored as raw long bits
+    private long /*@Nullable*/ [] primitives;
+    private @Nullable Object /*@Nullable*/ [] objects;
     private int size;
 
     public static BindParameterList copyOf(BindParameterList bindParameterList) {
-        return new BindParameterList(bindParameterList.parameters, bindParameterList.size);
+        BindParameterList copy = new BindParameterList(0);
+        copy.addAll(bindParameterList);
+        return copy;
     }
 
     public BindParameterList(int capacity) {
-        parameters = new Object[capacity];
-    }
-
-    private BindParameterList(@Nullable Object[] parameters, int size) {
-        if (parameters.length == size) {
-            this.parameters = parameters.clone();
-        } else {
-            // clone is faster even in this case, but worth the one time hit (for cached statements
-            // where this will be called over and over) to resize the array and use less memory
-            this.parameters = new Object[size];
-            System.arraycopy(parameters, 0, this.parameters, 0, size);
-        }
-        this.size = size;
+        types = new byte[capacity];
     }
 
     public void set(int i, @Nullable Object parameter) {
-        int capacity = parameters.length;
-        if (i >= capacity) {
-            // using same capacity increase formula as ArrayList
-            capacity = capacity + (capacity >> 1);
-            if (i >= capacity) {
-                capacity = i + 1;
+        ensureCapacity(i + 1);
+        if (objects == null) {
+            if (parameter == null) {
+                // OBJECT type with no objects array is rendered as null
+                types[i] = OBJECT;
+                updateSize(i);
+                return;
             }
-            parameters = Arrays.copyOf(parameters, capacity);
-        }
-        parameters[i] = parameter;
-        int newSize = i + 1;
-        if (newSize > size) {
-            size = newSize;
+            objects = new Object[types.length];
         }
+        types[i] = OBJECT;
+        objects[i] = parameter;
+        updateSize(i);
+    }
+
+    public void setLong(int i, long parameter) {
+        setPrimitive(i, LONG, parameter);
+    }
+
+    public void setDouble(int i, double parameter) {
+        setPrimitive(i, DOUBLE, Double.doubleToRawLongBits(parameter));
+    }
+
+    public void setFloat(int i, float parameter) {
+        setPrimitive(i, FLOAT, Double.doubleToRawLongBits(parameter));
+    }
+
+    public void setBoolean(int i, boolean parameter) {
+        setPrimitive(i, BOOLEAN, parameter ? 1 : 0);
     }
 
     public int size() {
@@ -73,36 +93,120 @@ public class BindParameterList implements Iterable</*@Nullable*/ Object> {
     }
 
     public void clear() {
-        Arrays.fill(parameters, null);
+        // unset parameters below the next size are rendered as null
+        Arrays.fill(types, 0, size, OBJECT);
+        if (objects != null) {
+            // release references
+            Arrays.fill(objects, 0, size, null);
+        }
         size = 0;
     }
 
-    @Override
-    public Iterator</*@Nullable*/ Object> iterator() {
-        return new ParameterIterator();
+    // appends the parameters to the end of this list, used to store batch rows contiguously
+    void addAll(BindParameterList other) {
+        int offset = size;
+        int newSize = offset + other.size;
+        ensureCapacity(newSize);
+        System.arraycopy(other.types, 0, types, offset, other.size);
+        if (other.primitives != null) {
+            if (primitives == null) {
+                primitives = new long[types.length];
+            }
+            System.arraycopy(other.primitives, 0, primitives, offset, other.size);
+        }
+        if (other.objects != null) {
+            if (objects == null) {
+                objects = new Object[types.length];
+            }
+            System.arraycopy(other.objects, 0, objects, offset, other.size);
+        } else if (objects != null) {
+            // other list only contains nulls in its OBJECT slots
+            Arrays.fill(objects, offset, newSize, null);
+        }
+        size = newSize;
+    }
+
+    void appendTo(StringBuilder sb, int from, int to) {
+        sb.append(" [");
+        for (int i = from; i < to; i++) {
+            if (i != from) {
+                sb.append(", ");
+            }
+            appendParameter(sb, i);
+        }
+        sb.append("]");
     }
 
-    private class ParameterIterator implements Iterator</*@Nullable*/ Object> {
+    private void appendParameter(StringBuilder sb, int i) {
+        switch (types[i]) {
+            case LONG:
+                sb.append(getPrimitive(i));
+                break;
+            case DOUBLE:
+                sb.append(Double.longBitsToDouble(getPrimitive(i)));
+                break;
+            case FLOAT:
+                sb.append((float) Double.longBitsToDouble(getPrimitive(i)));
+                break;
+            case BOOLEAN:
+                sb.append(getPrimitive(i) != 0);
+                break;
+            default:
+                Object parameter = objects == null ? null : objects[i];
+                if (parameter instanceof String) {
+                    sb.append("\'");
+                    sb.append((String) parameter);
+                    sb.append("\'");
+                } else if (parameter == null) {
+                    sb.append("NULL");
+                } else {
+                    sb.append(String.valueOf(parameter));
+                }
+        }
+    }
 
-        private int i;
+    private long getPrimitive(int i) {
+        // primitives is non-null whenever there is a primitive type tag
+        return primitives == null ? 0 : primitives[i];
+    }
 
-        @Override
-        public boolean hasNext() {
-            return i < size;
+    private void setPrimitive(int i, byte type, long value) {
+        ensureCapacity(i + 1);
+        if (primitives == null) {
+            primitives = new long[types.length];
+        }
+        types[i] = type;
+        primitives[i] = value;
+        if (objects != null) {
+            // release reference
+            objects[i] = null;
         }
+        updateSize(i);
+    }
 
-        @Override
-        public @Nullable Object next() {
-            if (i < size) {
-                return parameters[i++];
-            } else {
-                throw new NoSuchElementException();
-            }
+    private void updateSize(int i) {
+        int newSize = i + 1;
+        if (newSize > size) {
+            size = newSize;
         }
+    }
 
-        @Override
-        public void remove() {
-            throw new UnsupportedOperationException();
+    private void ensureCapacity(int minCapacity) {
+        int capacity = types.length;
+        if (minCapacity <= capacity) {
+            return;
+        }
+        // using same capacity increase formula as ArrayList
+        capacity = capacity + (capacity >> 1);
+        if (minCapacity > capacity) {
+            capacity = minCapacity;
+        }
+        types = Arrays.copyOf(types, capacity);
+        if (primitives != null) {
+            primitives = Arrays.copyOf(primitives, capacity);
+        }
+        if (objects != null) {
+            objects = Arrays.copyOf(objects, capacity);
         }
     }
 }
@@ -130,6 +130,36 @@ public class BatchIT {
         assertThat(i.hasNext()).isFalse();
     }
 
+    @Test
+    public void testBatchPreparedStatementWithSampledBindParams() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID,
+                "batchBindParameterSampleInterval", 10.0);
+
+        // when
+        Trace trace = container.execute(ExecuteBatchExceedingLimitPreparedStatement.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getQueryEntryMessage().getPrefix()).isEqualTo("jdbc query: 2002 x ");
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < 2002; j += 10) {
+            sb.append(" ['name");
+            sb.append(j);
+            sb.append("']");
+        }
+        sb.append(" [sampled 1 in 10 rows]");
+        if (driverCapturesBatchRows) {
+            sb.append(" => 2002 rows");
+        }
+        assertThat(entry.getQueryEntryMessage().getSuffix()).isEqualTo(sb.toString());
+
+        assertThat(i.hasNext()).isFalse();
+    }
+
     @Test
     public void testBatchPreparedStatementWithoutCaptureBindParams() throws Exception {
         // given
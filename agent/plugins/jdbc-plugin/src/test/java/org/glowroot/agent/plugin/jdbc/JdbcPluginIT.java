@@ -178,6 +178,33 @@ public class JdbcPluginIT {
         assertThat(found).isFalse();
     }
 
+    @Test
+    public void testLightweightResultSetNavigate() throws Exception {
+        // given
+        // empty prefix matches all ResultSet classes (regardless of driver and connection pool)
+        container.getConfigService().setPluginProperty(PLUGIN_ID,
+                "lightweightResultSetNavigateClasses", ImmutableList.of(""));
+        // when
+        Trace trace = container.execute(ExecuteStatementAndIterateOverResults.class);
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+        Trace.Entry entry = i.next();
+        assertThat(entry.getQueryEntryMessage().getSuffix()).isEqualTo(" => 3 rows");
+        assertThat(i.hasNext()).isFalse();
+    }
+
+    @Test
+    public void testLightweightResultSetNavigateUnderSeparateTraceEntry() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID,
+                "lightweightResultSetNavigateClasses", ImmutableList.of(""));
+        // when
+        Trace trace = container.execute(IterateOverResultsUnderSeparateTraceEntry.class);
+        // then
+        boolean found = findExtendedTimerName(trace, "jdbc query");
+        assertThat(found).isFalse();
+    }
+
     @Test
     public void testDefaultStackTraceThreshold() throws Exception {
         // when
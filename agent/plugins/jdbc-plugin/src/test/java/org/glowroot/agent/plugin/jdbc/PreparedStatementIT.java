@@ -394,6 +394,31 @@ public class PreparedStatementIT {
         assertThat(j.hasNext()).isFalse();
     }
 
+    @Test
+    public void testPreparedStatementWithPrimitives() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "captureBindParametersIncludes",
+                ImmutableList.of(".*"));
+
+        // when
+        Trace trace = container.execute(ExecutePreparedStatementWithPrimitives.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+        List<Trace.SharedQueryText> sharedQueryTexts = trace.getSharedQueryTextList();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(sharedQueryTexts.get(entry.getQueryEntryMessage().getSharedQueryTextIndex())
+                .getFullText()).isEqualTo(
+                        "select * from employee where id = ? or id = ? or id = ? or id = ? or ?");
+        assertThat(entry.getQueryEntryMessage().getPrefix()).isEqualTo("jdbc query: ");
+        assertThat(entry.getQueryEntryMessage().getSuffix())
+                .isEqualTo(" [1, 2, 3.5, 4.25, false] => 2 rows");
+
+        assertThat(i.hasNext()).isFalse();
+    }
+
     @Test
     public void testPreparedStatementWithBinary() throws Exception {
         // given
@@ -969,6 +994,37 @@ public class PreparedStatementIT {
         }
     }
 
+    public static class ExecutePreparedStatementWithPrimitives
+            implements AppUnderTest, TransactionMarker {
+        private Connection connection;
+        @Override
+        public void executeApp() throws Exception {
+            connection = Connections.createConnection();
+            try {
+                transactionMarker();
+            } finally {
+                Connections.closeConnection(connection);
+            }
+        }
+        @Override
+        public void transactionMarker() throws Exception {
+            PreparedStatement preparedStatement = connection.prepareStatement(
+                    "select * from employee where id = ? or id = ? or id = ? or id = ? or ?");
+            try {
+                preparedStatement.setInt(1, 1);
+                preparedStatement.setLong(2, 2);
+                preparedStatement.setDouble(3, 3.5);
+                preparedStatement.setFloat(4, 4.25f);
+                preparedStatement.setBoolean(5, false);
+                ResultSet rs = preparedStatement.executeQuery();
+                while (rs.next()) {
+                }
+            } finally {
+                preparedStatement.close();
+            }
+        }
+    }
+
     public static class ExecutePreparedStatementWithBinary
             implements AppUnderTest, TransactionMarker {
         static {
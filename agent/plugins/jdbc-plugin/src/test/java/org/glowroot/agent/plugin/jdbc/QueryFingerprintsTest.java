@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QueryFingerprintsTest {
+
+    @Test
+    public void shouldReplaceLiterals() {
+        assertThat(QueryFingerprints.fingerprint(
+                "select * from employee where id = 123 and name = 'o''brien' and x = -1.5e-3",
+                false)).isEqualTo("select * from employee where id = ? and name = ? and x = ?");
+        assertThat(QueryFingerprints.fingerprint("select a1, t2.b from t2 where c = 0x1F", false))
+                .isEqualTo("select a1, t2.b from t2 where c = ?");
+    }
+
+    @Test
+    public void shouldReplaceNegativeLiterals() {
+        assertThat(QueryFingerprints.fingerprint("select * from t where x = -1", false))
+                .isEqualTo(QueryFingerprints.fingerprint("select * from t where x = 1", false));
+        assertThat(QueryFingerprints.fingerprint(
+                "select -1, a from t where b between -2 and -.5 and c in (-1, 2) and d=-1", false))
+                        .isEqualTo(
+                                "select ?, a from t where b between ? and ? and c in (?) and d=?");
+    }
+
+    @Test
+    public void shouldNotReplaceSubtraction() {
+        assertThat(QueryFingerprints.fingerprint(
+                "select a - 1, a-1, (a) - 1, 'x' - 1, ? - 1 from t", false))
+                        .isEqualTo("select a - ?, a-?, (a) - ?, ? - ?, ? - ? from t");
+    }
+
+    @Test
+    public void shouldNotHandleBackslashEscapesInStandardSql() {
+        assertThat(QueryFingerprints.fingerprint(
+                "select * from t where path = 'C:\\' and name = 'x'", false))
+                        .isEqualTo("select * from t where path = ? and name = ?");
+        assertThat(QueryFingerprints.fingerprint(
+                "select * from t where a = 'x\\''' and b = 1", false))
+                        .isEqualTo("select * from t where a = ? and b = ?");
+    }
+
+    @Test
+    public void shouldHandleBackslashEscapes() {
+        assertThat(QueryFingerprints.fingerprint(
+                "select * from t where a = 'it\\'s' and b in (1, 2) and c = 'x\\\\'", true))
+                        .isEqualTo("select * from t where a = ? and b in (?) and c = ?");
+        assertThat(QueryFingerprints.fingerprint(
+                "select * from t where a = \"it\\\"s\" and b = 1", true))
+                        .isEqualTo("select * from t where a = \"it\\\"s\" and b = ?");
+        // the same sql is parsed differently than in standard sql
+        assertThat(QueryFingerprints.fingerprint(
+                "select * from t where path = 'C:\\' and name = 'x'", true))
+                        .isEqualTo("select * from t where path = ?x?");
+    }
+
+    @Test
+    public void shouldHandleTrailingBackslash() {
+        assertThat(QueryFingerprints.fingerprint("select * from t where a = 'abc\\", true))
+                .isEqualTo("select * from t where a = ?");
+        assertThat(QueryFingerprints.fingerprint("select * from t where a = 'abc\\'", true))
+                .isEqualTo("select * from t where a = ?");
+    }
+
+    @Test
+    public void shouldNotReplaceQuotedIdentifiers() {
+        assertThat(QueryFingerprints.fingerprint("select \"col 1\" from `t 1` where a = 'x'",
+                false)).isEqualTo("select \"col 1\" from `t 1` where a = ?");
+    }
+
+    @Test
+    public void shouldCollapseInLists() {
+        assertThat(QueryFingerprints.fingerprint("select * from t where a in (1, 2, 3)", false))
+                .isEqualTo("select * from t where a in (?)");
+        assertThat(QueryFingerprints.fingerprint("select * from t where a IN (?,?,?,?)", false))
+                .isEqualTo("select * from t where a IN (?)");
+        assertThat(QueryFingerprints.fingerprint("select * from t where a not in ('x', 'y')",
+                false)).isEqualTo("select * from t where a not in (?)");
+    }
+
+    @Test
+    public void shouldNotCollapseSubqueries() {
+        assertThat(QueryFingerprints.fingerprint("select * from t where a in (select b from u)",
+                false)).isEqualTo("select * from t where a in (select b from u)");
+        assertThat(QueryFingerprints.fingerprint("insert into t (a, b) values (1, 2)", false))
+                .isEqualTo("insert into t (a, b) values (?, ?)");
+    }
+
+    @Test
+    public void shouldNormalizeWhitespaceAndRemoveComments() {
+        assertThat(QueryFingerprints.fingerprint(
+                "  select *\n  from t -- where a = 'x'\n\twhere /* 'y' */ b = 1  ", false))
+                        .isEqualTo("select * from t where b = ?");
+    }
+
+    @Test
+    public void shouldCache() {
+        String sql = "select * from t where a = 1";
+        assertThat(QueryFingerprints.get(sql, false)).isSameAs(QueryFingerprints.get(sql, false));
+    }
+
+    @Test
+    public void shouldCacheSeparatelyByBackslashEscapes() {
+        String sql = "select * from t where path = 'C:\\' and name = 'x'";
+        assertThat(QueryFingerprints.get(sql, false))
+                .isEqualTo("select * from t where path = ? and name = ?");
+        assertThat(QueryFingerprints.get(sql, true)).isEqualTo("select * from t where path = ?x?");
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.kafka;
+
+import java.util.List;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+
+import org.glowroot.agent.plugin.api.Agent;
+import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.agent.plugin.api.OptionalThreadContext;
+import org.glowroot.agent.plugin.api.TimerName;
+import org.glowroot.agent.plugin.api.TraceEntry;
+import org.glowroot.agent.plugin.api.checker.Nullable;
+import org.glowroot.agent.plugin.api.config.BooleanProperty;
+import org.glowroot.agent.plugin.api.config.ConfigListener;
+import org.glowroot.agent.plugin.api.config.ConfigService;
+import org.glowroot.agent.plugin.api.weaving.BindReceiver;
+import org.glowroot.agent.plugin.api.weaving.BindReturn;
+import org.glowroot.agent.plugin.api.weaving.IsEnabled;
+import org.glowroot.agent.plugin.api.weaving.Mixin;
+import org.glowroot.agent.plugin.api.weaving.OnBefore;
+import org.glowroot.agent.plugin.api.weaving.OnReturn;
+import org.glowroot.agent.plugin.api.weaving.Pointcut;
+
+// consumer transactions are only started when poll() is not already called inside of a
+// transaction, and are ended when poll() is called again (or the consumer is closed), since there
+// is no other reliable signal that the application is done processing the prior batch
+public class ConsumerAspect {
+
+    private static final String TRANSACTION_TYPE = "Background";
+
+    private static final ConfigService configService = Agent.getConfigService("kafka");
+
+    private static final BooleanProperty captureConsumerTransactions =
+            configService.getBooleanProperty("captureConsumerTransactions");
+
+    private static final BooleanProperty consumerTransactionPerRecord =
+            configService.getBooleanProperty("consumerTransactionPerRecord");
+
+    // visibility is provided by memoryBarrier in org.glowroot.config.ConfigService
+    private static int consumerRecordTransactionSampleInterval;
+
+    // the per-record transaction is tracked per thread (as opposed to on the record iterator) so
+    // that it can still be ended by the next poll() if the application breaks out of the iteration
+    private static final ThreadLocal<RecordTransaction> recordTransactionHolder =
+            new ThreadLocal<RecordTransaction>() {
+                @Override
+                protected RecordTransaction initialValue() {
+                    return new RecordTransaction();
+                }
+            };
+
+    static {
+        configService.registerConfigListener(new ConfigListener() {
+            @Override
+            public void onChange() {
+                Double value = configService
+                        .getDoubleProperty("consumerRecordTransactionSampleInterval").value();
+                consumerRecordTransactionSampleInterval =
+                        value == null || value < 1 ? 1 : value.intValue();
+            }
+        });
+    }
+
+    // the field and method names are verbose since they will be mixed in to existing classes
+    @Mixin("org.apache.kafka.clients.consumer.Consumer")
+    public abstract static class ConsumerImpl implements ConsumerMixin {
+
+        // consumers are not thread safe, so no need for volatile
+        private transient @Nullable TraceEntry glowroot$batchTraceEntry;
+
+        @Override
+        public @Nullable TraceEntry glowroot$getBatchTraceEntry() {
+            return glowroot$batchTraceEntry;
+        }
+
+        @Override
+        public void glowroot$setBatchTraceEntry(@Nullable TraceEntry batchTraceEntry) {
+            glowroot$batchTraceEntry = batchTraceEntry;
+        }
+    }
+
+    // the method names are verbose since they will be mixed in to existing classes
+    public interface ConsumerMixin {
+
+        @Nullable
+        TraceEntry glowroot$getBatchTraceEntry();
+
+        void glowroot$setBatchTraceEntry(@Nullable TraceEntry batchTraceEntry);
+    }
+
+    // the field and method names are verbose since they will be mixed in to existing classes
+    @Mixin("org.apache.kafka.common.utils.AbstractIterator")
+    public abstract static class IteratorImpl implements IteratorMixin {
+
+        private transient boolean glowroot$consumerRecordIterator;
+
+        @Override
+        public boolean glowroot$isConsumerRecordIterator() {
+            return glowroot$consumerRecordIterator;
+        }
+
+        @Override
+        public void glowroot$setConsumerRecordIterator(boolean consumerRecordIterator) {
+            glowroot$consumerRecordIterator = consumerRecordIterator;
+        }
+    }
+
+    // the method names are verbose since they will be mixed in to existing classes
+    public interface IteratorMixin {
+
+        boolean glowroot$isConsumerRecordIterator();
+
+        void glowroot$setConsumerRecordIterator(boolean consumerRecordIterator);
+    }
+
+    // order is needed so that the prior batch transaction is ended before the "kafka poll" trace
+    // entry instrumentation (in glowroot.plugin.json) checks if poll() is inside of a transaction,
+    // and so that the next batch transaction is started after that trace entry is ended
+    @Pointcut(className = "org.apache.kafka.clients.consumer.Consumer", methodName = "poll",
+            methodParameterTypes = {"long"}, nestingGroup = "kafka-consumer-poll",
+            timerName = "kafka consume", order = -1)
+    public static class PollAdvice {
+
+        private static final TimerName timerName = Agent.getTimerName(PollAdvice.class);
+
+        @OnBefore
+        public static void onBefore(@BindReceiver ConsumerMixin consumer) {
+            endTransactions(consumer);
+        }
+
+        @OnReturn
+        public static void onReturn(OptionalThreadContext context,
+                @BindReturn @Nullable ConsumerRecords<?, ?> records,
+                @BindReceiver ConsumerMixin consumer) {
+            startBatchTransaction(context, records, consumer, timerName);
+        }
+    }
+
+    // poll(Duration) was added in kafka-clients 2.0.0
+    @Pointcut(className = "org.apache.kafka.clients.consumer.Consumer", methodName = "poll",
+            methodParameterTypes = {"java.time.Duration"}, nestingGroup = "kafka-consumer-poll",
+            order = -1)
+    public static class PollDurationAdvice {
+
+        @OnBefore
+        public static void onBefore(@BindReceiver ConsumerMixin consumer) {
+            endTransactions(consumer);
+        }
+
+        @OnReturn
+        public static void onReturn(OptionalThreadContext context,
+                @BindReturn @Nullable ConsumerRecords<?, ?> records,
+                @BindReceiver ConsumerMixin consumer) {
+            startBatchTransaction(context, records, consumer, PollAdvice.timerName);
+        }
+    }
+
+    @Pointcut(className = "org.apache.kafka.clients.consumer.Consumer", methodName = "close",
+            methodParameterTypes = {".."})
+    public static class CloseAdvice {
+
+        @OnBefore
+        public static void onBefore(@BindReceiver ConsumerMixin consumer) {
+            endTransactions(consumer);
+        }
+    }
+
+    // this is the iterator behind both ConsumerRecords.iterator() and
+    // ConsumerRecords.records(String topic)
+    @Pointcut(
+            className = "org.apache.kafka.clients.consumer.ConsumerRecords$ConcatenatedIterable",
+            methodName = "iterator", methodParameterTypes = {})
+    public static class RecordIteratorAdvice {
+
+        @IsEnabled
+        public static boolean isEnabled() {
+            return consumerTransactionPerRecord.value();
+        }
+
+        @OnReturn
+        public static void onReturn(@BindReturn @Nullable Object iterator) {
+            if (iterator instanceof IteratorMixin) {
+                ((IteratorMixin) iterator).glowroot$setConsumerRecordIterator(true);
+            }
+        }
+    }
+
+    @Pointcut(className = "org.apache.kafka.common.utils.AbstractIterator",
+            methodName = "hasNext", methodParameterTypes = {})
+    public static class RecordHasNextAdvice {
+
+        @IsEnabled
+        public static boolean isEnabled(@BindReceiver IteratorMixin iterator) {
+            return iterator.glowroot$isConsumerRecordIterator();
+        }
+
+        @OnBefore
+        public static void onBefore() {
+            recordTransactionHolder.get().end();
+        }
+    }
+
+    @Pointcut(className = "org.apache.kafka.common.utils.AbstractIterator", methodName = "next",
+            methodParameterTypes = {})
+    public static class RecordNextAdvice {
+
+        @IsEnabled
+        public static boolean isEnabled(@BindReceiver IteratorMixin iterator) {
+            return iterator.glowroot$isConsumerRecordIterator();
+        }
+
+        @OnBefore
+        public static void onBefore() {
+            recordTransactionHolder.get().end();
+        }
+
+        @OnReturn
+        public static void onReturn(OptionalThreadContext context,
+                @BindReturn @Nullable Object record) {
+            if (!(record instanceof ConsumerRecord) || context.isInTransaction()) {
+                return;
+            }
+            RecordTransaction recordTransaction = recordTransactionHolder.get();
+            if (recordTransaction.recordCount++ % consumerRecordTransactionSampleInterval != 0) {
+                return;
+            }
+            ConsumerRecord<?, ?> consumerRecord = (ConsumerRecord<?, ?>) record;
+            String topic = consumerRecord.topic();
+            if (topic == null) {
+                topic = "";
+            }
+            recordTransaction.traceEntry = context.startTransaction(TRANSACTION_TYPE, topic,
+                    MessageSupplier.create("kafka consume: {}", topic), PollAdvice.timerName);
+            long lagMillis = getLagMillis(consumerRecord, System.currentTimeMillis());
+            if (lagMillis != -1) {
+                context.addTransactionAttribute("Kafka lag (ms)", Long.toString(lagMillis));
+            }
+        }
+    }
+
+    private static void startBatchTransaction(OptionalThreadContext context,
+            @Nullable ConsumerRecords<?, ?> records, ConsumerMixin consumer, TimerName timerName) {
+        if (records == null || records.isEmpty() || !captureConsumerTransactions.value()
+                || consumerTransactionPerRecord.value() || context.isInTransaction()) {
+            return;
+        }
+        String transactionName = null;
+        long nowMillis = System.currentTimeMillis();
+        long maxLagMillis = -1;
+        for (TopicPartition partition : records.partitions()) {
+            String topic = partition.topic();
+            if (transactionName == null) {
+                transactionName = topic;
+            } else if (!transactionName.equals(topic)) {
+                transactionName = "(multiple topics)";
+            }
+            // records are ordered by offset within a partition, so the first record is the oldest
+            List<? extends ConsumerRecord<?, ?>> partitionRecords = records.records(partition);
+            if (!partitionRecords.isEmpty()) {
+                maxLagMillis =
+                        Math.max(maxLagMillis, getLagMillis(partitionRecords.get(0), nowMillis));
+            }
+        }
+        if (transactionName == null) {
+            transactionName = "";
+        }
+        TraceEntry traceEntry = context.startTransaction(TRANSACTION_TYPE, transactionName,
+                MessageSupplier.create("kafka consume: {}", transactionName), timerName);
+        context.addTransactionAttribute("Kafka record count", Integer.toString(records.count()));
+        if (maxLagMillis != -1) {
+            context.addTransactionAttribute("Kafka lag (ms)", Long.toString(maxLagMillis));
+        }
+        consumer.glowroot$setBatchTraceEntry(traceEntry);
+    }
+
+    private static void endTransactions(ConsumerMixin consumer) {
+        TraceEntry batchTraceEntry = consumer.glowroot$getBatchTraceEntry();
+        if (batchTraceEntry != null) {
+            consumer.glowroot$setBatchTraceEntry(null);
+            batchTraceEntry.end();
+        }
+        if (consumerTransactionPerRecord.value()) {
+            recordTransactionHolder.get().end();
+        }
+    }
+
+    // lag is measured from the record's timestamp (the time that it was produced, or the time that
+    // it was appended to the log, depending on the topic's message.timestamp.type), since offset
+    // lag would require looking up the partition's end offset
+    private static long getLagMillis(ConsumerRecord<?, ?> record, long nowMillis) {
+        long timestamp = record.timestamp();
+        if (timestamp < 0) {
+            // ConsumerRecord.NO_TIMESTAMP
+            return -1;
+        }
+        return Math.max(0, nowMillis - timestamp);
+    }
+
+    private static class RecordTransaction {
+
+        private @Nullable TraceEntry traceEntry;
+        private long recordCount;
+
+        private void end() {
+            TraceEntry traceEntry = this.traceEntry;
+            if (traceEntry != null) {
+                this.traceEntry = null;
+                traceEntry.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.kafka;
+
+import java.util.Collections;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.agent.it.harness.AppUnderTest;
+import org.glowroot.agent.it.harness.Container;
+import org.glowroot.agent.it.harness.Containers;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// uses MockConsumer, so does not need a running kafka broker
+public class ConsumerIT {
+
+    private static final String PLUGIN_ID = "kafka";
+
+    private static Container container;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        container = Containers.create();
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        container.close();
+    }
+
+    @AfterEach
+    public void afterEachTest() throws Exception {
+        container.checkAndReset();
+    }
+
+    @Test
+    public void shouldCaptureBatchTransaction() throws Exception {
+        // when
+        Trace trace = container.execute(PollRecords.class, "Background");
+
+        // then
+        Trace.Header header = trace.getHeader();
+        assertThat(header.getTransactionName()).isEqualTo("demo");
+        assertThat(header.getHeadline()).isEqualTo("kafka consume: demo");
+        assertThat(header.getAttributeList()).hasSize(2);
+        // attributes are ordered by name
+        assertThat(header.getAttribute(0).getName()).isEqualTo("Kafka lag (ms)");
+        assertThat(Long.parseLong(header.getAttribute(0).getValue(0)))
+                .isGreaterThanOrEqualTo(60000);
+        assertThat(header.getAttribute(1).getName()).isEqualTo("Kafka record count");
+        assertThat(header.getAttribute(1).getValueList()).containsExactly("3");
+    }
+
+    @Test
+    public void shouldCaptureRecordTransaction() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "consumerTransactionPerRecord",
+                true);
+        container.getConfigService().setPluginProperty(PLUGIN_ID,
+                "consumerRecordTransactionSampleInterval", 3.0);
+
+        // when
+        Trace trace = container.execute(PollRecords.class, "Background");
+
+        // then
+        Trace.Header header = trace.getHeader();
+        assertThat(header.getTransactionName()).isEqualTo("demo");
+        assertThat(header.getHeadline()).isEqualTo("kafka consume: demo");
+        assertThat(header.getAttributeList()).hasSize(1);
+        assertThat(header.getAttribute(0).getName()).isEqualTo("Kafka lag (ms)");
+    }
+
+    @Test
+    public void shouldNotCaptureTransactionForEmptyPoll() throws Exception {
+        // when
+        container.executeNoExpectedTrace(PollNoRecords.class);
+    }
+
+    public static class PollRecords implements AppUnderTest {
+
+        @Override
+        public void executeApp() throws Exception {
+            MockConsumer<Long, String> consumer = createConsumer();
+            long timestamp = System.currentTimeMillis() - 60000;
+            for (int i = 0; i < 3; i++) {
+                consumer.addRecord(new ConsumerRecord<Long, String>("demo", 0, i, timestamp,
+                        TimestampType.CREATE_TIME, 0, 8, 7, (long) i, "message"));
+            }
+            ConsumerRecords<Long, String> records = consumer.poll(100);
+            for (ConsumerRecord<Long, String> record : records) {
+                record.value();
+            }
+            // next poll ends the transaction
+            consumer.poll(100);
+            consumer.close();
+        }
+    }
+
+    public static class PollNoRecords implements AppUnderTest {
+
+        @Override
+        public void executeApp() throws Exception {
+            MockConsumer<Long, String> consumer = createConsumer();
+            consumer.poll(100);
+            consumer.close();
+        }
+    }
+
+    private static MockConsumer<Long, String> createConsumer() {
+        MockConsumer<Long, String> consumer =
+                new MockConsumer<Long, String>(OffsetResetStrategy.EARLIEST);
+        TopicPartition partition = new TopicPartition("demo", 0);
+        consumer.assign(Collections.singletonList(partition));
+        consumer.updateBeginningOffsets(Collections.singletonMap(partition, 0L));
+        return consumer;
+    }
+}
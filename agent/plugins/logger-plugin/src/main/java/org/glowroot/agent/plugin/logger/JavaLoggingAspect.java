@@ -21,9 +21,8 @@ import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 import org.glowroot.agent.plugin.api.Agent;
-import org.glowroot.agent.plugin.api.Message;
-import org.glowroot.agent.plugin.api.MessageSupplier;
 import org.glowroot.agent.plugin.api.ThreadContext;
+import org.glowroot.agent.plugin.api.Timer;
 import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.plugin.api.checker.Nullable;
@@ -45,13 +44,24 @@ public class JavaLoggingAspect {
 
         private static final TimerName timerName = Agent.getTimerName(LogAdvice.class);
 
-        private static final Formatter formatter = new DummyFormatter();
+        private static final Formatter dummyFormatter = new DummyFormatter();
+
+        private static final LogMessageFormatter formatter = new LogMessageFormatter() {
+            @Override
+            public String format(Object message) {
+                return nullToEmpty(dummyFormatter.formatMessage((LogRecord) message));
+            }
+            @Override
+            public String getRawMessage(Object message) {
+                return nullToEmpty(((LogRecord) message).getMessage());
+            }
+        };
 
         // cannot use java.util.logging.Logger in the signature of this method because that triggers
         // java.util.logging.Logger to be loaded before weaving is put in place (from inside
         // org.glowroot.agent.weaving.AdviceBuilder)
         @OnBefore
-        public static @Nullable LogAdviceTraveler onBefore(ThreadContext context,
+        public static @Nullable Object onBefore(ThreadContext context,
                 @BindParameter @Nullable LogRecord record, @BindReceiver Object logger) {
             if (record == null) {
                 return null;
@@ -65,41 +75,53 @@ public class JavaLoggingAspect {
         }
 
         @OnAfter
-        public static void onAfter(@BindTraveler @Nullable LogAdviceTraveler traveler) {
+        public static void onAfter(@BindTraveler @Nullable Object traveler) {
+            if (traveler instanceof Timer) {
+                ((Timer) traveler).stop();
+                return;
+            }
             if (traveler == null) {
                 return;
             }
-            Throwable t = traveler.throwable;
+            LogAdviceTraveler logAdviceTraveler = (LogAdviceTraveler) traveler;
+            TraceEntry traceEntry = logAdviceTraveler.traceEntry;
+            Throwable t = logAdviceTraveler.record.getThrown();
             if (t != null) {
                 // intentionally not passing message since it is already the trace entry message
-                if (traveler.level >= Level.WARNING.intValue()) {
-                    traveler.traceEntry.endWithError(t);
+                if (logAdviceTraveler.level >= Level.WARNING.intValue()) {
+                    traceEntry.endWithError(t);
                 } else {
-                    traveler.traceEntry.endWithInfo(t);
+                    traceEntry.endWithInfo(t);
                 }
-            } else if (traveler.level >= Level.WARNING.intValue()) {
-                traveler.traceEntry.endWithError(traveler.formattedMessage);
+            } else if (logAdviceTraveler.level >= Level.WARNING.intValue()) {
+                traceEntry.endWithError(formatter.format(logAdviceTraveler.record));
             } else {
-                traveler.traceEntry.end();
+                traceEntry.end();
             }
         }
 
-        private static LogAdviceTraveler onBeforeCommon(ThreadContext context, LogRecord record,
+        private static Object onBeforeCommon(ThreadContext context, LogRecord record,
                 Level level) {
             // cannot check Logger.getFilter().isLoggable(LogRecord) because the Filter object
             // could be stateful and might alter its state (e.g.
             // com.sun.mail.util.logging.DurationFilter)
-            String formattedMessage = nullToEmpty(formatter.formatMessage(record));
             int lvl = level.intValue();
             Throwable t = record.getThrown();
+            TransactionLogs logs = TransactionLogs.forContext(context);
             if (LoggerPlugin.markTraceAsError(lvl >= Level.SEVERE.intValue(),
-                    lvl >= Level.WARNING.intValue(), t != null)) {
-                context.setTransactionError(formattedMessage, t);
+                    lvl >= Level.WARNING.intValue(), t != null) && logs.markTransactionErrorSet()) {
+                context.setTransactionError(formatter.format(record), t);
+            }
+            String levelStr = level.getName().toLowerCase();
+            String loggerName = record.getLoggerName();
+            if (!logs.captureAsTraceEntry(context, levelStr, loggerName, true, record, formatter,
+                    timerName)) {
+                return context.startTimer(timerName);
             }
-            TraceEntry traceEntry =
-                    context.startTraceEntry(new LogMessageSupplier(level.getName().toLowerCase(),
-                            record.getLoggerName(), formattedMessage), timerName);
-            return new LogAdviceTraveler(traceEntry, lvl, formattedMessage, t);
+            TraceEntry traceEntry = context.startTraceEntry(
+                    new LogMessageSupplier(levelStr, loggerName, true, record, formatter),
+                    timerName);
+            return new LogAdviceTraveler(traceEntry, lvl, record);
         }
 
         private static String nullToEmpty(@Nullable String s) {
@@ -113,7 +135,7 @@ public class JavaLoggingAspect {
     public static class JBossLogAdvice {
 
         @OnBefore
-        public static @Nullable LogAdviceTraveler onBefore(ThreadContext context,
+        public static @Nullable Object onBefore(ThreadContext context,
                 @BindParameter @Nullable LogRecord record) {
             if (record == null) {
                 return null;
@@ -122,24 +144,22 @@ public class JavaLoggingAspect {
         }
 
         @OnAfter
-        public static void onAfter(@BindTraveler @Nullable LogAdviceTraveler traveler) {
+        public static void onAfter(@BindTraveler @Nullable Object traveler) {
             LogAdvice.onAfter(traveler);
         }
     }
 
+    // log messages that are not captured as trace entries only use a timer as the traveler
     private static class LogAdviceTraveler {
 
         private final TraceEntry traceEntry;
         private final int level;
-        private final String formattedMessage;
-        private final @Nullable Throwable throwable;
+        private final LogRecord record;
 
-        private LogAdviceTraveler(TraceEntry traceEntry, int level, String formattedMessage,
-                @Nullable Throwable throwable) {
+        private LogAdviceTraveler(TraceEntry traceEntry, int level, LogRecord record) {
             this.traceEntry = traceEntry;
             this.level = level;
-            this.formattedMessage = formattedMessage;
-            this.throwable = throwable;
+            this.record = record;
         }
     }
 
@@ -150,23 +170,4 @@ public class JavaLoggingAspect {
             throw new UnsupportedOperationException();
         }
     }
-
-    private static class LogMessageSupplier extends MessageSupplier {
-
-        private final String level;
-        private final String loggerName;
-        private final String messageText;
-
-        private LogMessageSupplier(String level, String loggerName, String messageText) {
-            this.level = level;
-            this.loggerName = loggerName;
-            this.messageText = messageText;
-        }
-
-        @Override
-        public Message get() {
-            return Message.create("log {}: {} - {}", level,
-                    LoggerPlugin.getAbbreviatedLoggerName(loggerName), messageText);
-        }
-    }
 }
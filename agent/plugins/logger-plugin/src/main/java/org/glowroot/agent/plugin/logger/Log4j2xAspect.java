@@ -16,8 +16,8 @@
 package org.glowroot.agent.plugin.logger;
 
 import org.glowroot.agent.plugin.api.Agent;
-import org.glowroot.agent.plugin.api.MessageSupplier;
 import org.glowroot.agent.plugin.api.ThreadContext;
+import org.glowroot.agent.plugin.api.Timer;
 import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.plugin.api.checker.Nullable;
@@ -56,10 +56,17 @@ public class Log4j2xAspect {
 
     @Shim("org.apache.logging.log4j.message.Message")
     public interface Message {
+        @Nullable
+        String getFormat();
         @Nullable
         String getFormattedMessage();
     }
 
+    // reusable messages (log4j2 2.6+) are re-used by the logger after the log call returns, e.g.
+    // when garbage-free logging is enabled
+    @Shim("org.apache.logging.log4j.message.ReusableMessage")
+    public interface ReusableMessage {}
+
     @Pointcut(className = "org.apache.logging.log4j.spi.ExtendedLogger", methodName = "logMessage",
             methodParameterTypes = {"java.lang.String", "org.apache.logging.log4j.Level",
                     "org.apache.logging.log4j.Marker", "org.apache.logging.log4j.message.Message",
@@ -69,44 +76,80 @@ public class Log4j2xAspect {
 
         private static final TimerName timerName = Agent.getTimerName(CallAppendersAdvice.class);
 
+        private static final LogMessageFormatter formatter = new LogMessageFormatter() {
+            @Override
+            public String format(Object message) {
+                return nullToEmpty(((Message) message).getFormattedMessage());
+            }
+            @Override
+            public String getRawMessage(Object message) {
+                return nullToEmpty(((Message) message).getFormat());
+            }
+        };
+
         @OnBefore
-        public static LogAdviceTraveler onBefore(ThreadContext context, @BindReceiver Logger logger,
+        public static Object onBefore(ThreadContext context, @BindReceiver Logger logger,
                 @SuppressWarnings("unused") @BindParameter @Nullable String fqcn,
                 @BindParameter @Nullable Level level,
                 @SuppressWarnings("unused") @BindParameter @Nullable Object marker,
                 @BindParameter @Nullable Message message, @BindParameter @Nullable Throwable t) {
-            String formattedMessage =
-                    message == null ? "" : nullToEmpty(message.getFormattedMessage());
+            Object messageSource;
+            LogMessageFormatter messageFormatter;
+            if (message == null) {
+                messageSource = "";
+                messageFormatter = LoggerPlugin.TO_STRING_FORMATTER;
+            } else if (message instanceof ReusableMessage) {
+                // formatting cannot be deferred since the message will be re-used
+                messageSource = formatter.format(message);
+                messageFormatter = LoggerPlugin.TO_STRING_FORMATTER;
+            } else {
+                messageSource = message;
+                messageFormatter = formatter;
+            }
             int lvl = level == null ? 0 : level.intLevel();
-            if (LoggerPlugin.markTraceAsError(lvl <= ERROR, lvl <= WARN, t != null)) {
-                context.setTransactionError(formattedMessage, t);
+            TransactionLogs logs = TransactionLogs.forContext(context);
+            if (LoggerPlugin.markTraceAsError(lvl <= ERROR, lvl <= WARN, t != null)
+                    && logs.markTransactionErrorSet()) {
+                context.setTransactionError(messageFormatter.format(messageSource), t);
             }
+            String levelStr = getLevelStr(lvl);
+            String loggerName = logger.getName();
             // not using LoggerPlugin.getAbbreviatedLoggerName() because log4j2 2.9.0+ uses
             // canonical class name instead of class name for the logger name (see
             // https://issues.apache.org/jira/browse/LOG4J2-2023) and this causes
             // LoggerPlugin.getAbbreviatedLoggerName() to abbreviate outer class names, e.g. a
             // logger for org.example.Outer$Inner has logger name org.example.Outer.Inner and would
             // then be abbreviated as org.example.O.Inner, which seems not ideal
-            TraceEntry traceEntry =
-                    context.startTraceEntry(MessageSupplier.create("log {}: {} - {}",
-                            getLevelStr(lvl), logger.getName(), formattedMessage), timerName);
-            return new LogAdviceTraveler(traceEntry, lvl, formattedMessage, t);
+            if (!logs.captureAsTraceEntry(context, levelStr, loggerName, false, messageSource,
+                    messageFormatter, timerName)) {
+                return context.startTimer(timerName);
+            }
+            TraceEntry traceEntry = context.startTraceEntry(new LogMessageSupplier(levelStr,
+                    loggerName, false, messageSource, messageFormatter), timerName);
+            return new LogAdviceTraveler(traceEntry, lvl, messageSource, messageFormatter, t);
         }
 
         @OnAfter
-        public static void onAfter(@BindTraveler LogAdviceTraveler traveler) {
-            Throwable t = traveler.throwable;
+        public static void onAfter(@BindTraveler Object traveler) {
+            if (traveler instanceof Timer) {
+                ((Timer) traveler).stop();
+                return;
+            }
+            LogAdviceTraveler logAdviceTraveler = (LogAdviceTraveler) traveler;
+            TraceEntry traceEntry = logAdviceTraveler.traceEntry;
+            Throwable t = logAdviceTraveler.throwable;
             if (t != null) {
                 // intentionally not passing message since it is already the trace entry message
-                if (traveler.level <= WARN) {
-                    traveler.traceEntry.endWithError(t);
+                if (logAdviceTraveler.level <= WARN) {
+                    traceEntry.endWithError(t);
                 } else {
-                    traveler.traceEntry.endWithInfo(t);
+                    traceEntry.endWithInfo(t);
                 }
-            } else if (traveler.level <= WARN) {
-                traveler.traceEntry.endWithError(traveler.formattedMessage);
+            } else if (logAdviceTraveler.level <= WARN) {
+                traceEntry.endWithError(
+                        logAdviceTraveler.formatter.format(logAdviceTraveler.message));
             } else {
-                traveler.traceEntry.end();
+                traceEntry.end();
             }
         }
 
@@ -138,18 +181,21 @@ public class Log4j2xAspect {
         }
     }
 
+    // log messages that are not captured as trace entries only use a timer as the traveler
     private static class LogAdviceTraveler {
 
         private final TraceEntry traceEntry;
         private final int level;
-        private final String formattedMessage;
+        private final Object message;
+        private final LogMessageFormatter formatter;
         private final @Nullable Throwable throwable;
 
-        private LogAdviceTraveler(TraceEntry traceEntry, int level, String formattedMessage,
-                @Nullable Throwable throwable) {
+        private LogAdviceTraveler(TraceEntry traceEntry, int level, Object message,
+                LogMessageFormatter formatter, @Nullable Throwable throwable) {
             this.traceEntry = traceEntry;
             this.level = level;
-            this.formattedMessage = formattedMessage;
+            this.message = message;
+            this.formatter = formatter;
             this.throwable = throwable;
         }
     }
@@ -16,9 +16,8 @@
 package org.glowroot.agent.plugin.logger;
 
 import org.glowroot.agent.plugin.api.Agent;
-import org.glowroot.agent.plugin.api.Message;
-import org.glowroot.agent.plugin.api.MessageSupplier;
 import org.glowroot.agent.plugin.api.ThreadContext;
+import org.glowroot.agent.plugin.api.Timer;
 import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.plugin.api.checker.Nullable;
@@ -65,23 +64,37 @@ public class Log4jAspect {
 
         @OnBefore
         @SuppressWarnings("unused")
-        public static TraceEntry onBefore(ThreadContext context, @BindReceiver Logger logger,
+        public static Object onBefore(ThreadContext context, @BindReceiver Logger logger,
                 @BindParameter @Nullable String fqcn, @BindParameter @Nullable Level level,
                 @BindParameter @Nullable Object message, @BindParameter @Nullable Throwable t) {
-            String messageText = String.valueOf(message);
+            Object nonNullMessage = message == null ? "null" : message;
             int lvl = level == null ? 0 : level.toInt();
-            if (LoggerPlugin.markTraceAsError(lvl >= ERROR_INT, lvl >= WARN_INT, t != null)) {
-                context.setTransactionError(messageText, t);
+            TransactionLogs logs = TransactionLogs.forContext(context);
+            if (LoggerPlugin.markTraceAsError(lvl >= ERROR_INT, lvl >= WARN_INT, t != null)
+                    && logs.markTransactionErrorSet()) {
+                context.setTransactionError(nonNullMessage.toString(), t);
             }
-            return context.startTraceEntry(
-                    new LogMessageSupplier(lvl, logger.getName(), messageText), timerName);
+            String levelStr = getLevelStr(lvl);
+            String loggerName = logger.getName();
+            if (!logs.captureAsTraceEntry(context, levelStr, loggerName, true, nonNullMessage,
+                    LoggerPlugin.TO_STRING_FORMATTER, timerName)) {
+                return context.startTimer(timerName);
+            }
+            return context.startTraceEntry(new LogMessageSupplier(levelStr, loggerName, true,
+                    nonNullMessage, LoggerPlugin.TO_STRING_FORMATTER), timerName);
         }
 
         @OnAfter
         @SuppressWarnings("unused")
-        public static void onAfter(@BindTraveler TraceEntry traceEntry,
+        public static void onAfter(@BindTraveler Object traveler,
                 @BindParameter @Nullable String fqcn, @BindParameter @Nullable Level level,
                 @BindParameter @Nullable Object message, @BindParameter @Nullable Throwable t) {
+            // trace entries also implement Timer, so need to check for trace entry first
+            if (!(traveler instanceof TraceEntry)) {
+                ((Timer) traveler).stop();
+                return;
+            }
+            TraceEntry traceEntry = (TraceEntry) traveler;
             int lvl = level == null ? 0 : level.toInt();
             if (t != null) {
                 // intentionally not passing message since it is already the trace entry message
@@ -98,43 +111,24 @@ public class Log4jAspect {
         }
     }
 
-    private static class LogMessageSupplier extends MessageSupplier {
-
-        private final int level;
-        private final @Nullable String loggerName;
-        private final String messageText;
-
-        private LogMessageSupplier(int level, @Nullable String loggerName, String messageText) {
-            this.level = level;
-            this.loggerName = loggerName;
-            this.messageText = messageText;
-        }
-
-        @Override
-        public Message get() {
-            return Message.create("log {}: {} - {}", getLevelStr(level),
-                    LoggerPlugin.getAbbreviatedLoggerName(loggerName), messageText);
-        }
-
-        private static String getLevelStr(int lvl) {
-            switch (lvl) {
-                case ALL_INT:
-                    return "all";
-                case DEBUG_INT:
-                    return "debug";
-                case INFO_INT:
-                    return "info";
-                case WARN_INT:
-                    return "warn";
-                case ERROR_INT:
-                    return "error";
-                case FATAL_INT:
-                    return "fatal";
-                case OFF_INT:
-                    return "off";
-                default:
-                    return "unknown (" + lvl + ")";
-            }
+    private static String getLevelStr(int lvl) {
+        switch (lvl) {
+            case ALL_INT:
+                return "all";
+            case DEBUG_INT:
+                return "debug";
+            case INFO_INT:
+                return "info";
+            case WARN_INT:
+                return "warn";
+            case ERROR_INT:
+                return "error";
+            case FATAL_INT:
+                return "fatal";
+            case OFF_INT:
+                return "off";
+            default:
+                return "unknown (" + lvl + ")";
         }
     }
 }
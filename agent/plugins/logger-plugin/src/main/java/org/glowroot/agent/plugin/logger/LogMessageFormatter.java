@@ -0,0 +1,26 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.logger;
+
+// formats the logging framework's message object, this is so that formatting can be deferred until
+// the trace is stored (and skipped entirely for log messages that are never stored)
+interface LogMessageFormatter {
+
+    String format(Object message);
+
+    // the unformatted message (e.g. the message pattern), used when format() fails
+    String getRawMessage(Object message);
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.logger;
+
+import org.glowroot.agent.plugin.api.Message;
+import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.agent.plugin.api.checker.Nullable;
+
+class LogMessageSupplier extends MessageSupplier {
+
+    private final String level;
+    private final @Nullable String loggerName;
+    private final boolean abbreviateLoggerName;
+    private final Object message;
+    private final LogMessageFormatter formatter;
+
+    LogMessageSupplier(String level, @Nullable String loggerName, boolean abbreviateLoggerName,
+            Object message, LogMessageFormatter formatter) {
+        this.level = level;
+        this.loggerName = loggerName;
+        this.abbreviateLoggerName = abbreviateLoggerName;
+        this.message = message;
+        this.formatter = formatter;
+    }
+
+    @Override
+    public Message get() {
+        return Message.create("log {}: {} - {}", level,
+                getDisplayLoggerName(loggerName, abbreviateLoggerName), format(formatter, message));
+    }
+
+    // formatting is deferred until the trace is stored (or viewed), outside of the logging call, so
+    // a failure to format (e.g. a message argument whose toString() throws) must not propagate
+    static String format(LogMessageFormatter formatter, Object message) {
+        try {
+            return formatter.format(message);
+        } catch (Throwable t) {
+            return formatter.getRawMessage(message) + " [failed to format log message: "
+                    + t.getClass().getName() + "]";
+        }
+    }
+
+    static String getDisplayLoggerName(@Nullable String loggerName, boolean abbreviate) {
+        if (abbreviate) {
+            return LoggerPlugin.getAbbreviatedLoggerName(loggerName);
+        } else {
+            return String.valueOf(loggerName);
+        }
+    }
+}
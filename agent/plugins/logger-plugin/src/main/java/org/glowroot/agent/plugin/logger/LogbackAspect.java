@@ -16,9 +16,8 @@
 package org.glowroot.agent.plugin.logger;
 
 import org.glowroot.agent.plugin.api.Agent;
-import org.glowroot.agent.plugin.api.Message;
-import org.glowroot.agent.plugin.api.MessageSupplier;
 import org.glowroot.agent.plugin.api.ThreadContext;
+import org.glowroot.agent.plugin.api.Timer;
 import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.plugin.api.checker.Nullable;
@@ -51,6 +50,9 @@ public class LogbackAspect {
         @Nullable
         Level glowroot$getLevel();
 
+        @Nullable
+        String getMessage();
+
         @Nullable
         String getFormattedMessage();
 
@@ -80,13 +82,23 @@ public class LogbackAspect {
 
         private static final TimerName timerName = Agent.getTimerName(CallAppendersAdvice.class);
 
+        private static final LogMessageFormatter formatter = new LogMessageFormatter() {
+            @Override
+            public String format(Object message) {
+                return nullToEmpty(((ILoggingEvent) message).getFormattedMessage());
+            }
+            @Override
+            public String getRawMessage(Object message) {
+                return nullToEmpty(((ILoggingEvent) message).getMessage());
+            }
+        };
+
         @OnBefore
-        public static @Nullable LogAdviceTraveler onBefore(ThreadContext context,
+        public static @Nullable Object onBefore(ThreadContext context,
                 @BindParameter @Nullable ILoggingEvent loggingEvent) {
             if (loggingEvent == null) {
                 return null;
             }
-            String formattedMessage = nullToEmpty(loggingEvent.getFormattedMessage());
             Level level = loggingEvent.glowroot$getLevel();
             int lvl = level == null ? 0 : level.toInt();
             Object throwableProxy = loggingEvent.glowroot$getThrowableProxy();
@@ -96,34 +108,26 @@ public class LogbackAspect {
                 // and it is only used for logging exceptions over the wire
                 t = ((ThrowableProxy) throwableProxy).getThrowable();
             }
-            if (LoggerPlugin.markTraceAsError(lvl >= ERROR_INT, lvl >= WARN_INT, t != null)) {
-                context.setTransactionError(formattedMessage, t);
+            TransactionLogs logs = TransactionLogs.forContext(context);
+            if (LoggerPlugin.markTraceAsError(lvl >= ERROR_INT, lvl >= WARN_INT, t != null)
+                    && logs.markTransactionErrorSet()) {
+                context.setTransactionError(formatter.format(loggingEvent), t);
+            }
+            String levelStr = getLevelStr(lvl);
+            String loggerName = loggingEvent.getLoggerName();
+            if (!logs.captureAsTraceEntry(context, levelStr, loggerName, true, loggingEvent,
+                    formatter, timerName)) {
+                return context.startTimer(timerName);
             }
-            TraceEntry traceEntry;
-            traceEntry = context.startTraceEntry(
-                    new LogMessageSupplier(lvl, loggingEvent.getLoggerName(), formattedMessage),
+            TraceEntry traceEntry = context.startTraceEntry(
+                    new LogMessageSupplier(levelStr, loggerName, true, loggingEvent, formatter),
                     timerName);
-            return new LogAdviceTraveler(traceEntry, lvl, formattedMessage, t);
+            return new LogAdviceTraveler(traceEntry, lvl, loggingEvent, formatter, t);
         }
 
         @OnAfter
-        public static void onAfter(@BindTraveler @Nullable LogAdviceTraveler traveler) {
-            if (traveler == null) {
-                return;
-            }
-            Throwable t = traveler.throwable;
-            if (t != null) {
-                // intentionally not passing message since it is already the trace entry message
-                if (traveler.level >= WARN_INT) {
-                    traveler.traceEntry.endWithError(t);
-                } else {
-                    traveler.traceEntry.endWithInfo(t);
-                }
-            } else if (traveler.level >= WARN_INT) {
-                traveler.traceEntry.endWithError(traveler.formattedMessage);
-            } else {
-                traveler.traceEntry.end();
-            }
+        public static void onAfter(@BindTraveler @Nullable Object traveler) {
+            LogAdviceTraveler.end(traveler);
         }
 
         private static String nullToEmpty(@Nullable String s) {
@@ -140,97 +144,103 @@ public class LogbackAspect {
         private static final TimerName timerName = Agent.getTimerName(CallAppenders0xAdvice.class);
 
         @OnBefore
-        public static @Nullable LogAdviceTraveler onBefore(ThreadContext context,
+        public static @Nullable Object onBefore(ThreadContext context,
                 @BindReceiver Object logger, @BindParameter @Nullable Object loggingEvent,
                 @BindClassMeta LoggingEventInvoker invoker) {
             if (loggingEvent == null) {
                 return null;
             }
+            // the message is formatted up front here since these old versions are only accessed
+            // via reflection
             String formattedMessage = invoker.getFormattedMessage(loggingEvent);
             int lvl = invoker.getLevel(loggingEvent);
             Throwable t = invoker.getThrowable(loggingEvent);
-            if (LoggerPlugin.markTraceAsError(lvl >= ERROR_INT, lvl >= WARN_INT, t != null)) {
+            TransactionLogs logs = TransactionLogs.forContext(context);
+            if (LoggerPlugin.markTraceAsError(lvl >= ERROR_INT, lvl >= WARN_INT, t != null)
+                    && logs.markTransactionErrorSet()) {
                 context.setTransactionError(formattedMessage, t);
             }
-            TraceEntry traceEntry = context.startTraceEntry(
-                    new LogMessageSupplier(lvl, invoker.getLoggerName(logger), formattedMessage),
+            String levelStr = getLevelStr(lvl);
+            String loggerName = invoker.getLoggerName(logger);
+            if (!logs.captureAsTraceEntry(context, levelStr, loggerName, true, formattedMessage,
+                    LoggerPlugin.TO_STRING_FORMATTER, timerName)) {
+                return context.startTimer(timerName);
+            }
+            TraceEntry traceEntry = context.startTraceEntry(new LogMessageSupplier(levelStr,
+                    loggerName, true, formattedMessage, LoggerPlugin.TO_STRING_FORMATTER),
                     timerName);
-            return new LogAdviceTraveler(traceEntry, lvl, formattedMessage, t);
+            return new LogAdviceTraveler(traceEntry, lvl, formattedMessage,
+                    LoggerPlugin.TO_STRING_FORMATTER, t);
         }
 
         @OnAfter
-        public static void onAfter(@BindTraveler @Nullable LogAdviceTraveler traveler) {
-            if (traveler == null) {
-                return;
-            }
-            Throwable t = traveler.throwable;
-            if (t != null) {
-                // intentionally not passing message since it is already the trace entry message
-                if (traveler.level >= WARN_INT) {
-                    traveler.traceEntry.endWithError(t);
-                } else {
-                    traveler.traceEntry.endWithInfo(t);
-                }
-            } else if (traveler.level >= WARN_INT) {
-                traveler.traceEntry.endWithError(traveler.formattedMessage);
-            } else {
-                traveler.traceEntry.end();
-            }
+        public static void onAfter(@BindTraveler @Nullable Object traveler) {
+            LogAdviceTraveler.end(traveler);
         }
     }
 
+    private static String getLevelStr(int lvl) {
+        switch (lvl) {
+            case ALL_INT:
+                return "all";
+            case TRACE_INT:
+                return "trace";
+            case DEBUG_INT:
+                return "debug";
+            case INFO_INT:
+                return "info";
+            case WARN_INT:
+                return "warn";
+            case ERROR_INT:
+                return "error";
+            case OFF_INT:
+                return "off";
+            default:
+                return "unknown (" + lvl + ")";
+        }
+    }
+
+    // log messages that are not captured as trace entries only use a timer as the traveler
     private static class LogAdviceTraveler {
 
         private final TraceEntry traceEntry;
         private final int level;
-        private final String formattedMessage;
+        private final Object message;
+        private final LogMessageFormatter formatter;
         private final @Nullable Throwable throwable;
 
-        private LogAdviceTraveler(TraceEntry traceEntry, int level, String formattedMessage,
-                @Nullable Throwable throwable) {
+        private LogAdviceTraveler(TraceEntry traceEntry, int level, Object message,
+                LogMessageFormatter formatter, @Nullable Throwable throwable) {
             this.traceEntry = traceEntry;
             this.level = level;
-            this.formattedMessage = formattedMessage;
+            this.message = message;
+            this.formatter = formatter;
             this.throwable = throwable;
         }
-    }
-
-    private static class LogMessageSupplier extends MessageSupplier {
-
-        private final int level;
-        private final @Nullable String loggerName;
-        private final String messageText;
-
-        private LogMessageSupplier(int level, @Nullable String loggerName, String messageText) {
-            this.level = level;
-            this.loggerName = loggerName;
-            this.messageText = messageText;
-        }
 
-        @Override
-        public Message get() {
-            return Message.create("log {}: {} - {}", getLevelStr(level),
-                    LoggerPlugin.getAbbreviatedLoggerName(loggerName), messageText);
-        }
-
-        private static String getLevelStr(int lvl) {
-            switch (lvl) {
-                case ALL_INT:
-                    return "all";
-                case TRACE_INT:
-                    return "trace";
-                case DEBUG_INT:
-                    return "debug";
-                case INFO_INT:
-                    return "info";
-                case WARN_INT:
-                    return "warn";
-                case ERROR_INT:
-                    return "error";
-                case OFF_INT:
-                    return "off";
-                default:
-                    return "unknown (" + lvl + ")";
+        private static void end(@Nullable Object traveler) {
+            if (traveler instanceof Timer) {
+                ((Timer) traveler).stop();
+                return;
+            }
+            if (traveler == null) {
+                return;
+            }
+            LogAdviceTraveler logAdviceTraveler = (LogAdviceTraveler) traveler;
+            TraceEntry traceEntry = logAdviceTraveler.traceEntry;
+            Throwable t = logAdviceTraveler.throwable;
+            if (t != null) {
+                // intentionally not passing message since it is already the trace entry message
+                if (logAdviceTraveler.level >= WARN_INT) {
+                    traceEntry.endWithError(t);
+                } else {
+                    traceEntry.endWithInfo(t);
+                }
+            } else if (logAdviceTraveler.level >= WARN_INT) {
+                traceEntry.endWithError(
+                        logAdviceTraveler.formatter.format(logAdviceTraveler.message));
+            } else {
+                traceEntry.end();
             }
         }
     }
@@ -15,9 +15,13 @@
  */
 package org.glowroot.agent.plugin.logger;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.glowroot.agent.plugin.api.Agent;
 import org.glowroot.agent.plugin.api.checker.Nullable;
 import org.glowroot.agent.plugin.api.config.BooleanProperty;
+import org.glowroot.agent.plugin.api.config.ConfigListener;
 import org.glowroot.agent.plugin.api.config.ConfigService;
 
 class LoggerPlugin {
@@ -37,8 +41,81 @@ class LoggerPlugin {
     private static final LoggerNameAbbreviator loggerNameAbbreviator =
             new LoggerNameAbbreviator(36);
 
+    // bounds the memory used by per-logger token buckets, loggers beyond this share a single bucket
+    private static final int MAX_TOKEN_BUCKETS = 1000;
+
+    private static final ConcurrentMap<String, TokenBucket> tokenBuckets =
+            new ConcurrentHashMap<String, TokenBucket>();
+
+    private static final TokenBucket overflowTokenBucket = new TokenBucket(System.nanoTime());
+
+    static final LogMessageFormatter TO_STRING_FORMATTER = new LogMessageFormatter() {
+        @Override
+        public String format(Object message) {
+            return message.toString();
+        }
+        @Override
+        public String getRawMessage(Object message) {
+            // toString() is what failed
+            return message.getClass().getName();
+        }
+    };
+
+    // visibility is provided by memoryBarrier in org.glowroot.config.ConfigService
+    private static int maxTraceEntriesPerTransactionThread;
+    private static int overflowLogBufferSize;
+    // zero means no rate limit
+    private static double maxTraceEntriesPerSecondPerLogger;
+
+    static {
+        configService.registerConfigListener(new ConfigListener() {
+            @Override
+            public void onChange() {
+                Double value = configService
+                        .getDoubleProperty("maxTraceEntriesPerTransactionThread").value();
+                maxTraceEntriesPerTransactionThread =
+                        value == null ? Integer.MAX_VALUE : Math.max(0, value.intValue());
+                value = configService.getDoubleProperty("overflowLogBufferSize").value();
+                overflowLogBufferSize = value == null ? 0 : Math.max(0, value.intValue());
+                value = configService.getDoubleProperty("maxTraceEntriesPerSecondPerLogger")
+                        .value();
+                maxTraceEntriesPerSecondPerLogger = value == null ? 0 : Math.max(0, value);
+            }
+        });
+    }
+
     private LoggerPlugin() {}
 
+    static int getMaxTraceEntriesPerTransactionThread() {
+        return maxTraceEntriesPerTransactionThread;
+    }
+
+    static int getOverflowLogBufferSize() {
+        return overflowLogBufferSize;
+    }
+
+    static boolean tryAcquireTraceEntryPermit(@Nullable String loggerName) {
+        double permitsPerSecond = maxTraceEntriesPerSecondPerLogger;
+        if (permitsPerSecond == 0) {
+            return true;
+        }
+        String key = loggerName == null ? "" : loggerName;
+        long nowNanos = System.nanoTime();
+        TokenBucket tokenBucket = tokenBuckets.get(key);
+        if (tokenBucket == null) {
+            if (tokenBuckets.size() < MAX_TOKEN_BUCKETS) {
+                tokenBucket = new TokenBucket(nowNanos);
+                TokenBucket existing = tokenBuckets.putIfAbsent(key, tokenBucket);
+                if (existing != null) {
+                    tokenBucket = existing;
+                }
+            } else {
+                tokenBucket = overflowTokenBucket;
+            }
+        }
+        return tokenBucket.tryAcquire(permitsPerSecond, nowNanos);
+    }
+
     static boolean markTraceAsError(boolean isErrorOrHigher, boolean isWarnOrHigher,
             boolean throwable) {
         if (isErrorOrHigher) {
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.logger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+class TokenBucket {
+
+    // starts full, since the number of tokens is capped at the rate on first use
+    private double tokens = Double.MAX_VALUE;
+    private long lastRefillNanos;
+
+    TokenBucket(long nowNanos) {
+        lastRefillNanos = nowNanos;
+    }
+
+    // the rate is passed in (instead of being fixed at construction) so that config changes are
+    // picked up by existing buckets, the bucket capacity is one second's worth of permits (but at
+    // least one permit, otherwise rates below one per second would never acquire a permit)
+    synchronized boolean tryAcquire(double permitsPerSecond, long nowNanos) {
+        long elapsedNanos = Math.max(0, nowNanos - lastRefillNanos);
+        tokens = Math.min(Math.max(1, permitsPerSecond),
+                tokens + elapsedNanos * permitsPerSecond / SECONDS.toNanos(1));
+        lastRefillNanos = nowNanos;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+}
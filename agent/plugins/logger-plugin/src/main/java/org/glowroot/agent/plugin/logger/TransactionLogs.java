@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.logger;
+
+import java.lang.ref.WeakReference;
+
+import org.glowroot.agent.plugin.api.Message;
+import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.agent.plugin.api.ThreadContext;
+import org.glowroot.agent.plugin.api.TimerName;
+import org.glowroot.agent.plugin.api.checker.Nullable;
+
+// limits the number of log messages that are captured as trace entries in a single thread context
+//
+// the plugin api does not support removing trace entries, so the first N log messages are captured
+// as trace entries, and after that the log messages are only counted, with the last N retained in a
+// ring buffer that is rendered (lazily, when the trace is stored) as the message of a single
+// summary trace entry
+class TransactionLogs {
+
+    // this is only replaced on the next log message in a different thread context, so it must not
+    // strongly retain anything from the previous transaction other than a few counters
+    private static final ThreadLocal<TransactionLogs> currentLogs =
+            new ThreadLocal<TransactionLogs>();
+
+    // weak reference so that the thread local does not retain the thread context after the
+    // transaction completes
+    private final WeakReference<ThreadContext> contextRef;
+
+    // these are only accessed by the thread that owns the thread context
+    private int traceEntryCount;
+    private boolean transactionErrorSet;
+
+    // the summary trace entry retains the overflow for as long as the trace is retained, so this
+    // is a weak reference so that the thread local does not retain the overflowed log messages
+    // (and their arguments) after the transaction completes
+    private @Nullable WeakReference<Overflow> overflowRef;
+
+    private TransactionLogs(ThreadContext context) {
+        contextRef = new WeakReference<ThreadContext>(context);
+    }
+
+    static TransactionLogs forContext(ThreadContext context) {
+        TransactionLogs logs = currentLogs.get();
+        if (logs == null || logs.contextRef.get() != context) {
+            logs = new TransactionLogs(context);
+            currentLogs.set(logs);
+        }
+        return logs;
+    }
+
+    // returns true if the log message should be captured as a trace entry, otherwise the log
+    // message is recorded in the summary trace entry
+    boolean captureAsTraceEntry(ThreadContext context, String level, @Nullable String loggerName,
+            boolean abbreviateLoggerName, Object message, LogMessageFormatter formatter,
+            TimerName timerName) {
+        if (traceEntryCount < LoggerPlugin.getMaxTraceEntriesPerTransactionThread()
+                && LoggerPlugin.tryAcquireTraceEntryPermit(loggerName)) {
+            traceEntryCount++;
+            return true;
+        }
+        Overflow overflow;
+        if (overflowRef == null) {
+            overflow = new Overflow();
+            overflowRef = new WeakReference<Overflow>(overflow);
+            context.startTraceEntry(overflow, timerName).end();
+        } else {
+            overflow = overflowRef.get();
+            if (overflow == null) {
+                // the summary trace entry was not retained (e.g. the trace entry limit was
+                // exceeded), so there is nowhere to record the log message
+                return false;
+            }
+        }
+        overflow.add(level, loggerName, abbreviateLoggerName, message, formatter);
+        return false;
+    }
+
+    // only the first error is retained by the transaction, so this is used to avoid formatting
+    // log messages just to have them discarded
+    boolean markTransactionErrorSet() {
+        if (transactionErrorSet) {
+            return false;
+        }
+        transactionErrorSet = true;
+        return true;
+    }
+
+    // the message supplier of the summary trace entry
+    private static class Overflow extends MessageSupplier {
+
+        // get() can be called by other threads (e.g. when viewing an active trace), so access is
+        // guarded by this
+        private @Nullable Slot[] slots;
+        private int overflowCount;
+
+        @Override
+        public synchronized Message get() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("log entry limit exceeded, ");
+            sb.append(overflowCount);
+            sb.append(" log messages were not captured as individual trace entries");
+            Slot[] slots = this.slots;
+            int retained = slots == null ? 0 : Math.min(overflowCount, slots.length);
+            if (retained > 0) {
+                sb.append(", the last ");
+                sb.append(retained);
+                sb.append(" of which were:");
+                for (int i = overflowCount - retained; i < overflowCount; i++) {
+                    sb.append('\n');
+                    slots[i % slots.length].appendTo(sb);
+                }
+            }
+            return Message.create(sb.toString());
+        }
+
+        private synchronized void add(String level, @Nullable String loggerName,
+                boolean abbreviateLoggerName, Object message, LogMessageFormatter formatter) {
+            if (slots == null) {
+                slots = new Slot[LoggerPlugin.getOverflowLogBufferSize()];
+            }
+            if (slots.length > 0) {
+                int index = overflowCount % slots.length;
+                Slot slot = slots[index];
+                if (slot == null) {
+                    slot = new Slot();
+                    slots[index] = slot;
+                }
+                slot.level = level;
+                slot.loggerName = loggerName;
+                slot.abbreviateLoggerName = abbreviateLoggerName;
+                slot.message = message;
+                slot.formatter = formatter;
+            }
+            overflowCount++;
+        }
+    }
+
+    // slots are re-used once the ring buffer wraps around
+    private static class Slot {
+
+        private @Nullable String level;
+        private @Nullable String loggerName;
+        private boolean abbreviateLoggerName;
+        private @Nullable Object message;
+        private @Nullable LogMessageFormatter formatter;
+
+        private void appendTo(StringBuilder sb) {
+            sb.append("log ");
+            sb.append(level);
+            sb.append(": ");
+            sb.append(LogMessageSupplier.getDisplayLoggerName(loggerName, abbreviateLoggerName));
+            sb.append(" - ");
+            if (message != null && formatter != null) {
+                sb.append(LogMessageSupplier.format(formatter, message));
+            }
+        }
+    }
+}
@@ -508,6 +508,26 @@ public class Log4jIT {
         assertThat(i.hasNext()).isFalse();
     }
 
+    @Test
+    public void testLogWithMessageThatFailsToFormat() throws Exception {
+        // when
+        Trace trace = container.execute(ShouldLogWithMessageThatFailsToFormat.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+
+        // the trace entry message is formatted after the transaction completes
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEqualTo(
+                "log warn: o.g.a.p.l.Log4jIT$ShouldLogWithMessageThatFailsToFormat - "
+                        + FailsToFormatLater.class.getName()
+                        + " [failed to format log message: java.lang.IllegalStateException]");
+        assertThat(entry.getError().getMessage()).isEqualTo("abc");
+
+        assertThat(i.hasNext()).isFalse();
+    }
+
     public static class ShouldLog implements AppUnderTest, TransactionMarker {
         private static final Logger logger = Logger.getLogger(ShouldLog.class);
         @Override
@@ -524,6 +544,22 @@ public class Log4jIT {
         }
     }
 
+    public static class ShouldLogWithMessageThatFailsToFormat
+            implements AppUnderTest, TransactionMarker {
+        private static final Logger logger =
+                Logger.getLogger(ShouldLogWithMessageThatFailsToFormat.class);
+        @Override
+        public void executeApp() {
+            transactionMarker();
+        }
+        @Override
+        public void transactionMarker() {
+            FailsToFormatLater message = new FailsToFormatLater();
+            logger.warn(message);
+            message.fail = true;
+        }
+    }
+
     public static class ShouldLogWithThrowable implements AppUnderTest, TransactionMarker {
         private static final Logger logger = Logger.getLogger(ShouldLogWithThrowable.class);
         @Override
@@ -747,4 +783,15 @@ public class Log4jIT {
             logger.l7dlog(Level.FATAL, "fgh____null", new Object[] {"f_", "g_", "h_"}, null);
         }
     }
+
+    private static class FailsToFormatLater {
+        private volatile boolean fail;
+        @Override
+        public String toString() {
+            if (fail) {
+                throw new IllegalStateException();
+            }
+            return "abc";
+        }
+    }
 }
@@ -305,6 +305,98 @@ public class LogbackIT {
         assertThat(i.hasNext()).isFalse();
     }
 
+    @Test
+    public void testLogExceedingMaxTraceEntries() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID,
+                "maxTraceEntriesPerTransactionThread", 2.0);
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "overflowLogBufferSize", 2.0);
+
+        // when
+        Trace trace = container.execute(ShouldLogManyWarnings.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage())
+                .isEqualTo("log warn: o.g.a.p.l.LogbackIT$ShouldLogManyWarnings - abc_0");
+
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage())
+                .isEqualTo("log warn: o.g.a.p.l.LogbackIT$ShouldLogManyWarnings - abc_1");
+
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEqualTo("log entry limit exceeded, 3 log messages were"
+                + " not captured as individual trace entries, the last 2 of which were:"
+                + "\nlog warn: o.g.a.p.l.LogbackIT$ShouldLogManyWarnings - abc_3"
+                + "\nlog warn: o.g.a.p.l.LogbackIT$ShouldLogManyWarnings - abc_4");
+
+        assertThat(i.hasNext()).isFalse();
+    }
+
+    @Test
+    public void testLogExceedingMaxTraceEntriesPerSecondPerLogger() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID,
+                "maxTraceEntriesPerSecondPerLogger", 2.0);
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "overflowLogBufferSize", 2.0);
+
+        // when
+        Trace trace = container.execute(ShouldLogManyRateLimitedWarnings.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEqualTo(
+                "log warn: o.g.a.p.l.LogbackIT$ShouldLogManyRateLimitedWarnings - abc_0");
+
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEqualTo(
+                "log warn: o.g.a.p.l.LogbackIT$ShouldLogManyRateLimitedWarnings - abc_1");
+
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEqualTo("log entry limit exceeded, 3 log messages were"
+                + " not captured as individual trace entries, the last 2 of which were:"
+                + "\nlog warn: o.g.a.p.l.LogbackIT$ShouldLogManyRateLimitedWarnings - abc_3"
+                + "\nlog warn: o.g.a.p.l.LogbackIT$ShouldLogManyRateLimitedWarnings - abc_4");
+
+        assertThat(i.hasNext()).isFalse();
+    }
+
+    @Test
+    public void testLogExceedingMaxTraceEntriesPerSecondPerLoggerBelowOne() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID,
+                "maxTraceEntriesPerSecondPerLogger", 0.5);
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "overflowLogBufferSize", 0.0);
+
+        // when
+        Trace trace = container.execute(ShouldLogManySlowlyRateLimitedWarnings.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEqualTo(
+                "log warn: o.g.a.p.l.LogbackIT$ShouldLogManySlowlyRateLimitedWarnings - abc_0");
+
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEqualTo("log entry limit exceeded, 4 log messages were"
+                + " not captured as individual trace entries");
+
+        assertThat(i.hasNext()).isFalse();
+    }
+
     static boolean isShaded() {
         try {
             Class.forName("org.glowroot.agent.shaded.org.slf4j.Logger");
@@ -446,4 +538,52 @@ public class LogbackIT {
                     new Object[] {"e", "f", "g", new IllegalStateException("567")});
         }
     }
+
+    public static class ShouldLogManyWarnings implements AppUnderTest, TransactionMarker {
+        private static final Logger logger = LoggerFactory.getLogger(ShouldLogManyWarnings.class);
+        @Override
+        public void executeApp() {
+            transactionMarker();
+        }
+        @Override
+        public void transactionMarker() {
+            for (int i = 0; i < 5; i++) {
+                logger.warn("abc_{}", i);
+            }
+        }
+    }
+
+    // separate logger (and so separate token bucket) from the other tests
+    public static class ShouldLogManyRateLimitedWarnings
+            implements AppUnderTest, TransactionMarker {
+        private static final Logger logger =
+                LoggerFactory.getLogger(ShouldLogManyRateLimitedWarnings.class);
+        @Override
+        public void executeApp() {
+            transactionMarker();
+        }
+        @Override
+        public void transactionMarker() {
+            for (int i = 0; i < 5; i++) {
+                logger.warn("abc_{}", i);
+            }
+        }
+    }
+
+    // separate logger (and so separate token bucket) from the other tests
+    public static class ShouldLogManySlowlyRateLimitedWarnings
+            implements AppUnderTest, TransactionMarker {
+        private static final Logger logger =
+                LoggerFactory.getLogger(ShouldLogManySlowlyRateLimitedWarnings.class);
+        @Override
+        public void executeApp() {
+            transactionMarker();
+        }
+        @Override
+        public void transactionMarker() {
+            for (int i = 0; i < 5; i++) {
+                logger.warn("abc_{}", i);
+            }
+        }
+    }
 }
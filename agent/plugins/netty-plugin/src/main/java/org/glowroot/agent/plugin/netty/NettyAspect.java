@@ -38,36 +38,28 @@ import org.glowroot.agent.plugin.api.weaving.OnReturn;
 import org.glowroot.agent.plugin.api.weaving.OnThrow;
 import org.glowroot.agent.plugin.api.weaving.Pointcut;
 import org.glowroot.agent.plugin.api.weaving.Shim;
+import org.glowroot.agent.plugin.netty._.InFlightRequests;
 import org.glowroot.agent.plugin.netty._.Util;
 
 public class NettyAspect {
 
+    // see io.netty.handler.codec.http2.HttpConversionUtil.ExtensionHeaderNames.STREAM_ID
+    private static final String STREAM_ID_HEADER_NAME = "x-http2-stream-id";
+
     // the field and method names are verbose since they will be mixed in to existing classes
     @Mixin({"io.netty.channel.Channel"})
     public abstract static class ChannelImpl implements ChannelMixin {
 
-        private transient volatile @Nullable ThreadContext glowroot$threadContextToComplete;
-        private transient volatile @Nullable AuxThreadContext glowroot$auxContext;
-
-        @Override
-        public @Nullable ThreadContext glowroot$getThreadContextToComplete() {
-            return glowroot$threadContextToComplete;
-        }
-
-        @Override
-        public void glowroot$setThreadContextToComplete(
-                @Nullable ThreadContext threadContextToComplete) {
-            glowroot$threadContextToComplete = threadContextToComplete;
-        }
+        private transient volatile @Nullable InFlightRequests glowroot$inFlightRequests;
 
         @Override
-        public @Nullable AuxThreadContext glowroot$getAuxContext() {
-            return glowroot$auxContext;
+        public @Nullable InFlightRequests glowroot$getInFlightRequests() {
+            return glowroot$inFlightRequests;
         }
 
         @Override
-        public void glowroot$setAuxContext(@Nullable AuxThreadContext auxContext) {
-            glowroot$auxContext = auxContext;
+        public void glowroot$setInFlightRequests(@Nullable InFlightRequests inFlightRequests) {
+            glowroot$inFlightRequests = inFlightRequests;
         }
     }
 
@@ -75,14 +67,27 @@ public class NettyAspect {
     public interface ChannelMixin {
 
         @Nullable
-        ThreadContext glowroot$getThreadContextToComplete();
+        InFlightRequests glowroot$getInFlightRequests();
 
-        void glowroot$setThreadContextToComplete(@Nullable ThreadContext completeAsyncTransaction);
+        void glowroot$setInFlightRequests(@Nullable InFlightRequests inFlightRequests);
+    }
+
+    // need shims for netty-http-codec classes, since the pointcuts below are applied to
+    // netty-transport classes, whether or not netty-codec-http is included on the classpath
+    @Shim("io.netty.handler.codec.http.HttpMessage")
+    public interface HttpMessageShim {
 
+        @Shim("io.netty.handler.codec.http.HttpHeaders headers()")
         @Nullable
-        AuxThreadContext glowroot$getAuxContext();
+        HttpHeadersShim glowroot$getHeaders();
+    }
 
-        void glowroot$setAuxContext(@Nullable AuxThreadContext auxThreadContext);
+    // need shims for netty-http-codec classes, since the pointcuts below are applied to
+    // netty-transport classes, whether or not netty-codec-http is included on the classpath
+    @Shim("io.netty.handler.codec.http.HttpHeaders")
+    public interface HttpHeadersShim {
+        @Nullable
+        String get(String name);
     }
 
     // need shims for netty-http-codec classes, since the pointcuts below are applied to
@@ -126,30 +131,45 @@ public class NettyAspect {
                 return null;
             }
             final ChannelMixin channelMixin = (ChannelMixin) channel;
-            AuxThreadContext auxContext = channelMixin.glowroot$getAuxContext();
-            if (auxContext != null) {
-                return auxContext.start();
-            }
+            InFlightRequests inFlightRequests = channelMixin.glowroot$getInFlightRequests();
             if (!(msg instanceof HttpRequestShim)) {
-                return null;
+                if (inFlightRequests == null) {
+                    return null;
+                }
+                AuxThreadContext auxContext = inFlightRequests.getAuxContext();
+                if (auxContext == null) {
+                    return null;
+                }
+                return auxContext.start();
             }
             HttpRequestShim request = (HttpRequestShim) msg;
             HttpMethodShim method = request.glowroot$getMethod();
             String methodName = method == null ? null : method.name();
             TraceEntry traceEntry =
                     Util.startAsyncTransaction(context, methodName, request.getUri(), timerName);
-            channelMixin.glowroot$setThreadContextToComplete(context);
-            // IMPORTANT the close future gets called if client disconnects, but does not get called
-            // when transaction ends and Keep-Alive is used (so still need to capture write
-            // LastHttpContent below)
-            channel.closeFuture().addListener(new GenericFutureListener<Future<? super Void>>() {
-                @Override
-                public void operationComplete(Future<? super Void> future) {
-                    endTransaction(channelMixin);
-                }
-            });
-            if (!(msg instanceof LastHttpContentShim)) {
-                channelMixin.glowroot$setAuxContext(context.createAuxThreadContext());
+            if (inFlightRequests == null) {
+                inFlightRequests = new InFlightRequests();
+                channelMixin.glowroot$setInFlightRequests(inFlightRequests);
+            }
+            // a new request is started for each HttpRequest (as opposed to continuing the prior
+            // request's aux context) so that pipelined requests are captured separately
+            inFlightRequests.add(context, getStreamId((HttpMessageShim) msg));
+            if (inFlightRequests.markCloseListenerAdded()) {
+                // IMPORTANT the close future gets called if client disconnects, but does not get
+                // called when transaction ends and Keep-Alive is used (so still need to capture
+                // encode/write LastHttpContent below)
+                channel.closeFuture()
+                        .addListener(new GenericFutureListener<Future<? super Void>>() {
+                            @Override
+                            public void operationComplete(Future<? super Void> future) {
+                                endAllTransactions(channelMixin);
+                            }
+                        });
+            }
+            if (msg instanceof LastHttpContentShim) {
+                inFlightRequests.setAuxContext(null, null);
+            } else {
+                inFlightRequests.setAuxContext(context.createAuxThreadContext(), context);
             }
             return traceEntry;
         }
@@ -178,11 +198,11 @@ public class NettyAspect {
         @OnBefore
         public static @Nullable TraceEntry onBefore(
                 @BindReceiver ChannelHandlerContext channelHandlerContext) {
-            ChannelMixin channel = (ChannelMixin) channelHandlerContext.channel();
-            if (channel == null) {
+            InFlightRequests inFlightRequests = getInFlightRequests(channelHandlerContext);
+            if (inFlightRequests == null) {
                 return null;
             }
-            AuxThreadContext auxContext = channel.glowroot$getAuxContext();
+            AuxThreadContext auxContext = inFlightRequests.getAuxContext();
             if (auxContext == null) {
                 return null;
             }
@@ -205,9 +225,35 @@ public class NettyAspect {
         }
     }
 
-    // IMPORTANT the close future gets called if client disconnects, but does not get called when
-    // transaction ends and Keep-Alive is used (so still need to capture write LastHttpContent
-    // below)
+    // HTTP/1.x responses are matched up with their requests here, since the encoder sees each
+    // outbound message exactly once and in order, as opposed to ChannelOutboundHandler.write()
+    // below, which sees the same message once for each outbound handler in the pipeline
+    @Pointcut(className = "io.netty.handler.codec.http.HttpObjectEncoder", methodName = "encode",
+            methodParameterTypes = {"io.netty.channel.ChannelHandlerContext",
+                    "java.lang.Object", "java.util.List"})
+    public static class EncodeAdvice {
+
+        @OnAfter
+        public static void onAfter(
+                @BindParameter @Nullable ChannelHandlerContext channelHandlerContext,
+                @BindParameter @Nullable Object msg) {
+            if (!(msg instanceof LastHttpContentShim)) {
+                return;
+            }
+            InFlightRequests inFlightRequests = getInFlightRequests(channelHandlerContext);
+            if (inFlightRequests == null) {
+                return;
+            }
+            ThreadContext context = inFlightRequests.removeFirst();
+            if (context != null) {
+                context.setTransactionAsyncComplete();
+            }
+        }
+    }
+
+    // HTTP/2 responses that are multiplexed over a single channel (and so do not pass through
+    // HttpObjectEncoder above) are matched up with their requests here by stream id, which is
+    // idempotent, so it doesn't matter that the same message is seen by multiple outbound handlers
     @Pointcut(className = "io.netty.channel.ChannelOutboundHandler", methodName = "write",
             methodParameterTypes = {"io.netty.channel.ChannelHandlerContext",
                     "java.lang.Object", "io.netty.channel.ChannelPromise"})
@@ -217,26 +263,63 @@ public class NettyAspect {
         public static void onAfter(
                 @BindParameter @Nullable ChannelHandlerContext channelHandlerContext,
                 @BindParameter @Nullable Object msg) {
-            if (!(msg instanceof LastHttpContentShim)) {
+            if (!(msg instanceof HttpMessageShim) && !(msg instanceof LastHttpContentShim)) {
                 return;
             }
-            if (channelHandlerContext == null) {
+            InFlightRequests inFlightRequests = getInFlightRequests(channelHandlerContext);
+            if (inFlightRequests == null || !inFlightRequests.isTrackingStreams()) {
                 return;
             }
-            Channel channel = channelHandlerContext.channel();
-            if (channel == null) {
+            int streamId;
+            if (msg instanceof HttpMessageShim) {
+                streamId = getStreamId((HttpMessageShim) msg);
+                inFlightRequests.setOutboundStreamId(streamId);
+            } else {
+                streamId = inFlightRequests.getOutboundStreamId();
+            }
+            if (streamId == InFlightRequests.NO_STREAM_ID
+                    || !(msg instanceof LastHttpContentShim)) {
                 return;
             }
-            endTransaction((ChannelMixin) channel);
+            ThreadContext context = inFlightRequests.removeStream(streamId);
+            if (context != null) {
+                context.setTransactionAsyncComplete();
+            }
+        }
+    }
+
+    private static @Nullable InFlightRequests getInFlightRequests(
+            @Nullable ChannelHandlerContext channelHandlerContext) {
+        if (channelHandlerContext == null) {
+            return null;
+        }
+        Channel channel = channelHandlerContext.channel();
+        if (channel == null) {
+            return null;
+        }
+        return ((ChannelMixin) channel).glowroot$getInFlightRequests();
+    }
+
+    private static int getStreamId(HttpMessageShim message) {
+        HttpHeadersShim headers = message.glowroot$getHeaders();
+        if (headers == null) {
+            return InFlightRequests.NO_STREAM_ID;
+        }
+        String streamId = headers.get(STREAM_ID_HEADER_NAME);
+        if (streamId == null) {
+            return InFlightRequests.NO_STREAM_ID;
+        }
+        try {
+            return Integer.parseInt(streamId);
+        } catch (NumberFormatException e) {
+            return InFlightRequests.NO_STREAM_ID;
         }
     }
 
-    private static void endTransaction(ChannelMixin channelMixin) {
-        ThreadContext context = channelMixin.glowroot$getThreadContextToComplete();
-        if (context != null) {
-            context.setTransactionAsyncComplete();
-            channelMixin.glowroot$setThreadContextToComplete(null);
-            channelMixin.glowroot$setAuxContext(null);
+    private static void endAllTransactions(ChannelMixin channelMixin) {
+        InFlightRequests inFlightRequests = channelMixin.glowroot$getInFlightRequests();
+        if (inFlightRequests != null) {
+            inFlightRequests.completeAll();
         }
     }
 }
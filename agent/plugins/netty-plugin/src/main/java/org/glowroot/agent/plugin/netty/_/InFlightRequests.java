@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.netty._;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.glowroot.agent.plugin.api.AuxThreadContext;
+import org.glowroot.agent.plugin.api.ThreadContext;
+import org.glowroot.agent.plugin.api.checker.Nullable;
+
+// tracks the transactions that are in flight on a single channel
+//
+// HTTP/1.1 pipelined requests are responded to in the same order that they were received, so
+// those are matched up with their responses using a FIFO queue, while HTTP/2 requests that are
+// multiplexed over a single channel (e.g. using InboundHttp2ToHttpAdapter) carry their stream id
+// in an extension header, so those are matched up with their responses by stream id (HTTP/2
+// streams that are modeled as child channels each get their own instance, and are completed when
+// the child channel is closed at the end of the stream)
+//
+// all methods are called from the channel's event loop, so no synchronization is needed
+public class InFlightRequests {
+
+    public static final int NO_STREAM_ID = -1;
+
+    private static final int INITIAL_CAPACITY = 2;
+
+    // ring buffer
+    private @Nullable ThreadContext[] queue = new ThreadContext[INITIAL_CAPACITY];
+    private int head;
+    private int size;
+
+    // lazy instantiated since most channels never see a stream id
+    private @Nullable Map<Integer, ThreadContext> streams;
+
+    // stream id of the response that is currently being written, needed since only the initial
+    // HttpResponse carries the stream id header, and not the subsequent LastHttpContent
+    private int outboundStreamId = NO_STREAM_ID;
+
+    // aux context for inbound messages that follow the most recent request (e.g. HttpContent)
+    private @Nullable AuxThreadContext auxContext;
+    private @Nullable ThreadContext auxContextOwner;
+
+    private boolean closeListenerAdded;
+
+    public void add(ThreadContext context, int streamId) {
+        if (streamId == NO_STREAM_ID) {
+            if (size == queue.length) {
+                grow();
+            }
+            queue[(head + size) % queue.length] = context;
+            size++;
+        } else {
+            if (streams == null) {
+                streams = new HashMap<Integer, ThreadContext>();
+            }
+            streams.put(streamId, context);
+        }
+    }
+
+    public @Nullable ThreadContext removeFirst() {
+        if (size == 0) {
+            return null;
+        }
+        @Nullable ThreadContext context = queue[head];
+        queue[head] = null;
+        head = (head + 1) % queue.length;
+        size--;
+        clearAuxContextIfOwner(context);
+        return context;
+    }
+
+    public @Nullable ThreadContext removeStream(int streamId) {
+        if (streams == null) {
+            return null;
+        }
+        ThreadContext context = streams.remove(streamId);
+        clearAuxContextIfOwner(context);
+        return context;
+    }
+
+    public boolean isTrackingStreams() {
+        return streams != null;
+    }
+
+    public int getOutboundStreamId() {
+        return outboundStreamId;
+    }
+
+    public void setOutboundStreamId(int outboundStreamId) {
+        this.outboundStreamId = outboundStreamId;
+    }
+
+    public @Nullable AuxThreadContext getAuxContext() {
+        return auxContext;
+    }
+
+    public void setAuxContext(@Nullable AuxThreadContext auxContext,
+            @Nullable ThreadContext auxContextOwner) {
+        this.auxContext = auxContext;
+        this.auxContextOwner = auxContextOwner;
+    }
+
+    // returns true only the first time it is called
+    public boolean markCloseListenerAdded() {
+        if (closeListenerAdded) {
+            return false;
+        }
+        closeListenerAdded = true;
+        return true;
+    }
+
+    public void completeAll() {
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % queue.length;
+            ThreadContext context = queue[index];
+            if (context != null) {
+                context.setTransactionAsyncComplete();
+            }
+            queue[index] = null;
+        }
+        head = 0;
+        size = 0;
+        if (streams != null) {
+            for (ThreadContext context : streams.values()) {
+                context.setTransactionAsyncComplete();
+            }
+            streams.clear();
+        }
+        auxContext = null;
+        auxContextOwner = null;
+    }
+
+    private void clearAuxContextIfOwner(@Nullable ThreadContext context) {
+        if (context != null && context == auxContextOwner) {
+            auxContext = null;
+            auxContextOwner = null;
+        }
+    }
+
+    private void grow() {
+        ThreadContext[] newQueue = new ThreadContext[queue.length * 2];
+        for (int i = 0; i < size; i++) {
+            newQueue[i] = queue[(head + i) % queue.length];
+        }
+        queue = newQueue;
+        head = 0;
+    }
+}
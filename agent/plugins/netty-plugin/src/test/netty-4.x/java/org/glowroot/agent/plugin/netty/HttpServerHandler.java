@@ -78,6 +78,10 @@ public class HttpServerHandler extends ChannelInboundHandlerAdapter {
                     new DefaultFullHttpResponse(HTTP_1_1, OK, Unpooled.wrappedBuffer(CONTENT));
             response.headers().set("Content-Type", "text/plain");
             response.headers().set("Content-Length", response.content().readableBytes());
+            if (uri.startsWith("/keepalive")) {
+                ctx.write(response);
+                return;
+            }
             ctx.write(response).addListener(ChannelFutureListener.CLOSE);
         }
     }
@@ -15,7 +15,11 @@
  */
 package org.glowroot.agent.plugin.netty;
 
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.ServerSocket;
+import java.net.Socket;
 
 import org.apache.http.NoHttpResponseException;
 import org.apache.http.client.methods.HttpGet;
@@ -32,6 +36,7 @@ import org.glowroot.agent.it.harness.Container;
 import org.glowroot.agent.it.harness.Containers;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
+import static com.google.common.base.Charsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class NettyIT {
@@ -82,6 +87,54 @@ public class NettyIT {
         assertThat(trace.getEntryList()).isEmpty();
     }
 
+    @Test
+    public void shouldCaptureFirstPipelinedHttpGet() throws Exception {
+        // when
+        Trace trace = container.execute(ExecutePipelinedHttpGets.class, "Web", "/pipelined1");
+        // then
+        assertThat(trace.getHeader().getHeadline()).isEqualTo("GET /pipelined1");
+        assertThat(trace.getEntryList()).isEmpty();
+    }
+
+    @Test
+    public void shouldCaptureSecondPipelinedHttpGet() throws Exception {
+        // when
+        Trace trace = container.execute(ExecutePipelinedHttpGets.class, "Web", "/pipelined2");
+        // then
+        assertThat(trace.getHeader().getHeadline()).isEqualTo("GET /pipelined2");
+        assertThat(trace.getEntryList()).isEmpty();
+    }
+
+    @Test
+    public void shouldCaptureFirstKeepAlivePipelinedHttpGet() throws Exception {
+        // when
+        Trace trace;
+        try {
+            trace = container.execute(ExecuteKeepAlivePipelinedHttpGets.class, "Web",
+                    "/keepalive1");
+        } finally {
+            container.execute(CloseKeepAliveConnection.class, "Web", "/keepalive-close");
+        }
+        // then
+        assertThat(trace.getHeader().getHeadline()).isEqualTo("GET /keepalive1");
+        assertThat(trace.getEntryList()).isEmpty();
+    }
+
+    @Test
+    public void shouldCaptureSecondKeepAlivePipelinedHttpGet() throws Exception {
+        // when
+        Trace trace;
+        try {
+            trace = container.execute(ExecuteKeepAlivePipelinedHttpGets.class, "Web",
+                    "/keepalive2");
+        } finally {
+            container.execute(CloseKeepAliveConnection.class, "Web", "/keepalive-close");
+        }
+        // then
+        assertThat(trace.getHeader().getHeadline()).isEqualTo("GET /keepalive2");
+        assertThat(trace.getEntryList()).isEmpty();
+    }
+
     private static int getAvailablePort() throws Exception {
         ServerSocket serverSocket = new ServerSocket(0);
         int port = serverSocket.getLocalPort();
@@ -138,4 +191,94 @@ public class NettyIT {
             server.close();
         }
     }
+
+    public static class ExecutePipelinedHttpGets implements AppUnderTest {
+
+        @Override
+        public void executeApp() throws Exception {
+            int port = getAvailablePort();
+            HttpServer server = new HttpServer(port);
+            Socket socket = new Socket("localhost", port);
+            OutputStream out = socket.getOutputStream();
+            // both requests are sent before reading either response
+            out.write(("GET /pipelined1 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /pipelined2 HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(UTF_8));
+            out.flush();
+            // server closes the connection after writing the responses
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                baos.write(buffer, 0, n);
+            }
+            socket.close();
+            String responses = new String(baos.toByteArray(), UTF_8);
+            if (responses.indexOf("HTTP/1.1 200") == responses.lastIndexOf("HTTP/1.1 200")) {
+                throw new IllegalStateException("Unexpected responses: " + responses);
+            }
+            server.close();
+        }
+    }
+
+    // the connection is left open (until CloseKeepAliveConnection), so that the transactions can
+    // only be completed by matching up the responses with the requests, and not by the channel
+    // being closed
+    public static class ExecuteKeepAlivePipelinedHttpGets implements AppUnderTest {
+
+        private static HttpServer server;
+        private static Socket socket;
+
+        @Override
+        public void executeApp() throws Exception {
+            int port = getAvailablePort();
+            server = new HttpServer(port);
+            socket = new Socket("localhost", port);
+            OutputStream out = socket.getOutputStream();
+            // both requests are sent before reading either response
+            out.write(("GET /keepalive1 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /keepalive2 HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(UTF_8));
+            out.flush();
+            readResponses(socket.getInputStream(), 2);
+        }
+    }
+
+    public static class CloseKeepAliveConnection implements AppUnderTest {
+
+        @Override
+        public void executeApp() throws Exception {
+            Socket socket = ExecuteKeepAlivePipelinedHttpGets.socket;
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /keepalive-close HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(UTF_8));
+            out.flush();
+            readResponses(socket.getInputStream(), 1);
+            socket.close();
+            ExecuteKeepAlivePipelinedHttpGets.server.close();
+        }
+    }
+
+    // reads until the expected number of response bodies have been received, since the server
+    // does not close the connection
+    private static void readResponses(InputStream in, int count) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        while (countOccurrences(new String(baos.toByteArray(), UTF_8), "Hello World") < count) {
+            int n = in.read(buffer);
+            if (n == -1) {
+                throw new IllegalStateException(
+                        "Unexpected responses: " + new String(baos.toByteArray(), UTF_8));
+            }
+            baos.write(buffer, 0, n);
+        }
+    }
+
+    private static int countOccurrences(String str, String substr) {
+        int count = 0;
+        int index = str.indexOf(substr);
+        while (index != -1) {
+            count++;
+            index = str.indexOf(substr, index + substr.length());
+        }
+        return count;
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.netty;
+
+import java.util.concurrent.Semaphore;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http2.DefaultHttp2Connection;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.HttpConversionUtil.ExtensionHeaderNames;
+import io.netty.handler.codec.http2.HttpToHttp2ConnectionHandlerBuilder;
+import io.netty.handler.codec.http2.InboundHttp2ToHttpAdapterBuilder;
+
+import static io.netty.handler.codec.http.HttpMethod.GET;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// HTTP/2 (prior knowledge) client that sends multiple requests over a single connection
+class Http2AdapterClient {
+
+    private final EventLoopGroup group;
+    private final Channel channel;
+
+    private final Semaphore responses = new Semaphore(0);
+
+    Http2AdapterClient(int port) throws InterruptedException {
+        group = new NioEventLoopGroup();
+        Bootstrap b = new Bootstrap();
+        b.group(group)
+                .channel(NioSocketChannel.class)
+                .handler(new Http2AdapterClientInitializer());
+        channel = b.connect("localhost", port).sync().channel();
+    }
+
+    // client initiated stream ids must be odd and increasing
+    void sendGet(String uri, int streamId) {
+        FullHttpRequest request = new DefaultFullHttpRequest(HTTP_1_1, GET, uri);
+        request.headers().set(HttpHeaderNames.HOST, "localhost");
+        request.headers().set(ExtensionHeaderNames.SCHEME.text(), "http");
+        request.headers().set(ExtensionHeaderNames.STREAM_ID.text(), streamId);
+        channel.writeAndFlush(request);
+    }
+
+    void awaitResponses(int count) throws InterruptedException {
+        if (!responses.tryAcquire(count, 10, SECONDS)) {
+            throw new IllegalStateException("Timed out waiting for responses");
+        }
+    }
+
+    void close() throws InterruptedException {
+        channel.close().sync();
+        group.shutdownGracefully();
+    }
+
+    private class Http2AdapterClientInitializer extends ChannelInitializer<SocketChannel> {
+
+        @Override
+        public void initChannel(SocketChannel ch) {
+            ChannelPipeline p = ch.pipeline();
+            Http2Connection connection = new DefaultHttp2Connection(false);
+            p.addLast(new HttpToHttp2ConnectionHandlerBuilder()
+                    .connection(connection)
+                    .frameListener(new InboundHttp2ToHttpAdapterBuilder(connection)
+                            .maxContentLength(16 * 1024)
+                            .build())
+                    .build());
+            p.addLast(new SimpleChannelInboundHandler<FullHttpResponse>() {
+                @Override
+                protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse msg) {
+                    responses.release();
+                }
+            });
+        }
+    }
+}
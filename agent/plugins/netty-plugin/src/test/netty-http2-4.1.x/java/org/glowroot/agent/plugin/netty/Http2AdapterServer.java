@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.netty;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http2.DefaultHttp2Connection;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.HttpToHttp2ConnectionHandlerBuilder;
+import io.netty.handler.codec.http2.InboundHttp2ToHttpAdapterBuilder;
+import io.netty.handler.logging.LogLevel;
+import io.netty.handler.logging.LoggingHandler;
+
+// HTTP/2 server where all streams are multiplexed over the single connection channel, and are
+// converted to/from HTTP/1.x messages (which carry the stream id in an extension header)
+class Http2AdapterServer {
+
+    private final EventLoopGroup group;
+    private final Channel channel;
+
+    Http2AdapterServer(int port) throws InterruptedException {
+        group = new NioEventLoopGroup();
+        ServerBootstrap b = new ServerBootstrap();
+        b.group(group)
+                .channel(NioServerSocketChannel.class)
+                .handler(new LoggingHandler(LogLevel.INFO))
+                .childHandler(new Http2AdapterServerInitializer());
+        channel = b.bind(port).sync().channel();
+    }
+
+    void close() throws InterruptedException {
+        channel.close();
+        group.shutdownGracefully();
+    }
+
+    private static class Http2AdapterServerInitializer extends ChannelInitializer<SocketChannel> {
+
+        @Override
+        public void initChannel(SocketChannel ch) {
+            ChannelPipeline p = ch.pipeline();
+            Http2Connection connection = new DefaultHttp2Connection(true);
+            p.addLast(new HttpToHttp2ConnectionHandlerBuilder()
+                    .connection(connection)
+                    .frameListener(new InboundHttp2ToHttpAdapterBuilder(connection)
+                            .maxContentLength(16 * 1024)
+                            .build())
+                    .build());
+            p.addLast(new Http2AdapterServerHandler());
+        }
+    }
+}
@@ -66,6 +66,34 @@ public class Http2IT {
         assertThat(trace.getEntryList()).isEmpty();
     }
 
+    @Test
+    public void shouldCaptureFirstHttp2GetOverSingleChannel() throws Exception {
+        // when
+        Trace trace;
+        try {
+            trace = container.execute(ExecuteHttp2GetsOverSingleChannel.class, "Web", "/stream3");
+        } finally {
+            container.execute(CloseHttp2Connection.class, "Web", "/stream-close");
+        }
+        // then
+        assertThat(trace.getHeader().getHeadline()).isEqualTo("GET /stream3");
+        assertThat(trace.getEntryList()).isEmpty();
+    }
+
+    @Test
+    public void shouldCaptureSecondHttp2GetOverSingleChannel() throws Exception {
+        // when
+        Trace trace;
+        try {
+            trace = container.execute(ExecuteHttp2GetsOverSingleChannel.class, "Web", "/stream5");
+        } finally {
+            container.execute(CloseHttp2Connection.class, "Web", "/stream-close");
+        }
+        // then
+        assertThat(trace.getHeader().getHeadline()).isEqualTo("GET /stream5");
+        assertThat(trace.getEntryList()).isEmpty();
+    }
+
     private static int getAvailablePort() throws Exception {
         ServerSocket serverSocket = new ServerSocket(0);
         int port = serverSocket.getLocalPort();
@@ -95,4 +123,36 @@ public class Http2IT {
             server.close();
         }
     }
+
+    // both streams are multiplexed over the same channel (see Http2AdapterServer), and the
+    // connection is left open (until CloseHttp2Connection), so that the transactions can only be
+    // completed by matching up the responses with the requests by stream id, and not by the
+    // channel being closed
+    public static class ExecuteHttp2GetsOverSingleChannel implements AppUnderTest {
+
+        private static Http2AdapterServer server;
+        private static Http2AdapterClient client;
+
+        @Override
+        public void executeApp() throws Exception {
+            int port = getAvailablePort();
+            server = new Http2AdapterServer(port);
+            client = new Http2AdapterClient(port);
+            client.sendGet("/stream3", 3);
+            client.sendGet("/stream5", 5);
+            client.awaitResponses(2);
+        }
+    }
+
+    public static class CloseHttp2Connection implements AppUnderTest {
+
+        @Override
+        public void executeApp() throws Exception {
+            Http2AdapterClient client = ExecuteHttp2GetsOverSingleChannel.client;
+            client.sendGet("/stream-close", 7);
+            client.awaitResponses(1);
+            client.close();
+            ExecuteHttp2GetsOverSingleChannel.server.close();
+        }
+    }
 }
@@ -16,19 +16,17 @@
 package org.glowroot.agent.plugin.servlet;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletRequest;
 
 import org.glowroot.agent.plugin.api.checker.Nullable;
 import org.glowroot.agent.plugin.api.util.ImmutableList;
-import org.glowroot.agent.plugin.api.util.ImmutableMap;
+import org.glowroot.agent.plugin.servlet._.CombinedPattern;
+import org.glowroot.agent.plugin.servlet._.NameValueSnapshot;
 import org.glowroot.agent.plugin.servlet._.RequestHostAndPortDetail;
 import org.glowroot.agent.plugin.servlet._.RequestInvoker;
 import org.glowroot.agent.plugin.servlet._.ServletPluginProperties;
@@ -38,17 +36,23 @@ import org.glowroot.agent.plugin.servlet._.Strings;
 // to see detail from active traces
 //
 // shallow copies are also necessary because servlet container may clear out the objects after the
-// request is complete (e.g. tomcat does this) in order to reuse them, in which case this detail
-// would need to be captured synchronously at end of request anyways (although then it could be
-// captured only if trace met threshold for storage...)
+// request is complete (e.g. tomcat does this) in order to reuse them, so this detail cannot be read
+// lazily from the request by the trace storage thread once the trace meets the threshold for
+// storage, instead the matching names and values are captured by reference into a lightweight
+// snapshot, which is only materialized into maps if the trace is stored (see NameValueSnapshot)
 public class DetailCapture {
 
     private DetailCapture() {}
 
-    public static Map<String, Object> captureRequestParameters(
+    // the request parameter map is immutable per the servlet spec, so the String[] values can be
+    // captured by reference without copying
+    public static NameValueSnapshot captureRequestParameters(
             Map</*@Nullable*/ String, ?> requestParameters) {
-        List<Pattern> capturePatterns = ServletPluginProperties.captureRequestParameters();
-        Map<String, Object> map = new HashMap<String, Object>();
+        CombinedPattern capturePattern = ServletPluginProperties.captureRequestParameters();
+        if (capturePattern.isEmpty()) {
+            return NameValueSnapshot.EMPTY;
+        }
+        NameValueSnapshot.Builder builder = new NameValueSnapshot.Builder();
         for (Map.Entry</*@Nullable*/ String, ?> entry : requestParameters.entrySet()) {
             String name = entry.getKey();
             if (name == null) {
@@ -56,25 +60,28 @@ public class DetailCapture {
             }
             // converted to lower case for case-insensitive matching (patterns are lower case)
             String keyLowerCase = name.toLowerCase(Locale.ENGLISH);
-            if (!matchesOneOf(keyLowerCase, capturePatterns)) {
+            if (!capturePattern.matches(keyLowerCase)) {
                 continue;
             }
             Object value = entry.getValue();
             if (value instanceof String[]) {
-                set(map, name, (String[]) value);
+                builder.add(name, value);
             }
         }
-        return ImmutableMap.copyOf(map);
+        return builder.build();
     }
 
-    public static Map<String, Object> captureRequestParameters(HttpServletRequest request) {
+    public static NameValueSnapshot captureRequestParameters(HttpServletRequest request) {
+        CombinedPattern capturePattern = ServletPluginProperties.captureRequestParameters();
+        if (capturePattern.isEmpty()) {
+            return NameValueSnapshot.EMPTY;
+        }
         Enumeration<? extends /*@Nullable*/ Object> e = request.getParameterNames();
         if (e == null) {
-            return Collections.emptyMap();
+            return NameValueSnapshot.EMPTY;
         }
-        List<Pattern> capturePatterns = ServletPluginProperties.captureRequestParameters();
-        List<Pattern> maskPatterns = ServletPluginProperties.maskRequestParameters();
-        Map<String, Object> map = new HashMap<String, Object>();
+        CombinedPattern maskPattern = ServletPluginProperties.maskRequestParameters();
+        NameValueSnapshot.Builder builder = new NameValueSnapshot.Builder();
         while (e.hasMoreElements()) {
             Object nameObj = e.nextElement();
             if (nameObj == null) {
@@ -86,46 +93,32 @@ public class DetailCapture {
             String name = (String) nameObj;
             // converted to lower case for case-insensitive matching (patterns are lower case)
             String keyLowerCase = name.toLowerCase(Locale.ENGLISH);
-            if (!matchesOneOf(keyLowerCase, capturePatterns)) {
+            if (!capturePattern.matches(keyLowerCase)) {
                 continue;
             }
-            if (matchesOneOf(keyLowerCase, maskPatterns)) {
-                map.put(name, "****");
+            if (maskPattern.matches(keyLowerCase)) {
+                builder.add(name, "****");
                 continue;
             }
             @Nullable
             String[] values = request.getParameterValues(name);
             if (values != null) {
-                set(map, name, values);
+                builder.add(name, values);
             }
         }
-        return ImmutableMap.copyOf(map);
-    }
-
-    private static void set(Map<String, Object> map, String name, /*@Nullable*/ String[] values) {
-        if (values.length == 1) {
-            String value = values[0];
-            if (value != null) {
-                map.put(name, value);
-            }
-        } else {
-            List</*@Nullable*/ String> list =
-                    new ArrayList</*@Nullable*/ String>(values.length);
-            Collections.addAll(list, values);
-            map.put(name, list);
-        }
+        return builder.build();
     }
 
-    public static Map<String, Object> captureRequestHeaders(HttpServletRequest request) {
-        List<Pattern> capturePatterns = ServletPluginProperties.captureRequestHeaders();
-        if (capturePatterns.isEmpty()) {
-            return Collections.emptyMap();
+    public static NameValueSnapshot captureRequestHeaders(HttpServletRequest request) {
+        CombinedPattern capturePattern = ServletPluginProperties.captureRequestHeaders();
+        if (capturePattern.isEmpty()) {
+            return NameValueSnapshot.EMPTY;
         }
-        Map<String, Object> requestHeaders = new HashMap<String, Object>();
         Enumeration</*@Nullable*/ String> headerNames = request.getHeaderNames();
         if (headerNames == null) {
-            return Collections.emptyMap();
+            return NameValueSnapshot.EMPTY;
         }
+        NameValueSnapshot.Builder builder = new NameValueSnapshot.Builder();
         for (Enumeration</*@Nullable*/ String> e = headerNames; e.hasMoreElements();) {
             String name = e.nextElement();
             if (name == null) {
@@ -133,15 +126,15 @@ public class DetailCapture {
             }
             // converted to lower case for case-insensitive matching (patterns are lower case)
             String keyLowerCase = name.toLowerCase(Locale.ENGLISH);
-            if (!matchesOneOf(keyLowerCase, capturePatterns)) {
+            if (!capturePattern.matches(keyLowerCase)) {
                 continue;
             }
             Enumeration</*@Nullable*/ String> values = request.getHeaders(name);
             if (values != null) {
-                captureRequestHeader(name, values, requestHeaders);
+                builder.add(name, captureRequestHeaderValue(values));
             }
         }
-        return ImmutableMap.copyOf(requestHeaders);
+        return builder.build();
     }
 
     public static @Nullable RequestHostAndPortDetail captureRequestHostAndPortDetail(
@@ -179,31 +172,21 @@ public class DetailCapture {
         }
     }
 
-    public static boolean matchesOneOf(String key, List<Pattern> patterns) {
-        for (Pattern pattern : patterns) {
-            if (pattern.matcher(key).matches()) {
-                return true;
-            }
+    // the header value enumeration may be backed by the request (which may be recycled), so the
+    // values themselves (immutable Strings) are captured
+    private static Object captureRequestHeaderValue(Enumeration</*@Nullable*/ String> values) {
+        if (!values.hasMoreElements()) {
+            return "";
         }
-        return false;
-    }
-
-    private static void captureRequestHeader(String name, Enumeration</*@Nullable*/ String> values,
-            Map<String, Object> requestHeaders) {
+        String value = values.nextElement();
         if (!values.hasMoreElements()) {
-            requestHeaders.put(name, "");
-        } else {
-            String value = values.nextElement();
-            if (!values.hasMoreElements()) {
-                requestHeaders.put(name, Strings.nullToEmpty(value));
-            } else {
-                List<String> list = new ArrayList<String>();
-                list.add(Strings.nullToEmpty(value));
-                while (values.hasMoreElements()) {
-                    list.add(Strings.nullToEmpty(values.nextElement()));
-                }
-                requestHeaders.put(name, ImmutableList.copyOf(list));
-            }
+            return Strings.nullToEmpty(value);
+        }
+        List<String> list = new ArrayList<String>();
+        list.add(Strings.nullToEmpty(value));
+        while (values.hasMoreElements()) {
+            list.add(Strings.nullToEmpty(values.nextElement()));
         }
+        return ImmutableList.copyOf(list);
     }
 }
@@ -45,6 +45,7 @@ import org.glowroot.agent.plugin.api.weaving.OnBefore;
 import org.glowroot.agent.plugin.api.weaving.OnReturn;
 import org.glowroot.agent.plugin.api.weaving.OnThrow;
 import org.glowroot.agent.plugin.api.weaving.Pointcut;
+import org.glowroot.agent.plugin.servlet._.NameValueSnapshot;
 import org.glowroot.agent.plugin.servlet._.RequestHostAndPortDetail;
 import org.glowroot.agent.plugin.servlet._.RequestInvoker;
 import org.glowroot.agent.plugin.servlet._.ResponseInvoker;
@@ -151,7 +152,7 @@ public class ServletAspect {
             String requestContextPath = Strings.nullToEmpty(request.getContextPath());
             String requestServletPath = Strings.nullToEmpty(request.getServletPath());
             String requestPathInfo = request.getPathInfo();
-            Map<String, Object> requestHeaders = DetailCapture.captureRequestHeaders(request);
+            NameValueSnapshot requestHeaders = DetailCapture.captureRequestHeaders(request);
             RequestHostAndPortDetail requestHostAndPortDetail =
                     DetailCapture.captureRequestHostAndPortDetail(request, requestInvoker);
             if (session == null) {
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.servlet._;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.glowroot.agent.plugin.api.checker.Nullable;
+
+// combines a list of patterns into a single regex alternation, so that checking a name against the
+// list is a single regex match, and so that the common "*" pattern does not need any regex match
+public class CombinedPattern {
+
+    public static final CombinedPattern NONE = new CombinedPattern(null, false);
+
+    private static final String MATCH_ALL_REGEX = ".*";
+
+    private final @Nullable Pattern pattern;
+    private final boolean matchAll;
+
+    public static CombinedPattern of(List<Pattern> patterns) {
+        if (patterns.isEmpty()) {
+            return NONE;
+        }
+        if (patterns.size() == 1) {
+            Pattern pattern = patterns.get(0);
+            return new CombinedPattern(pattern, pattern.pattern().equals(MATCH_ALL_REGEX));
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Pattern pattern : patterns) {
+            if (pattern.pattern().equals(MATCH_ALL_REGEX)) {
+                return new CombinedPattern(pattern, true);
+            }
+            if (sb.length() > 0) {
+                sb.append('|');
+            }
+            sb.append("(?:");
+            sb.append(pattern.pattern());
+            sb.append(')');
+        }
+        return new CombinedPattern(Pattern.compile(sb.toString()), false);
+    }
+
+    private CombinedPattern(@Nullable Pattern pattern, boolean matchAll) {
+        this.pattern = pattern;
+        this.matchAll = matchAll;
+    }
+
+    public boolean isEmpty() {
+        return pattern == null;
+    }
+
+    public boolean matches(String key) {
+        if (matchAll) {
+            return true;
+        }
+        return pattern != null && pattern.matcher(key).matches();
+    }
+}
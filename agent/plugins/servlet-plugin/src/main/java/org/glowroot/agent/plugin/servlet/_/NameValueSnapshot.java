@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.servlet._;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.glowroot.agent.plugin.api.checker.Nullable;
+
+// captured request parameters or request headers
+//
+// the names and values are held by reference in a flat array at the time of capture, and are only
+// materialized into the map that is displayed in the trace when the trace is actually stored (or
+// viewed), since most transactions are never stored as traces
+//
+// this cannot hold a reference to the request itself since the servlet container may clear out
+// the request after the request is complete in order to reuse it (e.g. tomcat does this)
+//
+// values are either String, String[] (request parameter map values, which are not modified after
+// they are returned from ServletRequest.getParameterMap()) or List<String>
+public class NameValueSnapshot {
+
+    public static final NameValueSnapshot EMPTY = new NameValueSnapshot(new Object[0], 0);
+
+    // alternating names and values
+    private final Object[] namesAndValues;
+    private final int size;
+
+    private NameValueSnapshot(Object[] namesAndValues, int size) {
+        this.namesAndValues = namesAndValues;
+        this.size = size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public Map<String, Object> toMap() {
+        if (size == 0) {
+            return Collections.emptyMap();
+        }
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < size; i += 2) {
+            String name = (String) namesAndValues[i];
+            Object value = namesAndValues[i + 1];
+            if (value instanceof String[]) {
+                /*@Nullable*/ String[] values = (/*@Nullable*/ String[]) value;
+                if (values.length == 1) {
+                    String singleValue = values[0];
+                    if (singleValue != null) {
+                        map.put(name, singleValue);
+                    }
+                } else {
+                    List</*@Nullable*/ String> list =
+                            new ArrayList</*@Nullable*/ String>(values.length);
+                    Collections.addAll(list, values);
+                    map.put(name, list);
+                }
+            } else {
+                map.put(name, value);
+            }
+        }
+        return map;
+    }
+
+    // not thread safe, the snapshot is built on the request thread and then published
+    public static class Builder {
+
+        private @Nullable Object[] namesAndValues;
+        private int size;
+
+        public void add(String name, Object value) {
+            if (namesAndValues == null) {
+                namesAndValues = new Object[8];
+            } else if (size == namesAndValues.length) {
+                Object[] newNamesAndValues = new Object[size * 2];
+                System.arraycopy(namesAndValues, 0, newNamesAndValues, 0, size);
+                namesAndValues = newNamesAndValues;
+            }
+            namesAndValues[size++] = name;
+            namesAndValues[size++] = value;
+        }
+
+        public NameValueSnapshot build() {
+            if (namesAndValues == null) {
+                return EMPTY;
+            }
+            return new NameValueSnapshot(namesAndValues, size);
+        }
+    }
+}
@@ -24,7 +24,6 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.regex.Pattern;
 
 import org.glowroot.agent.plugin.api.Message;
 import org.glowroot.agent.plugin.api.MessageSupplier;
@@ -33,7 +32,6 @@ import org.glowroot.agent.plugin.api.checker.MonotonicNonNull;
 import org.glowroot.agent.plugin.api.checker.Nullable;
 import org.glowroot.agent.plugin.api.checker.RequiresNonNull;
 import org.glowroot.agent.plugin.api.util.Optional;
-import org.glowroot.agent.plugin.servlet.DetailCapture;
 
 // this class is thread-safe (unlike other MessageSuppliers) since it gets passed around to
 // auxiliary thread contexts for handling async servlets
@@ -48,9 +46,11 @@ public class ServletMessageSupplier extends MessageSupplier implements ServletRe
     private final String requestUri;
     private final @Nullable String requestQueryString;
 
-    private volatile @MonotonicNonNull Map<String, Object> requestParameters;
+    // request parameters and request headers are only materialized into maps in get(), which is
+    // only called if the trace is stored (or viewed while active)
+    private volatile @MonotonicNonNull NameValueSnapshot requestParameters;
 
-    private final Map<String, Object> requestHeaders;
+    private final NameValueSnapshot requestHeaders;
 
     private final @Nullable RequestHostAndPortDetail requestHostAndPortDetail;
 
@@ -72,7 +72,7 @@ public class ServletMessageSupplier extends MessageSupplier implements ServletRe
 
     public ServletMessageSupplier(String requestMethod, String requestContextPath,
             String requestServletPath, @Nullable String requestPathInfo, String requestUri,
-            @Nullable String requestQueryString, Map<String, Object> requestHeaders,
+            @Nullable String requestQueryString, NameValueSnapshot requestHeaders,
             @Nullable RequestHostAndPortDetail requestHostAndPortDetail,
             Map<String, String> sessionAttributeMap) {
         this.requestMethod = requestMethod;
@@ -88,21 +88,21 @@ public class ServletMessageSupplier extends MessageSupplier implements ServletRe
 
     @Override
     public Message get() {
-        List<Pattern> maskPatterns = ServletPluginProperties.maskRequestParameters();
+        CombinedPattern maskPattern = ServletPluginProperties.maskRequestParameters();
         Map<String, Object> detail = new LinkedHashMap<String, Object>();
         detail.put("Request http method", requestMethod);
-        String maskedRequestQueryString = maskRequestQueryString(requestQueryString, maskPatterns);
+        String maskedRequestQueryString = maskRequestQueryString(requestQueryString, maskPattern);
         if (maskedRequestQueryString != null) {
             // including empty query string since that means request ended with ?
             detail.put("Request query string", maskedRequestQueryString);
         }
-        Map<String, Object> maskedRequestParameters =
-                maskRequestParameters(requestParameters, maskPatterns);
-        if (maskedRequestParameters != null && !maskedRequestParameters.isEmpty()) {
-            detail.put("Request parameters", maskedRequestParameters);
+        NameValueSnapshot requestParameters = this.requestParameters;
+        if (requestParameters != null && !requestParameters.isEmpty()) {
+            detail.put("Request parameters",
+                    maskRequestParameters(requestParameters.toMap(), maskPattern));
         }
         if (!requestHeaders.isEmpty()) {
-            detail.put("Request headers", requestHeaders);
+            detail.put("Request headers", requestHeaders.toMap());
         }
         if (requestHostAndPortDetail != null) {
             if (requestHostAndPortDetail.remoteAddress != null) {
@@ -183,7 +183,7 @@ public class ServletMessageSupplier extends MessageSupplier implements ServletRe
         return requestParameters != null;
     }
 
-    public void setCaptureRequestParameters(Map<String, Object> requestParameters) {
+    public void setCaptureRequestParameters(NameValueSnapshot requestParameters) {
         this.requestParameters = requestParameters;
     }
 
@@ -268,11 +268,11 @@ public class ServletMessageSupplier extends MessageSupplier implements ServletRe
     }
 
     static @Nullable String maskRequestQueryString(@Nullable String requestQueryString,
-            List<Pattern> maskPatterns) {
+            CombinedPattern maskPattern) {
         if (requestQueryString == null) {
             return null;
         }
-        if (maskPatterns.isEmpty()) {
+        if (maskPattern.isEmpty()) {
             return requestQueryString;
         }
         StringBuilder sb = new StringBuilder(requestQueryString.length());
@@ -299,7 +299,7 @@ public class ServletMessageSupplier extends MessageSupplier implements ServletRe
                         // converted to lower case for case-insensitive matching
                         // (patterns are lower case)
                         String keyLowerCase = key.toLowerCase(Locale.ENGLISH);
-                        if (DetailCapture.matchesOneOf(keyLowerCase, maskPatterns)) {
+                        if (maskPattern.matches(keyLowerCase)) {
                             inMaskedValue = true;
                             sb.append(MASK_TEXT);
                             existMaskedParameters = true;
@@ -321,12 +321,9 @@ public class ServletMessageSupplier extends MessageSupplier implements ServletRe
         }
     }
 
-    private static @Nullable Map<String, Object> maskRequestParameters(
-            @Nullable Map<String, Object> requestParameters, List<Pattern> maskPatterns) {
-        if (requestParameters == null) {
-            return null;
-        }
-        if (maskPatterns.isEmpty()) {
+    private static Map<String, Object> maskRequestParameters(
+            Map<String, Object> requestParameters, CombinedPattern maskPattern) {
+        if (maskPattern.isEmpty()) {
             return requestParameters;
         }
         Map<String, Object> maskedRequestParameters = new LinkedHashMap<String, Object>();
@@ -334,7 +331,7 @@ public class ServletMessageSupplier extends MessageSupplier implements ServletRe
             String name = entry.getKey();
             // converted to lower case for case-insensitive matching (patterns are lower case)
             String keyLowerCase = name.toLowerCase(Locale.ENGLISH);
-            if (DetailCapture.matchesOneOf(keyLowerCase, maskPatterns)) {
+            if (maskPattern.matches(keyLowerCase)) {
                 maskedRequestParameters.put(name, MASK_TEXT);
             } else {
                 maskedRequestParameters.put(name, entry.getValue());
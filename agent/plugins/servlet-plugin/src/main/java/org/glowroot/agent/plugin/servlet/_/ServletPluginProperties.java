@@ -29,7 +29,6 @@ import org.glowroot.agent.plugin.api.config.ConfigListener;
 import org.glowroot.agent.plugin.api.config.ConfigService;
 import org.glowroot.agent.plugin.api.util.ImmutableList;
 import org.glowroot.agent.plugin.api.util.ImmutableSet;
-import org.glowroot.agent.plugin.servlet.DetailCapture;
 
 public class ServletPluginProperties {
 
@@ -37,9 +36,9 @@ public class ServletPluginProperties {
 
     private static final ConfigService configService = Agent.getConfigService("servlet");
 
-    private static List<Pattern> captureRequestParameters = Collections.emptyList();
-    private static List<Pattern> maskRequestParameters = Collections.emptyList();
-    private static List<Pattern> captureRequestHeaders = Collections.emptyList();
+    private static CombinedPattern captureRequestParameters = CombinedPattern.NONE;
+    private static CombinedPattern maskRequestParameters = CombinedPattern.NONE;
+    private static CombinedPattern captureRequestHeaders = CombinedPattern.NONE;
 
     private static boolean someRequestHostAndPortDetail;
     private static boolean captureRequestRemoteAddress;
@@ -51,7 +50,7 @@ public class ServletPluginProperties {
     private static boolean captureRequestServerHostname;
     private static boolean captureRequestServerPort;
 
-    private static List<Pattern> captureResponseHeaders = Collections.emptyList();
+    private static CombinedPattern captureResponseHeaders = CombinedPattern.NONE;
     private static boolean captureResponseHeadersNonEmpty;
     private static boolean captureContentLengthResponseHeader;
     private static boolean captureContentTypeResponseHeader;
@@ -72,15 +71,15 @@ public class ServletPluginProperties {
 
     private ServletPluginProperties() {}
 
-    public static List<Pattern> captureRequestParameters() {
+    public static CombinedPattern captureRequestParameters() {
         return captureRequestParameters;
     }
 
-    public static List<Pattern> maskRequestParameters() {
+    public static CombinedPattern maskRequestParameters() {
         return maskRequestParameters;
     }
 
-    public static List<Pattern> captureRequestHeaders() {
+    public static CombinedPattern captureRequestHeaders() {
         return captureRequestHeaders;
     }
 
@@ -120,7 +119,7 @@ public class ServletPluginProperties {
         return captureRequestServerPort;
     }
 
-    public static List<Pattern> captureResponseHeaders() {
+    public static CombinedPattern captureResponseHeaders() {
         return captureResponseHeaders;
     }
 
@@ -216,9 +215,9 @@ public class ServletPluginProperties {
         }
 
         private static void recalculateProperties() {
-            captureRequestParameters = buildPatternList("captureRequestParameters");
-            maskRequestParameters = buildPatternList("maskRequestParameters");
-            captureRequestHeaders = buildPatternList("captureRequestHeaders");
+            captureRequestParameters = buildPattern("captureRequestParameters");
+            maskRequestParameters = buildPattern("maskRequestParameters");
+            captureRequestHeaders = buildPattern("captureRequestHeaders");
             captureRequestRemoteAddress =
                     configService.getBooleanProperty("captureRequestRemoteAddr").value();
             captureRequestRemoteHostname =
@@ -240,14 +239,14 @@ public class ServletPluginProperties {
                             || captureRequestRemotePort || captureRequestLocalAddress
                             || captureRequestLocalHostname || captureRequestLocalPort
                             || captureRequestServerHostname || captureRequestServerPort;
-            captureResponseHeaders = buildPatternList("captureResponseHeaders");
+            captureResponseHeaders = buildPattern("captureResponseHeaders");
             captureResponseHeadersNonEmpty = !captureResponseHeaders.isEmpty();
             captureContentLengthResponseHeader =
-                    DetailCapture.matchesOneOf("content-length", captureResponseHeaders);
+                    captureResponseHeaders.matches("content-length");
             captureContentTypeResponseHeader =
-                    DetailCapture.matchesOneOf("content-type", captureResponseHeaders);
+                    captureResponseHeaders.matches("content-type");
             captureContentLanguageResponseHeader =
-                    DetailCapture.matchesOneOf("content-language", captureResponseHeaders);
+                    captureResponseHeaders.matches("content-language");
             userAttributePath = buildSessionAttributePath(
                     configService.getStringProperty("sessionUserAttribute").value());
             captureSessionAttributePaths = buildSessionAttributePaths(
@@ -259,14 +258,16 @@ public class ServletPluginProperties {
                     configService.getBooleanProperty("traceErrorOn4xxResponseCode").value();
         }
 
-        private static List<Pattern> buildPatternList(String propertyName) {
+        // the patterns are combined into a single matcher so that each captured request
+        // parameter or header name is only matched once, instead of once per configured pattern
+        private static CombinedPattern buildPattern(String propertyName) {
             List<String> values = configService.getListProperty(propertyName).value();
             List<Pattern> patterns = new ArrayList<Pattern>();
             for (String value : values) {
                 // converted to lower case for case-insensitive matching
                 patterns.add(buildRegexPattern(value.trim().toLowerCase(Locale.ENGLISH)));
             }
-            return ImmutableList.copyOf(patterns);
+            return CombinedPattern.of(patterns);
         }
 
         private static List<SessionAttributePath> buildSessionAttributePaths(
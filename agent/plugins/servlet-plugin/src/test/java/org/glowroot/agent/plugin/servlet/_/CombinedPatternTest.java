@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.servlet._;
+
+import java.util.regex.Pattern;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CombinedPatternTest {
+
+    @Test
+    public void shouldMatchAnyOfThePatterns() {
+        // given
+        CombinedPattern pattern = CombinedPattern.of(ImmutableList.of(Pattern.compile("abc"),
+                Pattern.compile("\\Qx-\\E.*"), Pattern.compile(".*\\Qpassword\\E.*")));
+        // then
+        assertThat(pattern.isEmpty()).isFalse();
+        assertThat(pattern.matches("abc")).isTrue();
+        assertThat(pattern.matches("x-forwarded-for")).isTrue();
+        assertThat(pattern.matches("xpasswordy")).isTrue();
+        assertThat(pattern.matches("abcd")).isFalse();
+        assertThat(pattern.matches("y-abc")).isFalse();
+    }
+
+    @Test
+    public void shouldMatchAll() {
+        // given
+        CombinedPattern pattern = CombinedPattern
+                .of(ImmutableList.of(Pattern.compile("abc"), Pattern.compile(".*")));
+        // then
+        assertThat(pattern.matches("anything")).isTrue();
+    }
+
+    @Test
+    public void shouldMatchNone() {
+        // given
+        CombinedPattern pattern = CombinedPattern.of(ImmutableList.<Pattern>of());
+        // then
+        assertThat(pattern.isEmpty()).isTrue();
+        assertThat(pattern.matches("abc")).isFalse();
+    }
+}
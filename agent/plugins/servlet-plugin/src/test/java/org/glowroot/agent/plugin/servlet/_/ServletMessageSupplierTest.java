@@ -15,7 +15,6 @@
  */
 package org.glowroot.agent.plugin.servlet._;
 
-import java.util.List;
 import java.util.regex.Pattern;
 
 import com.google.common.collect.ImmutableList;
@@ -30,11 +29,12 @@ public class ServletMessageSupplierTest {
     @Test
     public void shouldMask() {
         // given
-        List<Pattern> maskPatterns = ImmutableList.of(Pattern.compile(".*password.*"));
+        CombinedPattern maskPattern =
+                CombinedPattern.of(ImmutableList.of(Pattern.compile(".*password.*")));
         String requestQueryString = "test=one&xpasswordy=maskme&test=two";
         // when
         String maskRequestQueryString =
-                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskPatterns);
+                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskPattern);
         // then
         assertThat(maskRequestQueryString).isEqualTo("test=one&xpasswordy=****&test=two");
     }
@@ -42,11 +42,12 @@ public class ServletMessageSupplierTest {
     @Test
     public void shouldNotMask() {
         // given
-        List<Pattern> maskPatterns = ImmutableList.of(Pattern.compile(".*password.*"));
+        CombinedPattern maskPattern =
+                CombinedPattern.of(ImmutableList.of(Pattern.compile(".*password.*")));
         String requestQueryString = "test=one&xpassworry=nomask&test=two";
         // when
         String maskRequestQueryString =
-                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskPatterns);
+                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskPattern);
         // then
         assertThat(maskRequestQueryString).isEqualTo("test=one&xpassworry=nomask&test=two");
     }
@@ -54,11 +55,12 @@ public class ServletMessageSupplierTest {
     @Test
     public void shouldMaskStrange() {
         // given
-        List<Pattern> maskPatterns = ImmutableList.of(Pattern.compile(".*password.*"));
+        CombinedPattern maskPattern =
+                CombinedPattern.of(ImmutableList.of(Pattern.compile(".*password.*")));
         String requestQueryString = "test=one&&&===&=&xpasswordy=mask=me&&&==&test=two";
         // when
         String maskRequestQueryString =
-                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskPatterns);
+                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskPattern);
         // then
         assertThat(maskRequestQueryString)
                 .isEqualTo("test=one&&&===&=&xpasswordy=****&&&==&test=two");
@@ -67,11 +69,12 @@ public class ServletMessageSupplierTest {
     @Test
     public void shouldNotMaskStrange() {
         // given
-        List<Pattern> maskPatterns = ImmutableList.of(Pattern.compile(".*password.*"));
+        CombinedPattern maskPattern =
+                CombinedPattern.of(ImmutableList.of(Pattern.compile(".*password.*")));
         String requestQueryString = "test=one&&&===&=&xpassworry=no=mask&&&==&test=two";
         // when
         String maskRequestQueryString =
-                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskPatterns);
+                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskPattern);
         // then
         assertThat(maskRequestQueryString)
                 .isEqualTo("test=one&&&===&=&xpassworry=no=mask&&&==&test=two");
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.ui.sandbox;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpContentDecompressor;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamChannelBootstrap;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+// measures page load latency of the transaction page (all of the backend requests that the browser
+// sends in parallel when loading the page) against a running glowroot UI, e.g.
+//
+// HTTP/1.1 (using 6 connections, same as browsers):
+//   UiLoadTestMain http://localhost:4000 http1 <agent-rollup-id> Web
+//
+// HTTP/2 (using a single connection, requires ui.http2=true in glowroot-central.properties):
+//   UiLoadTestMain http://localhost:4000 h2c <agent-rollup-id> Web
+//
+// (h2c is used since browsers only use HTTP/2 over TLS, which adds TLS to the measurement without
+// changing the comparison)
+public class UiLoadTestMain {
+
+    private static final int HTTP1_CONNECTIONS = 6;
+
+    private static final int WARMUP_PAGE_LOADS = 20;
+    private static final int PAGE_LOADS = 200;
+
+    private static final List<String> PAGE_REQUESTS = Arrays.asList(
+            "/backend/transaction/average",
+            "/backend/transaction/percentiles",
+            "/backend/transaction/throughput",
+            "/backend/transaction/summaries?sort-order=total-time&limit=10",
+            "/backend/transaction/queries",
+            "/backend/transaction/service-calls",
+            "/backend/transaction/profile?auxiliary=false&include=&exclude="
+                    + "&truncate-branch-percentage=0.1",
+            "/backend/error/messages?include=&exclude=",
+            "/backend/transaction/trace-count",
+            "/backend/transaction/flame-graph?auxiliary=false&include=&exclude="
+                    + "&truncate-branch-percentage=0.1");
+
+    private UiLoadTestMain() {}
+
+    public static void main(String[] args) throws Exception {
+        URI baseUri = new URI(args[0]);
+        boolean http2 = args[1].equals("h2c");
+        String agentRollupId = args.length > 2 ? args[2] : "";
+        String transactionType = args.length > 3 ? args[3] : "Web";
+
+        long to = System.currentTimeMillis();
+        long from = to - HOURS.toMillis(1);
+        String commonQueryString = "agent-rollup-id=" + URLEncoder.encode(agentRollupId, "UTF-8")
+                + "&transaction-type=" + URLEncoder.encode(transactionType, "UTF-8")
+                + "&from=" + from + "&to=" + to;
+        List<String> uris = Lists.newArrayList();
+        for (String pageRequest : PAGE_REQUESTS) {
+            String separator = pageRequest.contains("?") ? "&" : "?";
+            uris.add(baseUri.getRawPath().replaceAll("/$", "") + pageRequest + separator
+                    + commonQueryString);
+        }
+
+        EventLoopGroup group = new NioEventLoopGroup();
+        try {
+            PageLoader pageLoader;
+            if (http2) {
+                pageLoader = new Http2PageLoader(group, baseUri);
+            } else {
+                pageLoader = new Http1PageLoader(group, baseUri);
+            }
+            for (int i = 0; i < WARMUP_PAGE_LOADS; i++) {
+                pageLoader.load(uris);
+            }
+            long[] pageLoadMicros = new long[PAGE_LOADS];
+            for (int i = 0; i < PAGE_LOADS; i++) {
+                Stopwatch stopwatch = Stopwatch.createStarted();
+                pageLoader.load(uris);
+                pageLoadMicros[i] = stopwatch.elapsed(MICROSECONDS);
+            }
+            Arrays.sort(pageLoadMicros);
+            System.out.format("%s, %d page loads of %d requests each:%n", http2 ? "h2c" : "http1",
+                    PAGE_LOADS, uris.size());
+            System.out.format("  min: %.1f ms%n", pageLoadMicros[0] / 1000.0);
+            System.out.format("  p50: %.1f ms%n", percentile(pageLoadMicros, 0.5) / 1000.0);
+            System.out.format("  p95: %.1f ms%n", percentile(pageLoadMicros, 0.95) / 1000.0);
+            System.out.format("  max: %.1f ms%n",
+                    pageLoadMicros[pageLoadMicros.length - 1] / 1000.0);
+            pageLoader.close();
+        } finally {
+            group.shutdownGracefully().get();
+        }
+    }
+
+    private static long percentile(long[] sortedValues, double percentile) {
+        return sortedValues[(int) Math.ceil(percentile * sortedValues.length) - 1];
+    }
+
+    private static FullHttpRequest newRequest(String uri, URI baseUri) {
+        FullHttpRequest request =
+                new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+        request.headers().set(HttpHeaderNames.HOST, baseUri.getAuthority());
+        // same as browsers
+        request.headers().set(HttpHeaderNames.ACCEPT_ENCODING, HttpHeaderValues.GZIP_DEFLATE);
+        return request;
+    }
+
+    private static int getPort(URI baseUri) {
+        return baseUri.getPort() == -1 ? 80 : baseUri.getPort();
+    }
+
+    private interface PageLoader {
+        void load(List<String> uris) throws Exception;
+        void close() throws Exception;
+    }
+
+    // browsers send the page's parallel requests over (at most) 6 connections, with each
+    // connection only sending its next request once the response to the prior request is received
+    private static class Http1PageLoader implements PageLoader {
+
+        private final URI baseUri;
+        private final List<Channel> channels = Lists.newArrayList();
+
+        private volatile Queue<String> pendingUris = new ConcurrentLinkedQueue<String>();
+        private volatile CountDownLatch latch = new CountDownLatch(0);
+
+        private Http1PageLoader(EventLoopGroup group, URI baseUri) throws Exception {
+            this.baseUri = baseUri;
+            Bootstrap bootstrap = new Bootstrap()
+                    .group(group)
+                    .channel(NioSocketChannel.class)
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline().addLast(new HttpClientCodec());
+                            ch.pipeline().addLast(new HttpContentDecompressor());
+                            ch.pipeline().addLast(new HttpObjectAggregator(Integer.MAX_VALUE));
+                            ch.pipeline().addLast(new ResponseHandler());
+                        }
+                    });
+            for (int i = 0; i < HTTP1_CONNECTIONS; i++) {
+                channels.add(bootstrap.connect(baseUri.getHost(), getPort(baseUri)).sync()
+                        .channel());
+            }
+        }
+
+        @Override
+        public void load(List<String> uris) throws Exception {
+            pendingUris = new ConcurrentLinkedQueue<String>(uris);
+            latch = new CountDownLatch(uris.size());
+            for (Channel channel : channels) {
+                sendNext(channel);
+            }
+            latch.await(1, MINUTES);
+        }
+
+        @Override
+        public void close() throws Exception {
+            for (Channel channel : channels) {
+                channel.close().sync();
+            }
+        }
+
+        private void sendNext(Channel channel) {
+            String uri = pendingUris.poll();
+            if (uri != null) {
+                channel.writeAndFlush(newRequest(uri, baseUri));
+            }
+        }
+
+        private class ResponseHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+            @Override
+            protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+                checkResponse(response);
+                latch.countDown();
+                sendNext(ctx.channel());
+            }
+        }
+    }
+
+    // all of the page's requests are sent at once over a single connection
+    private static class Http2PageLoader implements PageLoader {
+
+        private final URI baseUri;
+        private final Channel channel;
+
+        private volatile CountDownLatch latch = new CountDownLatch(0);
+
+        private Http2PageLoader(EventLoopGroup group, URI baseUri) throws Exception {
+            this.baseUri = baseUri;
+            Bootstrap bootstrap = new Bootstrap()
+                    .group(group)
+                    .channel(NioSocketChannel.class)
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            // prior knowledge, no upgrade
+                            ch.pipeline().addLast(Http2FrameCodecBuilder.forClient().build());
+                            ch.pipeline().addLast(new Http2MultiplexHandler(
+                                    new SimpleChannelInboundHandler<Object>() {
+                                        @Override
+                                        protected void channelRead0(ChannelHandlerContext ctx,
+                                                Object msg) {}
+                                    }));
+                        }
+                    });
+            channel = bootstrap.connect(baseUri.getHost(), getPort(baseUri)).sync().channel();
+        }
+
+        @Override
+        public void load(List<String> uris) throws Exception {
+            latch = new CountDownLatch(uris.size());
+            Http2StreamChannelBootstrap streamBootstrap = new Http2StreamChannelBootstrap(channel)
+                    .handler(new ChannelInitializer<Http2StreamChannel>() {
+                        @Override
+                        protected void initChannel(Http2StreamChannel ch) {
+                            ch.pipeline().addLast(new Http2StreamFrameToHttpObjectCodec(false));
+                            ch.pipeline().addLast(new HttpContentDecompressor());
+                            ch.pipeline().addLast(new HttpObjectAggregator(Integer.MAX_VALUE));
+                            ch.pipeline().addLast(new ResponseHandler());
+                        }
+                    });
+            for (String uri : uris) {
+                Http2StreamChannel streamChannel = streamBootstrap.open().sync().getNow();
+                streamChannel.writeAndFlush(newRequest(uri, baseUri));
+            }
+            latch.await(1, MINUTES);
+        }
+
+        @Override
+        public void close() throws Exception {
+            channel.close().sync();
+        }
+
+        private class ResponseHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+            @Override
+            protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+                checkResponse(response);
+                latch.countDown();
+                ctx.close();
+            }
+        }
+    }
+
+    private static void checkResponse(FullHttpResponse response) {
+        if (response.status().code() != 200) {
+            System.err.println("unexpected response status " + response.status() + ": "
+                    + response.content().toString(UTF_8));
+        }
+    }
+}
@@ -262,6 +262,7 @@ public class CentralModule {
                     .bindAddress(centralConfig.uiBindAddress())
                     .port(centralConfig.uiPort())
                     .https(centralConfig.uiHttps())
+                    .http2(centralConfig.uiHttp2())
                     .contextPath(centralConfig.uiContextPath())
                     .confDirs(Arrays.asList(directories.getConfDir()))
                     .logDir(directories.getLogDir())
@@ -708,6 +709,10 @@ public class CentralModule {
         if (!Strings.isNullOrEmpty(uiHttpsText)) {
             builder.uiHttps(Boolean.parseBoolean(uiHttpsText));
         }
+        String uiHttp2Text = properties.get("glowroot.ui.http2");
+        if (!Strings.isNullOrEmpty(uiHttp2Text)) {
+            builder.uiHttp2(Boolean.parseBoolean(uiHttp2Text));
+        }
         String uiContextPath = properties.get("glowroot.ui.contextPath");
         if (!Strings.isNullOrEmpty(uiContextPath)) {
             builder.uiContextPath(uiContextPath);
@@ -1131,6 +1136,11 @@ public class CentralModule {
             return false;
         }
 
+        @Value.Default
+        boolean uiHttp2() {
+            return false;
+        }
+
         @Value.Default
         String uiContextPath() {
             return "/";
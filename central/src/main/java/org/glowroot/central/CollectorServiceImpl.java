@@ -331,8 +331,10 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
             responseObserver.onError(t);
             return;
         }
+        List<String> persistedFullTextSha1s;
         try {
-            aggregateDao.store(postV09AgentId, captureTime, aggregatesByTypeList, sharedQueryTexts);
+            persistedFullTextSha1s = aggregateDao.store(postV09AgentId, captureTime,
+                    aggregatesByTypeList, sharedQueryTexts);
         } catch (Throwable t) {
             logger.error("{} - {}", postV09AgentId, t.getMessage(), t);
             responseObserver.onError(t);
@@ -356,6 +358,7 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         }
         responseObserver.onNext(AggregateResponseMessage.newBuilder()
                 .setNextDelayMillis(getNextDelayMillis())
+                .addAllPersistedFullTextSha1(persistedFullTextSha1s)
                 .build());
         responseObserver.onCompleted();
     }
@@ -49,6 +49,7 @@ import org.glowroot.ui.ChunkSource.ChunkCopier;
 import org.glowroot.ui.CommonHandler;
 import org.glowroot.ui.CommonHandler.CommonRequest;
 import org.glowroot.ui.CommonHandler.CommonResponse;
+import org.glowroot.ui.JsonStreamer;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -130,6 +131,16 @@ public class GlowrootServlet extends HttpServlet {
                 zipWriter.close();
                 out.flush();
             }
+        } else if (content instanceof JsonStreamer) {
+            ServletOutputStream out = response.getOutputStream();
+            try {
+                ((JsonStreamer) content).writeTo(out);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new ServletException(e);
+            }
+            out.flush();
         } else {
             throw new IllegalStateException("Unexpected content: " + content.getClass().getName());
         }
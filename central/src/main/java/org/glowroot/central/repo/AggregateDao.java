@@ -26,7 +26,10 @@ import org.glowroot.wire.api.model.AggregateOuterClass.OldAggregatesByType;
 
 public interface AggregateDao extends AggregateRepository {
 
-    void store(String agentId, long captureTime, List<OldAggregatesByType> aggregatesByTypeList,
+    // returns the full text sha1s (of the full texts that were sent) that were already persisted,
+    // so that the agent can be told it does not need to keep sending them in full
+    List<String> store(String agentId, long captureTime,
+            List<OldAggregatesByType> aggregatesByTypeList,
             List<Aggregate.SharedQueryText> initialSharedQueryTexts) throws Exception;
 
     @Instrumentation.Transaction(transactionType = "Background",
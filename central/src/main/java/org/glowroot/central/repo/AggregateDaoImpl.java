@@ -65,7 +65,7 @@ import org.glowroot.common.live.LiveAggregateRepository.OverviewAggregate;
 import org.glowroot.common.live.LiveAggregateRepository.PercentileAggregate;
 import org.glowroot.common.live.LiveAggregateRepository.SummaryQuery;
 import org.glowroot.common.live.LiveAggregateRepository.ThroughputAggregate;
-import org.glowroot.common.model.LazyHistogram;
+import org.glowroot.common.model.HistogramMerger;
 import org.glowroot.common.model.LazyHistogram.ScratchBuffer;
 import org.glowroot.common.model.MutableProfile;
 import org.glowroot.common.model.MutableQuery;
@@ -104,6 +104,12 @@ public class AggregateDaoImpl implements AggregateDao {
     @SuppressWarnings("deprecation")
     private static final HashFunction SHA_1 = Hashing.sha1();
 
+    // transaction name summary reads can span tens of thousands of transaction names times the
+    // number of capture times in the range, so these are read in bounded pages (with the next page
+    // requested asynchronously while the current page is still being processed)
+    private static final int TRANSACTION_SUMMARY_FETCH_SIZE = 1000;
+    private static final int TRANSACTION_SUMMARY_PREFETCH_THRESHOLD = 250;
+
     private static final Table summaryTable = ImmutableTable.builder()
             .partialName("summary")
             .addColumns(ImmutableColumn.of("total_duration_nanos", "double"))
@@ -404,25 +410,26 @@ public class AggregateDaoImpl implements AggregateDao {
     }
 
     @Override
-    public void store(String agentId, long captureTime,
+    public List<String> store(String agentId, long captureTime,
             List<OldAggregatesByType> aggregatesByTypeList,
             List<Aggregate.SharedQueryText> initialSharedQueryTexts) throws Exception {
         List<String> agentRollupIds = AgentRollupIds.getAgentRollupIds(agentId);
-        store(agentId, agentRollupIds, agentId, agentRollupIds, captureTime, aggregatesByTypeList,
-                initialSharedQueryTexts);
+        return store(agentId, agentRollupIds, agentId, agentRollupIds, captureTime,
+                aggregatesByTypeList, initialSharedQueryTexts);
     }
 
-    public void store(String agentId, List<String> agentRollupIds,
+    public List<String> store(String agentId, List<String> agentRollupIds,
             String agentIdForMeta, List<String> agentRollupIdsForMeta, long captureTime,
             List<OldAggregatesByType> aggregatesByTypeList,
             List<Aggregate.SharedQueryText> initialSharedQueryTexts) throws Exception {
         if (aggregatesByTypeList.isEmpty()) {
             MoreFutures.waitForAll(activeAgentDao.insert(agentIdForMeta, captureTime));
-            return;
+            return ImmutableList.of();
         }
         TTL adjustedTTL = getAdjustedTTL(getTTLs().get(0), captureTime, clock);
         List<Future<?>> futures = new ArrayList<>();
         List<Aggregate.SharedQueryText> sharedQueryTexts = new ArrayList<>();
+        List<String> persistedFullTextSha1s = new ArrayList<>();
         for (Aggregate.SharedQueryText sharedQueryText : initialSharedQueryTexts) {
             String fullTextSha1 = sharedQueryText.getFullTextSha1();
             if (fullTextSha1.isEmpty()) {
@@ -430,6 +437,9 @@ public class AggregateDaoImpl implements AggregateDao {
                 if (fullText.length() > Constants.AGGREGATE_QUERY_TEXT_TRUNCATE) {
                     // relying on agent side to rate limit (re-)sending the same full text
                     fullTextSha1 = SHA_1.hashString(fullText, UTF_8).toString();
+                    if (fullQueryTextDao.isPersisted(fullTextSha1)) {
+                        persistedFullTextSha1s.add(fullTextSha1);
+                    }
                     futures.addAll(fullQueryTextDao.store(agentRollupIds, fullTextSha1, fullText));
                     sharedQueryText = Aggregate.SharedQueryText.newBuilder()
                             .setTruncatedText(fullText.substring(0,
@@ -506,6 +516,7 @@ public class AggregateDaoImpl implements AggregateDao {
         boundStatement.setInt(i++, needsRollupAdjustedTTL);
         futures.add(session.writeAsync(boundStatement));
         MoreFutures.waitForAll(futures);
+        return persistedFullTextSha1s;
     }
 
     // query.from() is non-inclusive
@@ -528,8 +539,9 @@ public class AggregateDaoImpl implements AggregateDao {
     }
 
     // sortOrder and limit are only used by embedded H2 repository, while the central cassandra
-    // repository which currently has to pull in all records anyways just delegates ordering and
-    // limit to TransactionNameSummaryCollector
+    // repository which currently has to stream through all records anyways just delegates ordering
+    // and limit to TransactionNameSummaryCollector (which only retains per transaction name totals,
+    // and only materializes the top "limit" transaction names)
     //
     // query.from() is non-inclusive
     @Override
@@ -540,8 +552,10 @@ public class AggregateDaoImpl implements AggregateDao {
         BoundStatement boundStatement =
                 checkNotNull(readTransactionPS.get(summaryTable)).get(query.rollupLevel()).bind();
         bindQuery(boundStatement, agentRollupId, query);
+        boundStatement.setFetchSize(TRANSACTION_SUMMARY_FETCH_SIZE);
         ResultSet results = session.read(boundStatement);
         for (Row row : results) {
+            prefetchNextPage(results);
             int i = 0;
             long captureTime = checkNotNull(row.getTimestamp(i++)).getTime();
             String transactionName = checkNotNull(row.getString(i++));
@@ -571,8 +585,8 @@ public class AggregateDaoImpl implements AggregateDao {
     }
 
     // sortOrder and limit are only used by embedded H2 repository, while the central cassandra
-    // repository which currently has to pull in all records anyways just delegates ordering and
-    // limit to TransactionNameErrorSummaryCollector
+    // repository which currently has to stream through all records anyways just delegates ordering
+    // and limit to TransactionNameErrorSummaryCollector
     //
     // query.from() is non-inclusive
     @Override
@@ -583,8 +597,10 @@ public class AggregateDaoImpl implements AggregateDao {
         BoundStatement boundStatement = checkNotNull(readTransactionPS.get(errorSummaryTable))
                 .get(query.rollupLevel()).bind();
         bindQuery(boundStatement, agentRollupId, query);
+        boundStatement.setFetchSize(TRANSACTION_SUMMARY_FETCH_SIZE);
         ResultSet results = session.read(boundStatement);
         for (Row row : results) {
+            prefetchNextPage(results);
             int i = 0;
             long captureTime = checkNotNull(row.getTimestamp(i++)).getTime();
             String transactionName = checkNotNull(row.getString(i++));
@@ -1374,7 +1390,7 @@ public class AggregateDaoImpl implements AggregateDao {
             Iterable<Row> rows, ScratchBuffer scratchBuffer) throws Exception {
         double totalDurationNanos = 0;
         long transactionCount = 0;
-        LazyHistogram durationNanosHistogram = new LazyHistogram();
+        HistogramMerger durationNanosHistogram = new HistogramMerger();
         for (Row row : rows) {
             int i = 0;
             totalDurationNanos += row.getDouble(i++);
@@ -2496,6 +2512,14 @@ public class AggregateDaoImpl implements AggregateDao {
         }
     }
 
+    private static void prefetchNextPage(ResultSet results) {
+        if (results.getAvailableWithoutFetching() == TRANSACTION_SUMMARY_PREFETCH_THRESHOLD
+                && !results.isFullyFetched()) {
+            // this is asynchronous
+            results.fetchMoreResults();
+        }
+    }
+
     private static ByteBuffer toByteBuffer(AbstractMessage message) {
         return ByteBuffer.wrap(message.toByteArray());
     }
@@ -28,30 +28,42 @@ import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Iterables;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
 import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.immutables.value.Value;
 
+import org.glowroot.central.util.LocalCacheStats;
 import org.glowroot.central.util.MoreFutures;
 import org.glowroot.central.util.MoreFutures.DoWithResults;
 import org.glowroot.central.util.RateLimiter;
 import org.glowroot.central.util.Session;
+import org.glowroot.common.util.Clock;
 import org.glowroot.common.util.Styles;
 import org.glowroot.common2.config.CentralStorageConfig;
 import org.glowroot.common2.repo.ConfigRepository.RollupConfig;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.concurrent.TimeUnit.DAYS;
 import static java.util.concurrent.TimeUnit.HOURS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 class FullQueryTextDao {
 
+    private static final int PERSISTED_CACHE_MAXIMUM_SIZE = 100000;
+    private static final int DOORKEEPER_EXPECTED_INSERTIONS = 1000000;
+
     private final Session session;
     private final ConfigRepositoryImpl configRepository;
     private final Executor asyncExecutor;
+    private final Clock clock;
 
     private final PreparedStatement insertCheckV2PS;
     private final PreparedStatement readCheckV2PS;
@@ -63,11 +75,24 @@ class FullQueryTextDao {
 
     private final RateLimiter<String> rateLimiter = new RateLimiter<>(100000, true);
 
-    FullQueryTextDao(Session session, ConfigRepositoryImpl configRepository, Executor asyncExecutor)
-            throws Exception {
+    // full text sha1 -> expiration time of the persisted full text, this is used to skip both the
+    // TTL read and the (large) full text write when the same full text is re-sent (e.g. by other
+    // agents, or by the same agent after its own limiter has evicted/expired the sha1)
+    private final Cache<String, Long> persistedFullTexts = CacheBuilder.newBuilder()
+            .maximumSize(PERSISTED_CACHE_MAXIMUM_SIZE)
+            .recordStats()
+            .build();
+
+    // full texts are only admitted to the cache above on their second sighting, so that the many
+    // full texts that are only ever seen once do not evict full texts that are seen repeatedly
+    private volatile BloomFilter<CharSequence> doorkeeper = createDoorkeeper();
+
+    FullQueryTextDao(Session session, ConfigRepositoryImpl configRepository, Executor asyncExecutor,
+            Clock clock) throws Exception {
         this.session = session;
         this.configRepository = configRepository;
         this.asyncExecutor = asyncExecutor;
+        this.clock = clock;
 
         session.createTableWithSTCS("create table if not exists full_query_text_check (agent_rollup"
                 + " varchar, full_query_text_sha1 varchar, primary key (agent_rollup,"
@@ -96,6 +121,8 @@ class FullQueryTextDao {
         MBeanServer platformMBeanServer = ManagementFactory.getPlatformMBeanServer();
         platformMBeanServer.registerMBean(rateLimiter.getLocalCacheStats(), ObjectName
                 .getInstance("org.glowroot.central:type=FullQueryTextRateLimiter"));
+        platformMBeanServer.registerMBean(new LocalCacheStats(persistedFullTexts), ObjectName
+                .getInstance("org.glowroot.central:type=PersistedFullQueryTextCache"));
     }
 
     @Nullable
@@ -111,28 +138,82 @@ class FullQueryTextDao {
             throws Exception {
         // relying on agent side to rate limit (re-)sending the same full text
         List<Future<?>> futures = new ArrayList<>();
+        int ttl = getTTL();
         for (String agentRollupId : agentRollupIds) {
             BoundStatement boundStatement = insertCheckV2PS.bind();
             int i = 0;
             boundStatement.setString(i++, agentRollupId);
             boundStatement.setString(i++, fullTextSha1);
-            boundStatement.setInt(i++, getTTL());
+            boundStatement.setInt(i++, ttl);
             futures.add(session.writeAsync(boundStatement));
         }
-        if (!rateLimiter.tryAcquire(fullTextSha1)) {
+        if (isPersisted(fullTextSha1, ttl)) {
+            return futures;
+        }
+        // the sighting is recorded before the rate limiter check, since the rate limiter blocks
+        // re-sends of the same full text for a day
+        boolean admit = recordSighting(fullTextSha1);
+        boolean acquired = rateLimiter.tryAcquire(fullTextSha1);
+        if (!acquired && !admit) {
             return futures;
         }
+        // a full text that is admitted to the cache but not yet in it bypasses the rate limiter
+        // (once) so that the expiration time of the persisted full text can be read back and cached
+        // (this is normally only the TTL read, since the full text is only overwritten when bumping
+        // its TTL at least 1 day)
         ListenableFuture<?> future2;
         try {
-            future2 = storeInternal(fullTextSha1, fullText);
+            future2 = storeInternal(fullTextSha1, fullText, ttl, admit);
         } catch (Throwable t) {
-            rateLimiter.release(fullTextSha1);
+            if (acquired) {
+                rateLimiter.release(fullTextSha1);
+            }
             throw t;
         }
-        futures.add(MoreFutures.onFailure(future2, () -> rateLimiter.release(fullTextSha1)));
+        if (acquired) {
+            future2 = MoreFutures.onFailure(future2, () -> rateLimiter.release(fullTextSha1));
+        }
+        futures.add(future2);
         return futures;
     }
 
+    // returns true if the full text is known to already be stored with (close to) the full TTL, in
+    // which case the agent does not need to keep sending it in full
+    boolean isPersisted(String fullTextSha1) throws Exception {
+        return isPersisted(fullTextSha1, getTTL());
+    }
+
+    private boolean isPersisted(String fullTextSha1, int ttl) {
+        Long expirationTime = persistedFullTexts.getIfPresent(fullTextSha1);
+        if (expirationTime == null) {
+            return false;
+        }
+        long remainingTTL = MILLISECONDS.toSeconds(expirationTime - clock.currentTimeMillis());
+        // same threshold that storeInternal() uses to decide whether to overwrite
+        return ttl <= remainingTTL + DAYS.toSeconds(1);
+    }
+
+    // returns true if the full text has (probably) been seen before, in which case it is admitted
+    // to the cache
+    private boolean recordSighting(String fullTextSha1) {
+        BloomFilter<CharSequence> doorkeeper = this.doorkeeper;
+        // put() returns true only if the sha1 has definitely not been seen before
+        if (!doorkeeper.put(fullTextSha1)) {
+            return true;
+        }
+        if (doorkeeper.approximateElementCount() > DOORKEEPER_EXPECTED_INSERTIONS) {
+            // start over before the false positive rate degrades
+            this.doorkeeper = createDoorkeeper();
+        }
+        return false;
+    }
+
+    private void onPersisted(String fullTextSha1, long expirationTime, boolean admit) {
+        if (admit) {
+            persistedFullTexts.put(fullTextSha1, expirationTime);
+        }
+    }
+
     private @Nullable String getFullTextUsingPS(String agentRollupId, String fullTextSha1,
             PreparedStatement readCheckPS) throws Exception {
         BoundStatement boundStatement = readCheckPS.bind();
@@ -152,8 +233,8 @@ class FullQueryTextDao {
         return row.getString(0);
     }
 
-    private ListenableFuture<?> storeInternal(String fullTextSha1, String fullText)
-            throws Exception {
+    private ListenableFuture<?> storeInternal(String fullTextSha1, String fullText, int ttl,
+            boolean admit) throws Exception {
         BoundStatement boundStatement = readTtlPS.bind();
         boundStatement.setString(0, fullTextSha1);
         ListenableFuture<ResultSet> future = session.readAsync(boundStatement);
@@ -161,27 +242,31 @@ class FullQueryTextDao {
             @Override
             public ListenableFuture<?> execute(ResultSet results) throws Exception {
                 Row row = results.one();
-                int ttl = getTTL();
                 if (row == null) {
-                    return insertAndCompleteFuture(ttl);
+                    return insertAndCompleteFuture();
                 } else {
                     int existingTTL = row.getInt(0);
                     if (existingTTL != 0 && ttl > existingTTL + DAYS.toSeconds(1)) {
                         // only overwrite if bumping TTL at least 1 day
                         // also, never overwrite with smaller TTL
-                        return insertAndCompleteFuture(ttl);
+                        return insertAndCompleteFuture();
                     } else {
+                        onPersisted(fullTextSha1, existingTTL == 0 ? Long.MAX_VALUE
+                                : clock.currentTimeMillis() + SECONDS.toMillis(existingTTL),
+                                admit);
                         return Futures.immediateFuture(null);
                     }
                 }
             }
-            private ListenableFuture<?> insertAndCompleteFuture(int ttl) throws Exception {
+            private ListenableFuture<?> insertAndCompleteFuture() throws Exception {
                 BoundStatement boundStatement = insertPS.bind();
                 int i = 0;
                 boundStatement.setString(i++, fullTextSha1);
                 boundStatement.setString(i++, fullText);
                 boundStatement.setInt(i++, ttl);
-                return session.writeAsync(boundStatement);
+                long expirationTime = clock.currentTimeMillis() + SECONDS.toMillis(ttl);
+                return MoreFutures.onSuccessAndFailure(session.writeAsync(boundStatement),
+                        () -> onPersisted(fullTextSha1, expirationTime, admit), () -> {});
             }
         });
     }
@@ -207,6 +292,13 @@ class FullQueryTextDao {
         MBeanServer platformMBeanServer = ManagementFactory.getPlatformMBeanServer();
         platformMBeanServer.unregisterMBean(ObjectName
                 .getInstance("org.glowroot.central:type=FullQueryTextRateLimiter"));
+        platformMBeanServer.unregisterMBean(ObjectName
+                .getInstance("org.glowroot.central:type=PersistedFullQueryTextCache"));
+    }
+
+    private static BloomFilter<CharSequence> createDoorkeeper() {
+        return BloomFilter.create(Funnels.stringFunnel(UTF_8), DOORKEEPER_EXPECTED_INSERTIONS,
+                0.01);
     }
 
     @Value.Immutable
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.primitives.Ints;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.immutables.value.Value;
+
+import org.glowroot.central.util.Session;
+import org.glowroot.common.util.Clock;
+import org.glowroot.common.util.Styles;
+import org.glowroot.common2.repo.ConfigRepository.RollupConfig;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+// accumulates (total weighted value, total weight) per gauge per rollup interval as the source rows
+// for that rollup interval are written (raw gauge values at ingest time, and lower level rollups
+// at rollup time), so that the rollup can be written without reading back the source rows
+//
+// accumulators are local to the central collector node (and to the current run of the central
+// collector), so an accumulator can only be used if it provably saw every source row for the
+// rollup interval, which is tracked by a persisted owner marker per rollup interval:
+// * before writing its first source row for a rollup interval, each node either claims the
+//   rollup interval (lightweight transaction, so only one node can ever claim it), or marks the
+//   rollup interval as shared
+// * node ids are generated on each startup, so a rollup interval claimed before a restart is never
+//   owned after the restart
+// * source row write failures invalidate the accumulator, since the write may have still succeeded
+//
+// whenever an accumulator cannot be used (shared rollup interval, central collector restart,
+// source rows arriving after the accumulator was consumed, etc), the caller falls back to reading
+// the source rows
+class GaugeValueAccumulators {
+
+    private final Session session;
+    private final Clock clock;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    // index is rollupLevel - 1
+    private final List<Long> creationWindowMillis;
+    private final List<Integer> ownerTTLs;
+    private final List<Cache<AccumulatorKey, Accumulator>> accumulators;
+
+    private final PreparedStatement insertOwnerIfNotExistsPS;
+    private final PreparedStatement insertSharedPS;
+    private final PreparedStatement readOwnerPS;
+
+    GaugeValueAccumulators(Session session, List<RollupConfig> rollupConfigs, Clock clock)
+            throws Exception {
+        this.session = session;
+        this.clock = clock;
+        List<Long> creationWindowMillis = new ArrayList<>();
+        List<Integer> ownerTTLs = new ArrayList<>();
+        List<Cache<AccumulatorKey, Accumulator>> accumulators = new ArrayList<>();
+        long maxOwnerExpirationMillis = 0;
+        for (int i = 0; i < rollupConfigs.size(); i++) {
+            long intervalMillis = rollupConfigs.get(i).intervalMillis();
+            // source rows are normally written shortly before the end of the rollup interval
+            // (ingest) or shortly after (lower level rollup), so an accumulator is only created if
+            // the first write happens within this window
+            long creationWindow = 2 * intervalMillis + MINUTES.toMillis(5);
+            // the owner marker needs to outlive the rollup of the rollup interval, otherwise the
+            // rollup finds no owner marker and falls back to reading the source rows
+            long ownerExpirationMillis = creationWindow + intervalMillis + MINUTES.toMillis(30);
+            maxOwnerExpirationMillis = Math.max(maxOwnerExpirationMillis, ownerExpirationMillis);
+            creationWindowMillis.add(creationWindow);
+            ownerTTLs.add(Ints.saturatedCast(MILLISECONDS.toSeconds(ownerExpirationMillis)));
+            // accumulators are normally consumed by the rollup, this expiration is only for
+            // accumulators that are never consumed
+            accumulators.add(CacheBuilder.newBuilder()
+                    .expireAfterWrite(ownerExpirationMillis, MILLISECONDS)
+                    .build());
+        }
+        this.creationWindowMillis = creationWindowMillis;
+        this.ownerTTLs = ownerTTLs;
+        this.accumulators = accumulators;
+
+        session.createTableWithTWCS("create table if not exists gauge_value_accumulator_owner"
+                + " (agent_rollup varchar, rollup_level int, capture_time timestamp, owner varchar,"
+                + " shared boolean, primary key ((agent_rollup, rollup_level, capture_time)))",
+                Ints.saturatedCast(MILLISECONDS.toHours(maxOwnerExpirationMillis) + 1));
+
+        insertOwnerIfNotExistsPS = session.prepare("insert into gauge_value_accumulator_owner"
+                + " (agent_rollup, rollup_level, capture_time, owner) values (?, ?, ?, ?) if not"
+                + " exists using ttl ?");
+        insertSharedPS = session.prepare("insert into gauge_value_accumulator_owner"
+                + " (agent_rollup, rollup_level, capture_time, shared) values (?, ?, ?, true)"
+                + " using ttl ?");
+        readOwnerPS = session.prepare("select owner, shared from gauge_value_accumulator_owner"
+                + " where agent_rollup = ? and rollup_level = ? and capture_time = ?");
+    }
+
+    // this needs to be called before writing a source row for the rollup interval, so that the
+    // rollup interval is claimed (or marked as shared) before any source row that an accumulator
+    // could otherwise miss
+    //
+    // captureTime is the rollup capture time (end of the rollup interval)
+    void beforeWrite(int rollupLevel, String agentRollupId, long captureTime) throws Exception {
+        AccumulatorKey key = ImmutableAccumulatorKey.of(agentRollupId, captureTime);
+        // the cache loader is only called once per key (concurrent callers wait for it), and only
+        // the first time this node writes a source row for the rollup interval
+        accumulators.get(rollupLevel - 1).get(key, () -> claim(rollupLevel, key));
+    }
+
+    // this needs to be called after the source row has been written successfully
+    //
+    // sourceKey identifies the source row within the rollup interval (so that re-writing the same
+    // source row replaces, instead of double counting)
+    void add(int rollupLevel, String agentRollupId, long captureTime, String gaugeName,
+            Object sourceKey, double value, long weight) {
+        AccumulatorKey key = ImmutableAccumulatorKey.of(agentRollupId, captureTime);
+        Accumulator accumulator = accumulators.get(rollupLevel - 1).getIfPresent(key);
+        if (accumulator != null) {
+            accumulator.add(gaugeName, sourceKey, value, weight);
+        }
+    }
+
+    // this needs to be called if writing a source row fails, since the source row may have still
+    // been written
+    void invalidate(int rollupLevel, String agentRollupId, long captureTime) {
+        AccumulatorKey key = ImmutableAccumulatorKey.of(agentRollupId, captureTime);
+        Accumulator accumulator = accumulators.get(rollupLevel - 1).getIfPresent(key);
+        if (accumulator != null) {
+            accumulator.invalidate();
+        }
+    }
+
+    // consumes and returns the accumulated values (by gauge name) for the rollup interval, or null
+    // if they cannot be used
+    @Nullable
+    Map<String, WeightedValue> remove(int rollupLevel, String agentRollupId, long captureTime)
+            throws Exception {
+        AccumulatorKey key = ImmutableAccumulatorKey.of(agentRollupId, captureTime);
+        Accumulator accumulator = accumulators.get(rollupLevel - 1).getIfPresent(key);
+        if (accumulator == null) {
+            return null;
+        }
+        // the accumulator is consumed (as opposed to removed from the cache), so that source rows
+        // written by this node after this point are not accumulated, and so that the rollup
+        // interval is not claimed again by this node
+        Map<String, WeightedValue> values = accumulator.consume();
+        if (values == null) {
+            return null;
+        }
+        // the owner marker check needs to happen after consuming the accumulator, so that any
+        // other writer that races with this check is not missed (other writers mark the rollup
+        // interval as shared before writing their source row, and insert their "needs rollup"
+        // record after writing their source row, so if the shared mark is not seen here, there
+        // will be a subsequent rollup which will then read the source rows)
+        BoundStatement boundStatement = readOwnerPS.bind();
+        bindKey(boundStatement, rollupLevel, key);
+        Row row = session.read(boundStatement).one();
+        if (row == null || !nodeId.equals(row.getString(0)) || row.getBool(1)) {
+            return null;
+        }
+        return values;
+    }
+
+    private Accumulator claim(int rollupLevel, AccumulatorKey key) throws Exception {
+        int ttl = ownerTTLs.get(rollupLevel - 1);
+        if (clock.currentTimeMillis() > key.captureTime()
+                + creationWindowMillis.get(rollupLevel - 1)) {
+            // too late to accumulate, but still need to prevent another node from claiming the
+            // rollup interval without seeing this node's source rows
+            markShared(rollupLevel, key, ttl);
+            return new Accumulator(false);
+        }
+        BoundStatement boundStatement = insertOwnerIfNotExistsPS.bind();
+        int i = bindKey(boundStatement, rollupLevel, key);
+        boundStatement.setString(i++, nodeId);
+        boundStatement.setInt(i++, ttl);
+        Row row = checkNotNull(session.update(boundStatement).one());
+        if (row.getBool("[applied]")) {
+            return new Accumulator(true);
+        }
+        if (!nodeId.equals(row.getString("owner"))) {
+            markShared(rollupLevel, key, ttl);
+        }
+        // when this node is already the owner, the prior accumulator has expired from the cache,
+        // and a new accumulator would miss the source rows that were accumulated by the prior one
+        return new Accumulator(false);
+    }
+
+    private void markShared(int rollupLevel, AccumulatorKey key, int ttl) throws Exception {
+        BoundStatement boundStatement = insertSharedPS.bind();
+        int i = bindKey(boundStatement, rollupLevel, key);
+        boundStatement.setInt(i++, ttl);
+        session.write(boundStatement);
+    }
+
+    private static int bindKey(BoundStatement boundStatement, int rollupLevel,
+            AccumulatorKey key) {
+        int i = 0;
+        boundStatement.setString(i++, key.agentRollupId());
+        boundStatement.setInt(i++, rollupLevel);
+        boundStatement.setTimestamp(i++, new Date(key.captureTime()));
+        return i;
+    }
+
+    static class WeightedValue {
+
+        private final double totalWeightedValue;
+        private final long totalWeight;
+
+        private WeightedValue(double totalWeightedValue, long totalWeight) {
+            this.totalWeightedValue = totalWeightedValue;
+            this.totalWeight = totalWeight;
+        }
+
+        double totalWeightedValue() {
+            return totalWeightedValue;
+        }
+
+        long totalWeight() {
+            return totalWeight;
+        }
+    }
+
+    private static class Accumulator {
+
+        // gauge name -> source key -> {value, weight}
+        //
+        // null if this node does not own the rollup interval, or once the accumulator has been
+        // consumed or invalidated
+        private @Nullable Map<String, Map<Object, double[]>> values;
+
+        private Accumulator(boolean owner) {
+            values = owner ? new HashMap<>() : null;
+        }
+
+        private synchronized void add(String gaugeName, Object sourceKey, double value,
+                long weight) {
+            if (values == null) {
+                return;
+            }
+            Map<Object, double[]> sources = values.get(gaugeName);
+            if (sources == null) {
+                sources = new HashMap<>();
+                values.put(gaugeName, sources);
+            }
+            sources.put(sourceKey, new double[] {value, weight});
+        }
+
+        private synchronized void invalidate() {
+            values = null;
+        }
+
+        private synchronized @Nullable Map<String, WeightedValue> consume() {
+            if (values == null) {
+                return null;
+            }
+            Map<String, WeightedValue> weightedValues = new HashMap<>();
+            for (Map.Entry<String, Map<Object, double[]>> entry : values.entrySet()) {
+                double totalWeightedValue = 0;
+                long totalWeight = 0;
+                for (double[] source : entry.getValue().values()) {
+                    totalWeightedValue += source[0] * source[1];
+                    totalWeight += (long) source[1];
+                }
+                weightedValues.put(entry.getKey(),
+                        new WeightedValue(totalWeightedValue, totalWeight));
+            }
+            values = null;
+            return weightedValues;
+        }
+    }
+
+    @Value.Immutable
+    @Styles.AllParameters
+    interface AccumulatorKey {
+        String agentRollupId();
+        long captureTime();
+    }
+}
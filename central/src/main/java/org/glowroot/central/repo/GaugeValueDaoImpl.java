@@ -47,6 +47,7 @@ import org.immutables.value.Value;
 
 import org.glowroot.central.repo.Common.NeedsRollup;
 import org.glowroot.central.repo.Common.NeedsRollupFromChildren;
+import org.glowroot.central.repo.GaugeValueAccumulators.WeightedValue;
 import org.glowroot.central.util.ClusterManager;
 import org.glowroot.central.util.MoreFutures;
 import org.glowroot.central.util.MoreFutures.DoRollup;
@@ -74,6 +75,8 @@ public class GaugeValueDaoImpl implements GaugeValueDao {
 
     private final GaugeNameDao gaugeNameDao;
 
+    private final GaugeValueAccumulators accumulators;
+
     // index is rollupLevel
     private final ImmutableList<PreparedStatement> insertValuePS;
     private final ImmutableList<PreparedStatement> readValuePS;
@@ -103,6 +106,8 @@ public class GaugeValueDaoImpl implements GaugeValueDao {
         this.clock = clock;
 
         gaugeNameDao = new GaugeNameDao(session, configRepository, clock);
+        accumulators =
+                new GaugeValueAccumulators(session, configRepository.getRollupConfigs(), clock);
 
         int count = configRepository.getRollupConfigs().size();
         List<Integer> rollupExpirationHours = Lists
@@ -189,6 +194,10 @@ public class GaugeValueDaoImpl implements GaugeValueDao {
             return;
         }
         int ttl = getTTLs().get(0);
+        SetMultimap<Long, String> rollupCaptureTimes = getRollupCaptureTimes(gaugeValues);
+        for (long rollupCaptureTime : rollupCaptureTimes.keySet()) {
+            accumulators.beforeWrite(1, agentId, rollupCaptureTime);
+        }
         long maxCaptureTime = 0;
         List<Future<?>> futures = new ArrayList<>();
         for (GaugeValue gaugeValue : gaugeValues) {
@@ -211,12 +220,29 @@ public class GaugeValueDaoImpl implements GaugeValueDao {
         }
 
         // wait for success before inserting "needs rollup" records
-        MoreFutures.waitForAll(futures);
+        try {
+            MoreFutures.waitForAll(futures);
+        } catch (Exception e) {
+            for (long rollupCaptureTime : rollupCaptureTimes.keySet()) {
+                accumulators.invalidate(1, agentId, rollupCaptureTime);
+            }
+            throw e;
+        }
         futures.clear();
 
+        // accumulating needs to happen before inserting "needs rollup" records, so that if the
+        // rollup consumes the accumulator before this, there will be a subsequent rollup (which
+        // will then read the source rows)
+        long intervalMillis = configRepository.getRollupConfigs().get(0).intervalMillis();
+        for (GaugeValue gaugeValue : gaugeValues) {
+            long captureTime = gaugeValue.getCaptureTime();
+            accumulators.add(1, agentId, CaptureTimes.getRollup(captureTime, intervalMillis),
+                    gaugeValue.getGaugeName(), captureTime, gaugeValue.getValue(),
+                    gaugeValue.getWeight());
+        }
+
         // insert into gauge_needs_rollup_1
         Map<NeedsRollupKey, ImmutableSet<String>> updatesForNeedsRollupCache1 = new HashMap<>();
-        SetMultimap<Long, String> rollupCaptureTimes = getRollupCaptureTimes(gaugeValues);
         for (Map.Entry<Long, Set<String>> entry : Multimaps.asMap(rollupCaptureTimes).entrySet()) {
             Long captureTime = entry.getKey();
             Set<String> gaugeNames = entry.getValue();
@@ -362,14 +388,26 @@ public class GaugeValueDaoImpl implements GaugeValueDao {
         for (NeedsRollupFromChildren needsRollupFromChildren : needsRollupFromChildrenList) {
             long captureTime = needsRollupFromChildren.getCaptureTime();
             int adjustedTTL = Common.getAdjustedTTL(ttl, captureTime, clock);
+            Map<String, WeightedValue> accumulated =
+                    accumulators.remove(rollupLevel, agentRollupId, captureTime);
+            beforeWriteRollup(rollupLevel, agentRollupId, parentAgentRollupId, captureTime);
             List<ListenableFuture<?>> futures = new ArrayList<>();
             for (Map.Entry<String, Collection<String>> entry : needsRollupFromChildren.getKeys()
                     .asMap()
                     .entrySet()) {
                 String gaugeName = entry.getKey();
-                Collection<String> childAgentRollupIds = entry.getValue();
-                futures.add(rollupOneFromChildren(rollupLevel, agentRollupId, gaugeName,
-                        childAgentRollupIds, captureTime, adjustedTTL));
+                WeightedValue weightedValue =
+                        accumulated == null ? null : accumulated.get(gaugeName);
+                if (weightedValue == null) {
+                    Collection<String> childAgentRollupIds = entry.getValue();
+                    futures.add(rollupOneFromChildren(rollupLevel, agentRollupId,
+                            parentAgentRollupId, gaugeName, childAgentRollupIds, captureTime,
+                            adjustedTTL));
+                } else {
+                    futures.add(storeRollup(rollupLevel, agentRollupId, parentAgentRollupId,
+                            gaugeName, captureTime, adjustedTTL,
+                            weightedValue.totalWeightedValue(), weightedValue.totalWeight()));
+                }
             }
             // wait for above async work to ensure rollup complete before proceeding
             MoreFutures.waitForAll(futures);
@@ -406,10 +444,21 @@ public class GaugeValueDaoImpl implements GaugeValueDao {
             long from = captureTime - rollupIntervalMillis;
             int adjustedTTL = Common.getAdjustedTTL(ttl, captureTime, clock);
             Set<String> gaugeNames = needsRollup.getKeys();
+            Map<String, WeightedValue> accumulated =
+                    accumulators.remove(rollupLevel, agentRollupId, captureTime);
+            beforeWriteRollup(rollupLevel, agentRollupId, parentAgentRollupId, captureTime);
             List<ListenableFuture<?>> futures = new ArrayList<>();
             for (String gaugeName : gaugeNames) {
-                futures.add(rollupOne(rollupLevel, agentRollupId, gaugeName, from, captureTime,
-                        adjustedTTL));
+                WeightedValue weightedValue =
+                        accumulated == null ? null : accumulated.get(gaugeName);
+                if (weightedValue == null) {
+                    futures.add(rollupOne(rollupLevel, agentRollupId, parentAgentRollupId,
+                            gaugeName, from, captureTime, adjustedTTL));
+                } else {
+                    futures.add(storeRollup(rollupLevel, agentRollupId, parentAgentRollupId,
+                            gaugeName, captureTime, adjustedTTL,
+                            weightedValue.totalWeightedValue(), weightedValue.totalWeight()));
+                }
             }
             if (futures.isEmpty()) {
                 // no rollups occurred, warning already logged inside rollupOne() above
@@ -449,8 +498,9 @@ public class GaugeValueDaoImpl implements GaugeValueDao {
     }
 
     private ListenableFuture<?> rollupOneFromChildren(int rollupLevel, String agentRollupId,
-            String gaugeName, Collection<String> childAgentRollupIds, long captureTime,
-            int adjustedTTL) throws Exception {
+            @Nullable String parentAgentRollupId, String gaugeName,
+            Collection<String> childAgentRollupIds, long captureTime, int adjustedTTL)
+            throws Exception {
         List<ListenableFuture<ResultSet>> futures = new ArrayList<>();
         for (String childAgentRollupId : childAgentRollupIds) {
             BoundStatement boundStatement = readValueForRollupFromChildPS.bind();
@@ -465,15 +515,16 @@ public class GaugeValueDaoImpl implements GaugeValueDao {
         return MoreFutures.rollupAsync(futures, asyncExecutor, new DoRollup() {
             @Override
             public ListenableFuture<?> execute(Iterable<Row> rows) throws Exception {
-                return rollupOneFromRows(rollupLevel, agentRollupId, gaugeName, captureTime,
-                        adjustedTTL, rows);
+                return rollupOneFromRows(rollupLevel, agentRollupId, parentAgentRollupId,
+                        gaugeName, captureTime, adjustedTTL, rows);
             }
         });
     }
 
     // from is non-inclusive
     private ListenableFuture<?> rollupOne(int rollupLevel, String agentRollupId,
-            String gaugeName, long from, long to, int adjustedTTL) throws Exception {
+            @Nullable String parentAgentRollupId, String gaugeName, long from, long to,
+            int adjustedTTL) throws Exception {
         BoundStatement boundStatement = readValueForRollupPS.get(rollupLevel - 1).bind();
         int i = 0;
         boundStatement.setString(i++, agentRollupId);
@@ -487,14 +538,15 @@ public class GaugeValueDaoImpl implements GaugeValueDao {
         return MoreFutures.rollupAsync(future, asyncExecutor, new DoRollup() {
             @Override
             public ListenableFuture<?> execute(Iterable<Row> rows) throws Exception {
-                return rollupOneFromRows(rollupLevel, agentRollupId, gaugeName, to, adjustedTTL,
-                        rows);
+                return rollupOneFromRows(rollupLevel, agentRollupId, parentAgentRollupId,
+                        gaugeName, to, adjustedTTL, rows);
             }
         });
     }
 
     private ListenableFuture<?> rollupOneFromRows(int rollupLevel, String agentRollupId,
-            String gaugeName, long to, int adjustedTTL, Iterable<Row> rows) throws Exception {
+            @Nullable String parentAgentRollupId, String gaugeName, long to, int adjustedTTL,
+            Iterable<Row> rows) throws Exception {
         double totalWeightedValue = 0;
         long totalWeight = 0;
         for (Row row : rows) {
@@ -503,6 +555,13 @@ public class GaugeValueDaoImpl implements GaugeValueDao {
             totalWeightedValue += value * weight;
             totalWeight += weight;
         }
+        return storeRollup(rollupLevel, agentRollupId, parentAgentRollupId, gaugeName, to,
+                adjustedTTL, totalWeightedValue, totalWeight);
+    }
+
+    private ListenableFuture<?> storeRollup(int rollupLevel, String agentRollupId,
+            @Nullable String parentAgentRollupId, String gaugeName, long to, int adjustedTTL,
+            double totalWeightedValue, long totalWeight) throws Exception {
         BoundStatement boundStatement = insertValuePS.get(rollupLevel).bind();
         int i = 0;
         boundStatement.setString(i++, agentRollupId);
@@ -511,10 +570,62 @@ public class GaugeValueDaoImpl implements GaugeValueDao {
         // individual gauge value weights cannot be zero, and rows is non-empty
         // (see callers of this method), so totalWeight is guaranteed non-zero
         checkState(totalWeight != 0);
-        boundStatement.setDouble(i++, totalWeightedValue / totalWeight);
+        double value = totalWeightedValue / totalWeight;
+        boundStatement.setDouble(i++, value);
         boundStatement.setLong(i++, totalWeight);
         boundStatement.setInt(i++, adjustedTTL);
-        return session.writeAsync(boundStatement);
+        // accumulating into the next rollups only after success, same as the needs rollup records
+        // (see beforeWriteRollup() for the other half)
+        return MoreFutures.onSuccessAndFailure(session.writeAsync(boundStatement),
+                () -> accumulateIntoNextRollups(rollupLevel, agentRollupId, parentAgentRollupId,
+                        gaugeName, to, value, totalWeight),
+                () -> invalidateNextRollups(rollupLevel, agentRollupId, parentAgentRollupId, to));
+    }
+
+    // this needs to be called before writing any rollup rows for the capture time, since the
+    // rollup rows are source rows for the next rollup level (and for the parent's 1-minute
+    // rollup), see GaugeValueAccumulators.beforeWrite()
+    private void beforeWriteRollup(int rollupLevel, String agentRollupId,
+            @Nullable String parentAgentRollupId, long captureTime) throws Exception {
+        List<RollupConfig> rollupConfigs = configRepository.getRollupConfigs();
+        if (rollupLevel < rollupConfigs.size()) {
+            long nextRollupIntervalMillis = rollupConfigs.get(rollupLevel).intervalMillis();
+            accumulators.beforeWrite(rollupLevel + 1, agentRollupId,
+                    CaptureTimes.getRollup(captureTime, nextRollupIntervalMillis));
+        }
+        if (rollupLevel == 1 && parentAgentRollupId != null) {
+            accumulators.beforeWrite(1, parentAgentRollupId, captureTime);
+        }
+    }
+
+    private void accumulateIntoNextRollups(int rollupLevel, String agentRollupId,
+            @Nullable String parentAgentRollupId, String gaugeName, long captureTime,
+            double value, long weight) {
+        List<RollupConfig> rollupConfigs = configRepository.getRollupConfigs();
+        if (rollupLevel < rollupConfigs.size()) {
+            long nextRollupIntervalMillis = rollupConfigs.get(rollupLevel).intervalMillis();
+            accumulators.add(rollupLevel + 1, agentRollupId,
+                    CaptureTimes.getRollup(captureTime, nextRollupIntervalMillis), gaugeName,
+                    captureTime, value, weight);
+        }
+        if (rollupLevel == 1 && parentAgentRollupId != null) {
+            // the parent's 1-minute rollup is rolled up from its children's 1-minute rollups
+            accumulators.add(1, parentAgentRollupId, captureTime, gaugeName, agentRollupId,
+                    value, weight);
+        }
+    }
+
+    private void invalidateNextRollups(int rollupLevel, String agentRollupId,
+            @Nullable String parentAgentRollupId, long captureTime) {
+        List<RollupConfig> rollupConfigs = configRepository.getRollupConfigs();
+        if (rollupLevel < rollupConfigs.size()) {
+            long nextRollupIntervalMillis = rollupConfigs.get(rollupLevel).intervalMillis();
+            accumulators.invalidate(rollupLevel + 1, agentRollupId,
+                    CaptureTimes.getRollup(captureTime, nextRollupIntervalMillis));
+        }
+        if (rollupLevel == 1 && parentAgentRollupId != null) {
+            accumulators.invalidate(1, parentAgentRollupId, captureTime);
+        }
     }
 
     private List<Integer> getTTLs() throws Exception {
@@ -539,6 +650,7 @@ public class GaugeValueDaoImpl implements GaugeValueDao {
         }
         session.updateSchemaWithRetry("truncate gauge_name");
         session.updateSchemaWithRetry("truncate gauge_needs_rollup_from_child");
+        session.updateSchemaWithRetry("truncate gauge_value_accumulator_owner");
     }
 
     @Value.Immutable
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.util.Arrays;
+
+// retains the largest N durations offered so far (as a min-heap of primitive longs, since there can
+// be many of these with thousands of durations each)
+class TopDurations {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int limit;
+
+    private long[] heap;
+    private int size;
+
+    TopDurations(int limit) {
+        this.limit = limit;
+        heap = new long[Math.min(limit, INITIAL_CAPACITY)];
+    }
+
+    // returns true if the duration is among the largest N durations offered so far (in which case
+    // it is retained, displacing the smallest retained duration if there are already N)
+    synchronized boolean offer(long duration) {
+        if (size < limit) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, Math.min(limit, heap.length * 2));
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (heap[parent] <= duration) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = duration;
+            return true;
+        }
+        if (limit == 0 || duration <= heap[0]) {
+            return false;
+        }
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (duration <= heap[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = duration;
+        return true;
+    }
+}
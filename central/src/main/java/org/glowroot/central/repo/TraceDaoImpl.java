@@ -22,6 +22,7 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
@@ -37,6 +38,9 @@ import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Ordering;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
@@ -49,15 +53,14 @@ import org.glowroot.central.util.MoreFutures;
 import org.glowroot.central.util.Session;
 import org.glowroot.common.Constants;
 import org.glowroot.common.live.ImmutableEntries;
-import org.glowroot.common.live.ImmutableEntriesAndQueries;
 import org.glowroot.common.live.ImmutableQueries;
 import org.glowroot.common.live.ImmutableTracePoint;
 import org.glowroot.common.live.LiveTraceRepository.Entries;
-import org.glowroot.common.live.LiveTraceRepository.EntriesAndQueries;
 import org.glowroot.common.live.LiveTraceRepository.Existence;
 import org.glowroot.common.live.LiveTraceRepository.Queries;
 import org.glowroot.common.live.LiveTraceRepository.TracePoint;
 import org.glowroot.common.live.LiveTraceRepository.TracePointFilter;
+import org.glowroot.common.live.StringComparator;
 import org.glowroot.common.model.Result;
 import org.glowroot.common.util.CaptureTimes;
 import org.glowroot.common.util.Clock;
@@ -67,6 +70,7 @@ import org.glowroot.common2.repo.ImmutableErrorMessageCount;
 import org.glowroot.common2.repo.ImmutableErrorMessagePoint;
 import org.glowroot.common2.repo.ImmutableErrorMessageResult;
 import org.glowroot.common2.repo.ImmutableHeaderPlus;
+import org.glowroot.common2.repo.ImmutableTraceQuery;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
 import org.glowroot.wire.api.model.Proto;
@@ -76,6 +80,7 @@ import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.HOURS;
 import static java.util.concurrent.TimeUnit.MINUTES;
 
 public class TraceDaoImpl implements TraceDao {
@@ -83,6 +88,27 @@ public class TraceDaoImpl implements TraceDao {
     @SuppressWarnings("deprecation")
     private static final HashFunction SHA_1 = Hashing.sha1();
 
+    // slow points are additionally stored in hourly buckets ordered by duration descending, so that
+    // reading the slowest N points over a wide time range only needs to read (at most) N points
+    // per bucket, regardless of how many slow points there are
+    private static final long SLOW_POINT_TOP_BUCKET_MILLIS = HOURS.toMillis(1);
+    // below this range the bucket reads (plus the partial buckets at the edges) are not worth it
+    private static final long SLOW_POINT_TOP_MIN_RANGE_MILLIS = HOURS.toMillis(4);
+    // this is the largest result limit offered by the UI, each bucket only retains the slowest
+    // SLOW_POINT_TOP_MAX_LIMIT + 1 points (see readCompletedSlowPoints()), so that the extra write
+    // is only paid for points that can be read back, and larger limits are read from the slow
+    // point tables instead
+    private static final int SLOW_POINT_TOP_MAX_LIMIT = 5000;
+    private static final int SLOW_POINT_TOP_BUCKET_LIMIT = SLOW_POINT_TOP_MAX_LIMIT + 1;
+    // bounds the memory used to track the slowest durations of recently written buckets
+    private static final int SLOW_POINT_TOP_DURATIONS_CACHE_SIZE = 1000;
+
+    // trace entries are read for export in bounded pages (with the next page requested
+    // asynchronously while the current page is still being written out), so that the entries of a
+    // large trace are never all in memory at once
+    private static final int EXPORT_ENTRIES_FETCH_SIZE = 1000;
+    private static final int EXPORT_ENTRIES_PREFETCH_THRESHOLD = 250;
+
     private final Session session;
     private final TransactionTypeDao transactionTypeDao;
     private final FullQueryTextDao fullQueryTextDao;
@@ -92,6 +118,15 @@ public class TraceDaoImpl implements TraceDao {
 
     private final boolean cassandra2x;
 
+    // the slow point top tables only contain data starting with this (bucket aligned) time
+    private final long slowPointTopStartTime;
+
+    // bucket -> slowest durations written to the bucket (see isSlowPointTop())
+    private final Cache<SlowPointTopBucket, TopDurations> slowPointTopDurations =
+            CacheBuilder.newBuilder()
+                    .maximumSize(SLOW_POINT_TOP_DURATIONS_CACHE_SIZE)
+                    .build();
+
     private final PreparedStatement insertOverallSlowCount;
     private final PreparedStatement insertOverallSlowCountPartial;
     private final PreparedStatement insertTransactionSlowCount;
@@ -102,6 +137,9 @@ public class TraceDaoImpl implements TraceDao {
     private final PreparedStatement insertTransactionSlowPoint;
     private final PreparedStatement insertTransactionSlowPointPartial;
 
+    private final PreparedStatement insertOverallSlowPointTop;
+    private final PreparedStatement insertTransactionSlowPointTop;
+
     private final PreparedStatement insertOverallErrorCount;
     private final PreparedStatement insertTransactionErrorCount;
 
@@ -128,6 +166,12 @@ public class TraceDaoImpl implements TraceDao {
     private final PreparedStatement readTransactionSlowPoint;
     private final PreparedStatement readTransactionSlowPointPartial;
 
+    private final PreparedStatement readOverallSlowPointTop;
+    private final PreparedStatement readTransactionSlowPointTop;
+
+    private final PreparedStatement readOverallSlowPointTopDurations;
+    private final PreparedStatement readTransactionSlowPointTopDurations;
+
     private final PreparedStatement readOverallErrorCount;
     private final PreparedStatement readTransactionErrorCount;
 
@@ -237,6 +281,27 @@ public class TraceDaoImpl implements TraceDao {
                 + " transaction_name), capture_time, agent_id, trace_id))", expirationHours, false,
                 true);
 
+        // capture_hour is the (ceiling) hourly bucket of capture_time
+        session.createTableWithTWCS("create table if not exists trace_tt_slow_point_top"
+                + " (agent_rollup varchar, transaction_type varchar, capture_hour timestamp,"
+                + " duration_nanos bigint, agent_id varchar, trace_id varchar, capture_time"
+                + " timestamp, error boolean, headline varchar, user varchar, attributes blob,"
+                + " primary key ((agent_rollup, transaction_type, capture_hour), duration_nanos,"
+                + " agent_id, trace_id)) with clustering order by (duration_nanos desc)",
+                expirationHours, true);
+
+        // capture_hour is the (ceiling) hourly bucket of capture_time
+        session.createTableWithTWCS("create table if not exists trace_tn_slow_point_top"
+                + " (agent_rollup varchar, transaction_type varchar, transaction_name varchar,"
+                + " capture_hour timestamp, duration_nanos bigint, agent_id varchar, trace_id"
+                + " varchar, capture_time timestamp, error boolean, headline varchar, user"
+                + " varchar, attributes blob, primary key ((agent_rollup, transaction_type,"
+                + " transaction_name, capture_hour), duration_nanos, agent_id, trace_id)) with"
+                + " clustering order by (duration_nanos desc)", expirationHours, true);
+
+        session.createTableWithLCS("create table if not exists trace_slow_point_top_start (one"
+                + " int, start_time timestamp, primary key (one))");
+
         session.createTableWithTWCS("create table if not exists trace_tt_error_count (agent_rollup"
                 + " varchar, transaction_type varchar, capture_time timestamp, agent_id varchar,"
                 + " trace_id varchar, primary key ((agent_rollup, transaction_type), capture_time,"
@@ -372,6 +437,16 @@ public class TraceDaoImpl implements TraceDao {
                 + " headline, user, attributes) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) using"
                 + " ttl ?");
 
+        insertOverallSlowPointTop = session.prepare("insert into trace_tt_slow_point_top"
+                + " (agent_rollup, transaction_type, capture_hour, duration_nanos, agent_id,"
+                + " trace_id, capture_time, error, headline, user, attributes) values (?, ?, ?, ?,"
+                + " ?, ?, ?, ?, ?, ?, ?) using ttl ?");
+
+        insertTransactionSlowPointTop = session.prepare("insert into trace_tn_slow_point_top"
+                + " (agent_rollup, transaction_type, transaction_name, capture_hour,"
+                + " duration_nanos, agent_id, trace_id, capture_time, error, headline, user,"
+                + " attributes) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) using ttl ?");
+
         insertOverallErrorCount = session.prepare("insert into trace_tt_error_count (agent_rollup,"
                 + " transaction_type, capture_time, agent_id, trace_id) values (?, ?, ?, ?, ?)"
                 + " using ttl ?");
@@ -493,6 +568,23 @@ public class TraceDaoImpl implements TraceDao {
                     + " allow filtering");
         }
 
+        readOverallSlowPointTop = session.prepare("select agent_id, trace_id, capture_time,"
+                + " duration_nanos, error, headline, user, attributes from trace_tt_slow_point_top"
+                + " where agent_rollup = ? and transaction_type = ? and capture_hour = ? limit ?");
+
+        readTransactionSlowPointTop = session.prepare("select agent_id, trace_id, capture_time,"
+                + " duration_nanos, error, headline, user, attributes from trace_tn_slow_point_top"
+                + " where agent_rollup = ? and transaction_type = ? and transaction_name = ? and"
+                + " capture_hour = ? limit ?");
+
+        readOverallSlowPointTopDurations = session.prepare("select duration_nanos from"
+                + " trace_tt_slow_point_top where agent_rollup = ? and transaction_type = ? and"
+                + " capture_hour = ? limit ?");
+
+        readTransactionSlowPointTopDurations = session.prepare("select duration_nanos from"
+                + " trace_tn_slow_point_top where agent_rollup = ? and transaction_type = ? and"
+                + " transaction_name = ? and capture_hour = ? limit ?");
+
         readOverallErrorCount = session.prepare("select count(*) from trace_tt_error_count where"
                 + " agent_rollup = ? and transaction_type = ? and capture_time > ? and"
                 + " capture_time <= ?");
@@ -574,6 +666,17 @@ public class TraceDaoImpl implements TraceDao {
         deleteTransactionSlowPointPartial = session.prepare("delete from"
                 + " trace_tn_slow_point_partial where agent_rollup = ? and transaction_type = ? and"
                 + " transaction_name = ? and capture_time = ? and agent_id = ? and trace_id = ?");
+
+        // existing slow points are not copied into the slow point top tables, so need to track
+        // when they started being populated
+        BoundStatement boundStatement = session.prepare("insert into trace_slow_point_top_start"
+                + " (one, start_time) values (1, ?) if not exists").bind();
+        boundStatement.setTimestamp(0, new Date(clock.currentTimeMillis()));
+        session.update(boundStatement);
+        results = session.read("select start_time from trace_slow_point_top_start where one = 1");
+        row = checkNotNull(results.one());
+        slowPointTopStartTime = CaptureTimes.getRollup(checkNotNull(row.getTimestamp(0)).getTime(),
+                SLOW_POINT_TOP_BUCKET_MILLIS);
     }
 
     @Override
@@ -662,6 +765,19 @@ public class TraceDaoImpl implements TraceDao {
                         false, header.getPartial(), cassandra2x);
                 futures.add(session.writeAsync(boundStatement));
 
+                if (!header.getPartial() && isSlowPointTop(agentRollupId, header, true)) {
+                    boundStatement = insertOverallSlowPointTop.bind();
+                    bindSlowPointTop(boundStatement, agentRollupId, agentId, traceId, header,
+                            adjustedTTL, true);
+                    futures.add(session.writeAsync(boundStatement));
+                }
+                if (!header.getPartial() && isSlowPointTop(agentRollupId, header, false)) {
+                    boundStatement = insertTransactionSlowPointTop.bind();
+                    bindSlowPointTop(boundStatement, agentRollupId, agentId, traceId, header,
+                            adjustedTTL, false);
+                    futures.add(session.writeAsync(boundStatement));
+                }
+
                 if (header.getPartial()) {
                     boundStatement = insertOverallSlowCountPartial.bind();
                 } else {
@@ -884,27 +1000,87 @@ public class TraceDaoImpl implements TraceDao {
     @Override
     public Result<TracePoint> readSlowPoints(String agentRollupId, TraceQuery query,
             TracePointFilter filter, int limit) throws Exception {
-        BoundStatement boundStatement;
         BoundStatement boundStatementPartial;
         String transactionName = query.transactionName();
         if (transactionName == null) {
-            boundStatement = readOverallSlowPoint.bind();
             boundStatementPartial = readOverallSlowPointPartial.bind();
-            bindTraceQuery(boundStatement, agentRollupId, query, true);
             bindTraceQueryPartial(boundStatementPartial, agentRollupId, query, true, cassandra2x);
         } else {
-            boundStatement = readTransactionSlowPoint.bind();
             boundStatementPartial = readTransactionSlowPointPartial.bind();
-            bindTraceQuery(boundStatement, agentRollupId, query, false);
             bindTraceQueryPartial(boundStatementPartial, agentRollupId, query, false, cassandra2x);
         }
-        Future<ResultSet> future = session.readAsync(boundStatement);
         Future<ResultSet> futurePartial = session.readAsync(boundStatementPartial);
-        List<TracePoint> completedPoints = processPoints(future.get(), filter, false, false);
+        List<TracePoint> completedPoints =
+                readCompletedSlowPoints(agentRollupId, query, filter, limit);
         List<TracePoint> partialPoints = processPoints(futurePartial.get(), filter, true, false);
         return combine(completedPoints, partialPoints, limit);
     }
 
+    // returned points are ordered by capture time
+    private List<TracePoint> readCompletedSlowPoints(String agentRollupId, TraceQuery query,
+            TracePointFilter filter, int limit) throws Exception {
+        // range (topFrom, topTo] is made up of full hourly buckets that can be read from the slow
+        // point top tables, the remaining ranges at the edges are read from the slow point tables
+        long topFrom = Math.max(CaptureTimes.getRollup(query.from(), SLOW_POINT_TOP_BUCKET_MILLIS),
+                slowPointTopStartTime);
+        long topTo = query.to() - query.to() % SLOW_POINT_TOP_BUCKET_MILLIS;
+        if (topTo - topFrom < SLOW_POINT_TOP_MIN_RANGE_MILLIS || limit <= 0
+                || limit > SLOW_POINT_TOP_MAX_LIMIT || !canUseSlowPointTop(filter)) {
+            return processPoints(session.readAsync(bindSlowPointQuery(agentRollupId, query)).get(),
+                    filter, false, false);
+        }
+        List<Future<ResultSet>> futures = new ArrayList<>();
+        if (topFrom > query.from()) {
+            futures.add(session.readAsync(bindSlowPointQuery(agentRollupId,
+                    ImmutableTraceQuery.copyOf(query).withTo(topFrom))));
+        }
+        String transactionName = query.transactionName();
+        for (long captureHour = topFrom + SLOW_POINT_TOP_BUCKET_MILLIS; captureHour <= topTo;
+                captureHour += SLOW_POINT_TOP_BUCKET_MILLIS) {
+            BoundStatement boundStatement;
+            if (transactionName == null) {
+                boundStatement = readOverallSlowPointTop.bind();
+            } else {
+                boundStatement = readTransactionSlowPointTop.bind();
+            }
+            int i = 0;
+            boundStatement.setString(i++, agentRollupId);
+            boundStatement.setString(i++, query.transactionType());
+            if (transactionName != null) {
+                boundStatement.setString(i++, transactionName);
+            }
+            boundStatement.setTimestamp(i++, new Date(captureHour));
+            // the slowest "limit" points across the entire range can only come from the slowest
+            // "limit" points of each bucket, and one more is read so that if all of the points are
+            // in a single bucket, createResult()/combine() still see that more are available
+            boundStatement.setInt(i++, limit + 1);
+            futures.add(session.readAsync(boundStatement));
+        }
+        if (query.to() > topTo) {
+            futures.add(session.readAsync(bindSlowPointQuery(agentRollupId,
+                    ImmutableTraceQuery.copyOf(query).withFrom(topTo))));
+        }
+        List<TracePoint> completedPoints = new ArrayList<>();
+        for (Future<ResultSet> future : futures) {
+            completedPoints.addAll(processPoints(future.get(), filter, false, false));
+        }
+        // points from the slow point top tables are ordered by duration within each bucket
+        completedPoints.sort(Comparator.comparingLong(TracePoint::captureTime));
+        return completedPoints;
+    }
+
+    private BoundStatement bindSlowPointQuery(String agentRollupId, TraceQuery query) {
+        BoundStatement boundStatement;
+        if (query.transactionName() == null) {
+            boundStatement = readOverallSlowPoint.bind();
+            bindTraceQuery(boundStatement, agentRollupId, query, true);
+        } else {
+            boundStatement = readTransactionSlowPoint.bind();
+            bindTraceQuery(boundStatement, agentRollupId, query, false);
+        }
+        return boundStatement;
+    }
+
     @Override
     public long readErrorCount(String agentRollupId, TraceQuery query) throws Exception {
         BoundStatement boundStatement;
@@ -1057,13 +1233,21 @@ public class TraceDaoImpl implements TraceDao {
                 .build();
     }
 
+    @Override
+    public Iterator<Trace.Entry> readEntriesForExport(String agentId, String traceId)
+            throws Exception {
+        ResultSet results = readEntriesForExportUsingPS(agentId, traceId, readEntriesV2);
+        if (results.isExhausted()) {
+            results = readEntriesForExportUsingPS(agentId, traceId, readEntriesV1);
+        }
+        return new ExportEntryIterator(results);
+    }
+
     // since this is only used by export, SharedQueryTexts are always returned with fullTrace
     // (never with truncatedText/truncatedEndText/fullTraceSha1)
     @Override
-    public EntriesAndQueries readEntriesAndQueriesForExport(String agentId, String traceId)
-            throws Exception {
-        ImmutableEntriesAndQueries.Builder entries = ImmutableEntriesAndQueries.builder()
-                .addAllEntries(readEntriesInternal(agentId, traceId))
+    public Queries readQueriesForExport(String agentId, String traceId) throws Exception {
+        ImmutableQueries.Builder queries = ImmutableQueries.builder()
                 .addAllQueries(readQueriesInternal(agentId, traceId));
         List<Trace.SharedQueryText> sharedQueryTexts = new ArrayList<>();
         for (Trace.SharedQueryText sharedQueryText : readSharedQueryTexts(agentId, traceId)) {
@@ -1085,7 +1269,7 @@ public class TraceDaoImpl implements TraceDao {
                 }
             }
         }
-        return entries.addAllSharedQueryTexts(sharedQueryTexts)
+        return queries.addAllSharedQueryTexts(sharedQueryTexts)
                 .build();
     }
 
@@ -1172,47 +1356,59 @@ public class TraceDaoImpl implements TraceDao {
         ResultSet results = session.read(boundStatement);
         List<Trace.Entry> entries = new ArrayList<>();
         while (!results.isExhausted()) {
-            Row row = results.one();
-            int i = 0;
-            Trace.Entry.Builder entry = Trace.Entry.newBuilder()
-                    .setDepth(row.getInt(i++))
-                    .setStartOffsetNanos(row.getLong(i++))
-                    .setDurationNanos(row.getLong(i++))
-                    .setActive(row.getBool(i++));
-            if (row.isNull(i + 1)) { // shared_query_text_index
-                // message is null for trace entries added using addErrorEntry()
-                entry.setMessage(Strings.nullToEmpty(row.getString(i++)));
-                i++; // shared_query_text_index
-                i++; // query_message_prefix
-                i++; // query_message_suffix
-            } else {
-                i++; // message
-                Trace.QueryEntryMessage queryEntryMessage = Trace.QueryEntryMessage.newBuilder()
-                        .setSharedQueryTextIndex(row.getInt(i++))
-                        .setPrefix(Strings.nullToEmpty(row.getString(i++)))
-                        .setSuffix(Strings.nullToEmpty(row.getString(i++)))
-                        .build();
-                entry.setQueryEntryMessage(queryEntryMessage);
-            }
-            ByteBuffer detailBytes = row.getBytes(i++);
-            if (detailBytes != null) {
-                entry.addAllDetailEntry(
-                        Messages.parseDelimitedFrom(detailBytes, Trace.DetailEntry.parser()));
-            }
-            ByteBuffer locationBytes = row.getBytes(i++);
-            if (locationBytes != null) {
-                entry.addAllLocationStackTraceElement(Messages.parseDelimitedFrom(locationBytes,
-                        Proto.StackTraceElement.parser()));
-            }
-            ByteBuffer errorBytes = row.getBytes(i++);
-            if (errorBytes != null) {
-                entry.setError(Trace.Error.parseFrom(errorBytes));
-            }
-            entries.add(entry.build());
+            entries.add(readEntry(results.one()));
         }
         return entries;
     }
 
+    private ResultSet readEntriesForExportUsingPS(String agentId, String traceId,
+            PreparedStatement readPS) throws Exception {
+        BoundStatement boundStatement = readPS.bind();
+        boundStatement.setString(0, agentId);
+        boundStatement.setString(1, traceId);
+        boundStatement.setFetchSize(EXPORT_ENTRIES_FETCH_SIZE);
+        return session.read(boundStatement);
+    }
+
+    private static Trace.Entry readEntry(Row row) throws IOException {
+        int i = 0;
+        Trace.Entry.Builder entry = Trace.Entry.newBuilder()
+                .setDepth(row.getInt(i++))
+                .setStartOffsetNanos(row.getLong(i++))
+                .setDurationNanos(row.getLong(i++))
+                .setActive(row.getBool(i++));
+        if (row.isNull(i + 1)) { // shared_query_text_index
+            // message is null for trace entries added using addErrorEntry()
+            entry.setMessage(Strings.nullToEmpty(row.getString(i++)));
+            i++; // shared_query_text_index
+            i++; // query_message_prefix
+            i++; // query_message_suffix
+        } else {
+            i++; // message
+            Trace.QueryEntryMessage queryEntryMessage = Trace.QueryEntryMessage.newBuilder()
+                    .setSharedQueryTextIndex(row.getInt(i++))
+                    .setPrefix(Strings.nullToEmpty(row.getString(i++)))
+                    .setSuffix(Strings.nullToEmpty(row.getString(i++)))
+                    .build();
+            entry.setQueryEntryMessage(queryEntryMessage);
+        }
+        ByteBuffer detailBytes = row.getBytes(i++);
+        if (detailBytes != null) {
+            entry.addAllDetailEntry(
+                    Messages.parseDelimitedFrom(detailBytes, Trace.DetailEntry.parser()));
+        }
+        ByteBuffer locationBytes = row.getBytes(i++);
+        if (locationBytes != null) {
+            entry.addAllLocationStackTraceElement(Messages.parseDelimitedFrom(locationBytes,
+                    Proto.StackTraceElement.parser()));
+        }
+        ByteBuffer errorBytes = row.getBytes(i++);
+        if (errorBytes != null) {
+            entry.setError(Trace.Error.parseFrom(errorBytes));
+        }
+        return entry.build();
+    }
+
     private List<Aggregate.Query> readQueriesInternal(String agentId, String traceId)
             throws Exception {
         BoundStatement boundStatement = readQueriesV2.bind();
@@ -1285,6 +1481,9 @@ public class TraceDaoImpl implements TraceDao {
         session.updateSchemaWithRetry("truncate table trace_tn_slow_point");
         session.updateSchemaWithRetry("truncate table trace_tt_slow_point_partial");
         session.updateSchemaWithRetry("truncate table trace_tn_slow_point_partial");
+        session.updateSchemaWithRetry("truncate table trace_tt_slow_point_top");
+        session.updateSchemaWithRetry("truncate table trace_tn_slow_point_top");
+        slowPointTopDurations.invalidateAll();
         session.updateSchemaWithRetry("truncate table trace_tt_error_count");
         session.updateSchemaWithRetry("truncate table trace_tn_error_count");
         session.updateSchemaWithRetry("truncate table trace_tt_error_point");
@@ -1330,6 +1529,77 @@ public class TraceDaoImpl implements TraceDao {
         boundStatement.setInt(i++, adjustedTTL);
     }
 
+    // the slowest durations of each bucket are tracked in memory, starting with the durations
+    // already stored in the bucket (read the first time this node writes to the bucket), so that a
+    // point that is not among the slowest of the durations tracked by this node cannot be among
+    // the slowest of the bucket either (other central nodes track their own durations, which can
+    // only result in a few more points being retained than necessary)
+    //
+    // a duration is tracked before its write completes, so if the write fails, the bucket can end
+    // up retaining one less point than intended
+    private boolean isSlowPointTop(String agentRollupId, Trace.Header header, boolean overall)
+            throws Exception {
+        SlowPointTopBucket bucket = ImmutableSlowPointTopBucket.builder()
+                .agentRollupId(agentRollupId)
+                .transactionType(header.getTransactionType())
+                .transactionName(overall ? null : header.getTransactionName())
+                .captureHour(CaptureTimes.getRollup(header.getCaptureTime(),
+                        SLOW_POINT_TOP_BUCKET_MILLIS))
+                .build();
+        return slowPointTopDurations.get(bucket, () -> readSlowPointTopDurations(bucket))
+                .offer(header.getDurationNanos());
+    }
+
+    private TopDurations readSlowPointTopDurations(SlowPointTopBucket bucket) throws Exception {
+        BoundStatement boundStatement;
+        String transactionName = bucket.transactionName();
+        if (transactionName == null) {
+            boundStatement = readOverallSlowPointTopDurations.bind();
+        } else {
+            boundStatement = readTransactionSlowPointTopDurations.bind();
+        }
+        int i = 0;
+        boundStatement.setString(i++, bucket.agentRollupId());
+        boundStatement.setString(i++, bucket.transactionType());
+        if (transactionName != null) {
+            boundStatement.setString(i++, transactionName);
+        }
+        boundStatement.setTimestamp(i++, new Date(bucket.captureHour()));
+        boundStatement.setInt(i++, SLOW_POINT_TOP_BUCKET_LIMIT);
+        TopDurations topDurations = new TopDurations(SLOW_POINT_TOP_BUCKET_LIMIT);
+        for (Row row : session.read(boundStatement)) {
+            topDurations.offer(row.getLong(0));
+        }
+        return topDurations;
+    }
+
+    private static void bindSlowPointTop(BoundStatement boundStatement, String agentRollupId,
+            String agentId, String traceId, Trace.Header header, int adjustedTTL, boolean overall)
+            throws IOException {
+        int i = 0;
+        boundStatement.setString(i++, agentRollupId);
+        boundStatement.setString(i++, header.getTransactionType());
+        if (!overall) {
+            boundStatement.setString(i++, header.getTransactionName());
+        }
+        boundStatement.setTimestamp(i++, new Date(
+                CaptureTimes.getRollup(header.getCaptureTime(), SLOW_POINT_TOP_BUCKET_MILLIS)));
+        boundStatement.setLong(i++, header.getDurationNanos());
+        boundStatement.setString(i++, agentId);
+        boundStatement.setString(i++, traceId);
+        boundStatement.setTimestamp(i++, new Date(header.getCaptureTime()));
+        boundStatement.setBool(i++, header.hasError());
+        boundStatement.setString(i++, header.getHeadline());
+        boundStatement.setString(i++, Strings.emptyToNull(header.getUser()));
+        List<Trace.Attribute> attributes = header.getAttributeList();
+        if (attributes.isEmpty()) {
+            boundStatement.setToNull(i++);
+        } else {
+            boundStatement.setBytes(i++, Messages.toByteBuffer(attributes));
+        }
+        boundStatement.setInt(i++, adjustedTTL);
+    }
+
     private static void bindCount(BoundStatement boundStatement, String agentRollupId,
             String agentId, String traceId, Trace.Header header, int adjustedTTL, boolean overall,
             boolean partial, boolean cassandra2x) {
@@ -1539,6 +1809,22 @@ public class TraceDaoImpl implements TraceDao {
                 .collect(Collectors.<TracePoint>toList());
     }
 
+    // the slow point top tables only return the slowest points in each bucket, so they can only be
+    // used when the filter cannot exclude slow points in favor of faster points
+    private static boolean canUseSlowPointTop(TracePointFilter filter) {
+        return filter.durationNanosHigh() == null
+                && !isActive(filter.headlineComparator(), filter.headline())
+                && !isActive(filter.errorMessageComparator(), filter.errorMessage())
+                && !isActive(filter.userComparator(), filter.user())
+                && Strings.isNullOrEmpty(filter.attributeName())
+                && !isActive(filter.attributeValueComparator(), filter.attributeValue());
+    }
+
+    private static boolean isActive(@Nullable StringComparator comparator,
+            @Nullable String text) {
+        return comparator != null && !Strings.isNullOrEmpty(text);
+    }
+
     private static boolean matches(ErrorMessageFilter filter, String errorMessage) {
         String upper = errorMessage.toUpperCase(Locale.ENGLISH);
         for (String include : filter.includes()) {
@@ -1554,6 +1840,15 @@ public class TraceDaoImpl implements TraceDao {
         return true;
     }
 
+    @Value.Immutable
+    interface SlowPointTopBucket {
+        String agentRollupId();
+        String transactionType();
+        @Nullable
+        String transactionName();
+        long captureHour();
+    }
+
     @Value.Immutable
     abstract static class TraceKey {
 
@@ -1568,6 +1863,33 @@ public class TraceDaoImpl implements TraceDao {
         }
     }
 
+    private static class ExportEntryIterator extends AbstractIterator<Trace.Entry> {
+
+        private final ResultSet results;
+
+        private ExportEntryIterator(ResultSet results) {
+            this.results = results;
+        }
+
+        @Override
+        protected Trace. /*@Nullable*/ Entry computeNext() {
+            Row row = results.one();
+            if (row == null) {
+                return endOfData();
+            }
+            if (results.getAvailableWithoutFetching() == EXPORT_ENTRIES_PREFETCH_THRESHOLD
+                    && !results.isFullyFetched()) {
+                // this is asynchronous
+                results.fetchMoreResults();
+            }
+            try {
+                return readEntry(row);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
     private static class MutableLong {
         private long value;
         private void increment() {
@@ -68,17 +68,18 @@ public class AggregateDaoWithV09Support implements AggregateDao {
     }
 
     @Override
-    public void store(String agentId, long captureTime,
+    public List<String> store(String agentId, long captureTime,
             List<OldAggregatesByType> aggregatesByTypeList,
             List<Aggregate.SharedQueryText> initialSharedQueryTexts) throws Exception {
         if (captureTime <= v09LastCaptureTime
                 && agentRollupIdsWithV09Data.contains(agentId)) {
-            delegate.store(V09Support.convertToV09(agentId),
+            return delegate.store(V09Support.convertToV09(agentId),
                     V09Support.getAgentRollupIdsV09(agentId), agentId,
                     AgentRollupIds.getAgentRollupIds(agentId), captureTime, aggregatesByTypeList,
                     initialSharedQueryTexts);
         } else {
-            delegate.store(agentId, captureTime, aggregatesByTypeList, initialSharedQueryTexts);
+            return delegate.store(agentId, captureTime, aggregatesByTypeList,
+                    initialSharedQueryTexts);
         }
     }
 
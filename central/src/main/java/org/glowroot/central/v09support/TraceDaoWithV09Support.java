@@ -18,6 +18,7 @@ package org.glowroot.central.v09support;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -32,7 +33,6 @@ import org.glowroot.central.repo.TraceDao;
 import org.glowroot.central.repo.TraceDaoImpl;
 import org.glowroot.common.live.ImmutableTracePoint;
 import org.glowroot.common.live.LiveTraceRepository.Entries;
-import org.glowroot.common.live.LiveTraceRepository.EntriesAndQueries;
 import org.glowroot.common.live.LiveTraceRepository.Queries;
 import org.glowroot.common.live.LiveTraceRepository.TracePoint;
 import org.glowroot.common.live.LiveTraceRepository.TracePointFilter;
@@ -152,17 +152,24 @@ public class TraceDaoWithV09Support implements TraceDao {
     }
 
     @Override
-    public EntriesAndQueries readEntriesAndQueriesForExport(String agentId, String traceId)
+    public Iterator<Trace.Entry> readEntriesForExport(String agentId, String traceId)
             throws Exception {
-        EntriesAndQueries entriesAndQueries =
-                delegate.readEntriesAndQueriesForExport(agentId, traceId);
-        if (entriesAndQueries.entries().isEmpty()
-                && clock.currentTimeMillis() < v09FqtLastExpirationTime
+        Iterator<Trace.Entry> entries = delegate.readEntriesForExport(agentId, traceId);
+        if (!entries.hasNext() && clock.currentTimeMillis() < v09FqtLastExpirationTime
                 && checkV09(agentId, traceId)) {
-            return delegate.readEntriesAndQueriesForExport(V09Support.convertToV09(agentId),
-                    traceId);
+            return delegate.readEntriesForExport(V09Support.convertToV09(agentId), traceId);
         }
-        return entriesAndQueries;
+        return entries;
+    }
+
+    @Override
+    public Queries readQueriesForExport(String agentId, String traceId) throws Exception {
+        Queries queries = delegate.readQueriesForExport(agentId, traceId);
+        if (queries.queries().isEmpty() && clock.currentTimeMillis() < v09FqtLastExpirationTime
+                && checkV09(agentId, traceId)) {
+            return delegate.readQueriesForExport(V09Support.convertToV09(agentId), traceId);
+        }
+        return queries;
     }
 
     @Override
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PoolingOptions;
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.central.util.ClusterManager;
+import org.glowroot.central.util.Session;
+import org.glowroot.common.util.Clock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FullQueryTextDaoIT {
+
+    private static final String AGENT_ROLLUP_ID = "xyz";
+
+    private static ClusterManager clusterManager;
+    private static Cluster cluster;
+    private static Session session;
+    private static ExecutorService asyncExecutor;
+    private static FullQueryTextDao fullQueryTextDao;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        SharedSetupRunListener.startCassandra();
+        clusterManager = ClusterManager.create();
+        cluster = Clusters.newCluster();
+        session = new Session(cluster.newSession(), "glowroot_unit_tests", null,
+                PoolingOptions.DEFAULT_MAX_QUEUE_SIZE, 0);
+        asyncExecutor = Executors.newCachedThreadPool();
+        CentralConfigDao centralConfigDao = new CentralConfigDao(session, clusterManager);
+        AgentDisplayDao agentDisplayDao =
+                new AgentDisplayDao(session, clusterManager, asyncExecutor, 10);
+        AgentConfigDao agentConfigDao =
+                new AgentConfigDao(session, agentDisplayDao, clusterManager, 10);
+        UserDao userDao = new UserDao(session, clusterManager);
+        RoleDao roleDao = new RoleDao(session, clusterManager);
+        ConfigRepositoryImpl configRepository =
+                new ConfigRepositoryImpl(centralConfigDao, agentConfigDao, userDao, roleDao, "");
+        fullQueryTextDao = new FullQueryTextDao(session, configRepository, asyncExecutor,
+                Clock.systemClock());
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        fullQueryTextDao.close();
+        asyncExecutor.shutdown();
+        session.close();
+        cluster.close();
+        clusterManager.close();
+        SharedSetupRunListener.stopCassandra();
+    }
+
+    @BeforeEach
+    public void beforeEachTest() throws Exception {
+        session.updateSchemaWithRetry("truncate table full_query_text");
+        session.updateSchemaWithRetry("truncate table full_query_text_check_v2");
+    }
+
+    @Test
+    public void shouldFallThroughToStorageOnCacheMiss() throws Exception {
+        // given
+        String sha1 = "cache-miss-sha1";
+        store(sha1, "select 1");
+        // first sighting only goes into the doorkeeper
+        assertThat(fullQueryTextDao.isPersisted(sha1)).isFalse();
+        deleteFullText(sha1);
+
+        // when
+        // second sighting is within the rate limiter window, but still reads the existing TTL
+        store(sha1, "select 1");
+
+        // then
+        assertThat(fullQueryTextDao.getFullText(AGENT_ROLLUP_ID, sha1)).isEqualTo("select 1");
+        // second sighting is admitted to the cache
+        assertThat(fullQueryTextDao.isPersisted(sha1)).isTrue();
+    }
+
+    @Test
+    public void shouldSkipWriteOnDoorkeeperHit() throws Exception {
+        // given
+        String sha1 = "doorkeeper-hit-sha1";
+        store(sha1, "select 2");
+        // second sighting reads back the existing TTL and is admitted to the cache
+        store(sha1, "select 2");
+        assertThat(fullQueryTextDao.isPersisted(sha1)).isTrue();
+        // deleting the full text directly, so that a write would be visible
+        deleteFullText(sha1);
+
+        // when
+        List<Future<?>> futures =
+                fullQueryTextDao.store(ImmutableList.of(AGENT_ROLLUP_ID), sha1, "select 2");
+        waitFor(futures);
+
+        // then
+        // only the check row is written
+        assertThat(futures).hasSize(1);
+        assertThat(fullQueryTextDao.getFullText(AGENT_ROLLUP_ID, sha1)).isNull();
+    }
+
+    private static void store(String sha1, String fullText) throws Exception {
+        waitFor(fullQueryTextDao.store(ImmutableList.of(AGENT_ROLLUP_ID), sha1, fullText));
+    }
+
+    private static void deleteFullText(String sha1) throws Exception {
+        BoundStatement boundStatement = session
+                .prepare("delete from full_query_text where full_query_text_sha1 = ?").bind();
+        boundStatement.setString(0, sha1);
+        session.write(boundStatement);
+    }
+
+    private static void waitFor(List<Future<?>> futures) throws Exception {
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.util.Map;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PoolingOptions;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.central.repo.GaugeValueAccumulators.WeightedValue;
+import org.glowroot.central.util.Session;
+import org.glowroot.common.util.Clock;
+import org.glowroot.common2.repo.ConfigRepository.RollupConfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GaugeValueAccumulatorsIT {
+
+    private static Cluster cluster;
+    private static Session session;
+    private static Clock clock;
+
+    private GaugeValueAccumulators accumulators;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        SharedSetupRunListener.startCassandra();
+        cluster = Clusters.newCluster();
+        session = new Session(cluster.newSession(), "glowroot_unit_tests", null,
+                PoolingOptions.DEFAULT_MAX_QUEUE_SIZE, 0);
+        clock = mock(Clock.class);
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        session.close();
+        cluster.close();
+        SharedSetupRunListener.stopCassandra();
+    }
+
+    @BeforeEach
+    public void beforeEach() throws Exception {
+        when(clock.currentTimeMillis()).thenReturn(60000L);
+        accumulators = newAccumulators();
+        session.updateSchemaWithRetry("truncate gauge_value_accumulator_owner");
+    }
+
+    @Test
+    public void shouldAccumulate() throws Exception {
+        // given
+        accumulators.beforeWrite(1, "one", 60000);
+        accumulators.add(1, "one", 60000, "gauge", 5000L, 10, 1);
+        accumulators.beforeWrite(1, "one", 60000);
+        accumulators.add(1, "one", 60000, "gauge", 10000L, 20, 3);
+        // re-writing the same source row replaces instead of double counting
+        accumulators.beforeWrite(1, "one", 60000);
+        accumulators.add(1, "one", 60000, "gauge", 10000L, 30, 3);
+        // when
+        Map<String, WeightedValue> values = accumulators.remove(1, "one", 60000);
+        // then
+        assertThat(values).containsOnlyKeys("gauge");
+        assertThat(values.get("gauge").totalWeightedValue()).isEqualTo(100);
+        assertThat(values.get("gauge").totalWeight()).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldNotReuseAfterConsumed() throws Exception {
+        // given
+        accumulators.beforeWrite(1, "one", 60000);
+        accumulators.add(1, "one", 60000, "gauge", 5000L, 10, 1);
+        accumulators.remove(1, "one", 60000);
+        // when
+        accumulators.beforeWrite(1, "one", 60000);
+        accumulators.add(1, "one", 60000, "gauge", 10000L, 20, 1);
+        // then
+        assertThat(accumulators.remove(1, "one", 60000)).isNull();
+    }
+
+    @Test
+    public void shouldNotCreateForOldRollupInterval() throws Exception {
+        // given
+        when(clock.currentTimeMillis()).thenReturn(3600000L);
+        // when
+        accumulators.beforeWrite(1, "one", 60000);
+        accumulators.add(1, "one", 60000, "gauge", 5000L, 10, 1);
+        // then
+        assertThat(accumulators.remove(1, "one", 60000)).isNull();
+    }
+
+    @Test
+    public void shouldNotAccumulateWithoutBeforeWrite() throws Exception {
+        // when
+        accumulators.add(1, "one", 60000, "gauge", 5000L, 10, 1);
+        // then
+        assertThat(accumulators.remove(1, "one", 60000)).isNull();
+    }
+
+    @Test
+    public void shouldNotUseAfterFailedWrite() throws Exception {
+        // given
+        accumulators.beforeWrite(1, "one", 60000);
+        accumulators.add(1, "one", 60000, "gauge", 5000L, 10, 1);
+        // when
+        accumulators.beforeWrite(1, "one", 60000);
+        accumulators.invalidate(1, "one", 60000);
+        // then
+        assertThat(accumulators.remove(1, "one", 60000)).isNull();
+    }
+
+    @Test
+    public void shouldNotUseAfterRestartMidInterval() throws Exception {
+        // given
+        accumulators.beforeWrite(1, "one", 60000);
+        accumulators.add(1, "one", 60000, "gauge", 5000L, 10, 1);
+        // when
+        GaugeValueAccumulators restarted = newAccumulators();
+        restarted.beforeWrite(1, "one", 60000);
+        restarted.add(1, "one", 60000, "gauge", 10000L, 20, 1);
+        // then
+        assertThat(restarted.remove(1, "one", 60000)).isNull();
+    }
+
+    @Test
+    public void shouldNotUseWhenTwoNodesWriteSameInterval() throws Exception {
+        // given
+        GaugeValueAccumulators otherNode = newAccumulators();
+        // when
+        accumulators.beforeWrite(1, "one", 60000);
+        otherNode.beforeWrite(1, "one", 60000);
+        accumulators.add(1, "one", 60000, "gauge", 5000L, 10, 1);
+        otherNode.add(1, "one", 60000, "gauge", 10000L, 20, 1);
+        // then
+        assertThat(accumulators.remove(1, "one", 60000)).isNull();
+        assertThat(otherNode.remove(1, "one", 60000)).isNull();
+    }
+
+    @Test
+    public void shouldNotUseWhenOtherNodeWritesAfterClaim() throws Exception {
+        // given
+        GaugeValueAccumulators otherNode = newAccumulators();
+        accumulators.beforeWrite(1, "one", 60000);
+        accumulators.add(1, "one", 60000, "gauge", 5000L, 10, 1);
+        // when
+        when(clock.currentTimeMillis()).thenReturn(3600000L);
+        otherNode.beforeWrite(1, "one", 60000);
+        otherNode.add(1, "one", 60000, "gauge", 10000L, 20, 1);
+        // then
+        assertThat(accumulators.remove(1, "one", 60000)).isNull();
+    }
+
+    private static GaugeValueAccumulators newAccumulators() throws Exception {
+        return new GaugeValueAccumulators(session, RollupConfig.buildRollupConfigs(), clock);
+    }
+}
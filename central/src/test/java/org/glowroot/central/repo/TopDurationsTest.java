@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TopDurationsTest {
+
+    @Test
+    public void shouldAcceptUntilLimitReached() {
+        TopDurations topDurations = new TopDurations(3);
+        assertThat(topDurations.offer(5)).isTrue();
+        assertThat(topDurations.offer(1)).isTrue();
+        assertThat(topDurations.offer(3)).isTrue();
+        // smallest retained is now 1
+        assertThat(topDurations.offer(1)).isFalse();
+        assertThat(topDurations.offer(0)).isFalse();
+        assertThat(topDurations.offer(2)).isTrue();
+        // smallest retained is now 2
+        assertThat(topDurations.offer(2)).isFalse();
+        assertThat(topDurations.offer(6)).isTrue();
+        // smallest retained is now 3
+        assertThat(topDurations.offer(3)).isFalse();
+        assertThat(topDurations.offer(4)).isTrue();
+    }
+
+    @Test
+    public void shouldNotAcceptWithZeroLimit() {
+        assertThat(new TopDurations(0).offer(1)).isFalse();
+    }
+
+    @Test
+    public void shouldAcceptExactlyTheLargestDurations() {
+        // given
+        int limit = 100;
+        TopDurations topDurations = new TopDurations(limit);
+        Random random = new Random(0);
+        List<Long> accepted = new ArrayList<>();
+        List<Long> offered = new ArrayList<>();
+
+        // when
+        for (int i = 0; i < 10000; i++) {
+            long duration = random.nextInt(1000000);
+            offered.add(duration);
+            if (topDurations.offer(duration)) {
+                accepted.add(duration);
+            }
+        }
+
+        // then
+        Collections.sort(offered, Collections.reverseOrder());
+        // every one of the largest durations was accepted when it was offered
+        assertThat(accepted).containsAll(offered.subList(0, limit));
+        // and nothing smaller than the smallest retained duration was accepted after the limit was
+        // reached
+        long smallestRetained = offered.get(limit - 1);
+        assertThat(topDurations.offer(smallestRetained - 1)).isFalse();
+        assertThat(topDurations.offer(offered.get(0) + 1)).isTrue();
+    }
+}
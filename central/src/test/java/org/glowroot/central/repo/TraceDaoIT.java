@@ -42,6 +42,9 @@ import org.glowroot.common2.repo.ImmutableTraceQuery;
 import org.glowroot.common2.repo.TraceRepository.TraceQuery;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -358,4 +361,121 @@ public class TraceDaoIT {
         // then
         assertThat(count).isEqualTo(1);
     }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void shouldReadSlowestPointsFromSlowPointTopTables(boolean overall) throws Exception {
+        // given
+        storeSlowPointTopTestData();
+        TraceQuery query = ImmutableTraceQuery.builder()
+                .transactionType("unit test")
+                .transactionName(overall ? null : "test transaction name")
+                .from(MINUTES.toMillis(30))
+                .to(HOURS.toMillis(6) + MINUTES.toMillis(30))
+                .build();
+        TracePointFilter filter = ImmutableTracePointFilter.builder()
+                .durationNanosLow(0)
+                .build();
+
+        // when
+        Result<TracePoint> queryResult = traceDao.readSlowPoints(AGENT_ID, query, filter, 4);
+
+        // then
+        assertSlowestPoints(queryResult);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void shouldReadSameSlowestPointsWithoutSlowPointTopTables(boolean overall)
+            throws Exception {
+        // given
+        storeSlowPointTopTestData();
+        TraceQuery query = ImmutableTraceQuery.builder()
+                .transactionType("unit test")
+                .transactionName(overall ? null : "test transaction name")
+                .from(MINUTES.toMillis(30))
+                .to(HOURS.toMillis(6) + MINUTES.toMillis(30))
+                .build();
+        // duration upper bound prevents reading from the slow point top tables
+        TracePointFilter filter = ImmutableTracePointFilter.builder()
+                .durationNanosLow(0)
+                .durationNanosHigh(MILLISECONDS.toNanos(1000))
+                .build();
+
+        // when
+        Result<TracePoint> queryResult = traceDao.readSlowPoints(AGENT_ID, query, filter, 4);
+
+        // then
+        assertSlowestPoints(queryResult);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void shouldReadMoreAvailableFromSingleSlowPointTopBucket(boolean overall)
+            throws Exception {
+        // given
+        for (int i = 1; i <= 5; i++) {
+            storeSlowTrace(HOURS.toMillis(3) + MINUTES.toMillis(i), i);
+        }
+        TraceQuery query = ImmutableTraceQuery.builder()
+                .transactionType("unit test")
+                .transactionName(overall ? null : "test transaction name")
+                .from(MINUTES.toMillis(30))
+                .to(HOURS.toMillis(6) + MINUTES.toMillis(30))
+                .build();
+        TracePointFilter filter = ImmutableTracePointFilter.builder()
+                .durationNanosLow(0)
+                .build();
+
+        // when
+        Result<TracePoint> queryResult = traceDao.readSlowPoints(AGENT_ID, query, filter, 4);
+
+        // then
+        assertThat(queryResult.moreAvailable()).isTrue();
+        assertThat(queryResult.records()).hasSize(4);
+        // ordered by capture time
+        for (int i = 0; i < 4; i++) {
+            assertThat(queryResult.records().get(i).durationNanos())
+                    .isEqualTo(MILLISECONDS.toNanos(i + 2));
+        }
+    }
+
+    // the slow point top tables are populated starting with the first (hourly) bucket after the
+    // (mock) clock time, so the range (30 min, 1 hour] and the range (6 hours, 6 hours 30 min] are
+    // read from the slow point tables, and the full buckets in between from the slow point top
+    // tables
+    private static void storeSlowPointTopTestData() throws Exception {
+        storeSlowTrace(MINUTES.toMillis(45), 1000);
+        for (int hour = 1; hour < 6; hour++) {
+            for (int i = 1; i <= 3; i++) {
+                storeSlowTrace(HOURS.toMillis(hour) + MINUTES.toMillis(i), hour * 10 + i);
+            }
+        }
+        storeSlowTrace(HOURS.toMillis(6) + MINUTES.toMillis(10), 999);
+    }
+
+    private static void storeSlowTrace(long captureTime, long durationMillis) throws Exception {
+        Trace trace = TraceTestData.createTrace(false);
+        trace = trace.toBuilder()
+                .setHeader(trace.getHeader().toBuilder()
+                        .setStartTime(captureTime - durationMillis)
+                        .setCaptureTime(captureTime)
+                        .setDurationNanos(MILLISECONDS.toNanos(durationMillis)))
+                .build();
+        traceDao.store(AGENT_ID, trace);
+    }
+
+    private static void assertSlowestPoints(Result<TracePoint> queryResult) {
+        assertThat(queryResult.moreAvailable()).isTrue();
+        assertThat(queryResult.records()).hasSize(4);
+        // ordered by capture time
+        assertThat(queryResult.records().get(0).durationNanos())
+                .isEqualTo(MILLISECONDS.toNanos(1000));
+        assertThat(queryResult.records().get(1).durationNanos())
+                .isEqualTo(MILLISECONDS.toNanos(52));
+        assertThat(queryResult.records().get(2).durationNanos())
+                .isEqualTo(MILLISECONDS.toNanos(53));
+        assertThat(queryResult.records().get(3).durationNanos())
+                .isEqualTo(MILLISECONDS.toNanos(999));
+    }
 }
@@ -86,13 +86,6 @@ public interface LiveTraceRepository {
         List<Trace.SharedQueryText> sharedQueryTexts();
     }
 
-    @Value.Immutable
-    public interface EntriesAndQueries {
-        List<Trace.Entry> entries();
-        List<Aggregate.Query> queries();
-        List<Trace.SharedQueryText> sharedQueryTexts();
-    }
-
     @Value.Immutable
     abstract class TracePointFilter {
 
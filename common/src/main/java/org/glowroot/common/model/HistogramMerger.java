@@ -0,0 +1,248 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.common.model;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.google.protobuf.ByteString;
+import org.HdrHistogram.Histogram;
+import org.checkerframework.checker.nullness.qual.EnsuresNonNull;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+
+import org.glowroot.common.model.LazyHistogram.ScratchBuffer;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+// bulk alternative to merging many Aggregate.Histogram protobufs one at a time into LazyHistogram
+//
+// encoded histograms are decoded directly into a single shared histogram (instead of decoding
+// each one into its own intermediate Histogram and then adding it), and raw value lists (which
+// are always stored in sorted order) are only collected until the end, where they are k-way
+// merged into a single sorted array
+//
+// the resulting protobuf is the same as LazyHistogram would have produced for the same inputs
+public class HistogramMerger {
+
+    // see org.HdrHistogram.AbstractHistogram.encodeIntoByteBuffer()
+    private static final int V2_ENCODING_COOKIE_BASE = 0x1c849303;
+    private static final int ENCODING_HEADER_SIZE = 40;
+
+    private static final int UNIT_MAGNITUDE = (int) (Math.log(
+            LazyHistogram.HISTOGRAM_LOWEST_DISCERNIBLE_VALUE) / Math.log(2));
+    private static final int SUB_BUCKET_HALF_COUNT_MAGNITUDE = (int) Math.ceil(Math.log(
+            2 * (long) Math.pow(10, LazyHistogram.HISTOGRAM_SIGNIFICANT_DIGITS)) / Math.log(2))
+            - 1;
+    private static final int SUB_BUCKET_HALF_COUNT = 1 << SUB_BUCKET_HALF_COUNT_MAGNITUDE;
+
+    private final List<Aggregate.Histogram> rawValueHistograms = Lists.newArrayList();
+    private int rawValueCount;
+
+    private @MonotonicNonNull Histogram histogram;
+
+    public void merge(Aggregate.Histogram toBeMergedHistogram) {
+        ByteString encodedBytes = toBeMergedHistogram.getEncodedBytes();
+        if (encodedBytes.isEmpty()) {
+            int count = toBeMergedHistogram.getOrderedRawValueCount();
+            if (count > 0) {
+                rawValueHistograms.add(toBeMergedHistogram);
+                rawValueCount += count;
+            }
+        } else {
+            if (histogram == null) {
+                histogram = LazyHistogram.createHistogram();
+            }
+            ByteBuffer buffer = encodedBytes.asReadOnlyByteBuffer();
+            if (!decodeInto(buffer, histogram)) {
+                histogram.add(
+                        Histogram.decodeFromByteBuffer(encodedBytes.asReadOnlyByteBuffer(), 0));
+            }
+        }
+    }
+
+    public Aggregate.Histogram toProto(ScratchBuffer scratchBuffer) {
+        Aggregate.Histogram.Builder builder = Aggregate.Histogram.newBuilder();
+        if (histogram == null && rawValueCount > LazyHistogram.MAX_VALUES) {
+            convertToHistogram();
+        }
+        if (histogram == null) {
+            for (long value : mergeRawValues()) {
+                builder.addOrderedRawValue(value);
+            }
+        } else {
+            for (Aggregate.Histogram rawValueHistogram : rawValueHistograms) {
+                for (int i = 0; i < rawValueHistogram.getOrderedRawValueCount(); i++) {
+                    histogram.recordValue(rawValueHistogram.getOrderedRawValue(i));
+                }
+            }
+            rawValueHistograms.clear();
+            rawValueCount = 0;
+            LazyHistogram.encode(histogram, scratchBuffer, builder);
+        }
+        return builder.build();
+    }
+
+    @EnsuresNonNull("histogram")
+    private void convertToHistogram() {
+        histogram = LazyHistogram.createHistogram();
+    }
+
+    // k-way merge of the already sorted raw value lists
+    private long[] mergeRawValues() {
+        long[] merged = new long[rawValueCount];
+        int k = rawValueHistograms.size();
+        if (k == 1) {
+            Aggregate.Histogram rawValueHistogram = rawValueHistograms.get(0);
+            for (int i = 0; i < merged.length; i++) {
+                merged[i] = rawValueHistogram.getOrderedRawValue(i);
+            }
+            return merged;
+        }
+        // binary min-heap of list indexes, keyed by the next unmerged value in each list
+        int[] heap = new int[k];
+        int[] positions = new int[k];
+        long[] heads = new long[k];
+        for (int i = 0; i < k; i++) {
+            heads[i] = rawValueHistograms.get(i).getOrderedRawValue(0);
+            heap[i] = i;
+        }
+        for (int i = k / 2 - 1; i >= 0; i--) {
+            siftDown(heap, k, heads, i);
+        }
+        int heapSize = k;
+        int mergedIndex = 0;
+        while (heapSize > 0) {
+            int listIndex = heap[0];
+            merged[mergedIndex++] = heads[listIndex];
+            Aggregate.Histogram rawValueHistogram = rawValueHistograms.get(listIndex);
+            int position = ++positions[listIndex];
+            if (position < rawValueHistogram.getOrderedRawValueCount()) {
+                heads[listIndex] = rawValueHistogram.getOrderedRawValue(position);
+            } else {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(heap, heapSize, heads, 0);
+        }
+        return merged;
+    }
+
+    private static void siftDown(int[] heap, int heapSize, long[] heads, int index) {
+        int i = index;
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < heapSize && heads[heap[left]] < heads[heap[smallest]]) {
+                smallest = left;
+            }
+            if (right < heapSize && heads[heap[right]] < heads[heap[smallest]]) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            int temp = heap[i];
+            heap[i] = heap[smallest];
+            heap[smallest] = temp;
+            i = smallest;
+        }
+    }
+
+    // returns false if the encoding is not one that can be decoded directly (e.g. compressed, or
+    // recorded with different histogram parameters), in which case caller falls back to
+    // Histogram.decodeFromByteBuffer()
+    private static boolean decodeInto(ByteBuffer buffer, Histogram histogram) {
+        if (buffer.remaining() < ENCODING_HEADER_SIZE) {
+            return false;
+        }
+        int cookie = buffer.getInt();
+        if ((cookie & ~0xf0) != V2_ENCODING_COOKIE_BASE) {
+            return false;
+        }
+        int payloadLength = buffer.getInt();
+        int normalizingIndexOffset = buffer.getInt();
+        int numberOfSignificantValueDigits = buffer.getInt();
+        long lowestDiscernibleValue = buffer.getLong();
+        buffer.getLong(); // highestTrackableValue
+        buffer.getDouble(); // integerToDoubleValueConversionRatio
+        if (normalizingIndexOffset != 0
+                || numberOfSignificantValueDigits != LazyHistogram.HISTOGRAM_SIGNIFICANT_DIGITS
+                || lowestDiscernibleValue != LazyHistogram.HISTOGRAM_LOWEST_DISCERNIBLE_VALUE
+                || buffer.remaining() < payloadLength) {
+            return false;
+        }
+        // validate the entire payload before recording anything, so that falling back does not
+        // end up double counting
+        int payloadStart = buffer.position();
+        int payloadEnd = payloadStart + payloadLength;
+        while (buffer.position() < payloadEnd) {
+            readZigZagLong(buffer);
+        }
+        if (buffer.position() != payloadEnd) {
+            return false;
+        }
+        // this cast is needed in order to avoid
+        // java.lang.NoSuchMethodError: java.nio.ByteBuffer.position(I)Ljava/nio/ByteBuffer;
+        // when this code is compiled with Java 9 and run with Java 8 or earlier
+        ((Buffer) buffer).position(payloadStart);
+        int index = 0;
+        while (buffer.position() < payloadEnd) {
+            long count = readZigZagLong(buffer);
+            if (count < 0) {
+                // run of zero counts
+                index += (int) -count;
+            } else {
+                if (count > 0) {
+                    histogram.recordValueWithCount(valueFromIndex(index), count);
+                }
+                index++;
+            }
+        }
+        return true;
+    }
+
+    // see org.HdrHistogram.AbstractHistogram.valueFromIndex()
+    private static long valueFromIndex(int index) {
+        int bucketIndex = (index >> SUB_BUCKET_HALF_COUNT_MAGNITUDE) - 1;
+        int subBucketIndex = (index & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT;
+        if (bucketIndex < 0) {
+            subBucketIndex -= SUB_BUCKET_HALF_COUNT;
+            bucketIndex = 0;
+        }
+        return ((long) subBucketIndex) << (bucketIndex + UNIT_MAGNITUDE);
+    }
+
+    // see org.HdrHistogram.ZigZagEncoding.getLong()
+    private static long readZigZagLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            long b = buffer.get();
+            if (shift == 56) {
+                // ninth byte uses all 8 bits
+                value |= b << 56;
+                break;
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            shift += 7;
+        }
+        return (value >>> 1) ^ (-(value & 1));
+    }
+}
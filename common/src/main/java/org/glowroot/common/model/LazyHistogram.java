@@ -30,8 +30,9 @@ import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 
 public class LazyHistogram {
 
-    private static final int HISTOGRAM_SIGNIFICANT_DIGITS = 5;
-    private static final int MAX_VALUES = 1024;
+    static final int HISTOGRAM_LOWEST_DISCERNIBLE_VALUE = 1000;
+    static final int HISTOGRAM_SIGNIFICANT_DIGITS = 5;
+    static final int MAX_VALUES = 1024;
 
     private long[] values = new long[8];
     private int size;
@@ -57,7 +58,7 @@ public class LazyHistogram {
     }
 
     public Aggregate.Histogram toProto(ScratchBuffer scratchBuffer) {
-        final Aggregate.Histogram.Builder builder = Aggregate.Histogram.newBuilder();
+        Aggregate.Histogram.Builder builder = Aggregate.Histogram.newBuilder();
         if (histogram == null) {
             if (!sorted) {
                 // sort values before storing so don't have to sort each time later when calculating
@@ -68,22 +69,7 @@ public class LazyHistogram {
                 builder.addOrderedRawValue(values[i]);
             }
         } else {
-            scratchBuffer.execute(histogram.getNeededByteBufferCapacity(), new DoWithByteBuffer() {
-                @Override
-                public void call(ByteBuffer buffer) {
-                    // this cast is needed in order to avoid
-                    // java.lang.NoSuchMethodError: java.nio.ByteBuffer.clear()Ljava/nio/ByteBuffer;
-                    // when this code is compiled with Java 9 and run with Java 8 or earlier
-                    ((Buffer) buffer).clear();
-                    histogram.encodeIntoByteBuffer(buffer);
-                    int size = buffer.position();
-                    // this cast is needed in order to avoid
-                    // java.lang.NoSuchMethodError: java.nio.ByteBuffer.flip()Ljava/nio/ByteBuffer;
-                    // when this code is compiled with Java 9 and run with Java 8 or earlier
-                    ((Buffer) buffer).flip();
-                    builder.setEncodedBytes(ByteString.copyFrom(buffer, size));
-                }
-            });
+            encode(histogram, scratchBuffer, builder);
         }
         return builder.build();
     }
@@ -162,9 +148,7 @@ public class LazyHistogram {
 
     @EnsuresNonNull("histogram")
     private void convertValuesToHistogram() {
-        // tracking nanoseconds, but only at microsecond precision (to save histogram space)
-        histogram = new Histogram(1000, 2000, HISTOGRAM_SIGNIFICANT_DIGITS);
-        histogram.setAutoResize(true);
+        histogram = createHistogram();
         for (int i = 0; i < size; i++) {
             histogram.recordValue(values[i]);
         }
@@ -176,6 +160,34 @@ public class LazyHistogram {
         sorted = true;
     }
 
+    static Histogram createHistogram() {
+        // tracking nanoseconds, but only at microsecond precision (to save histogram space)
+        Histogram histogram = new Histogram(HISTOGRAM_LOWEST_DISCERNIBLE_VALUE, 2000,
+                HISTOGRAM_SIGNIFICANT_DIGITS);
+        histogram.setAutoResize(true);
+        return histogram;
+    }
+
+    static void encode(final Histogram histogram, ScratchBuffer scratchBuffer,
+            final Aggregate.Histogram.Builder builder) {
+        scratchBuffer.execute(histogram.getNeededByteBufferCapacity(), new DoWithByteBuffer() {
+            @Override
+            public void call(ByteBuffer buffer) {
+                // this cast is needed in order to avoid
+                // java.lang.NoSuchMethodError: java.nio.ByteBuffer.clear()Ljava/nio/ByteBuffer;
+                // when this code is compiled with Java 9 and run with Java 8 or earlier
+                ((Buffer) buffer).clear();
+                histogram.encodeIntoByteBuffer(buffer);
+                int size = buffer.position();
+                // this cast is needed in order to avoid
+                // java.lang.NoSuchMethodError: java.nio.ByteBuffer.flip()Ljava/nio/ByteBuffer;
+                // when this code is compiled with Java 9 and run with Java 8 or earlier
+                ((Buffer) buffer).flip();
+                builder.setEncodedBytes(ByteString.copyFrom(buffer, size));
+            }
+        });
+    }
+
     public static class ScratchBuffer {
 
         private @MonotonicNonNull ByteBuffer buffer;
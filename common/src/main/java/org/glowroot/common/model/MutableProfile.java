@@ -47,6 +47,10 @@ public class MutableProfile {
     private static final Logger logger = LoggerFactory.getLogger(MutableProfile.class);
     private static final ObjectMapper mapper = ObjectMappers.create();
 
+    // flame graph nodes narrower than this fraction of the total sample count cannot be seen
+    // anyways, so they are folded into their parent in order to bound the size of the flame graph
+    private static final double FLAME_GRAPH_MIN_NODE_FRACTION = 1.0 / 2000;
+
     // TODO use primitive maps, e.g. from GS collections
     private final Map<String, Integer> packageNameIndexes = Maps.newHashMap();
     private final Map<String, Integer> classNameIndexes = Maps.newHashMap();
@@ -63,6 +67,10 @@ public class MutableProfile {
     // retain original sample count for in case of filtered profile
     private long unfilteredSampleCount = -1;
 
+    // set once a profile is shared (e.g. cached across requests), after which it can only be read
+    // or copied
+    private boolean readOnly;
+
     // this method is not used that often (only for traces with > 20 stack trace samples) so ok
     // that it does not have most optimal implementation (converts unnecessarily to profile tree)
     public void merge(MutableProfile profile) {
@@ -70,11 +78,13 @@ public class MutableProfile {
     }
 
     public void merge(Profile profile) {
+        checkNotReadOnly();
         Merger merger = new Merger(profile);
         merger.merge(profile.getNodeList(), rootNodes);
     }
 
     public void merge(List<StackTraceElement> stackTraceElements, Thread.State threadState) {
+        checkNotReadOnly();
         PeekingIterator<StackTraceElement> i =
                 Iterators.peekingIterator(Lists.reverse(stackTraceElements).iterator());
         ProfileNode lastMatchedNode = null;
@@ -127,7 +137,57 @@ public class MutableProfile {
         }
     }
 
+    public void markReadOnly() {
+        readOnly = true;
+    }
+
+    // deep copy, so that a read only (e.g. cached) profile can be filtered (which modifies the
+    // profile in place)
+    public MutableProfile copy() {
+        return copy(0);
+    }
+
+    // same result as copy() followed by truncateBranches(), but without copying the branches that
+    // are truncated
+    public MutableProfile truncatedCopy(double truncateBranchPercentage) {
+        return copy(getMinSamples(truncateBranchPercentage));
+    }
+
+    private MutableProfile copy(long minSamples) {
+        MutableProfile copy = new MutableProfile();
+        copy.packageNameIndexes.putAll(packageNameIndexes);
+        copy.classNameIndexes.putAll(classNameIndexes);
+        copy.methodNameIndexes.putAll(methodNameIndexes);
+        copy.fileNameIndexes.putAll(fileNameIndexes);
+        copy.packageNames.addAll(packageNames);
+        copy.classNames.addAll(classNames);
+        copy.methodNames.addAll(methodNames);
+        copy.fileNames.addAll(fileNames);
+        copy.unfilteredSampleCount = unfilteredSampleCount;
+        Deque<ProfileNode> toBeCopied = new ArrayDeque<ProfileNode>();
+        Deque<List<ProfileNode>> destinations = new ArrayDeque<List<ProfileNode>>();
+        for (ProfileNode rootNode : rootNodes) {
+            toBeCopied.add(rootNode);
+            destinations.add(copy.rootNodes);
+        }
+        ProfileNode node;
+        while ((node = toBeCopied.poll()) != null) {
+            ProfileNode nodeCopy = copy.new ProfileNode(node);
+            destinations.remove().add(nodeCopy);
+            for (ProfileNode childNode : node.childNodes) {
+                if (childNode.sampleCount < minSamples) {
+                    nodeCopy.ellipsedSampleCount += childNode.sampleCount;
+                } else {
+                    toBeCopied.add(childNode);
+                    destinations.add(nodeCopy.childNodes);
+                }
+            }
+        }
+        return copy;
+    }
+
     public void filter(List<String> includes, List<String> excludes) {
+        checkNotReadOnly();
         unfilteredSampleCount = getSampleCount();
         for (String include : includes) {
             for (Iterator<ProfileNode> i = rootNodes.iterator(); i.hasNext();) {
@@ -152,10 +212,11 @@ public class MutableProfile {
     }
 
     public void truncateBranches(double truncateBranchPercentage) {
+        checkNotReadOnly();
         if (truncateBranchPercentage == 0) {
             return;
         }
-        int minSamples = (int) Math.ceil(getSampleCount() * truncateBranchPercentage / 100);
+        long minSamples = getMinSamples(truncateBranchPercentage);
         Deque<ProfileNode> toBeVisited = new ArrayDeque<ProfileNode>();
         for (ProfileNode rootNode : rootNodes) {
             toBeVisited.add(rootNode);
@@ -189,6 +250,17 @@ public class MutableProfile {
         return sampleCount;
     }
 
+    public int getNodeCount() {
+        int nodeCount = 0;
+        Deque<ProfileNode> toBeVisited = new ArrayDeque<ProfileNode>(rootNodes);
+        ProfileNode node;
+        while ((node = toBeVisited.poll()) != null) {
+            nodeCount++;
+            toBeVisited.addAll(node.childNodes);
+        }
+        return nodeCount;
+    }
+
     public long getUnfilteredSampleCount() {
         if (unfilteredSampleCount == -1) {
             return getSampleCount();
@@ -234,13 +306,17 @@ public class MutableProfile {
         StringBuilder sb = new StringBuilder();
         JsonGenerator jg = mapper.getFactory().createGenerator(CharStreams.asWriter(sb));
         try {
+            long totalSampleCount = getSampleCount();
+            long minSampleCount = (long) (totalSampleCount * FLAME_GRAPH_MIN_NODE_FRACTION);
             jg.writeStartObject();
-            jg.writeNumberField("totalSampleCount", getSampleCount());
+            jg.writeNumberField("totalSampleCount", totalSampleCount);
             jg.writeArrayFieldStart("rootNodes");
             int height = 0;
             for (ProfileNode rootNode : rootNodes) {
-                if (rootNode.sampleCount > rootNode.ellipsedSampleCount) {
-                    FlameGraphWriter flameGraphWriter = new FlameGraphWriter(rootNode, jg);
+                if (rootNode.sampleCount > rootNode.ellipsedSampleCount
+                        && rootNode.sampleCount >= minSampleCount) {
+                    FlameGraphWriter flameGraphWriter =
+                            new FlameGraphWriter(rootNode, jg, minSampleCount);
                     flameGraphWriter.traverse();
                     height = Math.max(height, flameGraphWriter.height);
                 }
@@ -254,6 +330,16 @@ public class MutableProfile {
         return sb.toString();
     }
 
+    private long getMinSamples(double truncateBranchPercentage) {
+        return (long) Math.ceil(getSampleCount() * truncateBranchPercentage / 100);
+    }
+
+    private void checkNotReadOnly() {
+        if (readOnly) {
+            throw new IllegalStateException("Profile is read only, use copy() to modify it");
+        }
+    }
+
     private static int getNameIndex(String name, Map<String, Integer> nameIndexes,
             List<String> names) {
         Integer index = nameIndexes.get(name);
@@ -347,6 +433,23 @@ public class MutableProfile {
             this.leafThreadState = leafThreadState;
         }
 
+        // copy (without child nodes), name indexes are the same since the copied profile's name
+        // lists are copied as is
+        private ProfileNode(ProfileNode node) {
+            packageNameIndex = node.packageNameIndex;
+            classNameIndex = node.classNameIndex;
+            methodNameIndex = node.methodNameIndex;
+            fileNameIndex = node.fileNameIndex;
+            lineNumber = node.lineNumber;
+            leafThreadState = node.leafThreadState;
+            sampleCount = node.sampleCount;
+            ellipsedSampleCount = node.ellipsedSampleCount;
+            // re-use the (lazily built) text, since it is expensive to build for large profiles
+            text = node.text;
+            textUpper = node.textUpper;
+            childNodes = Lists.newArrayListWithCapacity(node.childNodes.size());
+        }
+
         private String getText() {
             if (text == null) {
                 String packageName = packageNames.get(packageNameIndex);
@@ -619,11 +722,13 @@ public class MutableProfile {
     private static class FlameGraphWriter extends Traverser<ProfileNode, IOException> {
 
         private final JsonGenerator jg;
+        private final long minSampleCount;
         private int height;
 
-        private FlameGraphWriter(ProfileNode rootNode, JsonGenerator jg) {
+        private FlameGraphWriter(ProfileNode rootNode, JsonGenerator jg, long minSampleCount) {
             super(rootNode);
             this.jg = jg;
+            this.minSampleCount = minSampleCount;
         }
 
         @Override
@@ -632,18 +737,50 @@ public class MutableProfile {
             jg.writeStartObject();
             jg.writeStringField("name", node.getText());
             jg.writeNumberField("value", node.sampleCount);
-            if (!node.childNodes.isEmpty()) {
+            List<ProfileNode> childNodes = getVisibleChildNodes(node);
+            if (!childNodes.isEmpty()) {
                 jg.writeArrayFieldStart("children");
             }
-            return node.childNodes;
+            return childNodes;
         }
 
         @Override
         public void revisitAfterChildren(ProfileNode node) throws IOException {
-            if (!node.childNodes.isEmpty()) {
+            if (hasVisibleChildNodes(node)) {
                 jg.writeEndArray();
             }
             jg.writeEndObject();
         }
+
+        private List<ProfileNode> getVisibleChildNodes(ProfileNode node) {
+            if (!hasHiddenChildNodes(node)) {
+                return node.childNodes;
+            }
+            List<ProfileNode> visibleChildNodes = Lists.newArrayList();
+            for (ProfileNode childNode : node.childNodes) {
+                if (childNode.sampleCount >= minSampleCount) {
+                    visibleChildNodes.add(childNode);
+                }
+            }
+            return visibleChildNodes;
+        }
+
+        private boolean hasVisibleChildNodes(ProfileNode node) {
+            for (ProfileNode childNode : node.childNodes) {
+                if (childNode.sampleCount >= minSampleCount) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean hasHiddenChildNodes(ProfileNode node) {
+            for (ProfileNode childNode : node.childNodes) {
+                if (childNode.sampleCount < minSampleCount) {
+                    return true;
+                }
+            }
+            return false;
+        }
     }
 }
@@ -19,9 +19,18 @@ import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
 
 public class ProfileCollector {
 
-    private final MutableProfile profile = new MutableProfile();
+    private final MutableProfile profile;
     private long lastCaptureTime;
 
+    public ProfileCollector() {
+        profile = new MutableProfile();
+    }
+
+    public ProfileCollector(MutableProfile profile, long lastCaptureTime) {
+        this.profile = profile;
+        this.lastCaptureTime = lastCaptureTime;
+    }
+
     public void mergeProfile(Profile profile) {
         this.profile.merge(profile);
     }
@@ -15,17 +15,18 @@
  */
 package org.glowroot.common.model;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.google.common.primitives.Doubles;
 import com.google.common.primitives.Longs;
 import org.immutables.value.Value;
 
+import org.glowroot.common.model.TransactionNameIndex.IndexComparator;
+
 public class TransactionNameErrorSummaryCollector {
 
     @VisibleForTesting
@@ -49,21 +50,24 @@ public class TransactionNameErrorSummaryCollector {
                 }
             };
 
-    private final Map<String, MutableTransactionNameErrorSummary> transactionNameErrorSummaries =
-            Maps.newHashMap();
+    private final TransactionNameIndex transactionNameIndex = new TransactionNameIndex();
+
+    // parallel arrays indexed by transactionNameIndex
+    private long[] errorCount = new long[16];
+    private long[] transactionCount = new long[16];
 
     private long lastCaptureTime;
 
     public void collect(String transactionName, long errorCount, long transactionCount,
             long captureTime) {
-        MutableTransactionNameErrorSummary mtes =
-                transactionNameErrorSummaries.get(transactionName);
-        if (mtes == null) {
-            mtes = new MutableTransactionNameErrorSummary();
-            transactionNameErrorSummaries.put(transactionName, mtes);
+        int index = transactionNameIndex.getOrAdd(transactionName);
+        if (index == this.errorCount.length) {
+            int newLength = index * 2;
+            this.errorCount = Arrays.copyOf(this.errorCount, newLength);
+            this.transactionCount = Arrays.copyOf(this.transactionCount, newLength);
         }
-        mtes.errorCount += errorCount;
-        mtes.transactionCount += transactionCount;
+        this.errorCount[index] += errorCount;
+        this.transactionCount[index] += transactionCount;
         lastCaptureTime = Math.max(lastCaptureTime, captureTime);
     }
 
@@ -73,20 +77,41 @@ public class TransactionNameErrorSummaryCollector {
 
     public Result<TransactionNameErrorSummary> getResult(ErrorSummarySortOrder sortOrder,
             int limit) {
+        int size = transactionNameIndex.size();
+        int[] top = TransactionNameIndex.selectTop(size, limit, getIndexComparator(sortOrder));
         List<TransactionNameErrorSummary> summaries = Lists.newArrayList();
-        for (Map.Entry<String, MutableTransactionNameErrorSummary> entry : transactionNameErrorSummaries
-                .entrySet()) {
+        for (int index : top) {
             summaries.add(ImmutableTransactionNameErrorSummary.builder()
-                    .transactionName(entry.getKey())
-                    .errorCount(entry.getValue().errorCount)
-                    .transactionCount(entry.getValue().transactionCount)
+                    .transactionName(transactionNameIndex.getName(index))
+                    .errorCount(errorCount[index])
+                    .transactionCount(transactionCount[index])
                     .build());
         }
         summaries = sortTransactionNameErrorSummaries(summaries, sortOrder);
-        if (summaries.size() > limit) {
-            return new Result<TransactionNameErrorSummary>(summaries.subList(0, limit), true);
-        } else {
-            return new Result<TransactionNameErrorSummary>(summaries, false);
+        return new Result<TransactionNameErrorSummary>(summaries, size > limit);
+    }
+
+    private IndexComparator getIndexComparator(ErrorSummarySortOrder sortOrder) {
+        final long[] errorCount = this.errorCount;
+        final long[] transactionCount = this.transactionCount;
+        switch (sortOrder) {
+            case ERROR_COUNT:
+                return new IndexComparator() {
+                    @Override
+                    public int compare(int left, int right) {
+                        return Longs.compare(errorCount[right], errorCount[left]);
+                    }
+                };
+            case ERROR_RATE:
+                return new IndexComparator() {
+                    @Override
+                    public int compare(int left, int right) {
+                        return Doubles.compare(errorCount[right] / (double) transactionCount[right],
+                                errorCount[left] / (double) transactionCount[left]);
+                    }
+                };
+            default:
+                throw new AssertionError("Unexpected sort order: " + sortOrder);
         }
     }
 
@@ -103,11 +128,6 @@ public class TransactionNameErrorSummaryCollector {
         }
     }
 
-    private static class MutableTransactionNameErrorSummary {
-        private long errorCount;
-        private long transactionCount;
-    }
-
     public enum ErrorSummarySortOrder {
         ERROR_COUNT, ERROR_RATE
     }
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.common.model;
+
+import java.util.Arrays;
+
+// maps transaction names to dense int indexes (0, 1, 2, ...) so that the transaction name summary
+// collectors can accumulate into parallel primitive arrays, instead of allocating a map entry and
+// a mutable summary object per transaction name (there can be tens of thousands of transaction
+// names in a single agent rollup)
+class TransactionNameIndex {
+
+    private String[] names = new String[16];
+    // open addressing (linear probing), each slot holds index + 1, with 0 meaning empty slot
+    private int[] slots = new int[32];
+    private int size;
+
+    int getOrAdd(String name) {
+        int mask = slots.length - 1;
+        int slot = spread(name.hashCode()) & mask;
+        while (true) {
+            int value = slots[slot];
+            if (value == 0) {
+                break;
+            }
+            if (names[value - 1].equals(name)) {
+                return value - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int index = size++;
+        if (index == names.length) {
+            names = Arrays.copyOf(names, names.length * 2);
+        }
+        names[index] = name;
+        slots[slot] = index + 1;
+        // keep load factor at or below 0.5
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return index;
+    }
+
+    String getName(int index) {
+        return names[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void rehash(int newCapacity) {
+        int[] newSlots = new int[newCapacity];
+        int mask = newCapacity - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = spread(names[i].hashCode()) & mask;
+            while (newSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newSlots[slot] = i + 1;
+        }
+        slots = newSlots;
+    }
+
+    // selects the (at most) limit best indexes (in no particular order) using a bounded heap, so
+    // that only those need to be materialized and sorted by caller
+    static int[] selectTop(int size, int limit, IndexComparator comparator) {
+        int capacity = Math.min(size, limit);
+        // heap is ordered with the worst of the retained indexes at the root
+        int[] heap = new int[capacity];
+        int heapSize = 0;
+        for (int i = 0; i < size; i++) {
+            if (heapSize < capacity) {
+                heap[heapSize] = i;
+                siftUp(heap, heapSize++, comparator);
+            } else if (capacity > 0 && comparator.compare(i, heap[0]) < 0) {
+                heap[0] = i;
+                siftDown(heap, heapSize, comparator);
+            }
+        }
+        return heap;
+    }
+
+    private static void siftUp(int[] heap, int index, IndexComparator comparator) {
+        int i = index;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (comparator.compare(heap[i], heap[parent]) <= 0) {
+                return;
+            }
+            swap(heap, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int heapSize, IndexComparator comparator) {
+        int i = 0;
+        while (true) {
+            int worst = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < heapSize && comparator.compare(heap[left], heap[worst]) > 0) {
+                worst = left;
+            }
+            if (right < heapSize && comparator.compare(heap[right], heap[worst]) > 0) {
+                worst = right;
+            }
+            if (worst == i) {
+                return;
+            }
+            swap(heap, i, worst);
+            i = worst;
+        }
+    }
+
+    private static void swap(int[] heap, int i, int j) {
+        int temp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = temp;
+    }
+
+    private static int spread(int hashCode) {
+        return hashCode ^ (hashCode >>> 16);
+    }
+
+    // negative if the left index should be ordered before the right index
+    interface IndexComparator {
+        int compare(int left, int right);
+    }
+}
@@ -15,16 +15,17 @@
  */
 package org.glowroot.common.model;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.google.common.primitives.Doubles;
 import com.google.common.primitives.Longs;
 import org.immutables.value.Value;
 
+import org.glowroot.common.model.TransactionNameIndex.IndexComparator;
+
 public class TransactionNameSummaryCollector {
 
     private static final Ordering<TransactionNameSummary> orderingByTotalTimeDesc =
@@ -86,22 +87,30 @@ public class TransactionNameSummaryCollector {
                 }
             };
 
-    private final Map<String, MutableTransactionNameSummary> transactionNameSummaries =
-            Maps.newHashMap();
+    private final TransactionNameIndex transactionNameIndex = new TransactionNameIndex();
+
+    // parallel arrays indexed by transactionNameIndex
+    private double[] totalDurationNanos = new double[16];
+    private double[] totalCpuNanos = new double[16];
+    private double[] totalAllocatedBytes = new double[16];
+    private long[] transactionCount = new long[16];
 
     private long lastCaptureTime;
 
     public void collect(String transactionName, double totalDurationNanos, double totalCpuNanos, double totalAllocatedBytes, long transactionCount,
                         long captureTime) {
-        MutableTransactionNameSummary mts = transactionNameSummaries.get(transactionName);
-        if (mts == null) {
-            mts = new MutableTransactionNameSummary();
-            transactionNameSummaries.put(transactionName, mts);
+        int index = transactionNameIndex.getOrAdd(transactionName);
+        if (index == this.transactionCount.length) {
+            int newLength = index * 2;
+            this.totalDurationNanos = Arrays.copyOf(this.totalDurationNanos, newLength);
+            this.totalCpuNanos = Arrays.copyOf(this.totalCpuNanos, newLength);
+            this.totalAllocatedBytes = Arrays.copyOf(this.totalAllocatedBytes, newLength);
+            this.transactionCount = Arrays.copyOf(this.transactionCount, newLength);
         }
-        mts.totalDurationNanos += totalDurationNanos;
-        mts.totalCpuNanos += totalCpuNanos;
-        mts.totalAllocatedBytes += totalAllocatedBytes;
-        mts.transactionCount += transactionCount;
+        this.totalDurationNanos[index] += totalDurationNanos;
+        this.totalCpuNanos[index] += totalCpuNanos;
+        this.totalAllocatedBytes[index] += totalAllocatedBytes;
+        this.transactionCount[index] += transactionCount;
         lastCaptureTime = Math.max(lastCaptureTime, captureTime);
     }
 
@@ -110,22 +119,84 @@ public class TransactionNameSummaryCollector {
     }
 
     public Result<TransactionNameSummary> getResult(SummarySortOrder sortOrder, int limit) {
+        int size = transactionNameIndex.size();
+        int[] top = TransactionNameIndex.selectTop(size, limit, getIndexComparator(sortOrder));
         List<TransactionNameSummary> summaries = Lists.newArrayList();
-        for (Map.Entry<String, MutableTransactionNameSummary> entry : transactionNameSummaries
-                .entrySet()) {
+        for (int index : top) {
             summaries.add(ImmutableTransactionNameSummary.builder()
-                    .transactionName(entry.getKey())
-                    .totalDurationNanos(entry.getValue().totalDurationNanos)
-                    .totalCpuNanos(entry.getValue().totalCpuNanos)
-                    .totalAllocatedBytes(entry.getValue().totalAllocatedBytes)
-                    .transactionCount(entry.getValue().transactionCount)
+                    .transactionName(transactionNameIndex.getName(index))
+                    .totalDurationNanos(totalDurationNanos[index])
+                    .totalCpuNanos(totalCpuNanos[index])
+                    .totalAllocatedBytes(totalAllocatedBytes[index])
+                    .transactionCount(transactionCount[index])
                     .build());
         }
         summaries = sortTransactionNameSummaries(summaries, sortOrder);
-        if (summaries.size() > limit) {
-            return new Result<TransactionNameSummary>(summaries.subList(0, limit), true);
-        } else {
-            return new Result<TransactionNameSummary>(summaries, false);
+        return new Result<TransactionNameSummary>(summaries, size > limit);
+    }
+
+    private IndexComparator getIndexComparator(SummarySortOrder sortOrder) {
+        final double[] totalDurationNanos = this.totalDurationNanos;
+        final double[] totalCpuNanos = this.totalCpuNanos;
+        final double[] totalAllocatedBytes = this.totalAllocatedBytes;
+        final long[] transactionCount = this.transactionCount;
+        switch (sortOrder) {
+            case TOTAL_TIME:
+                return new IndexComparator() {
+                    @Override
+                    public int compare(int left, int right) {
+                        return Doubles.compare(totalDurationNanos[right], totalDurationNanos[left]);
+                    }
+                };
+            case AVERAGE_TIME:
+                return new IndexComparator() {
+                    @Override
+                    public int compare(int left, int right) {
+                        return Doubles.compare(totalDurationNanos[right] / transactionCount[right],
+                                totalDurationNanos[left] / transactionCount[left]);
+                    }
+                };
+            case THROUGHPUT:
+                return new IndexComparator() {
+                    @Override
+                    public int compare(int left, int right) {
+                        return Longs.compare(transactionCount[right], transactionCount[left]);
+                    }
+                };
+            case TOTAL_CPU_TIME:
+                return new IndexComparator() {
+                    @Override
+                    public int compare(int left, int right) {
+                        return Doubles.compare(totalCpuNanos[right], totalCpuNanos[left]);
+                    }
+                };
+            case AVERAGE_CPU_TIME:
+                return new IndexComparator() {
+                    @Override
+                    public int compare(int left, int right) {
+                        return Doubles.compare(totalCpuNanos[right] / transactionCount[right],
+                                totalCpuNanos[left] / transactionCount[left]);
+                    }
+                };
+            case TOTAL_ALLOCATED_MEMORY:
+                return new IndexComparator() {
+                    @Override
+                    public int compare(int left, int right) {
+                        return Doubles.compare(totalAllocatedBytes[right],
+                                totalAllocatedBytes[left]);
+                    }
+                };
+            case AVERAGE_ALLOCATED_MEMORY:
+                return new IndexComparator() {
+                    @Override
+                    public int compare(int left, int right) {
+                        return Doubles.compare(
+                                totalAllocatedBytes[right] / transactionCount[right],
+                                totalAllocatedBytes[left] / transactionCount[left]);
+                    }
+                };
+            default:
+                throw new AssertionError("Unexpected sort order: " + sortOrder);
         }
     }
 
@@ -164,11 +235,4 @@ public class TransactionNameSummaryCollector {
         double totalAllocatedBytes();
         long transactionCount();
     }
-
-    private static class MutableTransactionNameSummary {
-        private double totalDurationNanos;
-        private double totalCpuNanos;
-        private double totalAllocatedBytes;
-        private long transactionCount;
-    }
 }
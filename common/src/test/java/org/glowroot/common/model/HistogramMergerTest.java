@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.common.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.common.model.LazyHistogram.ScratchBuffer;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HistogramMergerTest {
+
+    private static final double[] PERCENTILES = {0, 50, 95, 99, 99.9, 99.99, 100};
+
+    @Test
+    public void shouldMergeRawValues() {
+        shouldMergeSameAsLazyHistogram(createHistograms(10, 20, 0));
+    }
+
+    @Test
+    public void shouldMergeRawValuesOverflowingIntoHistogram() {
+        shouldMergeSameAsLazyHistogram(createHistograms(100, 50, 0));
+    }
+
+    @Test
+    public void shouldMergeEncodedHistograms() {
+        shouldMergeSameAsLazyHistogram(createHistograms(0, 0, 20));
+    }
+
+    @Test
+    public void shouldMergeRawValuesAndEncodedHistograms() {
+        shouldMergeSameAsLazyHistogram(createHistograms(50, 10, 20));
+    }
+
+    @Test
+    public void shouldMergeNothing() {
+        // when
+        Aggregate.Histogram histogram = new HistogramMerger().toProto(new ScratchBuffer());
+        // then
+        assertThat(histogram.getOrderedRawValueCount()).isZero();
+        assertThat(histogram.getEncodedBytes().isEmpty()).isTrue();
+    }
+
+    private static void shouldMergeSameAsLazyHistogram(List<Aggregate.Histogram> histograms) {
+        // given
+        ScratchBuffer scratchBuffer = new ScratchBuffer();
+        LazyHistogram lazyHistogram = new LazyHistogram();
+        HistogramMerger histogramMerger = new HistogramMerger();
+        // when
+        for (Aggregate.Histogram histogram : histograms) {
+            lazyHistogram.merge(histogram);
+            histogramMerger.merge(histogram);
+        }
+        Aggregate.Histogram expected = lazyHistogram.toProto(scratchBuffer);
+        Aggregate.Histogram merged = histogramMerger.toProto(scratchBuffer);
+        // then
+        assertThat(merged.getOrderedRawValueList()).isEqualTo(expected.getOrderedRawValueList());
+        assertThat(merged.getEncodedBytes().isEmpty())
+                .isEqualTo(expected.getEncodedBytes().isEmpty());
+        LazyHistogram expectedHistogram = new LazyHistogram(expected);
+        LazyHistogram mergedHistogram = new LazyHistogram(merged);
+        for (double percentile : PERCENTILES) {
+            assertThat(mergedHistogram.getValueAtPercentile(percentile))
+                    .isEqualTo(expectedHistogram.getValueAtPercentile(percentile));
+        }
+    }
+
+    private static List<Aggregate.Histogram> createHistograms(int rawValueHistogramCount,
+            int rawValuesPerHistogram, int encodedHistogramCount) {
+        Random random = new Random(0);
+        ScratchBuffer scratchBuffer = new ScratchBuffer();
+        List<Aggregate.Histogram> histograms = new ArrayList<>();
+        for (int i = 0; i < rawValueHistogramCount; i++) {
+            LazyHistogram histogram = new LazyHistogram();
+            for (int j = 0; j < rawValuesPerHistogram; j++) {
+                histogram.add(random.nextInt(100000000));
+            }
+            histograms.add(histogram.toProto(scratchBuffer));
+        }
+        for (int i = 0; i < encodedHistogramCount; i++) {
+            LazyHistogram histogram = new LazyHistogram();
+            // more than LazyHistogram.MAX_VALUES so that it is encoded
+            for (int j = 0; j < 2000; j++) {
+                histogram.add(random.nextInt(1000000000));
+            }
+            histograms.add(histogram.toProto(scratchBuffer));
+        }
+        return histograms;
+    }
+}
@@ -164,6 +164,83 @@ public class MutableProfileTest {
                 + "}").replace(" ", ""));
     }
 
+    @Test
+    public void shouldCopy() throws IOException {
+        // given
+        MutableProfile profile = new MutableProfile();
+        List<StackTraceElement> stackTraceElements = Lists.newArrayList();
+        stackTraceElements.add(new StackTraceElement("aa.bb.cc.Def", "ghi", "Def.java", 123));
+        stackTraceElements.add(new StackTraceElement("xx.yy.zz.Main", "main", "Main.java", 789));
+        profile.merge(stackTraceElements, Thread.State.RUNNABLE);
+        List<StackTraceElement> otherStackTraceElements = Lists.newArrayList();
+        otherStackTraceElements.add(new StackTraceElement("aa.bb.cc.Xyz", "abc", "Xyz.java", 12));
+        otherStackTraceElements
+                .add(new StackTraceElement("xx.yy.zz.Main", "main", "Main.java", 789));
+        profile.merge(otherStackTraceElements, Thread.State.RUNNABLE);
+        String json = profile.toJson();
+        // when
+        MutableProfile copy = profile.copy();
+        copy.filter(Lists.newArrayList("Xyz"), Lists.<String>newArrayList());
+        // then
+        assertThat(profile.toJson()).isEqualTo(json);
+        assertThat(profile.getNodeCount()).isEqualTo(3);
+        assertThat(copy.getNodeCount()).isEqualTo(2);
+        assertThat(copy.getSampleCount()).isEqualTo(1);
+        assertThat(copy.getUnfilteredSampleCount()).isEqualTo(2);
+        assertThat(profile.copy().toJson()).isEqualTo(json);
+    }
+
+    @Test
+    public void shouldTruncateWhileCopying() throws IOException {
+        // given
+        MutableProfile profile = new MutableProfile();
+        List<StackTraceElement> stackTraceElements = Lists.newArrayList();
+        stackTraceElements.add(new StackTraceElement("aa.bb.cc.Def", "ghi", "Def.java", 123));
+        stackTraceElements.add(new StackTraceElement("xx.yy.zz.Main", "main", "Main.java", 789));
+        for (int i = 0; i < 9; i++) {
+            profile.merge(stackTraceElements, Thread.State.RUNNABLE);
+        }
+        List<StackTraceElement> rareStackTraceElements = Lists.newArrayList();
+        rareStackTraceElements.add(new StackTraceElement("aa.bb.cc.Xyz", "abc", "Xyz.java", 12));
+        rareStackTraceElements
+                .add(new StackTraceElement("xx.yy.zz.Main", "main", "Main.java", 789));
+        profile.merge(rareStackTraceElements, Thread.State.RUNNABLE);
+        String json = profile.toJson();
+        MutableProfile truncated = profile.copy();
+        truncated.truncateBranches(20);
+        // when
+        MutableProfile copy = profile.truncatedCopy(20);
+        // then
+        assertThat(profile.toJson()).isEqualTo(json);
+        assertThat(copy.getNodeCount()).isEqualTo(2);
+        assertThat(copy.toJson()).isEqualTo(truncated.toJson());
+    }
+
+    @Test
+    public void shouldFoldNarrowFlameGraphNodes() throws IOException {
+        // given
+        MutableProfile profile = new MutableProfile();
+        List<StackTraceElement> stackTraceElements = Lists.newArrayList();
+        stackTraceElements.add(new StackTraceElement("aa.bb.cc.Def", "ghi", "Def.java", 123));
+        stackTraceElements.add(new StackTraceElement("xx.yy.zz.Main", "main", "Main.java", 789));
+        for (int i = 0; i < 4000; i++) {
+            profile.merge(stackTraceElements, Thread.State.RUNNABLE);
+        }
+        List<StackTraceElement> rareStackTraceElements = Lists.newArrayList();
+        rareStackTraceElements.add(new StackTraceElement("aa.bb.cc.Xyz", "abc", "Xyz.java", 12));
+        rareStackTraceElements
+                .add(new StackTraceElement("xx.yy.zz.Main", "main", "Main.java", 789));
+        profile.merge(rareStackTraceElements, Thread.State.RUNNABLE);
+        // when
+        String json = profile.toFlameGraphJson();
+        // then
+        JsonNode rootNode = new ObjectMapper().readTree(json).get("rootNodes").get(0);
+        assertThat(rootNode.get("value").asLong()).isEqualTo(4001);
+        assertThat(rootNode.get("children")).hasSize(1);
+        assertThat(rootNode.get("children").get(0).get("name").asText())
+                .isEqualTo("aa.bb.cc.Def.ghi(Def.java:123)");
+    }
+
     // this is helpful when building tests
     @SuppressWarnings("unused")
     private static void prettyPrint(String json) throws IOException {
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.common.model;
+
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.common.model.TransactionNameSummaryCollector.SummarySortOrder;
+import org.glowroot.common.model.TransactionNameSummaryCollector.TransactionNameSummary;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TransactionNameSummaryCollectorTest {
+
+    @Test
+    public void shouldMergeAndLimit() {
+        // given
+        TransactionNameSummaryCollector collector = new TransactionNameSummaryCollector();
+        // when
+        for (int captureTime = 1; captureTime <= 3; captureTime++) {
+            for (int i = 0; i < 1000; i++) {
+                collector.collect("t" + i, i, 0, 0, 1, captureTime);
+            }
+        }
+        Result<TransactionNameSummary> result =
+                collector.getResult(SummarySortOrder.TOTAL_TIME, 3);
+        // then
+        assertThat(result.moreAvailable()).isTrue();
+        assertThat(result.records()).hasSize(3);
+        assertThat(result.records().get(0).transactionName()).isEqualTo("t999");
+        assertThat(result.records().get(0).totalDurationNanos()).isEqualTo(2997);
+        assertThat(result.records().get(0).transactionCount()).isEqualTo(3);
+        assertThat(result.records().get(1).transactionName()).isEqualTo("t998");
+        assertThat(result.records().get(2).transactionName()).isEqualTo("t997");
+        assertThat(collector.getLastCaptureTime()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldSortByAverageTime() {
+        // given
+        TransactionNameSummaryCollector collector = new TransactionNameSummaryCollector();
+        collector.collect("a", 100, 0, 0, 10, 1);
+        collector.collect("b", 50, 0, 0, 1, 1);
+        collector.collect("c", 60, 0, 0, 2, 1);
+        // when
+        Result<TransactionNameSummary> result =
+                collector.getResult(SummarySortOrder.AVERAGE_TIME, 10);
+        // then
+        assertThat(result.moreAvailable()).isFalse();
+        assertThat(result.records()).hasSize(3);
+        assertThat(result.records().get(0).transactionName()).isEqualTo("b");
+        assertThat(result.records().get(1).transactionName()).isEqualTo("c");
+        assertThat(result.records().get(2).transactionName()).isEqualTo("a");
+    }
+}
@@ -15,13 +15,13 @@
  */
 package org.glowroot.common2.repo;
 
+import java.util.Iterator;
 import java.util.List;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.immutables.value.Value;
 
 import org.glowroot.common.live.LiveTraceRepository.Entries;
-import org.glowroot.common.live.LiveTraceRepository.EntriesAndQueries;
 import org.glowroot.common.live.LiveTraceRepository.Existence;
 import org.glowroot.common.live.LiveTraceRepository.Queries;
 import org.glowroot.common.live.LiveTraceRepository.TracePoint;
@@ -69,11 +69,19 @@ public interface TraceRepository {
 
     // null return value means trace not found or was found but had no entries
     //
+    // since this is only used by export, the entries can be read from storage incrementally while
+    // they are being iterated over (so that large traces are never all in memory at once), and so
+    // the iteration can fail with an unchecked exception
+    @Nullable
+    Iterator<Trace.Entry> readEntriesForExport(String agentId, String traceId) throws Exception;
+
+    // null return value means trace not found or was found but had no queries
+    //
     // since this is only used by export, SharedQueryTexts are always returned with fullTrace
-    // (never with truncatedText/truncatedEndText/fullTraceSha1)
+    // (never with truncatedText/truncatedEndText/fullTraceSha1), and are also returned when there
+    // are no queries, since they can still be referenced by the entries
     @Nullable
-    EntriesAndQueries readEntriesAndQueriesForExport(String agentId, String traceId)
-            throws Exception;
+    Queries readQueriesForExport(String agentId, String traceId) throws Exception;
 
     // null return value means trace not found or was found but had no main thread profile
     @Nullable
@@ -378,6 +378,45 @@ glowroot.run([
     var mostRecentRefreshTo;
     var mostRecentRefreshMessage;
 
+    // the agent rollup dropdowns only receive a limited number of agent rollups per level, so the
+    // dropdown live search needs to go back to the server, but only when the server has more to offer,
+    // either because the prior response was limited, or because the prior response was already
+    // narrowed by a different search
+    var topLevelAgentRollupsSearch = '';
+    var childAgentRollupsSearch = '';
+    var liveSearchTimer;
+
+    function getLiveSearchText(selector) {
+      var $input = $(selector).closest('.bootstrap-select').find('.bs-searchbox input');
+      return $input.length ? $input.val() : '';
+    }
+
+    $(document).on('input', '.bs-searchbox input', function () {
+      var id = $(this).closest('.bootstrap-select').find('select').attr('id');
+      var search = $(this).val();
+      var refresh;
+      if (id === 'topLevelAgentRollupDropdown') {
+        if ($rootScope.topLevelAgentRollupsMoreAvailable || topLevelAgentRollupsSearch
+            && search.toLowerCase().indexOf(topLevelAgentRollupsSearch.toLowerCase()) === -1) {
+          refresh = function () {
+            $rootScope.refreshTopLevelAgentRollups(mostRecentRefreshFrom, mostRecentRefreshTo,
+                mostRecentRefreshMessage);
+          };
+        }
+      } else if (id === 'childAgentRollupDropdown') {
+        if ($rootScope.childAgentRollupsMoreAvailable || childAgentRollupsSearch
+            && search.toLowerCase().indexOf(childAgentRollupsSearch.toLowerCase()) === -1) {
+          refresh = function () {
+            $rootScope.refreshChildAgentRollups();
+          };
+        }
+      }
+      if (refresh) {
+        $timeout.cancel(liveSearchTimer);
+        liveSearchTimer = $timeout(refresh, 300);
+      }
+    });
+
     $rootScope.refreshTopLevelAgentRollups = function (from, to, message) {
       $rootScope.showRefreshTopLevelAgentRollupSpinner++;
       var $selector = $('a.gt-top-level-agent-rollup-dropdown-spinner');
@@ -385,14 +424,18 @@ glowroot.run([
         refreshTopLevelAgentRollupSpinner = Glowroot.showSpinner($selector, null, 0.4, 300);
         $('a.gt-top-level-agent-rollup-dropdown-message').addClass('d-none');
       }
-      $http.get('backend/top-level-agent-rollups?from=' + from + '&to=' + to)
+      var search = getLiveSearchText('#topLevelAgentRollupDropdown');
+      $http.get('backend/top-level-agent-rollups?from=' + from + '&to=' + to + '&search='
+          + encodeURIComponent(search))
           .then(function (response) {
             $rootScope.showRefreshTopLevelAgentRollupSpinner--;
             if (!$rootScope.showRefreshTopLevelAgentRollupSpinner && refreshTopLevelAgentRollupSpinner) {
               refreshTopLevelAgentRollupSpinner.stop();
               refreshTopLevelAgentRollupSpinner = undefined;
             }
-            $rootScope.setTopLevelAgentRollups(response.data);
+            $rootScope.setTopLevelAgentRollups(response.data.agentRollups);
+            $rootScope.topLevelAgentRollupsMoreAvailable = response.data.moreAvailable;
+            topLevelAgentRollupsSearch = search;
 
             mostRecentRefreshFrom = from;
             mostRecentRefreshTo = to;
@@ -442,14 +485,18 @@ glowroot.run([
         refreshChildAgentRollupSpinner = Glowroot.showSpinner($selector, null, 0.4, 300);
         $('a.gt-child-agent-rollup-dropdown-message').addClass('d-none');
       }
-      $http.get('backend/child-agent-rollups?top-level-id=' + encodeURIComponent($rootScope.agentRollup.topLevelId) + '&from=' + from + '&to=' + to)
+      var search = getLiveSearchText('#childAgentRollupDropdown');
+      $http.get('backend/child-agent-rollups?top-level-id=' + encodeURIComponent($rootScope.agentRollup.topLevelId)
+          + '&from=' + from + '&to=' + to + '&search=' + encodeURIComponent(search))
           .then(function (response) {
             $rootScope.showRefreshChildAgentRollupSpinner--;
             if (!$rootScope.showRefreshChildAgentRollupSpinner && refreshChildAgentRollupSpinner) {
               refreshChildAgentRollupSpinner.stop();
               refreshChildAgentRollupSpinner = undefined;
             }
-            $rootScope.setChildAgentRollups(response.data);
+            $rootScope.setChildAgentRollups(response.data.agentRollups);
+            $rootScope.childAgentRollupsMoreAvailable = response.data.moreAvailable;
+            childAgentRollupsSearch = search;
 
             $timeout(function () {
               // timeout is needed so this runs after dom is updated
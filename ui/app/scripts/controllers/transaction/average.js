@@ -20,7 +20,8 @@ glowroot.controller('TransactionAverageCtrl', [
   '$scope',
   '$location',
   'charts',
-  function ($scope, $location, charts) {
+  'transactionPage',
+  function ($scope, $location, charts, transactionPage) {
 
     $scope.$parent.activeTabItem = 'time';
 
@@ -30,12 +31,17 @@ glowroot.controller('TransactionAverageCtrl', [
 
     var chartState = charts.createState();
 
+    // combined with the sidebar summaries request when possible (see transaction-page.js)
+    function getData(query) {
+      return transactionPage.get('average', query);
+    }
+
     // using $watch instead of $watchGroup because $watchGroup has confusing behavior regarding oldValues
     // (see https://github.com/angular/angular.js/pull/12643)
     $scope.$watch('[range.chartFrom, range.chartTo, range.chartRefresh, range.chartAutoRefresh]',
         function (newValues, oldValues) {
           var autoRefresh = newValues[3] !== oldValues[3];
-          charts.refreshData('backend/transaction/average', chartState, $scope, autoRefresh, undefined, onRefreshData);
+          charts.refreshData(getData, chartState, $scope, autoRefresh, undefined, onRefreshData);
         });
 
     $scope.clickTopRadioButton = function (item) {
@@ -24,7 +24,8 @@ glowroot.controller('TransactionPercentilesCtrl', [
   'locationChanges',
   'charts',
   'modals',
-  function ($scope, $location, $filter, $timeout, locationChanges, charts, modals) {
+  'transactionPage',
+  function ($scope, $location, $filter, $timeout, locationChanges, charts, modals, transactionPage) {
 
     $scope.$parent.activeTabItem = 'time';
 
@@ -34,6 +35,11 @@ glowroot.controller('TransactionPercentilesCtrl', [
 
     var chartState = charts.createState();
 
+    // combined with the sidebar summaries request when possible (see transaction-page.js)
+    function getData(query) {
+      return transactionPage.get('percentiles', query);
+    }
+
     var appliedPercentiles;
 
     // using $watch instead of $watchGroup because $watchGroup has confusing behavior regarding oldValues
@@ -46,8 +52,7 @@ glowroot.controller('TransactionPercentilesCtrl', [
             $location.search('percentile', appliedPercentiles);
           }
           var autoRefresh = newValues[3] !== oldValues[3];
-          charts.refreshData('backend/transaction/percentiles', chartState, $scope, autoRefresh, addToQuery,
-              onRefreshData);
+          charts.refreshData(getData, chartState, $scope, autoRefresh, addToQuery, onRefreshData);
         });
 
     $scope.clickTopRadioButton = function (item) {
@@ -25,7 +25,9 @@ glowroot.controller('TransactionSidebarCtrl', [
   'httpErrors',
   'summarySortOrders',
   'summaryValueFn',
-  function ($scope, $location, $http, $timeout, queryStrings, httpErrors, summarySortOrders, summaryValueFn) {
+  'transactionPage',
+  function ($scope, $location, $http, $timeout, queryStrings, httpErrors, summarySortOrders, summaryValueFn,
+            transactionPage) {
 
     var lastSortOrder;
     var lastDurationMillis;
@@ -81,10 +83,7 @@ glowroot.controller('TransactionSidebarCtrl', [
     $scope.$watch('[range.chartFrom, range.chartTo, range.chartRefresh, range.chartAutoRefresh, summarySortOrder]',
         function (newValues, oldValues) {
           if (newValues !== oldValues) {
-            $timeout(function () {
-              // slight delay to de-prioritize summaries data request
-              updateSummaries(newValues[3] !== oldValues[3]);
-            }, 100);
+            scheduleUpdateSummaries(newValues[3] !== oldValues[3]);
           }
         });
 
@@ -94,13 +93,28 @@ glowroot.controller('TransactionSidebarCtrl', [
         // need to update selectpicker dropdown with current tab url
         $('#summarySortDropdown').selectpicker('refresh');
         // refresh on tab change
+        scheduleUpdateSummaries();
+      }
+      initialStateChangeSuccess = false;
+    });
+
+    function isTransactionChartTab() {
+      return $scope.shortName === 'transaction'
+          && /^\/transaction\/(average|percentiles|throughput)$/.test($location.path());
+    }
+
+    function scheduleUpdateSummaries(autoRefresh) {
+      if (isTransactionChartTab()) {
+        // no delay so that the summaries data request can be combined with the chart data request (see
+        // transaction-page.js)
+        updateSummaries(autoRefresh);
+      } else {
         $timeout(function () {
           // slight delay to de-prioritize summaries data request
-          updateSummaries();
+          updateSummaries(autoRefresh);
         }, 100);
       }
-      initialStateChangeSuccess = false;
-    });
+    }
 
     function updateSummaries(autoRefresh, moreLoading) {
       if (($scope.layout.central && !$scope.agentRollupId) || !$scope.transactionType) {
@@ -124,7 +138,13 @@ glowroot.controller('TransactionSidebarCtrl', [
         $scope.summariesLoadingMore++;
       }
       concurrentUpdateCount++;
-      $http.get('backend/' + $scope.shortName + '/summaries' + queryStrings.encodeObject(query))
+      var promise;
+      if ($scope.shortName === 'transaction') {
+        promise = transactionPage.get('summaries', query);
+      } else {
+        promise = $http.get('backend/' + $scope.shortName + '/summaries' + queryStrings.encodeObject(query));
+      }
+      promise
           .then(function (response) {
             $scope.showSpinner--;
             if (moreLoading) {
@@ -153,9 +173,6 @@ glowroot.controller('TransactionSidebarCtrl', [
           });
     }
 
-    $timeout(function () {
-      // slight delay to de-prioritize summaries data request
-      updateSummaries();
-    }, 100);
+    scheduleUpdateSummaries();
   }
 ]);
@@ -14,14 +14,15 @@
  * limitations under the License.
  */
 
-/* global glowroot, moment, $ */
+/* global glowroot, angular, moment, $ */
 
 glowroot.controller('TransactionThroughputCtrl', [
   '$scope',
   '$location',
   '$filter',
   'charts',
-  function ($scope, $location, $filter, charts) {
+  'transactionPage',
+  function ($scope, $location, $filter, charts, transactionPage) {
 
     $scope.$parent.activeTabItem = 'time';
 
@@ -31,13 +32,18 @@ glowroot.controller('TransactionThroughputCtrl', [
 
     var chartState = charts.createState();
 
+    // combined with the sidebar summaries request when possible (see transaction-page.js)
+    function getData(query) {
+      return transactionPage.get('throughput', query);
+    }
+    chartState.deltaRefresh = true;
+
     // using $watch instead of $watchGroup because $watchGroup has confusing behavior regarding oldValues
     // (see https://github.com/angular/angular.js/pull/12643)
     $scope.$watch('[range.chartFrom, range.chartTo, range.chartRefresh, range.chartAutoRefresh]',
         function (newValues, oldValues) {
           var autoRefresh = newValues[3] !== oldValues[3];
-          charts.refreshData('backend/transaction/throughput', chartState, $scope, autoRefresh, undefined,
-              onRefreshData);
+          charts.refreshData(getData, chartState, $scope, autoRefresh, undefined, onRefreshData);
         });
 
     $scope.clickTopRadioButton = function (item) {
@@ -59,8 +65,22 @@ glowroot.controller('TransactionThroughputCtrl', [
     };
 
     function onRefreshData(data) {
-      $scope.transactionCount = data.transactionCount;
-      $scope.transactionsPerMin = data.transactionsPerMin;
+      if (data.deltaFrom === undefined) {
+        $scope.transactionCount = data.transactionCount;
+        $scope.transactionsPerMin = data.transactionsPerMin;
+        return;
+      }
+      // delta response (see charts.refreshData), so need to re-calculate totals from the merged transaction counts
+      var from = $scope.range.chartFrom;
+      var to = $scope.range.chartTo;
+      var transactionCount = 0;
+      angular.forEach(data.transactionCounts, function (count, captureTime) {
+        if (Number(captureTime) > from && Number(captureTime) <= to) {
+          transactionCount += count;
+        }
+      });
+      $scope.transactionCount = transactionCount;
+      $scope.transactionsPerMin = 60000 * transactionCount / (to - from);
     }
 
     var chartOptions = {
@@ -29,7 +29,11 @@ glowroot.factory('charts', [
     function createState() {
       return {
         plot: undefined,
-        keyedColorPool: keyedColorPools.create()
+        keyedColorPool: keyedColorPools.create(),
+        // set to true by charts whose backend supports returning only the data since the last response
+        // (see mergeDelta below)
+        deltaRefresh: false,
+        lastData: undefined
       };
     }
 
@@ -270,6 +274,7 @@ glowroot.factory('charts', [
       });
     }
 
+    // url can also be a function that takes the query and returns an $http-like promise (see transaction-page.js)
     function refreshData(url, chartState, $scope, autoRefresh, addToQuery, onRefreshData) {
       // addToQuery may change query.from/query.to (see gauges.js)
       var chartFrom = $scope.range.chartFrom;
@@ -283,6 +288,15 @@ glowroot.factory('charts', [
       };
       if (autoRefresh) {
         query.autoRefresh = true;
+        if (chartState.deltaRefresh && chartState.lastData && chartState.lastData.lastCaptureTime !== undefined) {
+          // only need the data points since the last response
+          query.sinceCaptureTime = chartState.lastData.lastCaptureTime;
+        }
+      }
+      if (chartState.plot) {
+        // no point sending more than a couple of points per horizontal pixel (the server downsamples
+        // each data series while preserving its peaks)
+        query.maxPoints = Math.max(2 * Math.round(chartState.plot.width()), 100);
       }
       if (addToQuery) {
         addToQuery(query);
@@ -292,7 +306,8 @@ glowroot.factory('charts', [
         $scope.showChartSpinner++;
       }
       $scope.suppressChartSpinner = false;
-      $http.get(url + queryStrings.encodeObject(query))
+      var promise = angular.isFunction(url) ? url(query) : $http.get(url + queryStrings.encodeObject(query));
+      promise
           .then(function (response) {
             // clear http error, especially useful for auto refresh on live data to clear a sporadic error from earlier
             httpErrors.clear();
@@ -304,6 +319,19 @@ glowroot.factory('charts', [
               return;
             }
             var data = response.data;
+            if (data.deltaFrom !== undefined) {
+              if (data.dataPointIntervalMillis !== chartState.lastData.dataPointIntervalMillis) {
+                // data point interval has changed, so cannot merge, and need to re-request the full chart
+                chartState.lastData = undefined;
+                $scope.suppressChartSpinner = true;
+                refreshData(url, chartState, $scope, autoRefresh, addToQuery, onRefreshData);
+                return;
+              }
+              data = mergeDelta(chartState.lastData, data, chartFrom);
+            }
+            if (chartState.deltaRefresh) {
+              chartState.lastData = data;
+            }
             $scope.chartNoData = isNoData(data.dataSeries, chartFrom, chartTo);
             // allow callback to modify data if desired
             onRefreshData(data);
@@ -368,6 +396,57 @@ glowroot.factory('charts', [
           });
     }
 
+    // replaces the data points (and transaction counts) from data.deltaFrom onwards with the ones from the delta
+    // response, and drops the ones that have since scrolled off the left side of the chart
+    function mergeDelta(lastData, data, chartFrom) {
+      var retainFrom = Math.floor(chartFrom / data.dataPointIntervalMillis) * data.dataPointIntervalMillis;
+      var deltaFrom = data.deltaFrom;
+      var deltaDataSeriesByName = {};
+      angular.forEach(data.dataSeries, function (dataSeries) {
+        deltaDataSeriesByName[dataSeries.name] = dataSeries;
+      });
+      var mergedDataSeriesList = [];
+      angular.forEach(lastData.dataSeries, function (dataSeries) {
+        var points = [];
+        var i;
+        for (i = 0; i < dataSeries.data.length; i++) {
+          var point = dataSeries.data[i];
+          if (point === null) {
+            // retain gaps, except leading gaps
+            if (points.length) {
+              points.push(null);
+            }
+          } else if (point[0] >= deltaFrom) {
+            break;
+          } else if (point[0] >= retainFrom) {
+            points.push(point);
+          }
+        }
+        var deltaDataSeries = deltaDataSeriesByName[dataSeries.name];
+        if (deltaDataSeries) {
+          points = points.concat(deltaDataSeries.data);
+          delete deltaDataSeriesByName[dataSeries.name];
+        }
+        mergedDataSeriesList.push(angular.extend({}, dataSeries, {data: points}));
+      });
+      angular.forEach(data.dataSeries, function (dataSeries) {
+        if (deltaDataSeriesByName[dataSeries.name]) {
+          mergedDataSeriesList.push(dataSeries);
+        }
+      });
+      var mergedTransactionCounts = {};
+      angular.forEach(lastData.transactionCounts, function (transactionCount, captureTime) {
+        if (Number(captureTime) >= retainFrom && Number(captureTime) < deltaFrom) {
+          mergedTransactionCounts[captureTime] = transactionCount;
+        }
+      });
+      angular.extend(mergedTransactionCounts, data.transactionCounts);
+      return angular.extend({}, data, {
+        dataSeries: mergedDataSeriesList,
+        transactionCounts: mergedTransactionCounts
+      });
+    }
+
     function isNoData(dataSeries, from, to) {
       var i, j;
       for (i = 0; i < dataSeries.length; i++) {
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* global glowroot, angular */
+
+// the transaction page chart (average, percentiles or throughput) and the sidebar summaries are refreshed at the same
+// time (e.g. on time range change), so requests for both that are made in the same digest for the same time range are
+// combined into a single backend/transaction/page request, which the server reads concurrently
+glowroot.factory('transactionPage', [
+  '$http',
+  '$q',
+  '$timeout',
+  'queryStrings',
+  function ($http, $q, $timeout, queryStrings) {
+
+    var pending;
+
+    // part is one of average, percentiles, throughput or summaries
+    // the returned promise is resolved (or rejected) with an $http-like response
+    function get(part, query) {
+      if (!pending) {
+        pending = [];
+        $timeout(flush, 0, false);
+      }
+      var deferred = $q.defer();
+      pending.push({
+        part: part,
+        query: query,
+        deferred: deferred
+      });
+      return deferred.promise;
+    }
+
+    function flush() {
+      var requests = pending;
+      pending = undefined;
+      var summariesRequest;
+      var chartRequest;
+      angular.forEach(requests, function (request) {
+        if (request.part === 'summaries') {
+          summariesRequest = request;
+        }
+      });
+      if (summariesRequest) {
+        angular.forEach(requests, function (request) {
+          if (!chartRequest && request.part !== 'summaries' && canCombine(request.query, summariesRequest.query)) {
+            chartRequest = request;
+          }
+        });
+      }
+      if (chartRequest) {
+        sendCombined(chartRequest, summariesRequest);
+      }
+      angular.forEach(requests, function (request) {
+        if (request !== chartRequest && (!chartRequest || request !== summariesRequest)) {
+          sendIndividual(request);
+        }
+      });
+    }
+
+    function canCombine(chartQuery, summariesQuery) {
+      return chartQuery.agentRollupId === summariesQuery.agentRollupId
+          && chartQuery.transactionType === summariesQuery.transactionType
+          && chartQuery.from === summariesQuery.from
+          && chartQuery.to === summariesQuery.to
+          && !chartQuery.autoRefresh === !summariesQuery.autoRefresh;
+    }
+
+    function sendCombined(chartRequest, summariesRequest) {
+      var query = angular.copy(chartRequest.query);
+      query.part = [chartRequest.part, 'summaries'];
+      query.summarySortOrder = summariesRequest.query.sortOrder;
+      query.summaryLimit = summariesRequest.query.limit;
+      $http.get('backend/transaction/page' + queryStrings.encodeObject(query))
+          .then(function (response) {
+            chartRequest.deferred.resolve({
+              data: response.data[chartRequest.part]
+            });
+            summariesRequest.deferred.resolve({
+              data: response.data.summaries
+            });
+          }, function (response) {
+            chartRequest.deferred.reject(response);
+            summariesRequest.deferred.reject(response);
+          });
+    }
+
+    function sendIndividual(request) {
+      $http.get('backend/transaction/' + request.part + queryStrings.encodeObject(request.query))
+          .then(request.deferred.resolve, request.deferred.reject);
+    }
+
+    return {
+      get: get
+    };
+  }
+]);
@@ -21,6 +21,9 @@ import java.io.Writer;
 import java.util.Iterator;
 import java.util.List;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.base.Supplier;
 import com.google.common.io.CharSource;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
@@ -46,6 +49,19 @@ public abstract class ChunkSource {
         };
     }
 
+    // the JSON is generated incrementally, one JsonChunkWriter.writeNext() per chunk, so that large
+    // JSON (e.g. trace export) never needs to be fully materialized in memory
+    static ChunkSource createJson(final JsonFactory jsonFactory,
+            final Supplier<JsonChunkWriter> jsonChunkWriters) {
+        return new ChunkSource() {
+            @Override
+            public ChunkCopier getCopier(Writer writer) throws IOException {
+                return new JsonChunkCopier(jsonFactory.createGenerator(writer),
+                        jsonChunkWriters.get());
+            }
+        };
+    }
+
     static ChunkSource concat(final List<ChunkSource> chunkSources) {
         return new ChunkSource() {
             @Override
@@ -61,6 +77,12 @@ public abstract class ChunkSource {
         boolean copyNext() throws IOException;
     }
 
+    interface JsonChunkWriter {
+
+        // returns false when nothing left to write, in which case nothing should have been written
+        boolean writeNext(JsonGenerator jg) throws Exception;
+    }
+
     private static class ReaderChunkCopier implements ChunkCopier {
 
         private static final int CHUNK_SIZE = 8192;
@@ -101,6 +123,38 @@ public abstract class ChunkSource {
         }
     }
 
+    private static class JsonChunkCopier implements ChunkCopier {
+
+        private final JsonGenerator jg;
+        private final JsonChunkWriter jsonChunkWriter;
+
+        private JsonChunkCopier(JsonGenerator jg, JsonChunkWriter jsonChunkWriter) {
+            // the writer is shared with other chunk sources, so it must not be closed here
+            jg.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            this.jg = jg;
+            this.jsonChunkWriter = jsonChunkWriter;
+        }
+
+        @Override
+        public boolean copyNext() throws IOException {
+            boolean written;
+            try {
+                written = jsonChunkWriter.writeNext(jg);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            if (written) {
+                // flush generator buffer to the writer
+                jg.flush();
+            } else {
+                jg.close();
+            }
+            return written;
+        }
+    }
+
     private static class ConcatChunkCopier implements ChunkCopier {
 
         private final Iterator<ChunkSource> chunkSources;
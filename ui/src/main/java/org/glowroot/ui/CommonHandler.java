@@ -437,6 +437,8 @@ public class CommonHandler {
             return (CommonResponse) responseObject;
         } else if (responseObject instanceof String) {
             return new CommonResponse(OK, MediaType.JSON_UTF_8, (String) responseObject);
+        } else if (responseObject instanceof JsonStreamer) {
+            return new CommonResponse(OK, MediaType.JSON_UTF_8, (JsonStreamer) responseObject);
         } else {
             logger.warn("unexpected type of json service response: {}",
                     responseObject.getClass().getName());
@@ -655,6 +657,10 @@ public class CommonHandler {
             this(status, mediaType, content, true);
         }
 
+        CommonResponse(HttpResponseStatus status, MediaType mediaType, JsonStreamer content) {
+            this(status, mediaType, content, true);
+        }
+
         CommonResponse(HttpResponseStatus status) {
             this(status, null, "", true);
         }
@@ -27,7 +27,7 @@ class DataSeries {
     @JsonProperty
     private final @Nullable String name;
     @JsonProperty
-    private final List<Number /*@Nullable*/ []> data = Lists.newArrayList();
+    private List<Number /*@Nullable*/ []> data = Lists.newArrayList();
     @JsonProperty
     private @Nullable Double overall;
 
@@ -40,6 +40,14 @@ class DataSeries {
         return name;
     }
 
+    List<Number /*@Nullable*/ []> getData() {
+        return data;
+    }
+
+    void setData(List<Number /*@Nullable*/ []> data) {
+        this.data = data;
+    }
+
     void add(long captureTime, double value) {
         data.add(new Number[] {captureTime, value});
     }
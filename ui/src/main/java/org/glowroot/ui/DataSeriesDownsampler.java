@@ -0,0 +1,179 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+// downsamples chart data series using the largest-triangle-three-buckets algorithm, which keeps
+// the overall visual shape of the series (in particular its spikes) while reducing the number of
+// points sent to (and rendered by) the browser
+//
+// null points (gaps) are preserved, and each run of points between gaps is downsampled
+// separately, with the point budget split between runs in proportion to their size
+//
+// in addition, the highest point of each run is always kept, since when investigating latency it
+// is the peaks that matter most
+class DataSeriesDownsampler {
+
+    // each run of points always keeps its first and last point
+    private static final int MIN_POINTS_PER_RUN = 2;
+
+    private DataSeriesDownsampler() {}
+
+    static void downsample(List<DataSeries> dataSeriesList, @Nullable Integer maxPoints) {
+        if (maxPoints == null) {
+            return;
+        }
+        for (DataSeries dataSeries : dataSeriesList) {
+            downsampleTogether(Lists.newArrayList(dataSeries), maxPoints);
+        }
+    }
+
+    // all of the data series must have points at the same capture times (and gaps at the same
+    // positions), which is the case for stacked charts, and the same points are kept from each of
+    // them (selected based on the stacked total) so that they still stack correctly
+    static void downsampleTogether(List<DataSeries> dataSeriesList, @Nullable Integer maxPoints) {
+        if (maxPoints == null || dataSeriesList.isEmpty()) {
+            return;
+        }
+        List<Number /*@Nullable*/ []> first = dataSeriesList.get(0).getData();
+        int size = first.size();
+        if (size <= maxPoints) {
+            return;
+        }
+        for (DataSeries dataSeries : dataSeriesList) {
+            checkArgument(dataSeries.getData().size() == size);
+        }
+        double[] x = new double[size];
+        double[] y = new double[size];
+        boolean[] gap = new boolean[size];
+        int gapCount = 0;
+        for (int i = 0; i < size; i++) {
+            Number[] point = first.get(i);
+            if (point == null) {
+                gap[i] = true;
+                gapCount++;
+                continue;
+            }
+            x[i] = point[0].doubleValue();
+            for (DataSeries dataSeries : dataSeriesList) {
+                Number[] p = dataSeries.getData().get(i);
+                if (p != null) {
+                    y[i] += p[1].doubleValue();
+                }
+            }
+        }
+        int pointCount = size - gapCount;
+        int budget = Math.max(maxPoints - gapCount, 0);
+        boolean[] keep = new boolean[size];
+        int runStart = 0;
+        while (runStart < size) {
+            if (gap[runStart]) {
+                keep[runStart] = true;
+                runStart++;
+                continue;
+            }
+            int runEnd = runStart;
+            while (runEnd < size && !gap[runEnd]) {
+                runEnd++;
+            }
+            int runSize = runEnd - runStart;
+            int threshold = Math.max((int) ((long) runSize * budget / pointCount),
+                    MIN_POINTS_PER_RUN);
+            selectPoints(x, y, runStart, runEnd, threshold, keep);
+            runStart = runEnd;
+        }
+        for (DataSeries dataSeries : dataSeriesList) {
+            List<Number /*@Nullable*/ []> data = dataSeries.getData();
+            List<Number /*@Nullable*/ []> downsampled = Lists.newArrayList();
+            for (int i = 0; i < size; i++) {
+                if (keep[i]) {
+                    downsampled.add(data.get(i));
+                }
+            }
+            dataSeries.setData(downsampled);
+        }
+    }
+
+    // largest-triangle-three-buckets over the points [start, end)
+    private static void selectPoints(double[] x, double[] y, int start, int end, int threshold,
+            boolean[] keep) {
+        int runSize = end - start;
+        if (threshold >= runSize) {
+            for (int i = start; i < end; i++) {
+                keep[i] = true;
+            }
+            return;
+        }
+        int peak = start;
+        for (int i = start + 1; i < end; i++) {
+            if (y[i] > y[peak]) {
+                peak = i;
+            }
+        }
+        keep[start] = true;
+        keep[end - 1] = true;
+        keep[peak] = true;
+        if (threshold <= MIN_POINTS_PER_RUN) {
+            return;
+        }
+        // first and last points are not part of any bucket
+        double bucketSize = (double) (runSize - 2) / (threshold - 2);
+        int selected = start;
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            int bucketStart = start + 1 + (int) (bucket * bucketSize);
+            int bucketEnd = Math.min(start + 1 + (int) ((bucket + 1) * bucketSize), end - 1);
+            if (peak >= bucketStart && peak < bucketEnd) {
+                selected = peak;
+                continue;
+            }
+            // average of the next bucket (or the last point when there is no next bucket)
+            int nextStart = bucketEnd;
+            int nextEnd = Math.min(start + 1 + (int) ((bucket + 2) * bucketSize), end - 1);
+            if (nextStart >= nextEnd) {
+                nextStart = end - 1;
+                nextEnd = end;
+            }
+            double avgX = 0;
+            double avgY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                avgX += x[i];
+                avgY += y[i];
+            }
+            avgX /= nextEnd - nextStart;
+            avgY /= nextEnd - nextStart;
+            double maxArea = -1;
+            int maxAreaIndex = bucketStart;
+            for (int i = bucketStart; i < bucketEnd; i++) {
+                // (doubled) area of the triangle formed by the previously selected point, this
+                // point, and the average of the next bucket
+                double area = Math.abs((x[selected] - avgX) * (y[i] - y[selected])
+                        - (x[selected] - x[i]) * (avgY - y[selected]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    maxAreaIndex = i;
+                }
+            }
+            keep[maxAreaIndex] = true;
+            selected = maxAreaIndex;
+        }
+    }
+}
@@ -29,6 +29,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.common.io.CharStreams;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.immutables.value.Value;
 
 import org.glowroot.common.util.CaptureTimes;
@@ -104,6 +105,7 @@ class GaugeValueJsonService {
             dataSeriesList
                     .add(convertToDataSeriesWithGaps(entry.getKey(), entry.getValue(), gapMillis));
         }
+        DataSeriesDownsampler.downsample(dataSeriesList, request.maxPoints());
         List<Gauge> gauges =
                 gaugeValueRepository.getGauges(agentRollupId, request.from(), request.to());
         List<Gauge> sortedGauges = new GaugeOrdering().immutableSortedCopy(gauges);
@@ -324,6 +326,9 @@ class GaugeValueJsonService {
         long to();
         // singular because this is used in query string
         ImmutableList<String> gaugeName();
+        // optional limit on the number of points per chart data series (see DataSeriesDownsampler)
+        @Nullable
+        Integer maxPoints();
     }
 
     @Value.Immutable
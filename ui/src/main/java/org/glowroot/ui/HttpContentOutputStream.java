@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// writes the bytes as a series of HttpContent chunks using pooled buffers, so that the response
+// body never needs to be fully buffered in memory
+//
+// each chunk is flushed as soon as it is written, since otherwise ChunkedWriteHandler would hold
+// on to the (uncompressed) chunks until the end of the response, and since ChunkedWriteHandler
+// sits in front of ConditionalHttpContentCompressor in the pipeline, flushing each chunk is also
+// what allows the chunks to be compressed on the fly
+//
+// once the channel is no longer writable (e.g. slow client), writing blocks until the chunks
+// written so far have been written out to the socket, so that the response does not just pile up in
+// the channel's outbound buffer instead (which is why this must not be written to from the
+// channel's event loop, see HttpServerHandler)
+class HttpContentOutputStream extends OutputStream {
+
+    private static final int CHUNK_SIZE = 32768;
+
+    // abort the response if the client does not read anything for this long
+    private static final long WRITE_TIMEOUT_SECONDS = 60;
+
+    private final ChannelHandlerContext ctx;
+
+    private @Nullable ByteBuf buffer;
+
+    HttpContentOutputStream(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        getBuffer().writeByte(b);
+        writeChunkIfFull();
+    }
+
+    @Override
+    public void write(byte[] bytes, int off, int len) throws IOException {
+        int offset = off;
+        int remaining = len;
+        while (remaining > 0) {
+            ByteBuf buffer = getBuffer();
+            int length = Math.min(remaining, buffer.writableBytes());
+            buffer.writeBytes(bytes, offset, length);
+            offset += length;
+            remaining -= length;
+            writeChunkIfFull();
+        }
+    }
+
+    // sends whatever has been written so far as a chunk, without waiting for a full chunk
+    @Override
+    public void flush() throws IOException {
+        if (buffer != null && buffer.isReadable()) {
+            HttpContent content = new DefaultHttpContent(buffer);
+            buffer = null;
+            writeChunk(content);
+        }
+    }
+
+    ChannelFuture finish() {
+        LastHttpContent lastContent;
+        if (buffer == null) {
+            lastContent = LastHttpContent.EMPTY_LAST_CONTENT;
+        } else {
+            lastContent = new DefaultLastHttpContent(buffer);
+            buffer = null;
+        }
+        return ctx.writeAndFlush(lastContent);
+    }
+
+    void discard() {
+        if (buffer != null) {
+            buffer.release();
+            buffer = null;
+        }
+    }
+
+    private ByteBuf getBuffer() {
+        if (buffer == null) {
+            buffer = ctx.alloc().buffer(CHUNK_SIZE, CHUNK_SIZE);
+        }
+        return buffer;
+    }
+
+    private void writeChunkIfFull() throws IOException {
+        if (buffer != null && buffer.writableBytes() == 0) {
+            HttpContent content = new DefaultHttpContent(buffer);
+            buffer = null;
+            writeChunk(content);
+        }
+    }
+
+    private void writeChunk(HttpContent content) throws IOException {
+        ChannelFuture future = ctx.writeAndFlush(content);
+        HttpServices.addErrorListener(future);
+        if (!ctx.channel().isWritable()) {
+            // the future completes once this chunk (and so also all prior chunks) have been written
+            // out to the socket
+            if (!future.awaitUninterruptibly(WRITE_TIMEOUT_SECONDS, SECONDS)) {
+                throw new IOException("Timed out waiting for client to read response");
+            }
+            if (!future.isSuccess()) {
+                throw new IOException(future.cause());
+            }
+        }
+    }
+}
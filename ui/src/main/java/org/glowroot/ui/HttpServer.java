@@ -20,24 +20,57 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.net.ssl.SSLException;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Supplier;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpMessage;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler.UpgradeCodec;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler.UpgradeCodecFactory;
+import io.netty.handler.codec.http2.CleartextHttp2ServerUpgradeHandler;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolConfig.Protocol;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectedListenerFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectorFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
 import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.util.AsciiString;
 import io.netty.util.concurrent.Future;
 import io.netty.util.internal.logging.InternalLoggerFactory;
 import io.netty.util.internal.logging.Slf4JLoggerFactory;
@@ -58,14 +91,27 @@ class HttpServer {
     // log startup messages using logger name "org.glowroot"
     private static final Logger startupLogger = LoggerFactory.getLogger("org.glowroot");
 
+    // same as the maxHeaderSize passed to HttpServerCodec below
+    private static final int MAX_HEADER_SIZE = 65536;
+
+    private static final int MAX_CONTENT_LENGTH = 1048576;
+
+    // streamed responses (e.g. trace exports) block a streaming thread for as long as the client
+    // takes to read them, so these bound the threads (and queued responses) that slow clients can
+    // tie up, beyond which requests for streamed responses are rejected with 503
+    private static final int MAX_STREAMING_THREADS = 10;
+    private static final int MAX_QUEUED_STREAMING_RESPONSES = 100;
+
     private final ServerBootstrap bootstrap;
     private final HttpServerHandler handler;
     private final EventLoopGroup bossGroup;
     private final EventLoopGroup workerGroup;
+    private final ExecutorService streamingExecutor;
 
     private final String bindAddress;
     private final List<File> confDirs;
 
+    private final boolean http2;
     private final boolean offlineViewer;
 
     private volatile @Nullable SslContext sslContext;
@@ -74,7 +120,7 @@ class HttpServer {
 
     HttpServer(String bindAddress, boolean https, Supplier<String> contextPathSupplier,
             int numWorkerThreads, CommonHandler commonHandler, List<File> confDirs, boolean central,
-            boolean offlineViewer) throws Exception {
+            boolean http2, boolean offlineViewer) throws Exception {
 
         InternalLoggerFactory.setDefaultFactory(Slf4JLoggerFactory.INSTANCE);
 
@@ -86,10 +132,33 @@ class HttpServer {
                 .setDaemon(true)
                 .setNameFormat("Glowroot-Http-Worker-%d")
                 .build();
-        bossGroup = new NioEventLoopGroup(1, bossThreadFactory);
-        workerGroup = new NioEventLoopGroup(numWorkerThreads, workerThreadFactory);
+        Class<? extends ServerChannel> serverChannelClass;
+        // native transport is only on the class path of glowroot central (it is an optional
+        // dependency of glowroot-ui so that it is not included in the shaded agent jar), and only
+        // available there when the (platform specific) native library loads
+        if (central && EpollTransport.isAvailable()) {
+            bossGroup = EpollTransport.newEventLoopGroup(1, bossThreadFactory);
+            workerGroup = EpollTransport.newEventLoopGroup(numWorkerThreads, workerThreadFactory);
+            serverChannelClass = EpollTransport.serverChannelClass();
+        } else {
+            bossGroup = new NioEventLoopGroup(1, bossThreadFactory);
+            workerGroup = new NioEventLoopGroup(numWorkerThreads, workerThreadFactory);
+            serverChannelClass = NioServerSocketChannel.class;
+        }
 
-        final HttpServerHandler handler = new HttpServerHandler(contextPathSupplier, commonHandler);
+        ThreadFactory streamingThreadFactory = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("Glowroot-Http-Streaming-%d")
+                .build();
+        ThreadPoolExecutor streamingExecutor = new ThreadPoolExecutor(MAX_STREAMING_THREADS,
+                MAX_STREAMING_THREADS, 60, SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_STREAMING_RESPONSES),
+                streamingThreadFactory);
+        streamingExecutor.allowCoreThreadTimeOut(true);
+        this.streamingExecutor = streamingExecutor;
+
+        this.handler = new HttpServerHandler(contextPathSupplier, commonHandler, streamingExecutor);
+        this.http2 = http2;
 
         if (https) {
             // upgrade from 0.9.26 to 0.9.27
@@ -107,14 +176,15 @@ class HttpServer {
                 certificateFile = getRequiredHttpsConfFile(confDirs, "ui-cert.pem");
                 privateKeyFile = getRequiredHttpsConfFile(confDirs, "ui-key.pem");
             }
-            sslContext = SslContextBuilder.forServer(certificateFile, privateKeyFile)
-                    .build();
+            sslContext = createSslContext(certificateFile, privateKeyFile, http2);
         }
         this.confDirs = confDirs;
         this.offlineViewer = offlineViewer;
 
         bootstrap = new ServerBootstrap();
-        bootstrap.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class)
+        bootstrap.group(bossGroup, workerGroup).channel(serverChannelClass)
+                // responses are written from pooled (direct) buffers, see HttpServerHandler
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel ch) throws Exception {
@@ -122,23 +192,101 @@ class HttpServer {
                         SslContext sslContextLocal = sslContext;
                         if (sslContextLocal != null) {
                             p.addLast(sslContextLocal.newHandler(ch.alloc()));
+                            if (http2) {
+                                // falls back to HTTP/1.1 if ALPN is not supported or not used by
+                                // the client
+                                p.addLast(new Http2OrHttp1NegotiationHandler());
+                            } else {
+                                addHttp1Handlers(p);
+                            }
+                        } else if (http2) {
+                            addCleartextHttp2OrHttp1Handlers(p);
+                        } else {
+                            addHttp1Handlers(p);
                         }
-                        // bumping maxInitialLineLength (first arg below) from default 4096 to 65536
-                        // in order to handle long urls on /jvm/gauges and /report/adhoc views
-                        // bumping maxHeaderSize (second arg below) from default 8192 to 65536 for
-                        // same reason due to "Referer" header once url becomes huge
-                        // leaving maxChunkSize (third arg below) at default 8192
-                        p.addLast(new HttpServerCodec(65536, 65536, 8192));
-                        p.addLast(new HttpObjectAggregator(1048576));
-                        p.addLast(new ConditionalHttpContentCompressor());
-                        p.addLast(new ChunkedWriteHandler());
-                        p.addLast(handler);
                     }
                 });
-        this.handler = handler;
         this.bindAddress = bindAddress;
     }
 
+    private void addHttp1Handlers(ChannelPipeline p) {
+        p.addLast(newHttpServerCodec());
+        addHttpObjectHandlers(p);
+    }
+
+    // h2c, either via "Upgrade: h2c" request or via prior knowledge (HTTP/2 connection preface)
+    private void addCleartextHttp2OrHttp1Handlers(ChannelPipeline p) {
+        HttpServerCodec sourceCodec = newHttpServerCodec();
+        UpgradeCodecFactory upgradeCodecFactory = new UpgradeCodecFactory() {
+            @Override
+            public @Nullable UpgradeCodec newUpgradeCodec(CharSequence protocol) {
+                if (AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME,
+                        protocol)) {
+                    return new Http2ServerUpgradeCodec(newHttp2FrameCodec(),
+                            newHttp2MultiplexHandler());
+                } else {
+                    return null;
+                }
+            }
+        };
+        HttpServerUpgradeHandler upgradeHandler =
+                new HttpServerUpgradeHandler(sourceCodec, upgradeCodecFactory, MAX_CONTENT_LENGTH);
+        p.addLast(new CleartextHttp2ServerUpgradeHandler(sourceCodec, upgradeHandler,
+                new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(newHttp2FrameCodec(), newHttp2MultiplexHandler());
+                    }
+                }));
+        // the HTTP/1.x handlers are only added once it is known that the connection has not been
+        // upgraded, since otherwise they would receive the HTTP/2 connection level frames
+        p.addLast(new SimpleChannelInboundHandler<HttpMessage>(false) {
+            @Override
+            protected void channelRead0(ChannelHandlerContext ctx, HttpMessage msg) {
+                ChannelPipeline pipeline = ctx.pipeline();
+                addHttpObjectHandlers(pipeline);
+                pipeline.remove(this);
+                ctx.fireChannelRead(msg);
+            }
+        });
+    }
+
+    private void addHttpObjectHandlers(ChannelPipeline p) {
+        p.addLast(new HttpObjectAggregator(MAX_CONTENT_LENGTH));
+        p.addLast(new ConditionalHttpContentCompressor());
+        p.addLast(new ChunkedWriteHandler());
+        p.addLast(handler);
+    }
+
+    private Http2MultiplexHandler newHttp2MultiplexHandler() {
+        // each HTTP/2 stream gets its own child channel, with the same handlers as an HTTP/1.x
+        // connection, so that HttpServerHandler does not need to know about HTTP/2
+        return new Http2MultiplexHandler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                ChannelPipeline p = ch.pipeline();
+                p.addLast(new Http2StreamFrameToHttpObjectCodec(true));
+                addHttpObjectHandlers(p);
+            }
+        });
+    }
+
+    private static HttpServerCodec newHttpServerCodec() {
+        // bumping maxInitialLineLength (first arg below) from default 4096 to 65536 in order to
+        // handle long urls on /jvm/gauges and /report/adhoc views
+        // bumping maxHeaderSize (second arg below) from default 8192 to 65536 for same reason due
+        // to "Referer" header once url becomes huge
+        // leaving maxChunkSize (third arg below) at default 8192
+        return new HttpServerCodec(65536, MAX_HEADER_SIZE, 8192);
+    }
+
+    private static Http2FrameCodec newHttp2FrameCodec() {
+        // same reason as for maxHeaderSize on HttpServerCodec (long urls)
+        return Http2FrameCodecBuilder.forServer()
+                .initialSettings(Http2Settings.defaultSettings().maxHeaderListSize(MAX_HEADER_SIZE))
+                .build();
+    }
+
     void bindEventually(int port) {
         try {
             serverChannel =
@@ -202,10 +350,8 @@ class HttpServer {
 
     void changeProtocol(boolean https) throws Exception {
         if (https) {
-            sslContext = SslContextBuilder
-                    .forServer(getRequiredHttpsConfFile(confDirs, "ui-cert.pem"),
-                            getRequiredHttpsConfFile(confDirs, "ui-key.pem"))
-                    .build();
+            sslContext = createSslContext(getRequiredHttpsConfFile(confDirs, "ui-cert.pem"),
+                    getRequiredHttpsConfFile(confDirs, "ui-key.pem"), http2);
         } else {
             sslContext = null;
         }
@@ -221,9 +367,37 @@ class HttpServer {
         workerShutdownFuture.get(10, SECONDS);
         long remainingMillis = Math.max(0, 10000 - stopwatch.elapsed(MILLISECONDS));
         bossShutdownFuture.get(remainingMillis, MILLISECONDS);
+        // any streamed responses still in progress were aborted when their channels were closed
+        streamingExecutor.shutdownNow();
         logger.debug("close(): http server stopped");
     }
 
+    private static SslContext createSslContext(File certificateFile, File privateKeyFile,
+            boolean http2) throws SSLException {
+        SslContextBuilder builder = SslContextBuilder.forServer(certificateFile, privateKeyFile);
+        if (!http2) {
+            return builder.build();
+        }
+        // HTTP/2 over TLS requires ALPN, which is supported by OpenSSL (when netty-tcnative is
+        // available) and by the JDK provider on Java 9+ (and Java 8u252+)
+        SslProvider sslProvider;
+        if (SslProvider.isAlpnSupported(SslProvider.OPENSSL)) {
+            sslProvider = SslProvider.OPENSSL;
+        } else if (SslProvider.isAlpnSupported(SslProvider.JDK)) {
+            sslProvider = SslProvider.JDK;
+        } else {
+            startupLogger.warn("HTTP/2 is enabled, but ALPN is not supported by the JVM, so the UI"
+                    + " will only be served over HTTP/1.1");
+            return builder.build();
+        }
+        return builder.sslProvider(sslProvider)
+                .applicationProtocolConfig(new ApplicationProtocolConfig(Protocol.ALPN,
+                        SelectorFailureBehavior.NO_ADVERTISE,
+                        SelectedListenerFailureBehavior.ACCEPT, ApplicationProtocolNames.HTTP_2,
+                        ApplicationProtocolNames.HTTP_1_1))
+                .build();
+    }
+
     // used by embedded agent
     private static File getRequiredHttpsConfFile(List<File> confDirs, String fileName)
             throws FileNotFoundException {
@@ -339,10 +513,43 @@ class HttpServer {
         }
     }
 
+    private class Http2OrHttp1NegotiationHandler extends ApplicationProtocolNegotiationHandler {
+
+        private Http2OrHttp1NegotiationHandler() {
+            super(ApplicationProtocolNames.HTTP_1_1);
+        }
+
+        @Override
+        protected void configurePipeline(ChannelHandlerContext ctx, String protocol) {
+            if (protocol.equals(ApplicationProtocolNames.HTTP_2)) {
+                ctx.pipeline().addLast(newHttp2FrameCodec(), newHttp2MultiplexHandler());
+            } else {
+                addHttp1Handlers(ctx.pipeline());
+            }
+        }
+    }
+
     @SuppressWarnings("serial")
     static class PortChangeFailedException extends Exception {
         private PortChangeFailedException(Exception cause) {
             super(cause);
         }
     }
+
+    // separate class so that the epoll classes are only loaded when running in glowroot central
+    private static class EpollTransport {
+
+        private static boolean isAvailable() {
+            return Epoll.isAvailable();
+        }
+
+        private static EventLoopGroup newEventLoopGroup(int numThreads,
+                ThreadFactory threadFactory) {
+            return new EpollEventLoopGroup(numThreads, threadFactory);
+        }
+
+        private static Class<? extends ServerChannel> serverChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+    }
 }
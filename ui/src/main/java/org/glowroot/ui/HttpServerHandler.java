@@ -16,8 +16,15 @@
 package org.glowroot.ui;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
@@ -25,7 +32,7 @@ import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.net.MediaType;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
@@ -39,18 +46,18 @@ import io.netty.handler.codec.http.DefaultHttpResponse;
 import io.netty.handler.codec.http.EmptyHttpHeaders;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
-import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.QueryStringDecoder;
-import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.codec.http2.Http2StreamChannel;
 import io.netty.util.concurrent.GlobalEventExecutor;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.glowroot.ui.ChunkSource.ChunkCopier;
 import org.glowroot.ui.CommonHandler.CommonRequest;
 import org.glowroot.ui.CommonHandler.CommonResponse;
 
@@ -59,6 +66,7 @@ import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
 import static io.netty.handler.codec.http.HttpResponseStatus.FOUND;
 import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
 import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
 @Sharable
@@ -75,15 +83,21 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
 
     private final CommonHandler commonHandler;
 
-    HttpServerHandler(Supplier<String> contextPathSupplier, CommonHandler commonHandler) {
+    // streamed responses are written from this executor, since they block (outside of the event
+    // loop) while waiting for slow clients, see HttpContentOutputStream
+    private final Executor streamingExecutor;
+
+    HttpServerHandler(Supplier<String> contextPathSupplier, CommonHandler commonHandler,
+            Executor streamingExecutor) {
         this.contextPathSupplier = contextPathSupplier;
         this.commonHandler = commonHandler;
+        this.streamingExecutor = streamingExecutor;
         allChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
     }
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
-        allChannels.add(ctx.channel());
+        allChannels.add(getConnection(ctx.channel()));
         super.channelActive(ctx);
     }
 
@@ -112,7 +126,7 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
         }
         String uri = request.uri();
         logger.debug("channelRead(): request.uri={}", uri);
-        Channel channel = ctx.channel();
+        Channel channel = getConnection(ctx.channel());
         currentChannel.set(channel);
         try {
             String contextPath = contextPathSupplier.get();
@@ -142,12 +156,12 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
-    private static void sendResponse(ChannelHandlerContext ctx, FullHttpRequest request,
-            CommonResponse response, boolean keepAlive) throws IOException {
+    private void sendResponse(ChannelHandlerContext ctx, FullHttpRequest request,
+            CommonResponse response, boolean keepAlive) {
         Object content = response.getContent();
         if (content instanceof String) {
             FullHttpResponse resp = new DefaultFullHttpResponse(HTTP_1_1, response.getStatus(),
-                    Unpooled.copiedBuffer((String) content, UTF_8), response.getHeaders(),
+                    ByteBufUtil.writeUtf8(ctx.alloc(), (String) content), response.getHeaders(),
                     EmptyHttpHeaders.INSTANCE);
             sendFullResponse(ctx, request, resp, keepAlive);
         } else if (content instanceof ByteBuf) {
@@ -157,26 +171,108 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
         } else if (content instanceof ChunkSource) {
             HttpResponse resp = new DefaultHttpResponse(HTTP_1_1, OK, response.getHeaders());
             resp.headers().set(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED);
-            ChannelFuture future = ctx.write(resp);
-            HttpServices.addErrorListener(future);
-            ChunkSource chunkSource = (ChunkSource) content;
-            ChunkedInput<HttpContent> chunkedInput;
-            String zipFileName = response.getZipFileName();
-            if (zipFileName == null) {
-                chunkedInput = ChunkedInputs.create(chunkSource);
-            } else {
-                chunkedInput = ChunkedInputs.createZipFileDownload(chunkSource, zipFileName);
-            }
-            future = ctx.write(chunkedInput);
-            HttpServices.addErrorListener(future);
-            if (!keepAlive) {
-                HttpServices.addCloseListener(future);
-            }
+            // chunk sources can read from storage while they are being copied (e.g. trace export),
+            // so they are also written from the streaming executor
+            streamResponse(ctx, request, resp,
+                    toResponseBody((ChunkSource) content, response.getZipFileName()), keepAlive);
+        } else if (content instanceof JsonStreamer) {
+            HttpResponse resp =
+                    new DefaultHttpResponse(HTTP_1_1, response.getStatus(), response.getHeaders());
+            resp.headers().set(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED);
+            streamResponse(ctx, request, resp, toResponseBody((JsonStreamer) content), keepAlive);
         } else {
             throw new IllegalStateException("Unexpected content: " + content.getClass().getName());
         }
     }
 
+    private void streamResponse(final ChannelHandlerContext ctx, FullHttpRequest request,
+            final HttpResponse response, final ResponseBody responseBody,
+            final boolean keepAlive) {
+        // reading is suspended until the streamed response is complete, so that the next request
+        // on this connection is not handled in the meantime
+        ctx.channel().config().setAutoRead(false);
+        final String uri = request.uri();
+        try {
+            streamingExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    writeStreamedResponse(ctx, uri, response, responseBody, keepAlive);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // too many streamed responses in progress (or http server is shutting down), the
+            // response status has not been sent yet since it is written from the streaming executor
+            logger.debug(e.getMessage(), e);
+            ctx.channel().config().setAutoRead(true);
+            sendResponse(ctx, request, new CommonResponse(SERVICE_UNAVAILABLE,
+                    MediaType.PLAIN_TEXT_UTF_8, "Too many concurrent requests, try again later"),
+                    keepAlive);
+        }
+    }
+
+    private static void writeStreamedResponse(ChannelHandlerContext ctx, String uri,
+            HttpResponse response, ResponseBody responseBody, boolean keepAlive) {
+        // the response status is written from here (as opposed to from the event loop), so that
+        // it is always written before the response body
+        HttpServices.addErrorListener(ctx.write(response));
+        HttpContentOutputStream out = new HttpContentOutputStream(ctx);
+        try {
+            responseBody.writeTo(out);
+        } catch (Exception e) {
+            // response status has already been sent, so the only option left is to abort the
+            // response by closing the connection (without sending the terminating chunk), so that
+            // the client can tell that the response is incomplete
+            logger.error("error streaming response {}: {}", uri, e.getMessage(), e);
+            out.discard();
+            ctx.close();
+            return;
+        }
+        ChannelFuture future = out.finish();
+        HttpServices.addErrorListener(future);
+        if (keepAlive) {
+            ctx.channel().config().setAutoRead(true);
+        } else {
+            HttpServices.addCloseListener(future);
+        }
+    }
+
+    private static ResponseBody toResponseBody(final JsonStreamer jsonStreamer) {
+        return new ResponseBody() {
+            @Override
+            public void writeTo(OutputStream out) throws Exception {
+                jsonStreamer.writeTo(out);
+            }
+        };
+    }
+
+    private static ResponseBody toResponseBody(final ChunkSource chunkSource,
+            final @Nullable String zipFileName) {
+        return new ResponseBody() {
+            @Override
+            public void writeTo(OutputStream out) throws Exception {
+                if (zipFileName == null) {
+                    Writer writer = new OutputStreamWriter(out, UTF_8);
+                    copy(chunkSource, writer);
+                    writer.flush();
+                } else {
+                    ZipOutputStream zipOut = new ZipOutputStream(out);
+                    zipOut.putNextEntry(new ZipEntry(zipFileName + ".html"));
+                    Writer writer = new OutputStreamWriter(zipOut, UTF_8);
+                    copy(chunkSource, writer);
+                    writer.flush();
+                    // write remaining compressed data (without closing the underlying stream)
+                    zipOut.finish();
+                }
+            }
+        };
+    }
+
+    private static void copy(ChunkSource chunkSource, Writer writer) throws IOException {
+        ChunkCopier chunkCopier = chunkSource.getCopier(writer);
+        while (chunkCopier.copyNext()) {
+        }
+    }
+
     @SuppressWarnings("argument.type.incompatible")
     private static void sendFullResponse(ChannelHandlerContext ctx, FullHttpRequest request,
             FullHttpResponse response, boolean keepAlive) {
@@ -199,6 +295,15 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
         ctx.close();
     }
 
+    // HTTP/2 streams are handled by child channels of the connection channel
+    private static Channel getConnection(Channel channel) {
+        if (channel instanceof Http2StreamChannel) {
+            return channel.parent();
+        } else {
+            return channel;
+        }
+    }
+
     @VisibleForTesting
     static String stripContextPath(String path, String contextPath) {
         if (contextPath.equals("/")) {
@@ -210,6 +315,11 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
         return path.substring(contextPath.length());
     }
 
+    private interface ResponseBody {
+        // does not close the output stream
+        void writeTo(OutputStream out) throws Exception;
+    }
+
     private static class NettyRequest implements CommonRequest {
 
         private final FullHttpRequest request;
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+// json services can return this instead of a String for potentially large responses (e.g. profile
+// trees, query lists and trace entries), in which case the json is generated directly into the
+// (chunked) response body, instead of first being built up in memory as a String and then copied
+// into the response body
+//
+// any data needed for the response should be read before returning the JsonStreamer, since once
+// the response has started streaming, errors can no longer be reported back as an http status
+public abstract class JsonStreamer {
+
+    private final JsonFactory jsonFactory;
+
+    protected JsonStreamer(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    protected abstract void write(JsonGenerator jg) throws Exception;
+
+    // does not close the output stream
+    public void writeTo(OutputStream out) throws Exception {
+        JsonGenerator jg = jsonFactory.createGenerator(out, JsonEncoding.UTF8);
+        jg.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        try {
+            write(jg);
+        } finally {
+            jg.close();
+        }
+    }
+}
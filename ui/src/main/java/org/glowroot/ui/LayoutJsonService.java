@@ -16,6 +16,7 @@
 package org.glowroot.ui;
 
 import java.util.List;
+import java.util.Locale;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Lists;
@@ -28,6 +29,7 @@ import org.glowroot.common2.repo.ActiveAgentRepository.AgentRollup;
 import org.glowroot.common2.repo.ActiveAgentRepository.TopLevelAgentRollup;
 import org.glowroot.ui.HttpSessionManager.Authentication;
 import org.glowroot.ui.LayoutService.AgentRollupLayout;
+import org.glowroot.ui.LayoutService.AgentRollupPermissionChecker;
 import org.glowroot.ui.LayoutService.FilteredChildAgentRollup;
 import org.glowroot.ui.LayoutService.FilteredTopLevelAgentRollup;
 
@@ -35,6 +37,10 @@ class LayoutJsonService {
 
     private static final ObjectMapper mapper = ObjectMappers.create();
 
+    // number of agent rollups returned per level of the agent rollup dropdowns, the rest are
+    // found via search
+    private static final int DEFAULT_LIMIT = 100;
+
     private final ActiveAgentRepository activeAgentRepository;
     private final LayoutService layoutService;
 
@@ -48,11 +54,23 @@ class LayoutJsonService {
             @BindAuthentication Authentication authentication) throws Exception {
         List<TopLevelAgentRollup> topLevelAgentRollups =
                 activeAgentRepository.readActiveTopLevelAgentRollups(request.from(), request.to());
+        AgentRollupPermissionChecker permissionChecker =
+                layoutService.getAgentRollupPermissionChecker(authentication);
+        String search = request.search().toLowerCase(Locale.ENGLISH);
         List<FilteredTopLevelAgentRollup> filtered = Lists.newArrayList();
+        boolean moreAvailable = false;
         for (TopLevelAgentRollup topLevelAgentRollup : topLevelAgentRollups) {
+            // search is applied first since it is cheaper than checking permissions
+            if (!matches(topLevelAgentRollup.display(), search)) {
+                continue;
+            }
             HasAnyPermission hasAnyPermission =
-                    authentication.hasAnyPermissionForAgentRollup(topLevelAgentRollup.id());
+                    permissionChecker.hasAnyPermission(topLevelAgentRollup.id());
             if (hasAnyPermission != HasAnyPermission.NO) {
+                if (filtered.size() == request.limit()) {
+                    moreAvailable = true;
+                    break;
+                }
                 filtered.add(ImmutableFilteredTopLevelAgentRollup.builder()
                         .id(topLevelAgentRollup.id())
                         .display(topLevelAgentRollup.display())
@@ -60,22 +78,30 @@ class LayoutJsonService {
                         .build());
             }
         }
-        return mapper.writeValueAsString(filtered);
+        return mapper.writeValueAsString(ImmutableTopLevelAgentRollupsResponse.builder()
+                .addAllAgentRollups(filtered)
+                .moreAvailable(moreAvailable)
+                .build());
     }
 
     @GET(path = "/backend/child-agent-rollups", permission = "")
     String getChildAgentRollups(@BindRequest ChildAgentRollupsRequest request,
             @BindAuthentication Authentication authentication) throws Exception {
-        List<FilteredChildAgentRollup> childAgentRollups =
-                filterChildAgentRollups(
-                        activeAgentRepository.readActiveChildAgentRollups(
-                                request.topLevelId(), request.from(), request.to()),
-                        authentication);
+        ChildAgentRollupFilter filter = new ChildAgentRollupFilter(
+                layoutService.getAgentRollupPermissionChecker(authentication),
+                request.limit());
+        List<FilteredChildAgentRollup> childAgentRollups = filter.filter(
+                activeAgentRepository.readActiveChildAgentRollups(request.topLevelId(),
+                        request.from(), request.to()),
+                request.search().toLowerCase(Locale.ENGLISH));
         List<AgentRollupSmall> dropdown = Lists.newArrayList();
         for (FilteredChildAgentRollup childAgentRollup : childAgentRollups) {
             flatten(childAgentRollup, 0, dropdown);
         }
-        return mapper.writeValueAsString(dropdown);
+        return mapper.writeValueAsString(ImmutableChildAgentRollupsResponse.builder()
+                .addAllAgentRollups(dropdown)
+                .moreAvailable(filter.moreAvailable)
+                .build());
     }
 
     @GET(path = "/backend/agent-rollup", permission = "")
@@ -94,25 +120,83 @@ class LayoutJsonService {
         return mapper.writeValueAsString(agentRollupLayout);
     }
 
-    // need to filter out agent child rollups with no access rights
-    private static List<FilteredChildAgentRollup> filterChildAgentRollups(
-            List<AgentRollup> agentRollups, Authentication authentication) throws Exception {
-        List<FilteredChildAgentRollup> filtered = Lists.newArrayList();
-        for (AgentRollup agentRollup : agentRollups) {
-            HasAnyPermission hasAnyPermission =
-                    authentication.hasAnyPermissionForAgentRollup(agentRollup.id());
-            if (hasAnyPermission != HasAnyPermission.NO) {
+    // search is already lower case
+    private static boolean matches(String display, String search) {
+        return search.isEmpty() || display.toLowerCase(Locale.ENGLISH).contains(search);
+    }
+
+    // need to filter out agent child rollups with no access rights, and agent child rollups that
+    // don't match the search (unless they have a descendant that matches the search), and the
+    // number of agent child rollups returned at each level is limited, so that the dropdown
+    // response size does not grow with the number of agents
+    private static class ChildAgentRollupFilter {
+
+        private final AgentRollupPermissionChecker permissionChecker;
+        private final int limit;
+
+        private boolean moreAvailable;
+
+        private ChildAgentRollupFilter(AgentRollupPermissionChecker permissionChecker,
+                int limit) {
+            this.permissionChecker = permissionChecker;
+            this.limit = limit;
+        }
+
+        private List<FilteredChildAgentRollup> filter(List<AgentRollup> agentRollups,
+                String search) throws Exception {
+            List<FilteredChildAgentRollup> filtered = Lists.newArrayList();
+            for (AgentRollup agentRollup : agentRollups) {
+                boolean match = matches(agentRollup.display(), search);
+                if (!match && agentRollup.children().isEmpty()) {
+                    continue;
+                }
+                HasAnyPermission hasAnyPermission =
+                        permissionChecker.hasAnyPermission(agentRollup.id());
+                if (hasAnyPermission == HasAnyPermission.NO) {
+                    continue;
+                }
+                if (filtered.size() == limit) {
+                    // the limit is checked before descending into the children, so that the
+                    // children of agent rollups that will not be returned are not filtered
+                    if (match || hasAny(agentRollup.children(), search)) {
+                        moreAvailable = true;
+                        break;
+                    }
+                    continue;
+                }
+                // once an agent rollup matches the search, all of its children are included
+                List<FilteredChildAgentRollup> children =
+                        filter(agentRollup.children(), match ? "" : search);
+                if (!match && children.isEmpty()) {
+                    continue;
+                }
                 filtered.add(ImmutableFilteredChildAgentRollup.builder()
                         .id(agentRollup.id())
                         .display(agentRollup.display())
                         .lastDisplayPart(agentRollup.lastDisplayPart())
                         .disabled(hasAnyPermission == HasAnyPermission.ONLY_IN_CHILD)
-                        .addAllChildren(filterChildAgentRollups(agentRollup.children(),
-                                authentication))
+                        .addAllChildren(children)
                         .build());
             }
+            return filtered;
+        }
+
+        // same criteria as filter(), but stops at the first agent rollup that would be included
+        private boolean hasAny(List<AgentRollup> agentRollups, String search) throws Exception {
+            for (AgentRollup agentRollup : agentRollups) {
+                boolean match = matches(agentRollup.display(), search);
+                if (!match && agentRollup.children().isEmpty()) {
+                    continue;
+                }
+                if (permissionChecker.hasAnyPermission(agentRollup.id()) == HasAnyPermission.NO) {
+                    continue;
+                }
+                if (match || hasAny(agentRollup.children(), search)) {
+                    return true;
+                }
+            }
+            return false;
         }
-        return filtered;
     }
 
     private static void flatten(FilteredChildAgentRollup filteredChildAgentRollup, int depth,
@@ -141,16 +225,52 @@ class LayoutJsonService {
     }
 
     @Value.Immutable
-    interface TopLevelAgentRollupsRequest {
-        long from();
-        long to();
+    interface TopLevelAgentRollupsResponse {
+        List<FilteredTopLevelAgentRollup> agentRollups();
+        boolean moreAvailable();
+    }
+
+    @Value.Immutable
+    interface ChildAgentRollupsResponse {
+        List<AgentRollupSmall> agentRollups();
+        boolean moreAvailable();
     }
 
     @Value.Immutable
-    interface ChildAgentRollupsRequest {
-        String topLevelId();
-        long from();
-        long to();
+    abstract static class TopLevelAgentRollupsRequest {
+
+        abstract long from();
+        abstract long to();
+
+        @Value.Default
+        String search() {
+            return "";
+        }
+
+        // limit is per level
+        @Value.Default
+        int limit() {
+            return DEFAULT_LIMIT;
+        }
+    }
+
+    @Value.Immutable
+    abstract static class ChildAgentRollupsRequest {
+
+        abstract String topLevelId();
+        abstract long from();
+        abstract long to();
+
+        @Value.Default
+        String search() {
+            return "";
+        }
+
+        // limit is per level
+        @Value.Default
+        int limit() {
+            return DEFAULT_LIMIT;
+        }
     }
 
     @Value.Immutable
@@ -22,6 +22,8 @@ import java.util.TimeZone;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -36,6 +38,9 @@ import org.glowroot.common.live.LiveTraceRepository;
 import org.glowroot.common.util.ObjectMappers;
 import org.glowroot.common.util.Version;
 import org.glowroot.common.util.Versions;
+import org.glowroot.common2.config.RoleConfig;
+import org.glowroot.common2.config.RoleConfig.HasAnyPermission;
+import org.glowroot.common2.config.StorageConfig;
 import org.glowroot.common2.repo.AgentDisplayRepository;
 import org.glowroot.common2.repo.ConfigRepository;
 import org.glowroot.common2.repo.ConfigRepository.AgentConfigNotFoundException;
@@ -48,6 +53,7 @@ import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.UiDefaultsC
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.InitMessage.Environment;
 
 import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
 
 class LayoutService {
 
@@ -67,6 +73,29 @@ class LayoutService {
     private final LiveAggregateRepository liveAggregateRepository;
     private final LiveTraceRepository liveTraceRepository;
 
+    // computed layouts and permissions are cached by their inputs, using the user's role configs
+    // in place of the user's roles, so that a config change (including a change made on another
+    // central cluster node) just results in a new cache entry instead of requiring invalidation,
+    // and so that users with the same roles share cache entries
+    private final Cache<LayoutKey, Layout> centralLayoutCache = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .expireAfterAccess(30, MINUTES)
+            .build();
+
+    private final Cache<AgentRollupLayoutKey, AgentRollupLayout> agentRollupLayoutCache =
+            CacheBuilder.newBuilder()
+                    .maximumSize(10000)
+                    .expireAfterAccess(30, MINUTES)
+                    .build();
+
+    // agent rollup permissions are cached individually (instead of caching the filtered agent
+    // rollup tree), so that when a new agent appears only its own permissions need to be computed
+    private final Cache<List<RoleConfig>, Cache<String, HasAnyPermission>> hasAnyPermissionCache =
+            CacheBuilder.newBuilder()
+                    .maximumSize(1000)
+                    .expireAfterAccess(30, MINUTES)
+                    .build();
+
     LayoutService(boolean central, boolean offlineViewer, String version,
             AgentDisplayRepository agentDisplayRepository, ConfigRepository configRepository,
             TransactionTypeRepository transactionTypeRepository,
@@ -146,6 +175,22 @@ class LayoutService {
         transactionTypes.addAll(liveTraceRepository.getTransactionTypes(agentRollupId));
         transactionTypes.add(uiConfig.getDefaultTransactionType());
         List<String> displayParts = agentDisplayRepository.readDisplayParts(agentRollupId);
+        Map<String, List<String>> traceAttributeNames =
+                traceAttributeNameRepository.read(agentRollupId);
+        AgentRollupLayoutKey key = ImmutableAgentRollupLayoutKey.builder()
+                .roleConfigs(getRoleConfigs(authentication))
+                .agentRollupId(agentRollupId)
+                .uiConfig(uiConfig)
+                .glowrootVersion(glowrootVersion)
+                .configReadOnly(configReadOnly)
+                .transactionTypes(transactionTypes)
+                .displayParts(displayParts)
+                .traceAttributeNames(traceAttributeNames)
+                .build();
+        AgentRollupLayout agentRollupLayout = agentRollupLayoutCache.getIfPresent(key);
+        if (agentRollupLayout != null) {
+            return agentRollupLayout;
+        }
         String topLevelId = getTopLevelId(agentRollupId);
         String childDisplay;
         if (topLevelId.equals(agentRollupId)) {
@@ -153,7 +198,7 @@ class LayoutService {
         } else {
             childDisplay = Joiner.on(" :: ").join(displayParts.subList(1, displayParts.size()));
         }
-        return ImmutableAgentRollupLayout.builder()
+        agentRollupLayout = ImmutableAgentRollupLayout.builder()
                 .id(agentRollupId)
                 .topLevelId(topLevelId)
                 .topLevelDisplay(displayParts.get(0))
@@ -163,16 +208,47 @@ class LayoutService {
                 .permissions(
                         LayoutService.getPermissions(authentication, agentRollupId, configReadOnly))
                 .addAllTransactionTypes(transactionTypes)
-                .putAllTraceAttributeNames(traceAttributeNameRepository.read(agentRollupId))
+                .putAllTraceAttributeNames(traceAttributeNames)
                 .defaultTransactionType(uiConfig.getDefaultTransactionType())
                 .defaultPercentiles(uiConfig.getDefaultPercentileList())
                 .defaultGaugeNames(uiConfig.getDefaultGaugeNameList())
                 .build();
+        agentRollupLayoutCache.put(key, agentRollupLayout);
+        return agentRollupLayout;
+    }
+
+    // used for filtering the agent rollup tree, which can contain many thousands of agent rollups
+    AgentRollupPermissionChecker getAgentRollupPermissionChecker(
+            final Authentication authentication) throws Exception {
+        List<RoleConfig> roleConfigs = getRoleConfigs(authentication);
+        Cache<String, HasAnyPermission> cache = hasAnyPermissionCache.getIfPresent(roleConfigs);
+        if (cache == null) {
+            cache = CacheBuilder.newBuilder()
+                    .expireAfterAccess(30, MINUTES)
+                    .build();
+            Cache<String, HasAnyPermission> existing =
+                    hasAnyPermissionCache.asMap().putIfAbsent(roleConfigs, cache);
+            if (existing != null) {
+                cache = existing;
+            }
+        }
+        final Cache<String, HasAnyPermission> cacheFinal = cache;
+        return new AgentRollupPermissionChecker() {
+            @Override
+            public HasAnyPermission hasAnyPermission(String agentRollupId) throws Exception {
+                HasAnyPermission hasAnyPermission = cacheFinal.getIfPresent(agentRollupId);
+                if (hasAnyPermission == null) {
+                    hasAnyPermission = authentication.hasAnyPermissionForAgentRollup(agentRollupId);
+                    cacheFinal.put(agentRollupId, hasAnyPermission);
+                }
+                return hasAnyPermission;
+            }
+        };
     }
 
     private Layout buildLayout(Authentication authentication) throws Exception {
         if (central) {
-            return buildLayoutCentral(authentication);
+            return getLayoutCentral(authentication);
         } else {
             return buildLayoutEmbedded(authentication);
         }
@@ -246,6 +322,23 @@ class LayoutService {
                 null);
     }
 
+    private Layout getLayoutCentral(Authentication authentication) throws Exception {
+        LayoutKey key = ImmutableLayoutKey.builder()
+                .roleConfigs(getRoleConfigs(authentication))
+                .anonymous(authentication.anonymous())
+                .ldap(authentication.ldap())
+                .namedUsersExist(configRepository.namedUsersExist())
+                .ldapHost(configRepository.getLdapConfig().host())
+                .storageConfig(configRepository.getStorageConfig())
+                .build();
+        Layout layout = centralLayoutCache.getIfPresent(key);
+        if (layout == null) {
+            layout = buildLayoutCentral(authentication);
+            centralLayoutCache.put(key, layout);
+        }
+        return layout;
+    }
+
     private ImmutableLayout createNoAccessLayout(Authentication authentication) {
         return ImmutableLayout.builder()
                 .central(central)
@@ -317,6 +410,17 @@ class LayoutService {
                 .build();
     }
 
+    // the permissions of a user only depend on the configs of the user's roles
+    private List<RoleConfig> getRoleConfigs(Authentication authentication) throws Exception {
+        List<RoleConfig> roleConfigs = Lists.newArrayList();
+        for (RoleConfig roleConfig : configRepository.getRoleConfigs()) {
+            if (authentication.roles().contains(roleConfig.name())) {
+                roleConfigs.add(roleConfig);
+            }
+        }
+        return roleConfigs;
+    }
+
     private String getEmbeddedAgentDisplayName() {
         return configRepository.getEmbeddedAdminGeneralConfig().agentDisplayNameOrDefault();
     }
@@ -425,6 +529,32 @@ class LayoutService {
         }
     }
 
+    interface AgentRollupPermissionChecker {
+        HasAnyPermission hasAnyPermission(String agentRollupId) throws Exception;
+    }
+
+    @Value.Immutable
+    interface LayoutKey {
+        List<RoleConfig> roleConfigs();
+        boolean anonymous();
+        boolean ldap();
+        boolean namedUsersExist();
+        String ldapHost();
+        StorageConfig storageConfig();
+    }
+
+    @Value.Immutable
+    interface AgentRollupLayoutKey {
+        List<RoleConfig> roleConfigs();
+        String agentRollupId();
+        UiDefaultsConfig uiConfig();
+        String glowrootVersion();
+        boolean configReadOnly();
+        Set<String> transactionTypes();
+        List<String> displayParts();
+        Map<String, List<String>> traceAttributeNames();
+    }
+
     @Value.Immutable
     interface FilteredTopLevelAgentRollup {
         String id();
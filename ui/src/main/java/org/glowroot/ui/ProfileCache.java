@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import org.immutables.value.Value;
+
+import org.glowroot.common.live.LiveAggregateRepository.AggregateQuery;
+import org.glowroot.common.model.MutableProfile;
+import org.glowroot.common.model.ProfileCollector;
+import org.glowroot.common.util.Styles;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// caches merged (unfiltered and untruncated) profiles, so that changing the profile filter or
+// truncation (which are applied to a copy of the cached profile) does not need to re-read and
+// re-merge all of the profiles in the time range
+//
+// cached profiles are shared (read only) instead of being copied on every read, since they can be
+// very large
+class ProfileCache {
+
+    // bounds the memory used by the cache (profile nodes are by far the largest part)
+    private static final int MAX_CACHED_NODES = 2000000;
+
+    // profiles for time ranges that are not yet closed can still change, so they are only re-used
+    // for a short time (long enough to cover a series of filter changes)
+    private static final long OPEN_RANGE_REUSE_MILLIS = SECONDS.toMillis(30);
+
+    // same as ReportJsonService, data is considered closed once it is an hour old
+    private static final long CLOSED_RANGE_DELAY_MILLIS = HOURS.toMillis(1);
+
+    private final Cache<ProfileKey, CachedProfile> cache = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_CACHED_NODES)
+            .weigher(new Weigher<ProfileKey, CachedProfile>() {
+                @Override
+                public int weigh(ProfileKey key, CachedProfile value) {
+                    return value.nodeCount + 1;
+                }
+            })
+            .expireAfterAccess(30, MINUTES)
+            .build();
+
+    // the returned profile is read only (shared with the cache), so the caller must copy it in
+    // order to modify it (e.g. filter it)
+    ProfileCollector read(String agentRollupId, AggregateQuery query, boolean auxiliary,
+            long currentTimeMillis, ProfileReader reader) throws Exception {
+        ProfileKey key = ImmutableProfileKey.of(agentRollupId, query, auxiliary);
+        CachedProfile cachedProfile = cache.getIfPresent(key);
+        if (cachedProfile != null && (cachedProfile.closed
+                || currentTimeMillis - cachedProfile.cachedAt < OPEN_RANGE_REUSE_MILLIS)) {
+            return new ProfileCollector(cachedProfile.profile, cachedProfile.lastCaptureTime);
+        }
+        ProfileCollector profileCollector = reader.read(agentRollupId, query, auxiliary);
+        MutableProfile profile = profileCollector.getProfile();
+        profile.markReadOnly();
+        if (!profile.isEmpty()) {
+            boolean closed = query.to() <= currentTimeMillis - CLOSED_RANGE_DELAY_MILLIS;
+            cache.put(key, new CachedProfile(profile, profile.getNodeCount(),
+                    profileCollector.getLastCaptureTime(), currentTimeMillis, closed));
+        }
+        return profileCollector;
+    }
+
+    interface ProfileReader {
+        ProfileCollector read(String agentRollupId, AggregateQuery query, boolean auxiliary)
+                throws Exception;
+    }
+
+    private static class CachedProfile {
+
+        private final MutableProfile profile;
+        private final int nodeCount;
+        private final long lastCaptureTime;
+        private final long cachedAt;
+        private final boolean closed;
+
+        private CachedProfile(MutableProfile profile, int nodeCount, long lastCaptureTime,
+                long cachedAt, boolean closed) {
+            this.profile = profile;
+            this.nodeCount = nodeCount;
+            this.lastCaptureTime = lastCaptureTime;
+            this.cachedAt = cachedAt;
+            this.closed = closed;
+        }
+    }
+
+    @Value.Immutable
+    @Styles.AllParameters
+    interface ProfileKey {
+        String agentRollupId();
+        AggregateQuery query();
+        boolean auxiliary();
+    }
+}
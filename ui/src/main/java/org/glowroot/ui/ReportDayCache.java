@@ -0,0 +1,120 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.List;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Lists;
+import org.immutables.value.Value;
+
+import org.glowroot.common.util.Styles;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+
+// caches report data per (fully closed) day, so that re-running a report over a long time range
+// (e.g. a monthly report) only needs to read the days that are not yet closed (or not yet cached)
+//
+// the cached data is already rolled up to the granularity of the report (or to daily granularity
+// for weekly and monthly reports), which keeps the number of cached items per day small
+class ReportDayCache {
+
+    // cached items per day are already rolled up, so this is roughly days * data series (times 24
+    // for hourly reports)
+    private static final long MAX_CACHED_ITEMS = 50000;
+
+    private final Cache<DayKey, List<?>> cache = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_CACHED_ITEMS)
+            .weigher(new Weigher<DayKey, List<?>>() {
+                @Override
+                public int weigh(DayKey key, List<?> value) {
+                    return value.size() + 1;
+                }
+            })
+            // data for closed days can still change (e.g. late arriving data from an agent that
+            // was disconnected), and so cached data is not kept indefinitely
+            .expireAfterWrite(1, DAYS)
+            .build();
+
+    // dayBoundaries are [from, end of first day, end of second day, ..., to], and the items for
+    // each day are those with capture time in (start of day, end of day]
+    //
+    // days ending at or before closedBefore are considered closed, and are cached
+    <T> List<T> read(List<String> seriesKey, List<Long> dayBoundaries, long closedBefore,
+            DayRangeReader<T> reader) throws Exception {
+        int dayCount = dayBoundaries.size() - 1;
+        List<T> items = Lists.newArrayList();
+        int i = 0;
+        for (; i < dayCount; i++) {
+            if (dayBoundaries.get(i + 1) > closedBefore) {
+                break;
+            }
+            @SuppressWarnings("unchecked")
+            List<T> cached = (List<T>) cache
+                    .getIfPresent(ImmutableDayKey.of(seriesKey, dayBoundaries.get(i)));
+            if (cached == null) {
+                break;
+            }
+            items.addAll(cached);
+        }
+        if (i == dayCount) {
+            return items;
+        }
+        // read all of the remaining days in a single read, and then split the results by day in
+        // order to populate the cache
+        List<T> remainingItems = reader.read(dayBoundaries.get(i), dayBoundaries.get(dayCount));
+        items.addAll(remainingItems);
+        int day = i;
+        List<T> dayItems = Lists.newArrayList();
+        for (T item : remainingItems) {
+            long captureTime = reader.getCaptureTime(item);
+            while (day < dayCount - 1 && captureTime > dayBoundaries.get(day + 1)) {
+                cacheIfClosed(seriesKey, dayBoundaries, day++, closedBefore, dayItems);
+                dayItems = Lists.newArrayList();
+            }
+            dayItems.add(item);
+        }
+        while (day < dayCount) {
+            cacheIfClosed(seriesKey, dayBoundaries, day++, closedBefore, dayItems);
+            dayItems = Lists.newArrayList();
+        }
+        return items;
+    }
+
+    private <T> void cacheIfClosed(List<String> seriesKey, List<Long> dayBoundaries, int day,
+            long closedBefore, List<T> dayItems) {
+        if (dayBoundaries.get(day + 1) <= closedBefore) {
+            cache.put(ImmutableDayKey.of(seriesKey, dayBoundaries.get(day)), dayItems);
+        }
+    }
+
+    interface DayRangeReader<T> {
+
+        // returns the items with capture time in (from, to], ordered by capture time
+        List<T> read(long from, long to) throws Exception;
+
+        long getCaptureTime(T item);
+    }
+
+    @Value.Immutable
+    @Styles.AllParameters
+    interface DayKey {
+        List<String> seriesKey();
+        long dayStart();
+    }
+}
@@ -31,11 +31,11 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
-import com.google.common.io.CharStreams;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.immutables.value.Value;
@@ -53,6 +53,7 @@ import org.glowroot.common.live.LiveAggregateRepository.PercentileAggregate;
 import org.glowroot.common.live.LiveAggregateRepository.ThroughputAggregate;
 import org.glowroot.common.model.LazyHistogram;
 import org.glowroot.common.util.CaptureTimes;
+import org.glowroot.common.util.Clock;
 import org.glowroot.common.util.ObjectMappers;
 import org.glowroot.common2.repo.ActiveAgentRepository;
 import org.glowroot.common2.repo.ActiveAgentRepository.AgentRollup;
@@ -69,6 +70,7 @@ import org.glowroot.ui.GaugeValueJsonService.GaugeOrdering;
 import org.glowroot.ui.HttpSessionManager.Authentication;
 import org.glowroot.ui.LayoutJsonService.AgentRollupSmall;
 import org.glowroot.ui.LayoutService.Permissions;
+import org.glowroot.ui.ReportDayCache.DayRangeReader;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage.GaugeValue;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -92,15 +94,18 @@ class ReportJsonService {
     private final GaugeValueRepository gaugeValueRepository;
     private final LiveAggregateRepository liveAggregateRepository;
     private final RollupLevelService rollupLevelService;
+    private final Clock clock;
 
     private final ExecutorService executor;
 
+    private final ReportDayCache dayCache = new ReportDayCache();
+
     ReportJsonService(AgentDisplayRepository agentDisplayRepository,
             ConfigRepository configRepository, ActiveAgentRepository activeAgentRepository,
             TransactionTypeRepository transactionTypeRepository,
             AggregateRepository aggregateRepository, GaugeValueRepository gaugeValueRepository,
             LiveAggregateRepository liveAggregateRepository,
-            RollupLevelService rollupLevelService, ExecutorService executor) {
+            RollupLevelService rollupLevelService, Clock clock, ExecutorService executor) {
         this.agentDisplayRepository = agentDisplayRepository;
         this.configRepository = configRepository;
         this.activeAgentRepository = activeAgentRepository;
@@ -109,6 +114,7 @@ class ReportJsonService {
         this.gaugeValueRepository = gaugeValueRepository;
         this.liveAggregateRepository = liveAggregateRepository;
         this.rollupLevelService = rollupLevelService;
+        this.clock = clock;
         this.executor = executor;
     }
 
@@ -163,7 +169,7 @@ class ReportJsonService {
 
     // permission is checked based on agentRollupIds in the request
     @GET(path = "/backend/report", permission = "")
-    String getReport(final @BindRequest ReportRequest request,
+    JsonStreamer getReport(final @BindRequest ReportRequest request,
             @BindAuthentication Authentication authentication) throws Exception {
         String metric = request.metric();
         if (metric.startsWith("transaction:")) {
@@ -202,8 +208,8 @@ class ReportJsonService {
                 throw new IllegalStateException("Unexpected rollup: " + request.rollup());
         }
 
-        List<Future<DataSeries>> dataSeriesFutures;
-        long dataPointIntervalMillis;
+        final List<Future<DataSeries>> dataSeriesFutures;
+        final long dataPointIntervalMillis;
         if (metric.startsWith("transaction:") || metric.startsWith("error:")) {
             int rollupLevel =
                     rollupLevelService.getRollupLevelForReport(from.getTime(), DataKind.GENERAL);
@@ -212,10 +218,12 @@ class ReportJsonService {
             if (rollupLevel == 3) {
                 verifyFourHourAggregateTimeZone(timeZone);
             }
-            dataSeriesFutures = getTransactionReport(request, timeZone, from, to, rollupLevel,
-                    rollupCaptureTimeFn, gapMillis);
             dataPointIntervalMillis =
                     configRepository.getRollupConfigs().get(rollupLevel).intervalMillis();
+            ReportDays reportDays = getReportDays(request, timeZone, from, to, rollupLevel,
+                    dataPointIntervalMillis, rollupCaptureTimeFn);
+            dataSeriesFutures = getTransactionReport(request, timeZone, from, to, rollupLevel,
+                    rollupCaptureTimeFn, gapMillis, reportDays);
         } else if (metric.startsWith("gauge:")) {
             // level 3 (30 min intervals) is the minimum level needed
             final int rollupLevel =
@@ -223,42 +231,85 @@ class ReportJsonService {
             if (rollupLevel == 4) {
                 verifyFourHourAggregateTimeZone(timeZone);
             }
+            if (rollupLevel == 0) {
+                dataPointIntervalMillis = configRepository.getGaugeCollectionIntervalMillis();
+            } else {
+                dataPointIntervalMillis =
+                        configRepository.getRollupConfigs().get(rollupLevel - 1).intervalMillis();
+            }
+            final ReportDays reportDays = getReportDays(request, timeZone, from, to, rollupLevel,
+                    dataPointIntervalMillis, rollupCaptureTimeFn);
             final String gaugeName = metric.substring("gauge:".length());
             dataSeriesFutures = Lists.newArrayList();
             for (final String agentRollupId : request.agentRollupIds()) {
                 dataSeriesFutures.add(executor.submit(new Callable<DataSeries>() {
                     @Override
                     public DataSeries call() throws Exception {
-                        return getDataSeriesForGauge(agentRollupId, gaugeName, from, to,
-                                rollupLevel, rollupCaptureTimeFn, request.rollup(), timeZone,
-                                gapMillis);
+                        return getDataSeriesForGauge(agentRollupId, gaugeName, rollupLevel,
+                                rollupCaptureTimeFn, request.rollup(), timeZone, gapMillis,
+                                reportDays);
                     }
                 }));
             }
-            if (rollupLevel == 0) {
-                dataPointIntervalMillis = configRepository.getGaugeCollectionIntervalMillis();
-            } else {
-                dataPointIntervalMillis =
-                        configRepository.getRollupConfigs().get(rollupLevel - 1).intervalMillis();
-            }
         } else {
             throw new IllegalStateException("Unexpected metric: " + metric);
         }
-        List<DataSeries> dataSeriesList = Lists.newArrayList();
-        for (Future<DataSeries> dataSeriesFuture : dataSeriesFutures) {
-            dataSeriesList.add(dataSeriesFuture.get());
-        }
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = mapper.getFactory().createGenerator(CharStreams.asWriter(sb));
-        try {
-            jg.writeStartObject();
-            jg.writeObjectField("dataSeries", dataSeriesList);
-            jg.writeNumberField("dataPointIntervalMillis", dataPointIntervalMillis);
-            jg.writeEndObject();
-        } finally {
-            jg.close();
+        return new JsonStreamer(mapper.getFactory()) {
+            @Override
+            protected void write(JsonGenerator jg) throws Exception {
+                try {
+                    jg.writeStartObject();
+                    jg.writeNumberField("dataPointIntervalMillis", dataPointIntervalMillis);
+                    jg.writeArrayFieldStart("dataSeries");
+                    for (Future<DataSeries> dataSeriesFuture : dataSeriesFutures) {
+                        DataSeries dataSeries = dataSeriesFuture.get();
+                        DataSeriesDownsampler.downsample(ImmutableList.of(dataSeries),
+                                request.maxPoints());
+                        jg.writeObject(dataSeries);
+                        // each data series is sent as soon as it is available, so that the client
+                        // receives progress while the report is generated (which also prevents
+                        // long running reports from looking idle to proxies and load balancers)
+                        jg.flush();
+                    }
+                    jg.writeEndArray();
+                    jg.writeEndObject();
+                } finally {
+                    // no point continuing if the response fails part way through
+                    for (Future<DataSeries> dataSeriesFuture : dataSeriesFutures) {
+                        dataSeriesFuture.cancel(true);
+                    }
+                }
+            }
+        };
+    }
+
+    private ReportDays getReportDays(ReportRequest request, TimeZone timeZone, Date from,
+            Date to, int rollupLevel, long dataPointIntervalMillis,
+            RollupCaptureTimeFn rollupCaptureTimeFn) throws ParseException {
+        List<Long> dayBoundaries = Lists.newArrayList();
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTime(from);
+        while (calendar.getTimeInMillis() < to.getTime()) {
+            dayBoundaries.add(calendar.getTimeInMillis());
+            calendar.add(Calendar.DATE, 1);
+        }
+        dayBoundaries.add(to.getTime());
+        // data for a day is treated as final once the last rollup interval of the day has been
+        // rolled up, plus some margin for agents that are slightly behind
+        long closedBefore =
+                clock.currentTimeMillis() - dataPointIntervalMillis - HOURS.toMillis(1);
+        // cached data is rolled up to hourly granularity for hourly reports, and to daily
+        // granularity for all others (which can then be rolled up further to weekly or monthly)
+        ROLLUP granularity = request.rollup() == ROLLUP.HOURLY ? ROLLUP.HOURLY : ROLLUP.DAILY;
+        RollupCaptureTimeFn granularityFn;
+        if (granularity == request.rollup()) {
+            granularityFn = rollupCaptureTimeFn;
+        } else {
+            granularityFn = new RollupCaptureTimeFn(granularity, timeZone, request.fromDate());
         }
-        return sb.toString();
+        return new ReportDays(dayBoundaries, closedBefore, granularityFn,
+                ImmutableList.of(granularity.name(), timeZone.getID(),
+                        Integer.toString(rollupLevel)));
     }
 
     private static FromToPair parseDates(String fromDate, String toDate, TimeZone timeZone)
@@ -279,8 +330,8 @@ class ReportJsonService {
 
     private List<Future<DataSeries>> getTransactionReport(final ReportRequest request,
             final TimeZone timeZone, Date from, Date to, int rollupLevel,
-            final RollupCaptureTimeFn rollupCaptureTimeFn, final double gapMillis)
-            throws Exception {
+            final RollupCaptureTimeFn rollupCaptureTimeFn, final double gapMillis,
+            final ReportDays reportDays) throws Exception {
         final AggregateQuery query = ImmutableAggregateQuery.builder()
                 .transactionType(checkNotNull(request.transactionType()))
                 .transactionName(Strings.emptyToNull(checkNotNull(request.transactionName())))
@@ -297,7 +348,7 @@ class ReportJsonService {
                 @Override
                 public DataSeries call() throws Exception {
                     return getTransactionReport(request, timeZone, rollupCaptureTimeFn, gapMillis,
-                            query, metric, agentRollupId);
+                            query, metric, agentRollupId, reportDays);
                 }
             }));
         }
@@ -306,23 +357,24 @@ class ReportJsonService {
 
     private DataSeries getTransactionReport(ReportRequest request, TimeZone timeZone,
             RollupCaptureTimeFn rollupCaptureTimeFn, double gapMillis, AggregateQuery query,
-            String metric, String agentRollupId) throws Exception {
+            String metric, String agentRollupId, ReportDays reportDays) throws Exception {
         if (metric.equals("transaction:average")) {
             return getDataSeriesForAverage(agentRollupId, query, rollupCaptureTimeFn,
-                    request.rollup(), timeZone, gapMillis);
+                    request.rollup(), timeZone, gapMillis, reportDays);
         } else if (metric.equals("transaction:x-percentile")) {
             return getDataSeriesForPercentile(agentRollupId, query,
                     checkNotNull(request.percentile()), rollupCaptureTimeFn, request.rollup(),
-                    timeZone, gapMillis);
+                    timeZone, gapMillis, reportDays);
         } else if (metric.equals("transaction:count")) {
             return getDataSeriesForThroughput(agentRollupId, query, rollupCaptureTimeFn,
-                    request.rollup(), timeZone, gapMillis, new CountCalculator());
+                    request.rollup(), timeZone, gapMillis, new CountCalculator(), reportDays);
         } else if (metric.equals("error:rate")) {
             return getDataSeriesForThroughput(agentRollupId, query, rollupCaptureTimeFn,
-                    request.rollup(), timeZone, gapMillis, new ErrorRateCalculator());
+                    request.rollup(), timeZone, gapMillis, new ErrorRateCalculator(), reportDays);
         } else if (metric.equals("error:count")) {
             return getDataSeriesForThroughput(agentRollupId, query, rollupCaptureTimeFn,
-                    request.rollup(), timeZone, gapMillis, new ErrorCountCalculator());
+                    request.rollup(), timeZone, gapMillis, new ErrorCountCalculator(),
+                    reportDays);
         } else {
             throw new IllegalStateException("Unexpected metric: " + metric);
         }
@@ -330,12 +382,12 @@ class ReportJsonService {
 
     private DataSeries getDataSeriesForAverage(String agentRollupId, AggregateQuery query,
             RollupCaptureTimeFn rollupCaptureTimeFn, ROLLUP rollup,
-            TimeZone timeZone, double gapMillis) throws Exception {
+            TimeZone timeZone, double gapMillis, ReportDays reportDays) throws Exception {
 
         DataSeries dataSeries =
                 new DataSeries(agentDisplayRepository.readFullDisplay(agentRollupId));
         List<OverviewAggregate> aggregates =
-                aggregateRepository.readOverviewAggregates(agentRollupId, query);
+                readOverviewAggregates(agentRollupId, query, reportDays);
         aggregates =
                 TransactionCommonService.rollUpOverviewAggregates(aggregates, rollupCaptureTimeFn);
         if (aggregates.isEmpty()) {
@@ -377,11 +429,11 @@ class ReportJsonService {
 
     private DataSeries getDataSeriesForPercentile(String agentRollupId, AggregateQuery query,
             double percentile, RollupCaptureTimeFn rollupCaptureTimeFn, ROLLUP rollup,
-            TimeZone timeZone, double gapMillis) throws Exception {
+            TimeZone timeZone, double gapMillis, ReportDays reportDays) throws Exception {
         DataSeries dataSeries =
                 new DataSeries(agentDisplayRepository.readFullDisplay(agentRollupId));
         List<PercentileAggregate> aggregates =
-                aggregateRepository.readPercentileAggregates(agentRollupId, query);
+                readPercentileAggregates(agentRollupId, query, reportDays);
         aggregates = TransactionCommonService.rollUpPercentileAggregates(aggregates,
                 rollupCaptureTimeFn);
         if (aggregates.isEmpty()) {
@@ -420,11 +472,12 @@ class ReportJsonService {
 
     private DataSeries getDataSeriesForThroughput(String agentRollupId, AggregateQuery query,
             RollupCaptureTimeFn rollupCaptureTimeFn, ROLLUP rollup, TimeZone timeZone,
-            double gapMillis, ThroughputAggregateFn throughputAggregateFn) throws Exception {
+            double gapMillis, ThroughputAggregateFn throughputAggregateFn, ReportDays reportDays)
+            throws Exception {
         DataSeries dataSeries =
                 new DataSeries(agentDisplayRepository.readFullDisplay(agentRollupId));
         List<ThroughputAggregate> aggregates =
-                aggregateRepository.readThroughputAggregates(agentRollupId, query);
+                readThroughputAggregates(agentRollupId, query, reportDays);
         aggregates = TransactionCommonService.rollUpThroughputAggregates(aggregates,
                 rollupCaptureTimeFn);
         if (aggregates.isEmpty()) {
@@ -461,15 +514,13 @@ class ReportJsonService {
         return dataSeries;
     }
 
-    private DataSeries getDataSeriesForGauge(String agentRollupId, String gaugeName, Date from,
-            Date to, int rollupLevel, RollupCaptureTimeFn rollupCaptureTimeFn, ROLLUP rollup,
-            TimeZone timeZone, double gapMillis) throws Exception {
+    private DataSeries getDataSeriesForGauge(String agentRollupId, String gaugeName,
+            int rollupLevel, RollupCaptureTimeFn rollupCaptureTimeFn, ROLLUP rollup,
+            TimeZone timeZone, double gapMillis, ReportDays reportDays) throws Exception {
         DataSeries dataSeries =
                 new DataSeries(agentDisplayRepository.readFullDisplay(agentRollupId));
-        // from + 1 to make from non-inclusive, since data points are displayed as midpoint of
-        // time range
-        List<GaugeValue> gaugeValues = gaugeValueRepository.readGaugeValues(agentRollupId,
-                gaugeName, from.getTime() + 1, to.getTime(), rollupLevel);
+        List<GaugeValue> gaugeValues =
+                readGaugeValues(agentRollupId, gaugeName, rollupLevel, reportDays);
         gaugeValues = GaugeValueJsonService.rollUpGaugeValues(gaugeValues, gaugeName,
                 rollupCaptureTimeFn);
         if (gaugeValues.isEmpty()) {
@@ -506,6 +557,105 @@ class ReportJsonService {
         return dataSeries;
     }
 
+    // the aggregates returned from these read methods are rolled up to the granularity of the
+    // report days (see getReportDays()), and still need to be rolled up for the report itself
+    private List<OverviewAggregate> readOverviewAggregates(final String agentRollupId,
+            final AggregateQuery query, final ReportDays reportDays) throws Exception {
+        return dayCache.read(reportDays.getSeriesKey(agentRollupId, "overview", query),
+                reportDays.dayBoundaries, reportDays.closedBefore,
+                new DayRangeReader<OverviewAggregate>() {
+                    @Override
+                    public List<OverviewAggregate> read(long from, long to) throws Exception {
+                        List<OverviewAggregate> aggregates =
+                                aggregateRepository.readOverviewAggregates(agentRollupId,
+                                        withDayRange(query, from, to));
+                        return TransactionCommonService.rollUpOverviewAggregates(aggregates,
+                                reportDays.granularityFn);
+                    }
+                    @Override
+                    public long getCaptureTime(OverviewAggregate aggregate) {
+                        return aggregate.captureTime();
+                    }
+                });
+    }
+
+    private List<PercentileAggregate> readPercentileAggregates(final String agentRollupId,
+            final AggregateQuery query, final ReportDays reportDays) throws Exception {
+        return dayCache.read(reportDays.getSeriesKey(agentRollupId, "percentile", query),
+                reportDays.dayBoundaries, reportDays.closedBefore,
+                new DayRangeReader<PercentileAggregate>() {
+                    @Override
+                    public List<PercentileAggregate> read(long from, long to) throws Exception {
+                        List<PercentileAggregate> aggregates =
+                                aggregateRepository.readPercentileAggregates(agentRollupId,
+                                        withDayRange(query, from, to));
+                        return TransactionCommonService.rollUpPercentileAggregates(aggregates,
+                                reportDays.granularityFn);
+                    }
+                    @Override
+                    public long getCaptureTime(PercentileAggregate aggregate) {
+                        return aggregate.captureTime();
+                    }
+                });
+    }
+
+    private List<ThroughputAggregate> readThroughputAggregates(final String agentRollupId,
+            final AggregateQuery query, final ReportDays reportDays) throws Exception {
+        return dayCache.read(reportDays.getSeriesKey(agentRollupId, "throughput", query),
+                reportDays.dayBoundaries, reportDays.closedBefore,
+                new DayRangeReader<ThroughputAggregate>() {
+                    @Override
+                    public List<ThroughputAggregate> read(long from, long to) throws Exception {
+                        List<ThroughputAggregate> aggregates =
+                                aggregateRepository.readThroughputAggregates(agentRollupId,
+                                        withDayRange(query, from, to));
+                        return TransactionCommonService.rollUpThroughputAggregates(aggregates,
+                                reportDays.granularityFn);
+                    }
+                    @Override
+                    public long getCaptureTime(ThroughputAggregate aggregate) {
+                        return aggregate.captureTime();
+                    }
+                });
+    }
+
+    private List<GaugeValue> readGaugeValues(final String agentRollupId, final String gaugeName,
+            final int rollupLevel, final ReportDays reportDays) throws Exception {
+        List<String> seriesKey = ImmutableList.<String>builder()
+                .addAll(reportDays.keyPrefix)
+                .add(agentRollupId)
+                .add("gauge")
+                .add(gaugeName)
+                .build();
+        return dayCache.read(seriesKey, reportDays.dayBoundaries, reportDays.closedBefore,
+                new DayRangeReader<GaugeValue>() {
+                    @Override
+                    public List<GaugeValue> read(long from, long to) throws Exception {
+                        // from + 1 to make from non-inclusive, since data points are displayed as
+                        // midpoint of time range
+                        List<GaugeValue> gaugeValues = gaugeValueRepository
+                                .readGaugeValues(agentRollupId, gaugeName, from + 1, to,
+                                        rollupLevel);
+                        return GaugeValueJsonService.rollUpGaugeValues(gaugeValues, gaugeName,
+                                reportDays.granularityFn);
+                    }
+                    @Override
+                    public long getCaptureTime(GaugeValue gaugeValue) {
+                        return gaugeValue.getCaptureTime();
+                    }
+                });
+    }
+
+    private static AggregateQuery withDayRange(AggregateQuery query, long from, long to) {
+        // from + 1 to make from non-inclusive, since data points are displayed as midpoint of
+        // time range
+        return ImmutableAggregateQuery.builder()
+                .copyFrom(query)
+                .from(from + 1)
+                .to(to)
+                .build();
+    }
+
     // need to filter out agent rollups with no access rights
     private static List<FilteredAgentRollup> filterAndSort(List<AgentRollup> agentRollups,
             Authentication authentication) throws Exception {
@@ -636,6 +786,9 @@ class ReportJsonService {
         String toDate();
         ROLLUP rollup();
         String timeZoneId();
+        // optional limit on the number of points per chart data series (see DataSeriesDownsampler)
+        @Nullable
+        Integer maxPoints();
     }
 
     @Value.Immutable
@@ -648,6 +801,33 @@ class ReportJsonService {
         HOURLY, DAILY, WEEKLY, MONTHLY
     }
 
+    private static class ReportDays {
+
+        private final List<Long> dayBoundaries;
+        private final long closedBefore;
+        private final RollupCaptureTimeFn granularityFn;
+        private final List<String> keyPrefix;
+
+        private ReportDays(List<Long> dayBoundaries, long closedBefore,
+                RollupCaptureTimeFn granularityFn, List<String> keyPrefix) {
+            this.dayBoundaries = dayBoundaries;
+            this.closedBefore = closedBefore;
+            this.granularityFn = granularityFn;
+            this.keyPrefix = keyPrefix;
+        }
+
+        private List<String> getSeriesKey(String agentRollupId, String dataKind,
+                AggregateQuery query) {
+            return ImmutableList.<String>builder()
+                    .addAll(keyPrefix)
+                    .add(agentRollupId)
+                    .add(dataKind)
+                    .add(query.transactionType())
+                    .add(Strings.nullToEmpty(query.transactionName()))
+                    .build();
+        }
+    }
+
     @VisibleForTesting
     static class RollupCaptureTimeFn implements Function<Long, Long> {
 
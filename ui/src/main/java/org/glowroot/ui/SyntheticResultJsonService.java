@@ -29,6 +29,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Multiset;
 import com.google.common.collect.Ordering;
 import com.google.common.io.CharStreams;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.immutables.value.Value;
 
 import org.glowroot.common.util.CaptureTimes;
@@ -130,6 +131,9 @@ class SyntheticResultJsonService {
                     .addErrorIntervals(errorIntervalCollector.getMergedErrorIntervals());
             multiErrorIntervalsList.add(multiErrorIntervalCollector.getMergedMultiErrorIntervals());
         }
+        // execution counts are keyed by capture time, and downsampling only drops points (it
+        // doesn't move them), so the execution counts for the remaining points are still valid
+        DataSeriesDownsampler.downsample(dataSeriesList, request.maxPoints());
         List<ChartMarking> markings = toChartMarkings(multiErrorIntervalsList, syntheticMonitorIds);
         boolean displayNoSyntheticMonitorsConfigured;
         if (allSyntheticMonitors.isEmpty()) {
@@ -373,6 +377,8 @@ class SyntheticResultJsonService {
         }
         // singular because this is used in query string
         abstract ImmutableList<String> syntheticMonitorId();
+        // optional limit on the number of points per chart data series (see DataSeriesDownsampler)
+        abstract @Nullable Integer maxPoints();
     }
 
     private static class SyntheticMonitorOrdering extends Ordering<SyntheticMonitor> {
@@ -20,21 +20,25 @@ import java.text.SimpleDateFormat;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeoutException;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.Callables;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.immutables.value.Value;
 
 import org.glowroot.common.live.LiveJvmService.AgentNotConnectedException;
 import org.glowroot.common.live.LiveTraceRepository;
 import org.glowroot.common.live.LiveTraceRepository.Entries;
-import org.glowroot.common.live.LiveTraceRepository.EntriesAndQueries;
 import org.glowroot.common.live.LiveTraceRepository.Existence;
 import org.glowroot.common.live.LiveTraceRepository.Queries;
 import org.glowroot.common.model.MutableProfile;
@@ -42,6 +46,8 @@ import org.glowroot.common.util.Styles;
 import org.glowroot.common2.repo.AgentDisplayRepository;
 import org.glowroot.common2.repo.TraceRepository;
 import org.glowroot.common2.repo.TraceRepository.HeaderPlus;
+import org.glowroot.ui.ChunkSource.ChunkCopier;
+import org.glowroot.ui.ChunkSource.JsonChunkWriter;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
 import org.glowroot.wire.api.model.Proto;
@@ -53,6 +59,10 @@ class TraceCommonService {
 
     private static final JsonFactory jsonFactory = new JsonFactory();
 
+    // bounds the size of each trace export chunk
+    private static final int ENTRIES_PER_CHUNK = 100;
+    private static final int QUERIES_PER_CHUNK = 100;
+
     private final TraceRepository traceRepository;
     private final LiveTraceRepository liveTraceRepository;
     private final AgentDisplayRepository agentDisplayRepository;
@@ -89,7 +99,7 @@ class TraceCommonService {
     }
 
     @Nullable
-    String getEntriesJson(String agentId, String traceId, boolean checkLiveTraces)
+    JsonStreamer getEntriesJson(String agentId, String traceId, boolean checkLiveTraces)
             throws Exception {
         if (checkLiveTraces) {
             // check active/pending traces first, and lastly stored traces to make sure that the
@@ -103,14 +113,19 @@ class TraceCommonService {
                 entries = null;
             }
             if (entries != null) {
-                return toJson(entries);
+                return toJsonStreamer(entries);
             }
         }
-        return toJson(getStoredEntries(agentId, traceId, new RetryCountdown(checkLiveTraces)));
+        Entries entries =
+                getStoredEntries(agentId, traceId, new RetryCountdown(checkLiveTraces));
+        if (entries == null) {
+            return null;
+        }
+        return toJsonStreamer(entries);
     }
 
     @Nullable
-    String getQueriesJson(String agentId, String traceId, boolean checkLiveTraces)
+    JsonStreamer getQueriesJson(String agentId, String traceId, boolean checkLiveTraces)
             throws Exception {
         if (checkLiveTraces) {
             // check active/pending traces first, and lastly stored traces to make sure that the
@@ -124,22 +139,27 @@ class TraceCommonService {
                 queries = null;
             }
             if (queries != null) {
-                return toJson(queries);
+                return toJsonStreamer(queries);
             }
         }
-        return toJson(getStoredQueries(agentId, traceId, new RetryCountdown(checkLiveTraces)));
+        Queries queries =
+                getStoredQueries(agentId, traceId, new RetryCountdown(checkLiveTraces));
+        if (queries == null) {
+            return null;
+        }
+        return toJsonStreamer(queries);
     }
 
     @Nullable
-    String getMainThreadProfileJson(String agentId, String traceId, boolean checkLiveTraces)
+    JsonStreamer getMainThreadProfileJson(String agentId, String traceId, boolean checkLiveTraces)
             throws Exception {
-        return toJson(getMainThreadProfile(agentId, traceId, checkLiveTraces));
+        return toJsonStreamer(getMainThreadProfile(agentId, traceId, checkLiveTraces));
     }
 
     @Nullable
-    String getAuxThreadProfileJson(String agentId, String traceId, boolean checkLiveTraces)
+    JsonStreamer getAuxThreadProfileJson(String agentId, String traceId, boolean checkLiveTraces)
             throws Exception {
-        return toJson(getAuxThreadProfile(agentId, traceId, checkLiveTraces));
+        return toJsonStreamer(getAuxThreadProfile(agentId, traceId, checkLiveTraces));
     }
 
     @Nullable
@@ -203,14 +223,18 @@ class TraceCommonService {
                 return ImmutableTraceExport.builder()
                         .fileName(getFileName(header))
                         .headerJson(toJsonLiveHeader(agentId, header))
-                        .entriesJson(entriesToJson(trace.getEntryList()))
-                        .queriesJson(queriesToJson(trace.getQueryList()))
+                        .entriesJson(toEntriesChunkSource(Callables.returning(
+                                trace.getEntryList().iterator())))
+                        .queriesJson(toQueriesChunkSource(Callables.returning(
+                                trace.getQueryList().iterator())))
                         // SharedQueryTexts are always returned from getFullTrace() above with
                         // fullTrace, so no need to resolve fullTraceSha1
-                        .sharedQueryTextsJson(
-                                sharedQueryTextsToJson(trace.getSharedQueryTextList()))
-                        .mainThreadProfileJson(toJson(trace.getMainThreadProfile()))
-                        .auxThreadProfileJson(toJson(trace.getAuxThreadProfile()))
+                        .sharedQueryTextsJson(toSharedQueryTextsChunkSource(Callables.returning(
+                                trace.getSharedQueryTextList().iterator())))
+                        .mainThreadProfileJson(toProfileChunkSource(Callables.returning(
+                                trace.getMainThreadProfile())))
+                        .auxThreadProfileJson(toProfileChunkSource(Callables.returning(
+                                trace.getAuxThreadProfile())))
                         .build();
             }
         }
@@ -219,24 +243,20 @@ class TraceCommonService {
         if (header == null) {
             return null;
         }
-        ImmutableTraceExport.Builder builder = ImmutableTraceExport.builder()
+        // the remaining sections are only read from storage once the export reaches them (while
+        // the response is being written), so that the whole trace is never in memory at once
+        StoredExportReader reader = new StoredExportReader(agentId, traceId, retryCountdown);
+        return ImmutableTraceExport.builder()
                 .fileName(getFileName(header.header()))
-                .headerJson(toJsonRepoHeader(agentId, header));
-        EntriesAndQueries queriesAndEntries =
-                getStoredEntriesAndQueriesForExport(agentId, traceId, retryCountdown);
-        if (queriesAndEntries != null) {
-            builder.entriesJson(entriesToJson(queriesAndEntries.entries()));
-            builder.queriesJson(queriesToJson(queriesAndEntries.queries()));
-            // SharedQueryTexts are always returned from getStoredEntries() above with fullTrace,
-            // so no need to resolve fullTraceSha1
-            builder.sharedQueryTextsJson(
-                    sharedQueryTextsToJson(queriesAndEntries.sharedQueryTexts()));
-        }
-        builder.mainThreadProfileJson(
-                toJson(getStoredMainThreadProfile(agentId, traceId, retryCountdown)));
-        builder.auxThreadProfileJson(
-                toJson(getStoredAuxThreadProfile(agentId, traceId, retryCountdown)));
-        return builder.build();
+                .headerJson(toJsonRepoHeader(agentId, header))
+                .entriesJson(toEntriesChunkSource(reader.entries()))
+                .queriesJson(toQueriesChunkSource(reader.queries()))
+                // SharedQueryTexts are always returned from readQueriesForExport() with
+                // fullTrace, so no need to resolve fullTraceSha1
+                .sharedQueryTextsJson(toSharedQueryTextsChunkSource(reader.sharedQueryTexts()))
+                .mainThreadProfileJson(toProfileChunkSource(reader.mainThreadProfile()))
+                .auxThreadProfileJson(toProfileChunkSource(reader.auxThreadProfile()))
+                .build();
     }
 
     private @Nullable HeaderPlus getStoredHeader(String agentId, String traceId,
@@ -272,18 +292,28 @@ class TraceCommonService {
         return queries;
     }
 
-    private @Nullable EntriesAndQueries getStoredEntriesAndQueriesForExport(String agentId,
+    private @Nullable Iterator<Trace.Entry> getStoredEntriesForExport(String agentId,
             String traceId, RetryCountdown retryCountdown) throws Exception {
-        EntriesAndQueries entries =
-                traceRepository.readEntriesAndQueriesForExport(agentId, traceId);
+        Iterator<Trace.Entry> entries = traceRepository.readEntriesForExport(agentId, traceId);
         while (entries == null && retryCountdown.remaining-- > 0) {
             // trace may be completed, but still in transit from agent to the central collector
             MILLISECONDS.sleep(500);
-            entries = traceRepository.readEntriesAndQueriesForExport(agentId, traceId);
+            entries = traceRepository.readEntriesForExport(agentId, traceId);
         }
         return entries;
     }
 
+    private @Nullable Queries getStoredQueriesForExport(String agentId, String traceId,
+            RetryCountdown retryCountdown) throws Exception {
+        Queries queries = traceRepository.readQueriesForExport(agentId, traceId);
+        while (queries == null && retryCountdown.remaining-- > 0) {
+            // trace may be completed, but still in transit from agent to the central collector
+            MILLISECONDS.sleep(500);
+            queries = traceRepository.readQueriesForExport(agentId, traceId);
+        }
+        return queries;
+    }
+
     private @Nullable Profile getStoredMainThreadProfile(String agentId, String traceId,
             RetryCountdown retryCountdown) throws Exception {
         Profile profile = traceRepository.readMainThreadProfile(agentId, traceId);
@@ -306,87 +336,118 @@ class TraceCommonService {
         return profile;
     }
 
-    private static @Nullable String toJson(@Nullable Entries entries) throws IOException {
-        if (entries == null) {
-            return null;
-        }
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = jsonFactory.createGenerator(CharStreams.asWriter(sb));
-        try {
-            jg.writeStartObject();
-            jg.writeFieldName("entries");
-            writeEntries(jg, entries.entries());
-            jg.writeFieldName("sharedQueryTexts");
-            writeSharedQueryTexts(jg, entries.sharedQueryTexts());
-            jg.writeEndObject();
-        } finally {
-            jg.close();
-        }
-        return sb.toString();
+    private static JsonStreamer toJsonStreamer(final Entries entries) {
+        return new JsonStreamer(jsonFactory) {
+            @Override
+            protected void write(JsonGenerator jg) throws IOException {
+                jg.writeStartObject();
+                jg.writeFieldName("entries");
+                writeEntries(jg, entries.entries());
+                jg.writeFieldName("sharedQueryTexts");
+                writeSharedQueryTexts(jg, entries.sharedQueryTexts());
+                jg.writeEndObject();
+            }
+        };
     }
 
-    private static @Nullable String toJson(@Nullable Queries queries) throws IOException {
-        if (queries == null) {
-            return null;
-        }
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = jsonFactory.createGenerator(CharStreams.asWriter(sb));
-        try {
-            jg.writeStartObject();
-            jg.writeFieldName("queries");
-            writeQueries(jg, queries.queries());
-            jg.writeFieldName("sharedQueryTexts");
-            writeSharedQueryTexts(jg, queries.sharedQueryTexts());
-            jg.writeEndObject();
-        } finally {
-            jg.close();
-        }
-        return sb.toString();
+    private static JsonStreamer toJsonStreamer(final Queries queries) {
+        return new JsonStreamer(jsonFactory) {
+            @Override
+            protected void write(JsonGenerator jg) throws IOException {
+                jg.writeStartObject();
+                jg.writeFieldName("queries");
+                writeQueries(jg, queries.queries());
+                jg.writeFieldName("sharedQueryTexts");
+                writeSharedQueryTexts(jg, queries.sharedQueryTexts());
+                jg.writeEndObject();
+            }
+        };
     }
 
     @VisibleForTesting
-    static @Nullable String entriesToJson(List<Trace.Entry> entries) throws IOException {
-        if (entries.isEmpty()) {
-            return null;
-        }
+    static String entriesToJson(List<Trace.Entry> entries) throws IOException {
         StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = jsonFactory.createGenerator(CharStreams.asWriter(sb));
-        try {
-            writeEntries(jg, entries);
-        } finally {
-            jg.close();
+        ChunkCopier copier = toEntriesChunkSource(Callables.returning(entries.iterator()))
+                .getCopier(CharStreams.asWriter(sb));
+        while (copier.copyNext()) {
         }
         return sb.toString();
     }
 
-    @VisibleForTesting
-    static @Nullable String queriesToJson(List<Aggregate.Query> queries) throws IOException {
-        if (queries.isEmpty()) {
-            return null;
-        }
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = jsonFactory.createGenerator(CharStreams.asWriter(sb));
-        try {
-            writeQueries(jg, queries);
-        } finally {
-            jg.close();
-        }
-        return sb.toString();
+    private static ChunkSource toEntriesChunkSource(
+            final Callable<Iterator<Trace.Entry>> entries) {
+        return ChunkSource.createJson(jsonFactory, new Supplier<JsonChunkWriter>() {
+            @Override
+            public JsonChunkWriter get() {
+                return new ArrayJsonChunkWriter<Trace.Entry>(entries, ENTRIES_PER_CHUNK) {
+                    @Override
+                    void writeElement(JsonGenerator jg, PeekingIterator<Trace.Entry> i)
+                            throws IOException {
+                        writeEntry(jg, i);
+                    }
+                };
+            }
+        });
     }
 
-    private static @Nullable String sharedQueryTextsToJson(
-            List<Trace.SharedQueryText> sharedQueryTexts) throws IOException {
-        if (sharedQueryTexts.isEmpty()) {
-            return null;
-        }
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = jsonFactory.createGenerator(CharStreams.asWriter(sb));
-        try {
-            writeSharedQueryTexts(jg, sharedQueryTexts);
-        } finally {
-            jg.close();
-        }
-        return sb.toString();
+    private static ChunkSource toQueriesChunkSource(
+            final Callable<Iterator<Aggregate.Query>> queries) {
+        return ChunkSource.createJson(jsonFactory, new Supplier<JsonChunkWriter>() {
+            @Override
+            public JsonChunkWriter get() {
+                return new ArrayJsonChunkWriter<Aggregate.Query>(queries, QUERIES_PER_CHUNK) {
+                    @Override
+                    void writeElement(JsonGenerator jg, PeekingIterator<Aggregate.Query> i)
+                            throws IOException {
+                        writeQuery(jg, i.next());
+                    }
+                };
+            }
+        });
+    }
+
+    private static ChunkSource toSharedQueryTextsChunkSource(
+            final Callable<Iterator<Trace.SharedQueryText>> sharedQueryTexts) {
+        return ChunkSource.createJson(jsonFactory, new Supplier<JsonChunkWriter>() {
+            @Override
+            public JsonChunkWriter get() {
+                return new ArrayJsonChunkWriter<Trace.SharedQueryText>(sharedQueryTexts,
+                        QUERIES_PER_CHUNK) {
+                    @Override
+                    void writeElement(JsonGenerator jg,
+                            PeekingIterator<Trace.SharedQueryText> i) throws IOException {
+                        writeSharedQueryText(jg, i.next());
+                    }
+                };
+            }
+        });
+    }
+
+    private static ChunkSource toProfileChunkSource(
+            final Callable</*@Nullable*/ Profile> profile) {
+        return ChunkSource.createJson(jsonFactory, new Supplier<JsonChunkWriter>() {
+            @Override
+            public JsonChunkWriter get() {
+                return new JsonChunkWriter() {
+                    private boolean done;
+                    @Override
+                    public boolean writeNext(JsonGenerator jg) throws Exception {
+                        if (done) {
+                            return false;
+                        }
+                        done = true;
+                        Profile p = profile.call();
+                        if (p == null) {
+                            return false;
+                        }
+                        MutableProfile mutableProfile = new MutableProfile();
+                        mutableProfile.merge(p);
+                        mutableProfile.writeJson(jg);
+                        return true;
+                    }
+                };
+            }
+        });
     }
 
     private static void writeEntries(JsonGenerator jg, List<Trace.Entry> entries)
@@ -394,65 +455,82 @@ class TraceCommonService {
         jg.writeStartArray();
         PeekingIterator<Trace.Entry> i = Iterators.peekingIterator(entries.iterator());
         while (i.hasNext()) {
-            Trace.Entry entry = i.next();
-            int depth = entry.getDepth();
-            jg.writeStartObject();
-            writeJson(entry, jg);
-            int nextDepth = i.hasNext() ? i.peek().getDepth() : 0;
-            if (nextDepth > depth) {
-                jg.writeArrayFieldStart("childEntries");
-            } else if (nextDepth < depth) {
-                jg.writeEndObject();
-                for (int j = depth; j > nextDepth; j--) {
-                    jg.writeEndArray();
-                    jg.writeEndObject();
-                }
-            } else {
+            writeEntry(jg, i);
+        }
+        jg.writeEndArray();
+    }
+
+    private static void writeEntry(JsonGenerator jg, PeekingIterator<Trace.Entry> i)
+            throws IOException {
+        Trace.Entry entry = i.next();
+        int depth = entry.getDepth();
+        jg.writeStartObject();
+        writeJson(entry, jg);
+        int nextDepth = i.hasNext() ? i.peek().getDepth() : 0;
+        if (nextDepth > depth) {
+            jg.writeArrayFieldStart("childEntries");
+        } else if (nextDepth < depth) {
+            jg.writeEndObject();
+            for (int j = depth; j > nextDepth; j--) {
+                jg.writeEndArray();
                 jg.writeEndObject();
             }
+        } else {
+            jg.writeEndObject();
         }
-        jg.writeEndArray();
     }
 
     private static void writeQueries(JsonGenerator jg, List<Aggregate.Query> queries)
             throws IOException {
         jg.writeStartArray();
-        Iterator<Aggregate.Query> i = queries.iterator();
-        while (i.hasNext()) {
-            Aggregate.Query query = i.next();
-            jg.writeStartObject();
-            writeJson(query, jg);
-            jg.writeEndObject();
+        for (Aggregate.Query query : queries) {
+            writeQuery(jg, query);
         }
         jg.writeEndArray();
     }
 
+    private static void writeQuery(JsonGenerator jg, Aggregate.Query query) throws IOException {
+        jg.writeStartObject();
+        writeJson(query, jg);
+        jg.writeEndObject();
+    }
+
     private static void writeSharedQueryTexts(JsonGenerator jg,
             List<Trace.SharedQueryText> sharedQueryTexts) throws IOException {
         jg.writeStartArray();
         for (Trace.SharedQueryText sharedQueryText : sharedQueryTexts) {
-            jg.writeStartObject();
-            String fullText = sharedQueryText.getFullText();
-            if (fullText.isEmpty()) {
-                // truncatedText, truncatedEndText and fullTextSha1 are all provided in this case
-                jg.writeStringField("truncatedText", sharedQueryText.getTruncatedText());
-                jg.writeStringField("truncatedEndText", sharedQueryText.getTruncatedEndText());
-                jg.writeStringField("fullTextSha1", sharedQueryText.getFullTextSha1());
-            } else {
-                jg.writeStringField("fullText", fullText);
-            }
-            jg.writeEndObject();
+            writeSharedQueryText(jg, sharedQueryText);
         }
         jg.writeEndArray();
     }
 
-    private static @Nullable String toJson(@Nullable Profile profile) throws IOException {
+    private static void writeSharedQueryText(JsonGenerator jg,
+            Trace.SharedQueryText sharedQueryText) throws IOException {
+        jg.writeStartObject();
+        String fullText = sharedQueryText.getFullText();
+        if (fullText.isEmpty()) {
+            // truncatedText, truncatedEndText and fullTextSha1 are all provided in this case
+            jg.writeStringField("truncatedText", sharedQueryText.getTruncatedText());
+            jg.writeStringField("truncatedEndText", sharedQueryText.getTruncatedEndText());
+            jg.writeStringField("fullTextSha1", sharedQueryText.getFullTextSha1());
+        } else {
+            jg.writeStringField("fullText", fullText);
+        }
+        jg.writeEndObject();
+    }
+
+    private static @Nullable JsonStreamer toJsonStreamer(@Nullable Profile profile) {
         if (profile == null) {
             return null;
         }
-        MutableProfile mutableProfile = new MutableProfile();
+        final MutableProfile mutableProfile = new MutableProfile();
         mutableProfile.merge(profile);
-        return mutableProfile.toJson();
+        return new JsonStreamer(jsonFactory) {
+            @Override
+            protected void write(JsonGenerator jg) throws IOException {
+                mutableProfile.writeJson(jg);
+            }
+        };
     }
 
     private String toJsonLiveHeader(String agentId, Trace.Header header) throws Exception {
@@ -765,6 +843,143 @@ class TraceCommonService {
         return "trace-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(header.getStartTime());
     }
 
+    // entries are read from storage incrementally, while they are being written out, and queries
+    // and shared query texts are read from storage together, when the first of them is needed,
+    // and each one is released as soon as it has been handed out (the export chunk sources are only
+    // copied once)
+    //
+    // these reads (including the retries) happen while the response is being streamed, which is
+    // never on the event loop (see HttpServerHandler)
+    private class StoredExportReader {
+
+        private final String agentId;
+        private final String traceId;
+        private final RetryCountdown retryCountdown;
+
+        private boolean queriesRead;
+        private @Nullable List<Aggregate.Query> queries;
+        private @Nullable List<Trace.SharedQueryText> sharedQueryTexts;
+
+        private StoredExportReader(String agentId, String traceId,
+                RetryCountdown retryCountdown) {
+            this.agentId = agentId;
+            this.traceId = traceId;
+            this.retryCountdown = retryCountdown;
+        }
+
+        private Callable<Iterator<Trace.Entry>> entries() {
+            return new Callable<Iterator<Trace.Entry>>() {
+                @Override
+                public Iterator<Trace.Entry> call() throws Exception {
+                    Iterator<Trace.Entry> entries =
+                            getStoredEntriesForExport(agentId, traceId, retryCountdown);
+                    return entries == null ? ImmutableList.<Trace.Entry>of().iterator() : entries;
+                }
+            };
+        }
+
+        private Callable<Iterator<Aggregate.Query>> queries() {
+            return new Callable<Iterator<Aggregate.Query>>() {
+                @Override
+                public Iterator<Aggregate.Query> call() throws Exception {
+                    readQueriesIfNeeded();
+                    List<Aggregate.Query> queries = StoredExportReader.this.queries;
+                    StoredExportReader.this.queries = null;
+                    return queries == null ? ImmutableList.<Aggregate.Query>of().iterator()
+                            : queries.iterator();
+                }
+            };
+        }
+
+        private Callable<Iterator<Trace.SharedQueryText>> sharedQueryTexts() {
+            return new Callable<Iterator<Trace.SharedQueryText>>() {
+                @Override
+                public Iterator<Trace.SharedQueryText> call() throws Exception {
+                    readQueriesIfNeeded();
+                    List<Trace.SharedQueryText> sharedQueryTexts =
+                            StoredExportReader.this.sharedQueryTexts;
+                    StoredExportReader.this.sharedQueryTexts = null;
+                    return sharedQueryTexts == null
+                            ? ImmutableList.<Trace.SharedQueryText>of().iterator()
+                            : sharedQueryTexts.iterator();
+                }
+            };
+        }
+
+        private Callable</*@Nullable*/ Profile> mainThreadProfile() {
+            return new Callable</*@Nullable*/ Profile>() {
+                @Override
+                public @Nullable Profile call() throws Exception {
+                    return getStoredMainThreadProfile(agentId, traceId, retryCountdown);
+                }
+            };
+        }
+
+        private Callable</*@Nullable*/ Profile> auxThreadProfile() {
+            return new Callable</*@Nullable*/ Profile>() {
+                @Override
+                public @Nullable Profile call() throws Exception {
+                    return getStoredAuxThreadProfile(agentId, traceId, retryCountdown);
+                }
+            };
+        }
+
+        private void readQueriesIfNeeded() throws Exception {
+            if (queriesRead) {
+                return;
+            }
+            queriesRead = true;
+            Queries queries = getStoredQueriesForExport(agentId, traceId, retryCountdown);
+            if (queries != null) {
+                this.queries = queries.queries();
+                sharedQueryTexts = queries.sharedQueryTexts();
+            }
+        }
+    }
+
+    // writes a JSON array incrementally, elementsPerChunk elements per chunk (and writes nothing at
+    // all if there are no elements)
+    private abstract static class ArrayJsonChunkWriter<T> implements JsonChunkWriter {
+
+        private final Callable<Iterator<T>> elements;
+        private final int elementsPerChunk;
+
+        private @MonotonicNonNull PeekingIterator<T> iterator;
+        private boolean done;
+
+        private ArrayJsonChunkWriter(Callable<Iterator<T>> elements, int elementsPerChunk) {
+            this.elements = elements;
+            this.elementsPerChunk = elementsPerChunk;
+        }
+
+        @Override
+        public boolean writeNext(JsonGenerator jg) throws Exception {
+            if (done) {
+                return false;
+            }
+            PeekingIterator<T> i = iterator;
+            if (i == null) {
+                i = Iterators.peekingIterator(elements.call());
+                if (!i.hasNext()) {
+                    done = true;
+                    return false;
+                }
+                iterator = i;
+                jg.writeStartArray();
+            }
+            for (int n = 0; n < elementsPerChunk && i.hasNext(); n++) {
+                writeElement(jg, i);
+            }
+            if (!i.hasNext()) {
+                jg.writeEndArray();
+                done = true;
+            }
+            return true;
+        }
+
+        abstract void writeElement(JsonGenerator jg, PeekingIterator<T> i) throws IOException;
+    }
+
     private static class RetryCountdown {
 
         private int remaining;
@@ -779,15 +994,10 @@ class TraceCommonService {
     interface TraceExport {
         String fileName();
         String headerJson();
-        @Nullable
-        String entriesJson();
-        @Nullable
-        String queriesJson();
-        @Nullable
-        String sharedQueryTextsJson();
-        @Nullable
-        String mainThreadProfileJson();
-        @Nullable
-        String auxThreadProfileJson();
+        ChunkSource entriesJson();
+        ChunkSource queriesJson();
+        ChunkSource sharedQueryTextsJson();
+        ChunkSource mainThreadProfileJson();
+        ChunkSource auxThreadProfileJson();
     }
 }
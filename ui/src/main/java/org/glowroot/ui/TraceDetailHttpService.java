@@ -65,51 +65,31 @@ class TraceDetailHttpService implements HttpService {
         logger.debug("handleRequest(): traceComponent={}, agentId={}, traceId={},"
                 + " checkLiveTraces={}", traceComponent, agentId, traceId, checkLiveTraces);
 
-        ChunkSource detail =
-                getDetailChunkSource(traceComponent, agentId, traceId, checkLiveTraces);
+        JsonStreamer detail =
+                getDetailJsonStreamer(traceComponent, agentId, traceId, checkLiveTraces);
         if (detail == null) {
             return new CommonResponse(NOT_FOUND);
         }
         return new CommonResponse(OK, MediaType.JSON_UTF_8, detail);
     }
 
-    private @Nullable ChunkSource getDetailChunkSource(String traceComponent, String agentId,
+    private @Nullable JsonStreamer getDetailJsonStreamer(String traceComponent, String agentId,
             String traceId, boolean checkLiveTraces) throws Exception {
         if (traceComponent.equals("entries")) {
-            String entriesJson =
-                    traceCommonService.getEntriesJson(agentId, traceId, checkLiveTraces);
-            if (entriesJson == null) {
-                // this includes trace was found but the trace had no entries
-                // caller should check trace.entry_count
-                return null;
-            }
-            return ChunkSource.wrap(entriesJson);
+            // null includes trace was found but the trace had no entries
+            // caller should check trace.entry_count
+            return traceCommonService.getEntriesJson(agentId, traceId, checkLiveTraces);
         }
         if (traceComponent.equals("queries")) {
-            String queriesJson =
-                    traceCommonService.getQueriesJson(agentId, traceId, checkLiveTraces);
-            if (queriesJson == null) {
-                // this includes trace was found but the trace had no queries
-                // caller should check trace.query_count
-                return null;
-            }
-            return ChunkSource.wrap(queriesJson);
+            // null includes trace was found but the trace had no queries
+            // caller should check trace.query_count
+            return traceCommonService.getQueriesJson(agentId, traceId, checkLiveTraces);
         }
         if (traceComponent.equals("main-thread-profile")) {
-            String profileJson =
-                    traceCommonService.getMainThreadProfileJson(agentId, traceId, checkLiveTraces);
-            if (profileJson == null) {
-                return null;
-            }
-            return ChunkSource.wrap(profileJson);
+            return traceCommonService.getMainThreadProfileJson(agentId, traceId, checkLiveTraces);
         }
         if (traceComponent.equals("aux-thread-profile")) {
-            String profileJson =
-                    traceCommonService.getAuxThreadProfileJson(agentId, traceId, checkLiveTraces);
-            if (profileJson == null) {
-                return null;
-            }
-            return ChunkSource.wrap(profileJson);
+            return traceCommonService.getAuxThreadProfileJson(agentId, traceId, checkLiveTraces);
         }
         throw new IllegalStateException("Unexpected trace component: " + traceComponent);
     }
@@ -135,42 +135,27 @@ class TraceExportHttpService implements HttpService {
             } else if (match.equals(entriesPlaceholder)) {
                 chunkSources
                         .add(ChunkSource.wrap("<script type=\"text/json\" id=\"entriesJson\">"));
-                String entriesJson = traceExport.entriesJson();
-                if (entriesJson != null) {
-                    chunkSources.add(ChunkSource.wrap(entriesJson));
-                }
+                chunkSources.add(traceExport.entriesJson());
                 chunkSources.add(ChunkSource.wrap("</script>"));
             } else if (match.equals(queriesPlaceholder)) {
                 chunkSources
                         .add(ChunkSource.wrap("<script type=\"text/json\" id=\"queriesJson\">"));
-                String queriesJson = traceExport.queriesJson();
-                if (queriesJson != null) {
-                    chunkSources.add(ChunkSource.wrap(queriesJson));
-                }
+                chunkSources.add(traceExport.queriesJson());
                 chunkSources.add(ChunkSource.wrap("</script>"));
             } else if (match.equals(sharedQueryTextsPlaceholder)) {
                 chunkSources.add(ChunkSource
                         .wrap("<script type=\"text/json\" id=\"sharedQueryTextsJson\">"));
-                String sharedQueryTextsJson = traceExport.sharedQueryTextsJson();
-                if (sharedQueryTextsJson != null) {
-                    chunkSources.add(ChunkSource.wrap(sharedQueryTextsJson));
-                }
+                chunkSources.add(traceExport.sharedQueryTextsJson());
                 chunkSources.add(ChunkSource.wrap("</script>"));
             } else if (match.equals(mainThreadProfilePlaceholder)) {
                 chunkSources.add(ChunkSource
                         .wrap("<script type=\"text/json\" id=\"mainThreadProfileJson\">"));
-                String mainThreadProfileJson = traceExport.mainThreadProfileJson();
-                if (mainThreadProfileJson != null) {
-                    chunkSources.add(ChunkSource.wrap(mainThreadProfileJson));
-                }
+                chunkSources.add(traceExport.mainThreadProfileJson());
                 chunkSources.add(ChunkSource.wrap("</script>"));
             } else if (match.equals(auxThreadProfilePlaceholder)) {
                 chunkSources.add(ChunkSource
                         .wrap("<script type=\"text/json\" id=\"auxThreadProfileJson\">"));
-                String auxThreadProfileJson = traceExport.auxThreadProfileJson();
-                if (auxThreadProfileJson != null) {
-                    chunkSources.add(ChunkSource.wrap(auxThreadProfileJson));
-                }
+                chunkSources.add(traceExport.auxThreadProfileJson());
                 chunkSources.add(ChunkSource.wrap("</script>"));
             } else if (match.equals(footerMessagePlaceholder)) {
                 chunkSources.add(ChunkSource.wrap("Glowroot version " + version));
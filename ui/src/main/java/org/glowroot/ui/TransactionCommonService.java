@@ -48,6 +48,7 @@ import org.glowroot.common2.repo.AggregateRepository;
 import org.glowroot.common2.repo.ConfigRepository;
 import org.glowroot.common2.repo.ConfigRepository.AgentConfigNotFoundException;
 import org.glowroot.common2.repo.MutableAggregate;
+import org.glowroot.ui.ProfileCache.ProfileReader;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AdvancedConfig;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 
@@ -60,6 +61,8 @@ class TransactionCommonService {
     private final ConfigRepository configRepository;
     private final Clock clock;
 
+    private final ProfileCache profileCache = new ProfileCache();
+
     TransactionCommonService(AggregateRepository aggregateRepository,
             LiveAggregateRepository liveAggregateRepository, ConfigRepository configRepository,
             Clock clock) {
@@ -360,13 +363,26 @@ class TransactionCommonService {
     ProfileCollector getMergedProfile(String agentRollupId, AggregateQuery query, boolean auxiliary,
             List<String> includes, List<String> excludes, double truncateBranchPercentage)
             throws Exception {
-        ProfileCollector profileCollector = getMergedProfile(agentRollupId, query, auxiliary);
+        ProfileCollector profileCollector = profileCache.read(agentRollupId, query, auxiliary,
+                clock.currentTimeMillis(), new ProfileReader() {
+                    @Override
+                    public ProfileCollector read(String agentRollupId, AggregateQuery query,
+                            boolean auxiliary) throws Exception {
+                        return getMergedProfile(agentRollupId, query, auxiliary);
+                    }
+                });
+        // the cached profile is read only, so it is only copied if it needs to be modified
         MutableProfile profile = profileCollector.getProfile();
         if (!includes.isEmpty() || !excludes.isEmpty()) {
+            profile = profile.copy();
             profile.filter(includes, excludes);
+            profile.truncateBranches(truncateBranchPercentage);
+        } else if (truncateBranchPercentage != 0) {
+            profile = profile.truncatedCopy(truncateBranchPercentage);
+        } else {
+            return profileCollector;
         }
-        profile.truncateBranches(truncateBranchPercentage);
-        return profileCollector;
+        return new ProfileCollector(profile, profileCollector.getLastCaptureTime());
     }
 
     @Nullable
@@ -15,21 +15,28 @@
  */
 package org.glowroot.ui;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Function;
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.google.common.io.CharStreams;
+import com.google.common.net.MediaType;
 import com.google.common.primitives.Doubles;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.immutables.value.Value;
@@ -65,10 +72,14 @@ import org.glowroot.common2.repo.util.RollupLevelService;
 import org.glowroot.common2.repo.util.RollupLevelService.DataKind;
 import org.glowroot.ui.AggregateMerging.MergedAggregate;
 import org.glowroot.ui.AggregateMerging.PercentileValue;
+import org.glowroot.ui.CommonHandler.CommonResponse;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
 
 @JsonService
 class TransactionJsonService {
@@ -83,16 +94,138 @@ class TransactionJsonService {
     private final ConfigRepository configRepository;
     private final RollupLevelService rollupLevelService;
     private final Clock clock;
+    private final ExecutorService transactionPageExecutor;
 
     TransactionJsonService(TransactionCommonService transactionCommonService,
             TraceCommonService traceCommonService, AggregateRepository aggregateRepository,
-            ConfigRepository configRepository, RollupLevelService rollupLevelService, Clock clock) {
+            ConfigRepository configRepository, RollupLevelService rollupLevelService, Clock clock,
+            ExecutorService transactionPageExecutor) {
         this.transactionCommonService = transactionCommonService;
         this.traceCommonService = traceCommonService;
         this.aggregateRepository = aggregateRepository;
         this.configRepository = configRepository;
         this.rollupLevelService = rollupLevelService;
         this.clock = clock;
+        this.transactionPageExecutor = transactionPageExecutor;
+    }
+
+    // combines the data for the transaction page (response time, percentile and throughput charts,
+    // and the transaction name summaries) into a single request, so that the underlying reads
+    // can be performed concurrently on the server instead of one after another
+    //
+    // the "part" query parameter can be used to limit the response to a subset of the parts (the
+    // transaction page only requests the chart that is currently displayed, along with the
+    // summaries), each part of the response is identical to the response from the corresponding
+    // individual endpoint, and the time spent on each part is reported in the Server-Timing
+    // response header
+    @GET(path = "/backend/transaction/page", permission = "agent:transaction:overview")
+    CommonResponse getPage(final @BindAgentRollupId String agentRollupId,
+            @BindRequest TransactionPageRequest request, final @BindAutoRefresh boolean autoRefresh)
+            throws Exception {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        final TransactionDataRequest dataRequest = ImmutableTransactionDataRequest.builder()
+                .transactionType(request.transactionType())
+                .transactionName(request.transactionName())
+                .from(request.from())
+                .to(request.to())
+                .maxPoints(request.maxPoints())
+                .sinceCaptureTime(request.sinceCaptureTime())
+                .build();
+        final TransactionPercentileRequest percentileRequest =
+                ImmutableTransactionPercentileRequest.builder()
+                        .transactionType(request.transactionType())
+                        .transactionName(request.transactionName())
+                        .from(request.from())
+                        .to(request.to())
+                        .percentile(request.percentile())
+                        .maxPoints(request.maxPoints())
+                        .build();
+        final TransactionSummaryRequest summaryRequest =
+                ImmutableTransactionSummaryRequest.builder()
+                        .transactionType(request.transactionType())
+                        .from(request.from())
+                        .to(request.to())
+                        .sortOrder(request.summarySortOrder())
+                        .limit(request.summaryLimit())
+                        .build();
+        List<TimedPart> parts = Lists.newArrayList();
+        if (isIncluded(request, "average")) {
+            parts.add(new TimedPart("average") {
+                @Override
+                String read() throws Exception {
+                    return getOverview(agentRollupId, dataRequest, autoRefresh);
+                }
+            });
+        }
+        if (isIncluded(request, "percentiles")) {
+            parts.add(new TimedPart("percentiles") {
+                @Override
+                String read() throws Exception {
+                    return getPercentiles(agentRollupId, percentileRequest, autoRefresh);
+                }
+            });
+        }
+        if (isIncluded(request, "throughput")) {
+            parts.add(new TimedPart("throughput") {
+                @Override
+                String read() throws Exception {
+                    return getThroughput(agentRollupId, dataRequest, autoRefresh);
+                }
+            });
+        }
+        if (isIncluded(request, "summaries")) {
+            parts.add(new TimedPart("summaries") {
+                @Override
+                String read() throws Exception {
+                    return getSummaries(agentRollupId, summaryRequest, autoRefresh);
+                }
+            });
+        }
+        if (parts.isEmpty()) {
+            throw new JsonServiceException(BAD_REQUEST, "unexpected part: " + request.part());
+        }
+        List<Future<String>> futures = Lists.newArrayList();
+        StringBuilder sb = new StringBuilder();
+        boolean success = false;
+        try {
+            // the last part is performed on the current thread, since it would otherwise just be
+            // waiting on the others
+            for (TimedPart part : parts.subList(0, parts.size() - 1)) {
+                futures.add(transactionPageExecutor.submit(part));
+            }
+            String lastPartJson = Iterables.getLast(parts).call();
+            JsonGenerator jg = mapper.getFactory().createGenerator(CharStreams.asWriter(sb));
+            try {
+                jg.writeStartObject();
+                for (int i = 0; i < futures.size(); i++) {
+                    jg.writeFieldName(parts.get(i).name);
+                    jg.writeRawValue(getUnchecked(futures.get(i)));
+                }
+                jg.writeFieldName(Iterables.getLast(parts).name);
+                jg.writeRawValue(lastPartJson);
+                jg.writeEndObject();
+            } finally {
+                jg.close();
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                // no point in continuing the other reads since the request has already failed
+                for (Future<String> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+        StringBuilder serverTiming = new StringBuilder();
+        for (TimedPart part : parts) {
+            part.appendServerTiming(serverTiming);
+            serverTiming.append(", ");
+        }
+        serverTiming.append("total;dur=");
+        serverTiming.append(stopwatch.elapsed(MICROSECONDS) / 1000.0);
+        CommonResponse response = new CommonResponse(OK, MediaType.JSON_UTF_8, sb.toString());
+        response.setHeader("Server-Timing", serverTiming.toString());
+        return response;
     }
 
     @GET(path = "/backend/transaction/average", permission = "agent:transaction:overview")
@@ -118,6 +251,8 @@ class TransactionJsonService {
                 configRepository.getRollupConfigs().get(query.rollupLevel()).intervalMillis();
         List<DataSeries> dataSeriesList = getDataSeriesForTimerChart(request, overviewAggregates,
                 dataPointIntervalMillis, liveCaptureTime);
+        // timer chart is stacked
+        DataSeriesDownsampler.downsampleTogether(dataSeriesList, request.maxPoints());
         Map<Long, Long> transactionCounts = getTransactionCounts(overviewAggregates);
         // TODO more precise aggregate when from/to not on rollup grid
         List<OverviewAggregate> overviewAggregatesForMerging = Lists.newArrayList();
@@ -169,6 +304,7 @@ class TransactionJsonService {
         PercentileData percentileData =
                 getDataSeriesForPercentileChart(request, percentileAggregates, request.percentile(),
                         dataPointIntervalMillis, liveCaptureTime);
+        DataSeriesDownsampler.downsample(percentileData.dataSeriesList(), request.maxPoints());
         Map<Long, Long> transactionCounts = getTransactionCounts2(percentileAggregates);
 
         StringBuilder sb = new StringBuilder();
@@ -191,10 +327,30 @@ class TransactionJsonService {
             @BindRequest TransactionDataRequest request, @BindAutoRefresh boolean autoRefresh)
             throws Exception {
         AggregateQuery query = toChartQuery(request, DataKind.GENERAL);
+        long dataPointIntervalMillis =
+                configRepository.getRollupConfigs().get(query.rollupLevel()).intervalMillis();
+        Long sinceCaptureTime = request.sinceCaptureTime();
+        long deltaFrom = 0;
+        if (sinceCaptureTime != null) {
+            // re-read starting from the last completed data point that the client already has,
+            // since the data point at sinceCaptureTime may have been for a partial interval
+            deltaFrom = CaptureTimes.getRollup(sinceCaptureTime, dataPointIntervalMillis)
+                    - dataPointIntervalMillis;
+            if (deltaFrom > query.from()) {
+                query = ImmutableAggregateQuery.builder()
+                        .copyFrom(query)
+                        .from(deltaFrom)
+                        .build();
+            } else {
+                // not worth it, or client is too far behind, so return the full chart
+                deltaFrom = 0;
+            }
+        }
         long liveCaptureTime = clock.currentTimeMillis();
         List<ThroughputAggregate> throughputAggregates =
                 transactionCommonService.getThroughputAggregates(agentRollupId, query, autoRefresh);
-        if (throughputAggregates.isEmpty() && fallBackToLargestAggregates(query)) {
+        if (throughputAggregates.isEmpty() && deltaFrom == 0
+                && fallBackToLargestAggregates(query)) {
             // fall back to largest aggregates in case expiration settings have recently changed
             query = withLargestRollupLevel(query);
             throughputAggregates = transactionCommonService.getThroughputAggregates(agentRollupId,
@@ -204,19 +360,19 @@ class TransactionJsonService {
                 // this is probably data from before the requested time period
                 throughputAggregates = ImmutableList.of();
             }
+            dataPointIntervalMillis =
+                    configRepository.getRollupConfigs().get(query.rollupLevel()).intervalMillis();
         }
-        long dataPointIntervalMillis =
-                configRepository.getRollupConfigs().get(query.rollupLevel()).intervalMillis();
-        List<DataSeries> dataSeriesList = getDataSeriesForThroughputChart(request,
-                throughputAggregates, dataPointIntervalMillis, liveCaptureTime);
-        // TODO more precise aggregate when from/to not on rollup grid
-        long transactionCount = 0;
-        for (ThroughputAggregate throughputAggregate : throughputAggregates) {
-            long captureTime = throughputAggregate.captureTime();
-            if (captureTime > request.from() && captureTime <= request.to()) {
-                transactionCount += throughputAggregate.transactionCount();
-            }
+        List<DataSeries> dataSeriesList = getDataSeriesForThroughputChart(
+                deltaFrom == 0 ? request.from() : deltaFrom, throughputAggregates,
+                dataPointIntervalMillis, liveCaptureTime);
+        if (deltaFrom == 0) {
+            DataSeriesDownsampler.downsample(dataSeriesList, request.maxPoints());
+        } else {
+            DataSeriesDownsampler.downsample(dataSeriesList,
+                    getDeltaMaxPoints(request, deltaFrom, dataPointIntervalMillis));
         }
+        Map<Long, Long> transactionCounts = getTransactionCounts3(throughputAggregates);
 
         StringBuilder sb = new StringBuilder();
         JsonGenerator jg = mapper.getFactory().createGenerator(CharStreams.asWriter(sb));
@@ -224,9 +380,28 @@ class TransactionJsonService {
             jg.writeStartObject();
             jg.writeObjectField("dataSeries", dataSeriesList);
             jg.writeNumberField("dataPointIntervalMillis", dataPointIntervalMillis);
-            jg.writeNumberField("transactionCount", transactionCount);
-            jg.writeNumberField("transactionsPerMin",
-                    60000.0 * transactionCount / (request.to() - request.from()));
+            jg.writeObjectField("transactionCounts", transactionCounts);
+            if (!throughputAggregates.isEmpty()) {
+                jg.writeNumberField("lastCaptureTime",
+                        Iterables.getLast(throughputAggregates).captureTime());
+            }
+            if (deltaFrom == 0) {
+                // TODO more precise aggregate when from/to not on rollup grid
+                long transactionCount = 0;
+                for (ThroughputAggregate throughputAggregate : throughputAggregates) {
+                    long captureTime = throughputAggregate.captureTime();
+                    if (captureTime > request.from() && captureTime <= request.to()) {
+                        transactionCount += throughputAggregate.transactionCount();
+                    }
+                }
+                jg.writeNumberField("transactionCount", transactionCount);
+                jg.writeNumberField("transactionsPerMin",
+                        60000.0 * transactionCount / (request.to() - request.from()));
+            } else {
+                // the client replaces its data points (and transaction counts) starting at
+                // deltaFrom, and then re-calculates the totals from its transaction counts
+                jg.writeNumberField("deltaFrom", deltaFrom);
+            }
             jg.writeEndObject();
         } finally {
             jg.close();
@@ -235,7 +410,7 @@ class TransactionJsonService {
     }
 
     @GET(path = "/backend/transaction/queries", permission = "agent:transaction:queries")
-    String getQueries(@BindAgentRollupId String agentRollupId,
+    Object getQueries(@BindAgentRollupId String agentRollupId,
             @BindRequest TransactionDataRequest request) throws Exception {
         AggregateQuery query = toQuery(request, DataKind.QUERY);
         QueryCollector queryCollector =
@@ -251,7 +426,7 @@ class TransactionJsonService {
                 queries = ImmutableList.of();
             }
         }
-        List<Query> queryList = Lists.newArrayList();
+        final List<Query> queryList = Lists.newArrayList();
         for (MutableQuery loopQuery : queries) {
             queryList.add(ImmutableQuery.builder()
                     .queryType(loopQuery.getType())
@@ -265,14 +440,12 @@ class TransactionJsonService {
         if (queryList.isEmpty() && aggregateRepository.shouldHaveQueries(agentRollupId, query)) {
             return "{\"overwritten\":true}";
         }
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = mapper.getFactory().createGenerator(CharStreams.asWriter(sb));
-        try {
-            jg.writeObject(queryList);
-        } finally {
-            jg.close();
-        }
-        return sb.toString();
+        return new JsonStreamer(mapper.getFactory()) {
+            @Override
+            protected void write(JsonGenerator jg) throws IOException {
+                jg.writeObject(queryList);
+            }
+        };
     }
 
     @GET(path = "/backend/transaction/full-query-text", permission = "agent:transaction:queries")
@@ -346,7 +519,7 @@ class TransactionJsonService {
     }
 
     @GET(path = "/backend/transaction/profile", permission = "agent:transaction:threadProfile")
-    String getProfile(@BindAgentRollupId String agentRollupId,
+    JsonStreamer getProfile(@BindAgentRollupId String agentRollupId,
             @BindRequest TransactionProfileRequest request) throws Exception {
         AggregateQuery query = toQuery(request, DataKind.PROFILE);
         ProfileCollector profileCollector =
@@ -365,8 +538,8 @@ class TransactionJsonService {
                 profile = new MutableProfile();
             }
         }
-        boolean hasUnfilteredMainThreadProfile;
-        boolean hasUnfilteredAuxThreadProfile;
+        final boolean hasUnfilteredMainThreadProfile;
+        final boolean hasUnfilteredAuxThreadProfile;
         if (request.auxiliary()) {
             hasUnfilteredMainThreadProfile =
                     transactionCommonService.hasMainThreadProfile(agentRollupId, query);
@@ -399,23 +572,25 @@ class TransactionJsonService {
                         transactionCommonService.hasAuxThreadProfile(agentRollupId, query);
             }
         }
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = mapper.getFactory().createGenerator(CharStreams.asWriter(sb));
-        try {
-            jg.writeStartObject();
-            jg.writeBooleanField("hasUnfilteredMainThreadProfile", hasUnfilteredMainThreadProfile);
-            jg.writeBooleanField("hasUnfilteredAuxThreadProfile", hasUnfilteredAuxThreadProfile);
-            if (profile.getUnfilteredSampleCount() == 0
-                    && isProfileOverwritten(request, agentRollupId, query)) {
-                jg.writeBooleanField("overwritten", true);
-            }
-            jg.writeFieldName("profile");
-            profile.writeJson(jg);
-            jg.writeEndObject();
-        } finally {
-            jg.close();
-        }
-        return sb.toString();
+        final boolean overwritten = profile.getUnfilteredSampleCount() == 0
+                && isProfileOverwritten(request, agentRollupId, query);
+        final MutableProfile finalProfile = profile;
+        return new JsonStreamer(mapper.getFactory()) {
+            @Override
+            protected void write(JsonGenerator jg) throws IOException {
+                jg.writeStartObject();
+                jg.writeBooleanField("hasUnfilteredMainThreadProfile",
+                        hasUnfilteredMainThreadProfile);
+                jg.writeBooleanField("hasUnfilteredAuxThreadProfile",
+                        hasUnfilteredAuxThreadProfile);
+                if (overwritten) {
+                    jg.writeBooleanField("overwritten", true);
+                }
+                jg.writeFieldName("profile");
+                finalProfile.writeJson(jg);
+                jg.writeEndObject();
+            }
+        };
     }
 
     @GET(path = "/backend/transaction/summaries", permission = "agent:transaction:overview")
@@ -663,7 +838,7 @@ class TransactionJsonService {
                 .build();
     }
 
-    private static List<DataSeries> getDataSeriesForThroughputChart(TransactionDataRequest request,
+    private static List<DataSeries> getDataSeriesForThroughputChart(long requestFrom,
             List<ThroughputAggregate> throughputAggregates, long dataPointIntervalMillis,
             long liveCaptureTime) {
         if (throughputAggregates.isEmpty()) {
@@ -677,7 +852,7 @@ class TransactionJsonService {
         for (ThroughputAggregate throughputAggregate : throughputAggregates) {
             if (priorThroughputAggregate == null) {
                 // first aggregate
-                dataSeriesHelper.addInitialUpslopeIfNeeded(request.from(),
+                dataSeriesHelper.addInitialUpslopeIfNeeded(requestFrom,
                         throughputAggregate.captureTime(), dataSeriesList, null);
             } else {
                 dataSeriesHelper.addGapIfNeeded(priorThroughputAggregate.captureTime(),
@@ -698,6 +873,24 @@ class TransactionJsonService {
         return dataSeriesList;
     }
 
+    // the delta is appended to the chart that the client already has, so it is downsampled to the
+    // same density of points as that chart (downsampling it to the chart's max points would leave
+    // the delta at full resolution)
+    private static @Nullable Integer getDeltaMaxPoints(TransactionDataRequest request,
+            long deltaFrom, long dataPointIntervalMillis) {
+        Integer maxPoints = request.maxPoints();
+        if (maxPoints == null) {
+            return null;
+        }
+        long chartPointCount = (request.to() - request.from()) / dataPointIntervalMillis;
+        if (chartPointCount <= maxPoints) {
+            // the chart was not downsampled, so neither is the delta
+            return maxPoints;
+        }
+        long deltaPointCount = (request.to() - deltaFrom) / dataPointIntervalMillis;
+        return (int) Math.ceil((double) deltaPointCount * maxPoints / chartPointCount);
+    }
+
     private static List<DataSeries> getDataSeriesForTimerChart(TransactionDataRequest request,
             List<OverviewAggregate> aggregates, long dataPointIntervalMillis,
             long liveCaptureTime) {
@@ -787,6 +980,16 @@ class TransactionJsonService {
         return transactionCounts;
     }
 
+    private static Map<Long, Long> getTransactionCounts3(
+            List<ThroughputAggregate> throughputAggregates) {
+        Map<Long, Long> transactionCounts = Maps.newHashMap();
+        for (ThroughputAggregate throughputAggregate : throughputAggregates) {
+            transactionCounts.put(throughputAggregate.captureTime(),
+                    throughputAggregate.transactionCount());
+        }
+        return transactionCounts;
+    }
+
     // calculate top 5 timers
     private static List<String> getTopTimerNames(List<StackedPoint> stackedPoints, int topX) {
         MutableDoubleMap<String> timerTotals = new MutableDoubleMap<String>();
@@ -816,6 +1019,53 @@ class TransactionJsonService {
         return timerNames;
     }
 
+    private static boolean isIncluded(TransactionPageRequest request, String part) {
+        return request.part().isEmpty() || request.part().contains(part);
+    }
+
+    private static String getUnchecked(Future<String> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // unwrap so that CommonHandler can handle the underlying exception (e.g.
+            // JsonServiceException) the same as it would from the individual endpoint
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    private abstract static class TimedPart implements Callable<String> {
+
+        private final String name;
+
+        private volatile long durationMicros;
+
+        private TimedPart(String name) {
+            this.name = name;
+        }
+
+        abstract String read() throws Exception;
+
+        @Override
+        public String call() throws Exception {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            try {
+                return read();
+            } finally {
+                durationMicros = stopwatch.elapsed(MICROSECONDS);
+            }
+        }
+
+        private void appendServerTiming(StringBuilder sb) {
+            sb.append(name);
+            sb.append(";dur=");
+            sb.append(durationMicros / 1000.0);
+        }
+    }
+
     private static class StackedPoint {
 
         private final OverviewAggregate overviewAggregate;
@@ -884,6 +1134,21 @@ class TransactionJsonService {
         }
     }
 
+    @Value.Immutable
+    interface TransactionPageRequest extends RequestBase {
+        // singular because this is used in query string, empty means all parts
+        ImmutableList<String> part();
+        // singular because this is used in query string
+        ImmutableList<Double> percentile();
+        SummarySortOrder summarySortOrder();
+        int summaryLimit();
+        @Nullable
+        Integer maxPoints();
+        // passed through to the throughput chart (see TransactionDataRequest)
+        @Nullable
+        Long sinceCaptureTime();
+    }
+
     @Value.Immutable
     interface TransactionSummaryRequest {
         String transactionType();
@@ -902,12 +1167,23 @@ class TransactionJsonService {
     }
 
     @Value.Immutable
-    interface TransactionDataRequest extends RequestBase {}
+    interface TransactionDataRequest extends RequestBase {
+        // optional limit on the number of points per chart data series (see DataSeriesDownsampler)
+        @Nullable
+        Integer maxPoints();
+        // optional capture time of the last data point that the client already has (from a prior
+        // response), in which case only newer data points (plus any revised data points for the
+        // last interval) are returned, currently only supported by the throughput chart
+        @Nullable
+        Long sinceCaptureTime();
+    }
 
     @Value.Immutable
     interface TransactionPercentileRequest extends RequestBase {
         // singular because this is used in query string
         ImmutableList<Double> percentile();
+        @Nullable
+        Integer maxPoints();
     }
 
     @Value.Immutable
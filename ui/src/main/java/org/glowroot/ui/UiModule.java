@@ -73,6 +73,7 @@ public class UiModule {
     private final @Nullable CommonHandler commonHandler;
 
     private final ExecutorService reportingExecutor;
+    private final ExecutorService transactionPageExecutor;
 
     @Builder.Factory
     public static UiModule createUiModule(
@@ -83,6 +84,7 @@ public class UiModule {
             @Nullable String bindAddress, // only used for central
             @Nullable Integer port, // only used for central
             @Nullable Boolean https, // only used for central
+            @Nullable Boolean http2, // only used for central
             @Nullable String contextPath, // only used for central
             List<File> confDirs,
             File logDir,
@@ -132,18 +134,38 @@ public class UiModule {
         ExecutorService reportingExecutor;
         if (central) {
             ThreadFactory threadFactory = new ThreadFactoryBuilder()
-                    .setNameFormat("Glowroot-UI-Report-Worker")
+                    .setNameFormat("Glowroot-UI-Report-Worker-%d")
                     .build();
-            reportingExecutor = new ThreadPoolExecutor(0, 10, 60, SECONDS,
+            // core pool size needs to be the same as max pool size, since with an unbounded queue,
+            // threads beyond the core pool size are never created
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(10, 10, 60, SECONDS,
                     new LinkedBlockingQueue<Runnable>(), threadFactory);
+            executor.allowCoreThreadTimeOut(true);
+            reportingExecutor = executor;
         } else {
             reportingExecutor = MoreExecutors.newDirectExecutorService();
         }
 
+        ExecutorService transactionPageExecutor;
+        if (central) {
+            ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                    .setNameFormat("Glowroot-UI-Transaction-Page-Worker-%d")
+                    .build();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(numWorkerThreads,
+                    numWorkerThreads, 60, SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    threadFactory);
+            executor.allowCoreThreadTimeOut(true);
+            transactionPageExecutor = executor;
+        } else {
+            // the embedded repository doesn't benefit from concurrent reads
+            transactionPageExecutor = MoreExecutors.newDirectExecutorService();
+        }
+
         List<Object> jsonServices = Lists.newArrayList();
         jsonServices.add(new LayoutJsonService(activeAgentRepository, layoutService));
         jsonServices.add(new TransactionJsonService(transactionCommonService, traceCommonService,
-                aggregateRepository, configRepository, rollupLevelService, clock));
+                aggregateRepository, configRepository, rollupLevelService, clock,
+                transactionPageExecutor));
         jsonServices.add(new TracePointJsonService(traceRepository, liveTraceRepository,
                 configRepository, ticker, clock));
         jsonServices.add(new TraceJsonService(traceCommonService));
@@ -157,7 +179,7 @@ public class UiModule {
                 agentDisplayRepository, configRepository, syntheticResultRepository, clock));
         jsonServices.add(new ReportJsonService(agentDisplayRepository, configRepository,
                 activeAgentRepository, transactionTypeRepository, aggregateRepository,
-                gaugeValueRepository, liveAggregateRepository, rollupLevelService,
+                gaugeValueRepository, liveAggregateRepository, rollupLevelService, clock,
                 reportingExecutor));
         jsonServices.add(new ConfigJsonService(transactionTypeRepository, gaugeValueRepository,
                 liveAggregateRepository, configRepository));
@@ -221,14 +243,14 @@ public class UiModule {
                 httpSessionManager, jsonServices, clock);
 
         if (servlet) {
-            return new UiModule(commonHandler, reportingExecutor);
+            return new UiModule(commonHandler, reportingExecutor, transactionPageExecutor);
         } else {
             HttpServer httpServer;
             int initialPort;
             if (central) {
                 httpServer = new HttpServer(checkNotNull(bindAddress), checkNotNull(https),
                         Suppliers.ofInstance(checkNotNull(contextPath)), numWorkerThreads,
-                        commonHandler, confDirs, central, offlineViewer);
+                        commonHandler, confDirs, central, checkNotNull(http2), offlineViewer);
                 initialPort = checkNotNull(port);
             } else {
                 final EmbeddedWebConfig initialWebConfig = configRepository.getEmbeddedWebConfig();
@@ -245,25 +267,29 @@ public class UiModule {
                 };
                 httpServer = new HttpServer(initialWebConfig.bindAddress(),
                         initialWebConfig.https(), contextPathSupplier, numWorkerThreads,
-                        commonHandler, confDirs, central, offlineViewer);
+                        commonHandler, confDirs, central, false, offlineViewer);
                 initialPort = initialWebConfig.port();
             }
             adminJsonService.setHttpServer(httpServer);
             httpServer.bindEventually(initialPort);
-            return new UiModule(httpServer, reportingExecutor);
+            return new UiModule(httpServer, reportingExecutor, transactionPageExecutor);
         }
     }
 
-    private UiModule(HttpServer httpServer, ExecutorService reportingExecutor) {
+    private UiModule(HttpServer httpServer, ExecutorService reportingExecutor,
+            ExecutorService transactionPageExecutor) {
         this.httpServer = httpServer;
         commonHandler = null;
         this.reportingExecutor = reportingExecutor;
+        this.transactionPageExecutor = transactionPageExecutor;
     }
 
-    private UiModule(CommonHandler commonHandler, ExecutorService reportingExecutor) {
+    private UiModule(CommonHandler commonHandler, ExecutorService reportingExecutor,
+            ExecutorService transactionPageExecutor) {
         this.commonHandler = commonHandler;
         httpServer = null;
         this.reportingExecutor = reportingExecutor;
+        this.transactionPageExecutor = transactionPageExecutor;
     }
 
     public CommonHandler getCommonHandler() {
@@ -278,6 +304,7 @@ public class UiModule {
         }
         if (!jvmTermination) {
             reportingExecutor.shutdown();
+            transactionPageExecutor.shutdown();
         }
     }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DataSeriesDownsamplerTest {
+
+    @Test
+    public void shouldNotDownsampleWhenUnderMaxPoints() {
+        // given
+        DataSeries dataSeries = createDataSeries(100);
+        // when
+        DataSeriesDownsampler.downsample(ImmutableList.of(dataSeries), 100);
+        // then
+        assertThat(dataSeries.getData()).hasSize(100);
+    }
+
+    @Test
+    public void shouldDownsampleAndKeepPeak() {
+        // given
+        DataSeries dataSeries = createDataSeries(10000);
+        dataSeries.getData().set(5001, new Number[] {5001L, 1000000.0});
+        // when
+        DataSeriesDownsampler.downsample(ImmutableList.of(dataSeries), 100);
+        // then
+        List<Number[]> data = dataSeries.getData();
+        assertThat(data.size()).isLessThanOrEqualTo(100);
+        assertThat(data.get(0)[0]).isEqualTo(0L);
+        assertThat(data.get(data.size() - 1)[0]).isEqualTo(9999L);
+        boolean foundPeak = false;
+        for (Number[] point : data) {
+            if (point[0].equals(5001L)) {
+                foundPeak = true;
+            }
+        }
+        assertThat(foundPeak).isTrue();
+    }
+
+    @Test
+    public void shouldPreserveGaps() {
+        // given
+        DataSeries dataSeries = new DataSeries("test");
+        for (int i = 0; i < 1000; i++) {
+            dataSeries.add(i, i % 7);
+        }
+        dataSeries.addNull();
+        for (int i = 2000; i < 3000; i++) {
+            dataSeries.add(i, i % 11);
+        }
+        // when
+        DataSeriesDownsampler.downsample(ImmutableList.of(dataSeries), 100);
+        // then
+        List<Number[]> data = dataSeries.getData();
+        assertThat(data.size()).isLessThanOrEqualTo(100);
+        int nullIndex = data.indexOf(null);
+        assertThat(nullIndex).isGreaterThan(0);
+        assertThat(data.get(nullIndex - 1)[0]).isEqualTo(999L);
+        assertThat(data.get(nullIndex + 1)[0]).isEqualTo(2000L);
+    }
+
+    @Test
+    public void shouldKeepSamePointsWhenDownsampledTogether() {
+        // given
+        DataSeries one = createDataSeries(1000);
+        DataSeries two = new DataSeries("two");
+        for (int i = 0; i < 1000; i++) {
+            two.add(i, 1000 - i % 13);
+        }
+        // when
+        DataSeriesDownsampler.downsampleTogether(ImmutableList.of(one, two), 50);
+        // then
+        assertThat(one.getData()).hasSameSizeAs(two.getData());
+        for (int i = 0; i < one.getData().size(); i++) {
+            assertThat(one.getData().get(i)[0]).isEqualTo(two.getData().get(i)[0]);
+        }
+    }
+
+    private static DataSeries createDataSeries(int size) {
+        DataSeries dataSeries = new DataSeries("test");
+        for (int i = 0; i < size; i++) {
+            dataSeries.add(i, Math.sin(i / 10.0));
+        }
+        return dataSeries;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.common2.config.RoleConfig.HasAnyPermission;
+import org.glowroot.common2.repo.ActiveAgentRepository;
+import org.glowroot.common2.repo.ActiveAgentRepository.AgentRollup;
+import org.glowroot.common2.repo.ImmutableAgentRollup;
+import org.glowroot.ui.HttpSessionManager.Authentication;
+import org.glowroot.ui.LayoutJsonService.ChildAgentRollupsRequest;
+import org.glowroot.ui.LayoutService.AgentRollupPermissionChecker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LayoutJsonServiceTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private LayoutJsonService layoutJsonService;
+    private List<String> permissionChecks;
+
+    @BeforeEach
+    public void beforeEach() throws Exception {
+        List<AgentRollup> childAgentRollups = ImmutableList.of(
+                agentRollup("abc-1", agentRollup("abc-1-x"), agentRollup("abc-1-y")),
+                agentRollup("abc-2"),
+                agentRollup("def", agentRollup("def-abc")),
+                agentRollup("ghi", agentRollup("ghi-1")));
+        ActiveAgentRepository activeAgentRepository = mock(ActiveAgentRepository.class);
+        when(activeAgentRepository.readActiveChildAgentRollups(eq("top"), anyLong(), anyLong()))
+                .thenReturn(childAgentRollups);
+        permissionChecks = Lists.newArrayList();
+        LayoutService layoutService = mock(LayoutService.class);
+        when(layoutService.getAgentRollupPermissionChecker(any(Authentication.class)))
+                .thenReturn(new AgentRollupPermissionChecker() {
+                    @Override
+                    public HasAnyPermission hasAnyPermission(String agentRollupId) {
+                        permissionChecks.add(agentRollupId);
+                        return HasAnyPermission.YES;
+                    }
+                });
+        layoutJsonService = new LayoutJsonService(activeAgentRepository, layoutService);
+    }
+
+    @Test
+    public void shouldLimitEachLevel() throws Exception {
+        // when
+        JsonNode responseNode = getChildAgentRollups("", 2);
+        // then
+        assertThat(getIds(responseNode)).containsExactly("0 abc-1", "1 abc-1-x", "1 abc-1-y",
+                "0 abc-2");
+        assertThat(responseNode.get("moreAvailable").asBoolean()).isTrue();
+        // the children of agent rollups past the limit are not filtered
+        assertThat(permissionChecks).doesNotContain("def-abc", "ghi-1");
+    }
+
+    @Test
+    public void shouldIncludeAncestorsOfMatches() throws Exception {
+        // when
+        JsonNode responseNode = getChildAgentRollups("ABC", 10);
+        // then
+        assertThat(getIds(responseNode)).containsExactly("0 abc-1", "1 abc-1-x", "1 abc-1-y",
+                "0 abc-2", "0 def", "1 def-abc");
+        assertThat(responseNode.get("moreAvailable").asBoolean()).isFalse();
+    }
+
+    @Test
+    public void shouldLimitSearchResults() throws Exception {
+        // when
+        JsonNode responseNode = getChildAgentRollups("abc", 1);
+        // then
+        assertThat(getIds(responseNode)).containsExactly("0 abc-1", "1 abc-1-x");
+        assertThat(responseNode.get("moreAvailable").asBoolean()).isTrue();
+    }
+
+    @Test
+    public void shouldNotReportMoreAvailableWhenNoMoreMatches() throws Exception {
+        // when
+        JsonNode responseNode = getChildAgentRollups("abc-2", 1);
+        // then
+        assertThat(getIds(responseNode)).containsExactly("0 abc-2");
+        assertThat(responseNode.get("moreAvailable").asBoolean()).isFalse();
+    }
+
+    private JsonNode getChildAgentRollups(String search, int limit) throws Exception {
+        ChildAgentRollupsRequest request = ImmutableChildAgentRollupsRequest.builder()
+                .topLevelId("top")
+                .from(0)
+                .to(1)
+                .search(search)
+                .limit(limit)
+                .build();
+        return mapper.readTree(
+                layoutJsonService.getChildAgentRollups(request, mock(Authentication.class)));
+    }
+
+    private static List<String> getIds(JsonNode responseNode) {
+        List<String> ids = Lists.newArrayList();
+        for (JsonNode agentRollupNode : responseNode.get("agentRollups")) {
+            ids.add(agentRollupNode.get("depth").asInt() + " "
+                    + agentRollupNode.get("id").asText());
+        }
+        return ids;
+    }
+
+    private static AgentRollup agentRollup(String id, AgentRollup... children) {
+        return ImmutableAgentRollup.builder()
+                .id(id)
+                .display(id)
+                .lastDisplayPart(id)
+                .addChildren(children)
+                .build();
+    }
+}
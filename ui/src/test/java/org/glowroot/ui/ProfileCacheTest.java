@@ -0,0 +1,140 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.assertj.core.api.ThrowableAssert.ThrowingCallable;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.common.live.ImmutableAggregateQuery;
+import org.glowroot.common.live.LiveAggregateRepository.AggregateQuery;
+import org.glowroot.common.model.MutableProfile;
+import org.glowroot.common.model.ProfileCollector;
+import org.glowroot.ui.ProfileCache.ProfileReader;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ProfileCacheTest {
+
+    private static final long TO = HOURS.toMillis(10);
+
+    private static final AggregateQuery QUERY = ImmutableAggregateQuery.builder()
+            .transactionType("Web")
+            .from(TO - HOURS.toMillis(1))
+            .to(TO)
+            .rollupLevel(1)
+            .build();
+
+    @Test
+    public void shouldReuseClosedRange() throws Exception {
+        // given
+        ProfileCache profileCache = new ProfileCache();
+        CountingReader reader = new CountingReader();
+        long currentTimeMillis = TO + HOURS.toMillis(2);
+        profileCache.read("a", QUERY, false, currentTimeMillis, reader);
+        // when
+        ProfileCollector profileCollector = profileCache.read("a", QUERY, false,
+                currentTimeMillis + HOURS.toMillis(1), reader);
+        // then
+        assertThat(reader.readCount).isEqualTo(1);
+        assertThat(profileCollector.getProfile().getSampleCount()).isEqualTo(1);
+        assertThat(profileCollector.getLastCaptureTime()).isEqualTo(TO);
+    }
+
+    @Test
+    public void shouldReturnReadOnlyCachedProfile() throws Exception {
+        // given
+        ProfileCache profileCache = new ProfileCache();
+        CountingReader reader = new CountingReader();
+        long currentTimeMillis = TO + HOURS.toMillis(2);
+        final MutableProfile profile =
+                profileCache.read("a", QUERY, false, currentTimeMillis, reader).getProfile();
+        profile.copy().filter(ImmutableList.of("Nope"), ImmutableList.<String>of());
+        // when
+        ProfileCollector profileCollector =
+                profileCache.read("a", QUERY, false, currentTimeMillis, reader);
+        // then
+        assertThat(reader.readCount).isEqualTo(1);
+        assertThat(profileCollector.getProfile()).isSameAs(profile);
+        assertThat(profile.getSampleCount()).isEqualTo(1);
+        assertThatThrownBy(new ThrowingCallable() {
+            @Override
+            public void call() throws Throwable {
+                profile.filter(ImmutableList.of("Nope"), ImmutableList.<String>of());
+            }
+        }).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void shouldReuseOpenRangeBriefly() throws Exception {
+        // given
+        ProfileCache profileCache = new ProfileCache();
+        CountingReader reader = new CountingReader();
+        profileCache.read("a", QUERY, false, TO, reader);
+        // when
+        profileCache.read("a", QUERY, false, TO + SECONDS.toMillis(10), reader);
+        // then
+        assertThat(reader.readCount).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldExpireOpenRange() throws Exception {
+        // given
+        ProfileCache profileCache = new ProfileCache();
+        CountingReader reader = new CountingReader();
+        profileCache.read("a", QUERY, false, TO, reader);
+        // when
+        profileCache.read("a", QUERY, false, TO + SECONDS.toMillis(31), reader);
+        profileCache.read("a", QUERY, false, TO + SECONDS.toMillis(41), reader);
+        // then
+        assertThat(reader.readCount).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotShareAcrossKeys() throws Exception {
+        // given
+        ProfileCache profileCache = new ProfileCache();
+        CountingReader reader = new CountingReader();
+        long currentTimeMillis = TO + HOURS.toMillis(2);
+        profileCache.read("a", QUERY, false, currentTimeMillis, reader);
+        // when
+        profileCache.read("a", QUERY, true, currentTimeMillis, reader);
+        profileCache.read("b", QUERY, false, currentTimeMillis, reader);
+        // then
+        assertThat(reader.readCount).isEqualTo(3);
+    }
+
+    private static class CountingReader implements ProfileReader {
+
+        private int readCount;
+
+        @Override
+        public ProfileCollector read(String agentRollupId, AggregateQuery query,
+                boolean auxiliary) {
+            readCount++;
+            MutableProfile profile = new MutableProfile();
+            profile.merge(Lists.newArrayList(
+                    new StackTraceElement("aa.bb.cc.Def", "ghi", "Def.java", 123),
+                    new StackTraceElement("xx.yy.zz.Main", "main", "Main.java", 789)),
+                    Thread.State.RUNNABLE);
+            return new ProfileCollector(profile, query.to());
+        }
+    }
+}
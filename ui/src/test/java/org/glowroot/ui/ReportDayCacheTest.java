@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.ui.ReportDayCache.DayRangeReader;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReportDayCacheTest {
+
+    private static final List<String> SERIES_KEY = ImmutableList.of("series");
+
+    // three days: (0, 10], (10, 20], (20, 30]
+    private static final List<Long> DAY_BOUNDARIES = ImmutableList.of(0L, 10L, 20L, 30L);
+
+    @Test
+    public void shouldOnlyReadDaysNotClosed() throws Exception {
+        // given
+        ReportDayCache dayCache = new ReportDayCache();
+        RecordingReader reader = new RecordingReader();
+        dayCache.read(SERIES_KEY, DAY_BOUNDARIES, 20, reader);
+        // when
+        List<Long> items = dayCache.read(SERIES_KEY, DAY_BOUNDARIES, 20, reader);
+        // then
+        assertThat(items).containsExactly(5L, 10L, 15L, 20L, 25L, 30L);
+        assertThat(reader.reads).containsExactly("0-30", "20-30");
+    }
+
+    @Test
+    public void shouldReadAllWhenNoDaysClosed() throws Exception {
+        // given
+        ReportDayCache dayCache = new ReportDayCache();
+        RecordingReader reader = new RecordingReader();
+        dayCache.read(SERIES_KEY, DAY_BOUNDARIES, 5, reader);
+        // when
+        List<Long> items = dayCache.read(SERIES_KEY, DAY_BOUNDARIES, 5, reader);
+        // then
+        assertThat(items).containsExactly(5L, 10L, 15L, 20L, 25L, 30L);
+        assertThat(reader.reads).containsExactly("0-30", "0-30");
+    }
+
+    @Test
+    public void shouldCacheEmptyDays() throws Exception {
+        // given
+        ReportDayCache dayCache = new ReportDayCache();
+        RecordingReader reader = new RecordingReader();
+        reader.captureTimes = ImmutableList.of(25L);
+        dayCache.read(SERIES_KEY, DAY_BOUNDARIES, 20, reader);
+        // when
+        List<Long> items = dayCache.read(SERIES_KEY, DAY_BOUNDARIES, 20, reader);
+        // then
+        assertThat(items).containsExactly(25L);
+        assertThat(reader.reads).containsExactly("0-30", "20-30");
+    }
+
+    private static class RecordingReader implements DayRangeReader<Long> {
+
+        private List<Long> captureTimes = ImmutableList.of(5L, 10L, 15L, 20L, 25L, 30L);
+        private final List<String> reads = Lists.newArrayList();
+
+        @Override
+        public List<Long> read(long from, long to) {
+            reads.add(from + "-" + to);
+            List<Long> items = Lists.newArrayList();
+            for (long captureTime : captureTimes) {
+                if (captureTime > from && captureTime <= to) {
+                    items.add(captureTime);
+                }
+            }
+            return items;
+        }
+
+        @Override
+        public long getCaptureTime(Long item) {
+            return item;
+        }
+    }
+}
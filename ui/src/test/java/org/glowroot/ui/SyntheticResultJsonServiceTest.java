@@ -0,0 +1,119 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.common.util.Clock;
+import org.glowroot.common2.repo.ConfigRepository;
+import org.glowroot.common2.repo.ImmutableRollupConfig;
+import org.glowroot.common2.repo.ImmutableSyntheticResult;
+import org.glowroot.common2.repo.SyntheticResult;
+import org.glowroot.common2.repo.SyntheticResultRepository;
+import org.glowroot.common2.repo.util.RollupLevelService;
+import org.glowroot.common2.repo.util.RollupLevelService.DataKind;
+import org.glowroot.ui.SyntheticResultJsonService.SyntheticResultRequest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SyntheticResultJsonServiceTest {
+
+    private static final int RESULT_COUNT = 1000;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private SyntheticResultJsonService syntheticResultJsonService;
+
+    @BeforeEach
+    public void beforeEach() throws Exception {
+        SyntheticResultRepository syntheticResultRepository =
+                mock(SyntheticResultRepository.class);
+        when(syntheticResultRepository.getSyntheticMonitorIds(anyString(), anyLong(),
+                anyLong())).thenReturn(ImmutableMap.of("abc", "Abc"));
+        List<SyntheticResult> syntheticResults = Lists.newArrayList();
+        for (int i = 0; i < RESULT_COUNT; i++) {
+            syntheticResults.add(ImmutableSyntheticResult.builder()
+                    .captureTime(60000L * i)
+                    .totalDurationNanos(1000000.0 * (i % 17))
+                    .executionCount(1)
+                    .build());
+        }
+        when(syntheticResultRepository.readSyntheticResults(anyString(), eq("abc"), anyLong(),
+                anyLong(), eq(0))).thenReturn(syntheticResults);
+        RollupLevelService rollupLevelService = mock(RollupLevelService.class);
+        when(rollupLevelService.getRollupLevelForView(anyLong(), anyLong(), any(DataKind.class)))
+                .thenReturn(0);
+        ConfigRepository configRepository = mock(ConfigRepository.class);
+        when(configRepository.getRollupConfigs())
+                .thenReturn(ImmutableList.of(ImmutableRollupConfig.of(60000, 0)));
+        syntheticResultJsonService = new SyntheticResultJsonService(syntheticResultRepository,
+                rollupLevelService, configRepository, Clock.systemClock());
+    }
+
+    @Test
+    public void shouldReturnAllPointsWithoutMaxPoints() throws Exception {
+        // when
+        JsonNode responseNode = getSyntheticResults(ImmutableMap.of("from", "0", "to",
+                Long.toString(60000L * RESULT_COUNT), "synthetic-monitor-id", "abc"));
+        // then
+        assertThat(responseNode.get("dataSeries").get(0).get("data")).hasSize(RESULT_COUNT);
+    }
+
+    @Test
+    public void shouldDownsampleWithMaxPoints() throws Exception {
+        // when
+        JsonNode responseNode = getSyntheticResults(ImmutableMap.of("from", "0", "to",
+                Long.toString(60000L * RESULT_COUNT), "synthetic-monitor-id", "abc",
+                "max-points", "100"));
+        // then
+        JsonNode dataNode = responseNode.get("dataSeries").get(0).get("data");
+        assertThat(dataNode.size()).isLessThanOrEqualTo(100);
+        assertThat(dataNode.get(0).get(0).asLong()).isEqualTo(0);
+        assertThat(dataNode.get(dataNode.size() - 1).get(0).asLong())
+                .isEqualTo(60000L * (RESULT_COUNT - 1));
+        // the execution counts are still available for every point that is kept
+        JsonNode executionCountsNode = responseNode.get("executionCounts").get(0);
+        for (JsonNode pointNode : dataNode) {
+            assertThat(executionCountsNode.get(pointNode.get(0).asText()).asLong()).isEqualTo(1);
+        }
+    }
+
+    private JsonNode getSyntheticResults(Map<String, String> queryParameters) throws Exception {
+        Map<String, List<String>> params = Maps.newHashMap();
+        for (Map.Entry<String, String> entry : queryParameters.entrySet()) {
+            params.put(entry.getKey(), ImmutableList.of(entry.getValue()));
+        }
+        // decode the same way as the actual query string (which rejects unexpected attributes)
+        SyntheticResultRequest request = QueryStrings.decode(params, SyntheticResultRequest.class);
+        return mapper.readTree(syntheticResultJsonService.getSyntheticResults("", request));
+    }
+}
@@ -15,14 +15,31 @@
  */
 package org.glowroot.ui;
 
+import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
 
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Lists;
+import com.google.common.io.CharStreams;
+import org.assertj.core.api.ThrowableAssert.ThrowingCallable;
 import org.junit.jupiter.api.Test;
 
+import org.glowroot.common.live.LiveTraceRepository;
+import org.glowroot.common.live.LiveTraceRepository.Existence;
+import org.glowroot.common2.repo.AgentDisplayRepository;
+import org.glowroot.common2.repo.ImmutableHeaderPlus;
+import org.glowroot.common2.repo.TraceRepository;
+import org.glowroot.ui.ChunkSource.ChunkCopier;
+import org.glowroot.ui.TraceCommonService.TraceExport;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class TraceCommonServiceTest {
 
@@ -39,4 +56,101 @@ public class TraceCommonServiceTest {
                 + "\"childEntries\":[{\"startOffsetNanos\":0,\"durationNanos\":0,\"message\":\"\"}]"
                 + "}]");
     }
+
+    @Test
+    public void shouldWriteEntriesAcrossChunks() throws Exception {
+        // given
+        List<Trace.Entry> entries = Lists.newArrayList();
+        StringBuilder expected = new StringBuilder("[");
+        for (int i = 0; i < 250; i++) {
+            entries.add(Trace.Entry.newBuilder().setDepth(0).build());
+            entries.add(Trace.Entry.newBuilder().setDepth(1).build());
+            if (i > 0) {
+                expected.append(",");
+            }
+            expected.append("{\"startOffsetNanos\":0,\"durationNanos\":0,\"message\":\"\","
+                    + "\"childEntries\":[{\"startOffsetNanos\":0,\"durationNanos\":0,"
+                    + "\"message\":\"\"}]}");
+        }
+        expected.append("]");
+        // when
+        String json = TraceCommonService.entriesToJson(entries);
+        // then
+        assertThat(json).isEqualTo(expected.toString());
+    }
+
+    @Test
+    public void shouldWriteNothingForNoEntries() throws Exception {
+        // when
+        String json = TraceCommonService.entriesToJson(Lists.<Trace.Entry>newArrayList());
+        // then
+        assertThat(json).isEmpty();
+    }
+
+    @Test
+    public void shouldReadStoredEntriesForExportOnlyWhenWritten() throws Exception {
+        // given
+        TraceRepository traceRepository = mockTraceRepository();
+        List<Trace.Entry> entries = Lists.newArrayList();
+        entries.add(Trace.Entry.newBuilder().setDepth(0).build());
+        when(traceRepository.readEntriesForExport("", "abc")).thenReturn(entries.iterator());
+        TraceCommonService traceCommonService = new TraceCommonService(traceRepository,
+                mock(LiveTraceRepository.class), mock(AgentDisplayRepository.class));
+        // when
+        TraceExport traceExport = traceCommonService.getExport("", "abc", false);
+        // then
+        verify(traceRepository, never()).readEntriesForExport("", "abc");
+        assertThat(copy(traceExport.entriesJson())).isEqualTo(
+                "[{\"startOffsetNanos\":0,\"durationNanos\":0,\"message\":\"\"}]");
+    }
+
+    @Test
+    public void shouldFailExportWhenReadingStoredEntriesFails() throws Exception {
+        // given
+        TraceRepository traceRepository = mockTraceRepository();
+        Iterator<Trace.Entry> entries = new AbstractIterator<Trace.Entry>() {
+            private int count;
+            @Override
+            protected Trace.Entry computeNext() {
+                if (count++ < 150) {
+                    return Trace.Entry.newBuilder().setDepth(0).build();
+                }
+                throw new IllegalStateException("storage failure");
+            }
+        };
+        when(traceRepository.readEntriesForExport("", "abc")).thenReturn(entries);
+        TraceCommonService traceCommonService = new TraceCommonService(traceRepository,
+                mock(LiveTraceRepository.class), mock(AgentDisplayRepository.class));
+        final TraceExport traceExport = traceCommonService.getExport("", "abc", false);
+        // when, then
+        // the failure must not look like the end of the entries, since the response (which has
+        // already started) is only aborted on exception, see HttpServerHandler
+        assertThatThrownBy(new ThrowingCallable() {
+            @Override
+            public void call() throws Throwable {
+                copy(traceExport.entriesJson());
+            }
+        }).hasRootCauseMessage("storage failure");
+    }
+
+    private static TraceRepository mockTraceRepository() throws Exception {
+        TraceRepository traceRepository = mock(TraceRepository.class);
+        when(traceRepository.readHeaderPlus("", "abc")).thenReturn(ImmutableHeaderPlus.builder()
+                .header(Trace.Header.newBuilder()
+                        .setEntryCount(1)
+                        .build())
+                .entriesExistence(Existence.YES)
+                .queriesExistence(Existence.NO)
+                .profileExistence(Existence.NO)
+                .build());
+        return traceRepository;
+    }
+
+    private static String copy(ChunkSource chunkSource) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        ChunkCopier copier = chunkSource.getCopier(CharStreams.asWriter(sb));
+        while (copier.copyNext()) {
+        }
+        return sb.toString();
+    }
 }
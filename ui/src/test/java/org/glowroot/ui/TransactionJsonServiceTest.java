@@ -0,0 +1,206 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.assertj.core.api.ThrowableAssert.ThrowingCallable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.glowroot.common.live.ImmutableThroughputAggregate;
+import org.glowroot.common.live.LiveAggregateRepository.AggregateQuery;
+import org.glowroot.common.live.LiveAggregateRepository.OverviewAggregate;
+import org.glowroot.common.live.LiveAggregateRepository.SummaryQuery;
+import org.glowroot.common.live.LiveAggregateRepository.ThroughputAggregate;
+import org.glowroot.common.model.OverallSummaryCollector;
+import org.glowroot.common.model.Result;
+import org.glowroot.common.model.TransactionNameSummaryCollector.SummarySortOrder;
+import org.glowroot.common.model.TransactionNameSummaryCollector.TransactionNameSummary;
+import org.glowroot.common.util.Clock;
+import org.glowroot.common2.repo.AggregateRepository;
+import org.glowroot.common2.repo.ConfigRepository;
+import org.glowroot.common2.repo.ImmutableRollupConfig;
+import org.glowroot.common2.repo.util.RollupLevelService;
+import org.glowroot.ui.CommonHandler.CommonResponse;
+import org.glowroot.ui.TransactionJsonService.TransactionDataRequest;
+import org.glowroot.ui.TransactionJsonService.TransactionPageRequest;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TransactionJsonServiceTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private TransactionCommonService transactionCommonService;
+    private ExecutorService executor;
+    private TransactionJsonService transactionJsonService;
+
+    @BeforeEach
+    public void beforeEach() {
+        transactionCommonService = mock(TransactionCommonService.class);
+        ConfigRepository configRepository = mock(ConfigRepository.class);
+        // single rollup level so that there is no fall back to largest aggregates
+        when(configRepository.getRollupConfigs())
+                .thenReturn(ImmutableList.of(ImmutableRollupConfig.of(60000, 0)));
+        executor = Executors.newCachedThreadPool();
+        transactionJsonService = new TransactionJsonService(transactionCommonService,
+                mock(TraceCommonService.class), mock(AggregateRepository.class), configRepository,
+                mock(RollupLevelService.class), Clock.systemClock(), executor);
+    }
+
+    @AfterEach
+    public void afterEach() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldReturnOnlyRequestedParts() throws Exception {
+        // given
+        when(transactionCommonService.readOverallSummary(anyString(), any(SummaryQuery.class),
+                anyBoolean())).thenReturn(new OverallSummaryCollector());
+        when(transactionCommonService.readTransactionNameSummaries(anyString(),
+                any(SummaryQuery.class), any(SummarySortOrder.class), anyInt(), anyBoolean()))
+                        .thenReturn(Result.create(ImmutableList.<TransactionNameSummary>of(), 10));
+        // when
+        CommonResponse response = transactionJsonService.getPage("", pageRequest("summaries"),
+                false);
+        // then
+        assertThat((String) response.getContent()).startsWith("{\"summaries\":{\"overall\":");
+        assertThat(response.getHeaders().get("Server-Timing")).startsWith("summaries;dur=");
+        verify(transactionCommonService, never()).getOverviewAggregates(anyString(),
+                any(AggregateQuery.class), anyBoolean());
+    }
+
+    @Test
+    public void shouldCancelOutstandingPartsOnFailure() throws Exception {
+        // given
+        final CountDownLatch averageStarted = new CountDownLatch(1);
+        final CountDownLatch averageInterrupted = new CountDownLatch(1);
+        when(transactionCommonService.getOverviewAggregates(anyString(), any(AggregateQuery.class),
+                anyBoolean())).thenAnswer(new Answer<List<OverviewAggregate>>() {
+                    @Override
+                    public List<OverviewAggregate> answer(InvocationOnMock invocation) {
+                        averageStarted.countDown();
+                        try {
+                            Thread.sleep(SECONDS.toMillis(60));
+                        } catch (InterruptedException e) {
+                            averageInterrupted.countDown();
+                        }
+                        return ImmutableList.of();
+                    }
+                });
+        // the summaries part is performed on the calling thread
+        when(transactionCommonService.readOverallSummary(anyString(), any(SummaryQuery.class),
+                anyBoolean())).thenAnswer(new Answer<OverallSummaryCollector>() {
+                    @Override
+                    public OverallSummaryCollector answer(InvocationOnMock invocation)
+                            throws Exception {
+                        averageStarted.await(10, SECONDS);
+                        throw new IllegalStateException("summaries failed");
+                    }
+                });
+        // when
+        assertThatThrownBy(new ThrowingCallable() {
+            @Override
+            public void call() throws Throwable {
+                transactionJsonService.getPage("", pageRequest("average", "summaries"), false);
+            }
+        }).isInstanceOf(IllegalStateException.class).hasMessage("summaries failed");
+        // then
+        assertThat(averageInterrupted.await(10, SECONDS)).isTrue();
+    }
+
+    @Test
+    public void shouldDownsampleThroughputDeltaToChartDensity() throws Exception {
+        // given
+        when(transactionCommonService.getThroughputAggregates(anyString(),
+                any(AggregateQuery.class), anyBoolean()))
+                        .thenAnswer(new Answer<List<ThroughputAggregate>>() {
+                            @Override
+                            public List<ThroughputAggregate> answer(InvocationOnMock invocation) {
+                                AggregateQuery query = invocation.getArgument(1);
+                                return throughputAggregates(query.from(), query.to());
+                            }
+                        });
+        TransactionDataRequest chartRequest = ImmutableTransactionDataRequest.builder()
+                .transactionType("Web")
+                .from(0)
+                .to(60000L * 1000)
+                .maxPoints(100)
+                .build();
+        TransactionDataRequest deltaRequest = ImmutableTransactionDataRequest.builder()
+                .copyFrom(chartRequest)
+                .sinceCaptureTime(60000L * 900)
+                .build();
+        // when
+        JsonNode chartNode =
+                mapper.readTree(transactionJsonService.getThroughput("", chartRequest, false));
+        JsonNode deltaNode =
+                mapper.readTree(transactionJsonService.getThroughput("", deltaRequest, false));
+        // then
+        // the chart has 1000 one minute data points, which are downsampled to 100 points (one per
+        // 10 minutes), and the delta (the last ~100 minutes) is downsampled to the same density
+        assertThat(chartNode.get("dataSeries").get(0).get("data").size())
+                .isLessThanOrEqualTo(100);
+        JsonNode deltaDataNode = deltaNode.get("dataSeries").get(0).get("data");
+        assertThat(deltaDataNode.size()).isLessThanOrEqualTo(11);
+        assertThat(deltaNode.get("lastCaptureTime").asLong())
+                .isEqualTo(chartNode.get("lastCaptureTime").asLong());
+    }
+
+    private static List<ThroughputAggregate> throughputAggregates(long from, long to) {
+        List<ThroughputAggregate> throughputAggregates = Lists.newArrayList();
+        for (long captureTime = from + 60000; captureTime <= to; captureTime += 60000) {
+            throughputAggregates.add(ImmutableThroughputAggregate.builder()
+                    .captureTime(captureTime)
+                    .transactionCount(1 + captureTime / 60000 % 17)
+                    .build());
+        }
+        return throughputAggregates;
+    }
+
+    private static TransactionPageRequest pageRequest(String... parts) {
+        return ImmutableTransactionPageRequest.builder()
+                .transactionType("Web")
+                .from(0)
+                .to(SECONDS.toMillis(3600))
+                .addPart(parts)
+                .summarySortOrder(SummarySortOrder.TOTAL_TIME)
+                .summaryLimit(10)
+                .build();
+    }
+}